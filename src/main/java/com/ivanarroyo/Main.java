@@ -8,18 +8,58 @@ import com.ivanarroyo.commands.CommitCommand;
 import com.ivanarroyo.commands.BranchCommand;
 import com.ivanarroyo.commands.CheckoutCommand;
 import com.ivanarroyo.commands.StashCommand;
+import com.ivanarroyo.commands.CommitGraphCommand;
+import com.ivanarroyo.commands.LogCommand;
+import com.ivanarroyo.commands.BitmapCommand;
+import com.ivanarroyo.commands.RevListCommand;
+import com.ivanarroyo.commands.MergeBaseCommand;
+import com.ivanarroyo.commands.MergeCommand;
+import com.ivanarroyo.commands.DiffCommand;
+import com.ivanarroyo.commands.FsckCommand;
+import com.ivanarroyo.commands.GcCommand;
+import com.ivanarroyo.commands.MaintenanceCommand;
+import com.ivanarroyo.commands.PackRefsCommand;
+import com.ivanarroyo.commands.ReflogCommand;
+import com.ivanarroyo.commands.DaemonCommand;
+import com.ivanarroyo.commands.BatchCommand;
+import com.ivanarroyo.commands.CatFileCommand;
+import com.ivanarroyo.commands.FastImportCommand;
+import com.ivanarroyo.commands.FastExportCommand;
+import com.ivanarroyo.core.Maintenance;
 import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.daemon.DaemonClient;
+
+import java.util.List;
+import java.util.Set;
 
 public class Main {
+    // Commands that write objects, after which background maintenance may be due
+    private static final Set<String> WRITING_COMMANDS = Set.of("add", "commit", "checkout", "stash", "merge", "batch", "fast-import");
+    // Never sent to the daemon: the daemon command itself, and commands reading this process's stdin
+    private static final Set<String> LOCAL_COMMANDS = Set.of("daemon", "batch", "fast-import");
+
     public static void main(String[] args) {
         if(args.length == 0) {
             System.out.println("Usage: opipop <command>");
             return;
         }
 
-        String cmd = args[0];
+        // A running daemon saves this JVM the work; without one the command runs here
+        Integer status = runsLocally(args) ? null : DaemonClient.forward(args);
+        if (status == null) {
+            status = run(new ObjectStore(".opipop"), args) ? 0 : 1;
+        }
+        System.exit(status);
+    }
 
-        ObjectStore store = new ObjectStore(".opipop");
+    private static boolean runsLocally(String[] args) {
+        return LOCAL_COMMANDS.contains(args[0])
+                || (args[0].equals("cat-file") && args.length > 1 && args[1].startsWith("--batch"));
+    }
+
+    // Runs one command against the store. Returns false if the command is unknown or failed.
+    public static boolean run(ObjectStore store, String[] args) {
+        String cmd = args[0];
 
         Command command;
         switch(cmd) {
@@ -29,9 +69,75 @@ public class Main {
             case "add":
                 command = new AddCommand(store);
                 break;
+            case "status":
+                command = new StatusCommand(store);
+                break;
+            case "commit":
+                command = new CommitCommand(store);
+                break;
+            case "log":
+                command = new LogCommand(store);
+                break;
+            case "branch":
+                command = new BranchCommand(store);
+                break;
+            case "checkout":
+                command = new CheckoutCommand(store);
+                break;
+            case "stash":
+                command = new StashCommand(store);
+                break;
+            case "commit-graph":
+                command = new CommitGraphCommand(store);
+                break;
+            case "bitmap":
+                command = new BitmapCommand(store);
+                break;
+            case "rev-list":
+                command = new RevListCommand(store);
+                break;
+            case "merge":
+                command = new MergeCommand(store);
+                break;
+            case "merge-base":
+                command = new MergeBaseCommand(store);
+                break;
+            case "diff":
+                command = new DiffCommand(store);
+                break;
+            case "fsck":
+                command = new FsckCommand(store);
+                break;
+            case "gc":
+                command = new GcCommand(store);
+                break;
+            case "maintenance":
+                command = new MaintenanceCommand(store);
+                break;
+            case "pack-refs":
+                command = new PackRefsCommand(store);
+                break;
+            case "reflog":
+                command = new ReflogCommand(store);
+                break;
+            case "daemon":
+                command = new DaemonCommand();
+                break;
+            case "batch":
+                command = new BatchCommand(store, System.in);
+                break;
+            case "cat-file":
+                command = new CatFileCommand(store, System.in);
+                break;
+            case "fast-import":
+                command = new FastImportCommand(store, System.in);
+                break;
+            case "fast-export":
+                command = new FastExportCommand(store);
+                break;
             default:
                 System.out.println("Unknown command: " + cmd);
-                return;
+                return false;
         }
 
         String[] commandArgs = new String[Math.max(0, args.length - 1)];
@@ -44,6 +150,28 @@ public class Main {
         } catch (Exception e) {
             System.out.println("Error executing command: " + e.getMessage());
             e.printStackTrace(System.err);
+            return false;
+        }
+
+        if (WRITING_COMMANDS.contains(cmd)) {
+            scheduleMaintenance(store);
+        }
+        return true;
+    }
+
+    // Maintenance is best effort; a failure here must never fail the command that just ran
+    private static void scheduleMaintenance(ObjectStore store) {
+        if (!store.getRepoDir().isDirectory() || store.getConfig().get("maintenance.auto", "true").equals("false")) {
+            return;
+        }
+        try {
+            Maintenance maintenance = new Maintenance(store);
+            List<Maintenance.Task> due = maintenance.afterCommand();
+            if (!due.isEmpty()) {
+                maintenance.startBackground();
+            }
+        } catch (Exception e) {
+            System.err.println("warning: could not schedule maintenance: " + e.getMessage());
         }
     }
 }
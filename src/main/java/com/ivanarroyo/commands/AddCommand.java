@@ -1,17 +1,18 @@
 package com.ivanarroyo.commands;
 
-import com.ivanarroyo.core.Index;
 import com.ivanarroyo.core.ObjectStore;
-import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.core.Repository;
 
 import java.io.File;
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class AddCommand implements Command {
-    private final ObjectStore store; 
+    private final ObjectStore store;
 
     public AddCommand(ObjectStore store) {
         this.store = store;
@@ -24,45 +25,36 @@ public class AddCommand implements Command {
             return;
         }
 
-        Index index = new Index(store.getIndexFile());
-        
+        // Argument -> path relative to the work tree; the others get their error printed in order
+        Path workTree = store.getWorkTree().toPath();
+        Map<String, String> paths = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        List<String> valid = new ArrayList<>();
         for (String arg : args) {
-            addFile(arg);
-        }
-        
-        index.save();
-    }
-
-    private void addFile(String filePath) throws IOException {
-        Path path = Path.of(filePath);
-        path = path.toAbsolutePath().normalize();
-        if (!Files.exists(path) || !Files.isRegularFile(path)) {
-            System.out.println("File not found: " + filePath);
-            return;
-        }
-
-        byte[] content = Files.readAllBytes(path);
-        String hash = HashUtils.sha1(content);
-        File objectFile = store.getObjectFile(hash);
-        if (objectFile.exists()) {
-            System.out.println("File already added: " + filePath);
-            return;
+            Path path = workTree.resolve(arg).normalize();
+            if (!Files.exists(path) || !Files.isRegularFile(path)) {
+                errors.put(arg, "File not found: " + arg);
+            } else if (!path.startsWith(workTree)) {
+                errors.put(arg, "File is outside repository: " + arg);
+            } else {
+                String relativePath = workTree.relativize(path).toString().replace(File.separatorChar, '/');
+                paths.put(arg, relativePath);
+                valid.add(relativePath);
+            }
         }
 
-        objectFile.getParentFile().mkdirs();
-
-        Path tmp = Files.createTempFile(objectFile.getParentFile().toPath(), "opipop-obj-", ".tmp");
-        try {
-            Files.write(tmp, content);
-            Files.move(tmp, objectFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        } finally {
-            try {
-                Files.deleteIfExists(tmp);
-            } catch (IOException e) {
-                // Ignore
+        // Staged by the shared Repository, under the lock commit, checkout and merge also take
+        Repository repository = Repository.open(store);
+        Map<String, String> added = valid.isEmpty() ? Map.of() : repository.add(valid.toArray(new String[0]));
+        for (String arg : args) {
+            String relativePath = paths.get(arg);
+            if (relativePath == null) {
+                System.out.println(errors.get(arg));
+            } else if (added.containsKey(relativePath)) {
+                System.out.println("Added file: " + arg + " (hash: " + added.get(relativePath) + ")");
+            } else {
+                System.out.println("File already added: " + arg);
             }
         }
-
-        System.out.println("Added file: " + filePath + " (hash: " + hash + ")");
     }
 }
@@ -0,0 +1,230 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectInfo;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.RefTransaction;
+import com.ivanarroyo.core.Repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Runs many operations in one process, one per line of stdin (or per NUL-terminated record with -z):
+//
+//   add <path>                     stage a file
+//   rm <path>                      unstage a path; the work tree file is left alone
+//   hash-object <path>             store a file as a blob and print its id
+//   cat-file <id>                  print "<id> <size>", then the object's content
+//   update-ref <ref> <new> [<old>] move HEAD or a branch ("<name>" or "refs/heads/<name>"), only if
+//                                  it still holds <old> when given; HEAD on a branch moves the branch
+//   flush                          write the index and refs now
+//
+// Objects are written as they come, through the store every operation shares. Staged and unstaged
+// paths are queued and applied to the index as it is then, under the shared Repository's lock, and
+// the queued ref updates are committed in one transaction, only on flush and at the end of input.
+// A failed operation prints an error and the rest carry on.
+public class BatchCommand implements Command {
+    private final ObjectStore store;
+    private final InputStream input;
+
+    private PrintStream out;
+    private Repository repository;
+    // path -> blob id to stage, or null to unstage
+    private final Map<String, String> staged = new TreeMap<>();
+    // ref -> {new, expected old or null}
+    private final Map<String, String[]> refUpdates = new TreeMap<>();
+
+    public BatchCommand(ObjectStore store, InputStream input) {
+        this.store = store;
+        this.input = input;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        char delimiter = '\n';
+        for (String arg : args) {
+            if (arg.equals("-z")) {
+                delimiter = '\0';
+            } else {
+                System.out.println("Usage: opipop batch [-z]");
+                return;
+            }
+        }
+
+        // Replies are buffered and only pushed out at flush points
+        out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8);
+        repository = Repository.open(store);
+        InputStream in = new BufferedInputStream(input, 1 << 16);
+        try {
+            String record;
+            while ((record = readRecord(in, delimiter)) != null) {
+                if (delimiter == '\n' && record.endsWith("\r")) {
+                    record = record.substring(0, record.length() - 1);
+                }
+                if (!record.isEmpty()) {
+                    run(record);
+                }
+            }
+            flush();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void run(String record) throws IOException {
+        int space = record.indexOf(' ');
+        String op = space < 0 ? record : record.substring(0, space);
+        String arg = space < 0 ? "" : record.substring(space + 1);
+        try {
+            switch (op) {
+                case "add":
+                    add(arg);
+                    break;
+                case "rm":
+                    remove(arg);
+                    break;
+                case "hash-object":
+                    out.println(store.writeBlob(file(arg)));
+                    break;
+                case "cat-file":
+                    catFile(arg);
+                    break;
+                case "update-ref":
+                    updateRef(arg);
+                    break;
+                case "flush":
+                    flush();
+                    break;
+                default:
+                    out.println("error: unknown batch command: " + op);
+            }
+        } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+            out.println("error: " + op + ": " + e.getMessage());
+        }
+    }
+
+    private void add(String arg) throws IOException {
+        Path path = file(arg);
+        String relativePath = store.getWorkTree().toPath().relativize(path).toString().replace(File.separatorChar, '/');
+        String hash = store.writeBlob(path);
+        String current = staged.containsKey(relativePath) ? staged.get(relativePath) : repository.getIndex().get(relativePath);
+        if (hash.equals(current)) {
+            out.println("File already added: " + arg);
+            return;
+        }
+        staged.put(relativePath, hash);
+        out.println("Added file: " + arg + " (hash: " + hash + ")");
+    }
+
+    private void remove(String arg) throws IOException {
+        String path = arg.replace(File.separatorChar, '/');
+        boolean indexed = staged.containsKey(path) ? staged.get(path) != null
+                : repository.getIndex().containsKey(path) || repository.getConflicts().contains(path);
+        if (!indexed) {
+            throw new IllegalArgumentException("Path is not in the index: " + arg);
+        }
+        staged.put(path, null);
+        out.println("Removed from index: " + arg);
+    }
+
+    private void catFile(String id) throws IOException {
+        ObjectInfo info = id.isEmpty() ? null : store.getObjectInfo(id);
+        if (info == null) {
+            out.println(id + " missing");
+            return;
+        }
+        out.println(id + " " + info.getSize());
+        try (InputStream object = store.openObject(id)) {
+            object.transferTo(out);
+        }
+        out.println();
+    }
+
+    private void updateRef(String arg) throws IOException {
+        String[] parts = arg.split(" ");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("usage: update-ref <ref> <new> [<old>]");
+        }
+        String ref = parts[0].equals("HEAD") || parts[0].startsWith("refs/") ? parts[0] : "refs/heads/" + parts[0];
+        if (ref.equals("HEAD")) {
+            // HEAD on a branch is moved by moving the branch, so <old> is that branch's commit
+            ref = store.getHeadRef();
+        }
+        if (!ref.equals("HEAD") && !ref.startsWith("refs/heads/") || !RefTransaction.isValidRefName(ref)) {
+            throw new IllegalArgumentException("Not HEAD or a branch: " + parts[0]);
+        }
+        if (!store.hasObject(parts[1])) {
+            throw new IllegalArgumentException("No such object: " + parts[1]);
+        }
+        // A ref moved twice before a flush: a later <old> is checked against the value queued for it,
+        // and the transaction checks the first expectation against the ref itself
+        String[] pending = refUpdates.get(ref);
+        if (pending != null && parts.length == 3 && !parts[2].equals(pending[0])) {
+            throw new IllegalStateException("Ref " + ref + " changed concurrently: expected " + parts[2]
+                    + " but found " + pending[0]);
+        }
+        String expected = pending != null ? pending[1] : parts.length == 3 ? parts[2] : null;
+        refUpdates.put(ref, new String[]{parts[1], expected});
+    }
+
+    private void flush() throws IOException {
+        if (!staged.isEmpty()) {
+            try {
+                repository.updateIndex(staged);
+            } finally {
+                staged.clear();
+            }
+        }
+        if (!refUpdates.isEmpty()) {
+            try (RefTransaction transaction = new RefTransaction(store)) {
+                for (Map.Entry<String, String[]> entry : refUpdates.entrySet()) {
+                    String[] update = entry.getValue();
+                    if (update[1] == null) {
+                        transaction.update(entry.getKey(), update[0]);
+                    } else {
+                        transaction.update(entry.getKey(), update[0], update[1]);
+                    }
+                }
+                transaction.setMessage("batch: update-ref");
+                transaction.commit();
+            } finally {
+                refUpdates.clear();
+            }
+        }
+        out.flush();
+    }
+
+    private Path file(String arg) {
+        Path workTree = store.getWorkTree().toPath();
+        Path path = workTree.resolve(arg).normalize();
+        if (!path.startsWith(workTree)) {
+            throw new IllegalArgumentException("File is outside repository: " + arg);
+        }
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("File not found: " + arg);
+        }
+        return path;
+    }
+
+    // The next record without its delimiter; null at the end of input
+    private static String readRecord(InputStream in, char delimiter) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != delimiter) {
+            record.write(b);
+        }
+        if (b == -1 && record.size() == 0) {
+            return null;
+        }
+        return record.toString(StandardCharsets.UTF_8);
+    }
+}
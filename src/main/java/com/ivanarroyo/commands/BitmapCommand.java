@@ -0,0 +1,23 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.ReachabilityBitmapWriter;
+
+public class BitmapCommand implements Command {
+    private final ObjectStore store;
+
+    public BitmapCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length == 0 || !args[0].equals("write")) {
+            System.out.println("Usage: opipop bitmap write");
+            return;
+        }
+
+        int count = new ReachabilityBitmapWriter(store).write();
+        System.out.println("Wrote " + count + " reachability bitmaps");
+    }
+}
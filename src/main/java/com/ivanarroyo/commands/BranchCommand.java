@@ -1,10 +1,13 @@
 package com.ivanarroyo.commands;
 
 import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.RefTransaction;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 public class BranchCommand implements Command {
     private final ObjectStore store;
@@ -16,30 +19,39 @@ public class BranchCommand implements Command {
     @Override
     public void execute(String[] args) throws Exception {
         if (args.length == 0) {
-            listBranches();
+            listBranches(new String[0]);
+        } else if (args[0].equals("--list") || args[0].equals("-l")) {
+            listBranches(Arrays.copyOfRange(args, 1, args.length));
         } else {
             String branchName = args[0];
             createBranch(branchName);
         }
     }
 
-    private void listBranches() throws IOException {
+    // With patterns, lists only branches matching one of them; "*" and "?" are wildcards
+    private void listBranches(String[] patterns) throws IOException {
         String currentBranch = store.getCurrentBranch();
-        File headsDir = new File(store.getRefsDir(), "heads");
-        
-        if (!headsDir.exists() || headsDir.listFiles() == null) {
-            System.out.println("* " + currentBranch);
-            return;
+        Map<String, String> branches = new TreeMap<>();
+        if (patterns.length == 0) {
+            branches.putAll(store.getBranches());
+        }
+        for (String pattern : patterns) {
+            // Only branches sharing the literal part in front of the first wildcard are read
+            Pattern regex = globToRegex(pattern);
+            for (Map.Entry<String, String> branch : store.getBranches(literalPrefix(pattern)).entrySet()) {
+                if (regex.matcher(branch.getKey()).matches()) {
+                    branches.put(branch.getKey(), branch.getValue());
+                }
+            }
         }
 
-        File[] branches = headsDir.listFiles();
-        if (branches == null || branches.length == 0) {
-            System.out.println("* " + currentBranch);
+        if (branches.isEmpty()) {
+            if (patterns.length == 0) {
+                System.out.println("* " + currentBranch);
+            }
             return;
         }
-
-        for (File branch : branches) {
-            String name = branch.getName();
+        for (String name : branches.keySet()) {
             if (name.equals(currentBranch)) {
                 System.out.println("* " + name);
             } else {
@@ -48,10 +60,35 @@ public class BranchCommand implements Command {
         }
     }
 
+    private static String literalPrefix(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '*' && pattern.charAt(end) != '?') {
+            end++;
+        }
+        return pattern.substring(0, end);
+    }
+
+    private static Pattern globToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal < i) {
+                    regex.append(Pattern.quote(pattern.substring(literal, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (literal < pattern.length()) {
+            regex.append(Pattern.quote(pattern.substring(literal)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
     private void createBranch(String branchName) throws IOException {
-        File branchFile = new File(store.getRefsDir(), "heads/" + branchName);
-        
-        if (branchFile.exists()) {
+        if (store.getBranch(branchName) != null) {
             System.out.println("Branch '" + branchName + "' already exists");
             return;
         }
@@ -62,8 +99,11 @@ public class BranchCommand implements Command {
             return;
         }
 
-        branchFile.getParentFile().mkdirs();
-        Files.writeString(branchFile.toPath(), headCommit);
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/" + branchName, headCommit, null)
+                    .setMessage("branch: Created from HEAD")
+                    .commit();
+        }
         System.out.println("Created branch '" + branchName + "'");
     }
 }
@@ -0,0 +1,119 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectInfo;
+import com.ivanarroyo.core.ObjectStore;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Prints objects. With --batch or --batch-check it reads one object id or revision per line of stdin
+// and answers each with "<id> <type> <size>", followed in --batch by the content and a newline;
+// unknown ones get "<input> missing". Check mode reads only each object's first bytes. Output goes
+// out in large blocks, and whenever stdin has nothing more waiting, so a caller feeding one id at a
+// time still gets its answer.
+public class CatFileCommand implements Command {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ObjectStore store;
+    private final InputStream input;
+    // One copy buffer for every object streamed by this command
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    public CatFileCommand(ObjectStore store, InputStream input) {
+        this.store = store;
+        this.input = input;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length == 1 && (args[0].equals("--batch") || args[0].equals("--batch-check"))) {
+            batch(args[0].equals("--batch"));
+            return;
+        }
+        if (args.length == 0 || args.length > 2 || (args.length == 2 && !args[0].equals("-t") && !args[0].equals("-s"))) {
+            System.out.println("Usage: opipop cat-file [-t|-s] <object> | --batch | --batch-check");
+            return;
+        }
+
+        String revision = args[args.length - 1];
+        ObjectInfo info = lookup(revision);
+        if (info == null) {
+            System.out.println("fatal: Not a valid object name " + revision);
+            return;
+        }
+        if (args[0].equals("-t")) {
+            System.out.println(info.getType());
+        } else if (args[0].equals("-s")) {
+            System.out.println(info.getSize());
+        } else {
+            copy(info.getId(), System.out);
+            System.out.flush();
+        }
+    }
+
+    private void batch(boolean contents) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String revision = line.trim();
+                ObjectInfo info = revision.isEmpty() ? null : lookup(revision);
+                if (info == null) {
+                    write(out, line + " missing\n");
+                } else {
+                    write(out, info.getId() + " " + info.getType() + " " + info.getSize() + "\n");
+                    if (contents) {
+                        copy(info.getId(), out);
+                        out.write('\n');
+                    }
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    // Full ids are used as they are; anything else goes through revision lookup
+    private ObjectInfo lookup(String revision) throws IOException {
+        String id = revision;
+        if (revision.length() != store.getHashAlgorithm().getDigestLength() * 2 || !isHex(revision)) {
+            id = store.resolveRevision(revision);
+            if (id == null) {
+                return null;
+            }
+        }
+        return store.getObjectInfo(id);
+    }
+
+    private void copy(String id, OutputStream out) throws IOException {
+        try (InputStream object = store.openObject(id)) {
+            int n;
+            while ((n = object.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isHex(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
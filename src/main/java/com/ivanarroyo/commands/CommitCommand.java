@@ -1,17 +1,8 @@
 package com.ivanarroyo.commands;
 
 import com.ivanarroyo.core.Commit;
-import com.ivanarroyo.core.Index;
 import com.ivanarroyo.core.ObjectStore;
-import com.ivanarroyo.core.Tree;
-import com.ivanarroyo.util.HashUtils;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.Map;
+import com.ivanarroyo.core.Repository;
 
 public class CommitCommand implements Command {
     private final ObjectStore store;
@@ -40,58 +31,18 @@ public class CommitCommand implements Command {
             return;
         }
 
-        Index index = new Index(store.getIndexFile());
-        if (index.getEntries().isEmpty()) {
-            System.out.println("nothing to commit");
-            return;
-        }
-
-        // Create tree from index
-        Tree tree = new Tree();
-        for (Map.Entry<String, String> entry : index.getEntries().entrySet()) {
-            tree.addEntry(entry.getKey(), entry.getValue());
-        }
-
-        byte[] treeData = tree.serialize();
-        String treeHash = HashUtils.sha1(treeData);
-        writeObject(treeHash, treeData);
-
-        // Get parent commit
-        String parentHash = store.getHeadCommit();
-
-        // Create commit
+        // Conflicts and an empty index are checked by Repository under its lock, as the commit is made
         String author = System.getProperty("user.name", "unknown");
-        Commit commit = new Commit(treeHash, parentHash, message, author);
-        byte[] commitData = commit.serialize();
-        String commitHash = HashUtils.sha1(commitData);
-        commit.setHash(commitHash);
-
-        writeObject(commitHash, commitData);
-
-        // Update HEAD
-        store.updateHead(commitHash);
-
-        System.out.println("[" + store.getCurrentBranch() + " " + commitHash.substring(0, 7) + "] " + message);
-    }
-
-    private void writeObject(String hash, byte[] data) throws IOException {
-        File objectFile = store.getObjectFile(hash);
-        if (objectFile.exists()) {
+        Commit commit;
+        try {
+            commit = Repository.open(store).commit(message, author);
+        } catch (IllegalStateException e) {
+            System.out.println(Repository.NOTHING_TO_COMMIT.equals(e.getMessage())
+                    ? "nothing to commit" : "Error: " + e.getMessage() + ".");
             return;
         }
+        String commitHash = commit.getHash();
 
-        objectFile.getParentFile().mkdirs();
-
-        Path tmp = Files.createTempFile(objectFile.getParentFile().toPath(), "opipop-obj-", ".tmp");
-        try {
-            Files.write(tmp, data);
-            Files.move(tmp, objectFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        } finally {
-            try {
-                Files.deleteIfExists(tmp);
-            } catch (IOException e) {
-                // Ignore
-            }
-        }
+        System.out.println("[" + store.getCurrentBranch() + " " + commitHash.substring(0, 7) + "] " + message);
     }
 }
@@ -0,0 +1,23 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.CommitGraphWriter;
+import com.ivanarroyo.core.ObjectStore;
+
+public class CommitGraphCommand implements Command {
+    private final ObjectStore store;
+
+    public CommitGraphCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length == 0 || !args[0].equals("write")) {
+            System.out.println("Usage: opipop commit-graph write");
+            return;
+        }
+
+        int count = new CommitGraphWriter(store).write();
+        System.out.println("Wrote commit-graph with " + count + " commits");
+    }
+}
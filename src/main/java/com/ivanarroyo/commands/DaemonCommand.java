@@ -0,0 +1,37 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.daemon.Daemon;
+import com.ivanarroyo.daemon.DaemonClient;
+
+import java.nio.file.Path;
+
+// "opipop daemon" serves commands in the foreground until "opipop daemon stop"
+public class DaemonCommand implements Command {
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        Path socket = Daemon.getDefaultSocket();
+        boolean stop = false;
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socket = Path.of(arg.substring("--socket=".length()));
+            } else if (arg.equals("stop")) {
+                stop = true;
+            } else {
+                System.out.println("Usage: opipop daemon [stop] [--socket=<path>]");
+                return;
+            }
+        }
+
+        if (stop) {
+            new DaemonClient(socket).run(Path.of("").toAbsolutePath(), new String[]{"daemon", "stop"},
+                    System.out, System.err);
+            return;
+        }
+        try (Daemon daemon = new Daemon(socket)) {
+            daemon.start();
+            System.out.println("Listening on " + socket);
+            daemon.serve();
+        }
+    }
+}
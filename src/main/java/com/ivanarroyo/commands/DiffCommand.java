@@ -0,0 +1,274 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.History;
+import com.ivanarroyo.core.Index;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Tree;
+import com.ivanarroyo.diff.DiffAlgorithm;
+import com.ivanarroyo.diff.Rename;
+import com.ivanarroyo.diff.RenameDetector;
+import com.ivanarroyo.diff.UnifiedDiffFormatter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// opipop diff                    work tree against the index
+// opipop diff --cached [<rev>]   index against HEAD (or <rev>)
+// opipop diff <rev>              work tree against <rev>
+// opipop diff <rev> <rev>        one commit against another
+// Renames are detected unless --no-renames is given or diff.renames is false; -C also finds copies.
+public class DiffCommand implements Command {
+    private static final int DEFAULT_CONTEXT = 3;
+
+    private final ObjectStore store;
+
+    public DiffCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        boolean cached = false;
+        int context = DEFAULT_CONTEXT;
+        DiffAlgorithm algorithm = DiffAlgorithm.forName(store.getConfig().get("diff.algorithm", "myers"));
+        boolean findRenames = !store.getConfig().get("diff.renames", "true").equals("false");
+        boolean findCopies = false;
+        int threshold = RenameDetector.DEFAULT_THRESHOLD;
+        List<String> revisions = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                for (i++; i < args.length; i++) {
+                    paths.add(stripSlash(args[i]));
+                }
+            } else if (arg.equals("--cached") || arg.equals("--staged")) {
+                cached = true;
+            } else if (arg.equals("--histogram")) {
+                algorithm = DiffAlgorithm.HISTOGRAM;
+            } else if (arg.startsWith("--diff-algorithm=")) {
+                algorithm = DiffAlgorithm.forName(arg.substring("--diff-algorithm=".length()));
+            } else if (arg.startsWith("--unified=") || (arg.startsWith("-U") && arg.length() > 2)) {
+                String value = arg.startsWith("-U") ? arg.substring(2) : arg.substring("--unified=".length());
+                try {
+                    context = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid context length: " + value);
+                    return;
+                }
+            } else if (arg.equals("--no-renames")) {
+                findRenames = false;
+            } else if (arg.startsWith("-M") || arg.startsWith("--find-renames")
+                    || arg.startsWith("-C") || arg.startsWith("--find-copies")) {
+                findRenames = true;
+                findCopies |= arg.startsWith("-C") || arg.startsWith("--find-copies");
+                String value = arg.startsWith("--") ? arg.substring(arg.indexOf('=') + 1) : arg.substring(2);
+                if (arg.startsWith("--") && arg.indexOf('=') < 0) {
+                    value = "";
+                }
+                if (!value.isEmpty()) {
+                    try {
+                        threshold = Integer.parseInt(value.endsWith("%") ? value.substring(0, value.length() - 1) : value);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid similarity threshold: " + value);
+                        return;
+                    }
+                    if (threshold < 0 || threshold > 100) {
+                        System.out.println("Invalid similarity threshold: " + value);
+                        return;
+                    }
+                }
+            } else if (arg.startsWith("-")) {
+                System.out.println("Unknown option: " + arg);
+                return;
+            } else {
+                revisions.add(arg);
+            }
+        }
+        if (revisions.size() > 2 || (cached && revisions.size() > 1)) {
+            System.out.println("Usage: opipop diff [--cached] [--histogram] [-U<n>] [-M[<n>]] [-C] [--no-renames] [<rev> [<rev>]] [-- <path>...]");
+            return;
+        }
+
+        List<String> commits = new ArrayList<>();
+        for (String revision : revisions) {
+            String commit = store.resolveRevision(revision);
+            if (commit == null) {
+                System.out.println("Unknown revision: " + revision);
+                return;
+            }
+            commits.add(commit);
+        }
+
+        Index index = new Index(store.getIndexFile());
+        Map<String, String> oldSide;
+        Map<String, String> newSide;
+        boolean newIsWorkTree = false;
+        if (commits.size() == 2) {
+            oldSide = commitTree(commits.get(0));
+            newSide = commitTree(commits.get(1));
+        } else if (cached) {
+            oldSide = commits.isEmpty() ? commitTree(store.getHeadCommit()) : commitTree(commits.get(0));
+            newSide = index.getEntries();
+        } else if (commits.size() == 1) {
+            oldSide = commitTree(commits.get(0));
+            TreeSet<String> tracked = new TreeSet<>(index.getEntries().keySet());
+            tracked.addAll(oldSide.keySet());
+            newSide = workTree(tracked);
+            newIsWorkTree = true;
+        } else {
+            oldSide = index.getEntries();
+            newSide = workTree(oldSide.keySet());
+            newIsWorkTree = true;
+            for (String path : index.getConflicts().keySet()) {
+                if (matches(path, paths)) {
+                    System.out.println("* Unmerged path " + path);
+                }
+            }
+        }
+
+        List<Rename> renames = findRenames
+                ? detectRenames(oldSide, newSide, newIsWorkTree, findCopies, threshold)
+                : Collections.emptyList();
+        Map<String, Rename> renamedTo = new HashMap<>();
+        Set<String> renamedFrom = new HashSet<>();
+        for (Rename rename : renames) {
+            if (matches(rename.getOldPath(), paths) || matches(rename.getNewPath(), paths)) {
+                renamedTo.put(rename.getNewPath(), rename);
+            }
+            if (!rename.isCopy()) {
+                renamedFrom.add(rename.getOldPath());
+            }
+        }
+
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        UnifiedDiffFormatter formatter = new UnifiedDiffFormatter(out, context, algorithm);
+        TreeSet<String> all = new TreeSet<>(oldSide.keySet());
+        all.addAll(newSide.keySet());
+        for (String path : all) {
+            String oldId = oldSide.get(path);
+            String newId = newSide.get(path);
+            Rename rename = renamedTo.get(path);
+            if (rename != null) {
+                String sourceId = oldSide.get(rename.getOldPath());
+                if (sourceId.equals(newId)) {
+                    formatter.formatRename(rename, sourceId, newId, new byte[0], new byte[0]);
+                } else {
+                    formatter.formatRename(rename, sourceId, newId, () -> store.openObject(sourceId),
+                            openNew(path, newId, newIsWorkTree));
+                }
+                out.flush();
+                continue;
+            }
+            if (Objects.equals(oldId, newId) || (newId == null && renamedFrom.contains(path))
+                    || !matches(path, paths)) {
+                continue;
+            }
+            UnifiedDiffFormatter.ContentSource oldContent = oldId == null
+                    ? () -> new ByteArrayInputStream(new byte[0])
+                    : () -> store.openObject(oldId);
+            formatter.format(path, oldId, newId, oldContent, openNew(path, newId, newIsWorkTree));
+            out.flush();
+        }
+        out.flush();
+    }
+
+    // Paths only on the old side are rename sources for paths only on the new side; with copies,
+    // every path still present on both sides is a copy source as well
+    private List<Rename> detectRenames(Map<String, String> oldSide, Map<String, String> newSide, boolean newIsWorkTree,
+                                       boolean findCopies, int threshold) throws IOException {
+        Map<String, String> deleted = new TreeMap<>();
+        Map<String, String> added = new TreeMap<>();
+        Map<String, String> copySources = new TreeMap<>();
+        for (Map.Entry<String, String> entry : oldSide.entrySet()) {
+            if (!newSide.containsKey(entry.getKey())) {
+                deleted.put(entry.getKey(), entry.getValue());
+            } else if (findCopies) {
+                copySources.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : newSide.entrySet()) {
+            if (!oldSide.containsKey(entry.getKey())) {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (added.isEmpty() || (deleted.isEmpty() && copySources.isEmpty())) {
+            return Collections.emptyList();
+        }
+        RenameDetector detector = new RenameDetector(
+                (path, id) -> oldSide.containsKey(path) ? store.readObject(id) : loadNew(path, id, newIsWorkTree),
+                threshold, Runtime.getRuntime().availableProcessors());
+        return detector.detect(deleted, added, copySources);
+    }
+
+    private byte[] loadNew(String path, String id, boolean fromWorkTree) throws IOException {
+        if (id == null) {
+            return new byte[0];
+        }
+        if (fromWorkTree) {
+            return Files.readAllBytes(new File(store.getWorkTree(), path).toPath());
+        }
+        return store.readObject(id);
+    }
+
+    private UnifiedDiffFormatter.ContentSource openNew(String path, String id, boolean fromWorkTree) {
+        if (id == null) {
+            return () -> new ByteArrayInputStream(new byte[0]);
+        }
+        if (fromWorkTree) {
+            return () -> Files.newInputStream(new File(store.getWorkTree(), path).toPath());
+        }
+        return () -> store.openObject(id);
+    }
+
+    private Map<String, String> commitTree(String commit) throws IOException {
+        if (commit == null) {
+            return new HashMap<>();
+        }
+        String treeId = new History(store).getTreeId(commit);
+        return Tree.deserialize(store.readObject(treeId)).getEntries();
+    }
+
+    // Current ids of the given work tree files; files that no longer exist are left out
+    private Map<String, String> workTree(Iterable<String> paths) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        File workTree = store.getWorkTree();
+        for (String path : paths) {
+            File file = new File(workTree, path);
+            if (file.isFile()) {
+                files.put(path, store.hashFile(file.toPath()));
+            }
+        }
+        return files;
+    }
+
+    private static boolean matches(String path, List<String> filters) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (filter.isEmpty() || path.equals(filter) || path.startsWith(filter + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+}
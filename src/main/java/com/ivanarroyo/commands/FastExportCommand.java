@@ -0,0 +1,37 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.FastExport;
+import com.ivanarroyo.core.ObjectStore;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FastExportCommand implements Command {
+    private final ObjectStore store;
+
+    public FastExportCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        List<String> branches = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--all")) {
+                branches.clear();
+            } else if (arg.startsWith("-")) {
+                System.out.println("Usage: opipop fast-export [--all | <branch>...]");
+                return;
+            } else {
+                branches.add(arg);
+            }
+        }
+
+        // The stream goes out in large blocks; stdout carries nothing else
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        new FastExport(store).run(branches, out);
+        out.flush();
+    }
+}
@@ -0,0 +1,46 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.FastImport;
+import com.ivanarroyo.core.ObjectStore;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class FastImportCommand implements Command {
+    private final ObjectStore store;
+    private final InputStream input;
+
+    public FastImportCommand(ObjectStore store, InputStream input) {
+        this.store = store;
+        this.input = input;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        FastImport fastImport = new FastImport(store);
+        Path exportMarks = null;
+        for (String arg : args) {
+            if (arg.startsWith("--import-marks=")) {
+                Path marks = Path.of(arg.substring("--import-marks=".length()));
+                if (!Files.isRegularFile(marks)) {
+                    System.out.println("Marks file not found: " + marks);
+                    return;
+                }
+                fastImport.importMarks(marks);
+            } else if (arg.startsWith("--export-marks=")) {
+                exportMarks = Path.of(arg.substring("--export-marks=".length()));
+            } else {
+                System.out.println("Usage: opipop fast-import [--import-marks=<file>] [--export-marks=<file>]");
+                return;
+            }
+        }
+
+        FastImport.Result result = fastImport.run(input);
+        if (exportMarks != null) {
+            fastImport.exportMarks(exportMarks);
+        }
+        System.out.println("Imported " + result.getBlobs() + " blob(s) and " + result.getCommits()
+                + " commit(s) into " + result.getPacks() + " pack(s), updated " + result.getRefs() + " ref(s)");
+    }
+}
@@ -0,0 +1,60 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Fsck;
+import com.ivanarroyo.core.ObjectStore;
+
+import java.util.Map;
+
+public class FsckCommand implements Command {
+    private final ObjectStore store;
+
+    public FsckCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        int threads = (int) store.getConfig().getLong("fsck.threads", Runtime.getRuntime().availableProcessors());
+        boolean showDangling = true;
+        for (String arg : args) {
+            if (arg.equals("--no-dangling")) {
+                showDangling = false;
+            } else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid thread count: " + arg.substring("--threads=".length()));
+                    return;
+                }
+            } else {
+                System.out.println("Usage: opipop fsck [--threads=<n>] [--no-dangling]");
+                return;
+            }
+        }
+
+        Fsck.Result result = new Fsck(store, threads).run();
+        System.out.println("Checked " + result.getObjectCount() + " objects");
+        for (String id : result.getCorrupt()) {
+            System.out.println("error: " + id + ": hash mismatch");
+        }
+        for (Map.Entry<String, String> entry : result.getInvalid().entrySet()) {
+            System.out.println("error: " + entry.getKey() + ": " + entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : result.getMissing().entrySet()) {
+            System.out.println("missing " + entry.getValue() + " " + entry.getKey());
+        }
+        if (showDangling) {
+            for (String id : result.getDangling()) {
+                System.out.println("dangling " + id);
+            }
+        }
+        for (String name : result.getGarbage()) {
+            System.out.println("garbage file " + name);
+        }
+
+        int errors = result.getCorrupt().size() + result.getInvalid().size() + result.getMissing().size();
+        if (errors > 0) {
+            System.out.println("fsck found " + errors + " error(s)");
+        }
+    }
+}
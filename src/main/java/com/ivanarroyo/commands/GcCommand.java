@@ -0,0 +1,60 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.GarbageCollector;
+import com.ivanarroyo.core.ObjectStore;
+
+public class GcCommand implements Command {
+    private final ObjectStore store;
+
+    public GcCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        int threads = (int) store.getConfig().getLong("gc.threads", Runtime.getRuntime().availableProcessors());
+        String expire = store.getConfig().get("gc.pruneExpire", null);
+        boolean repack = false;
+        for (String arg : args) {
+            if (arg.equals("--repack")) {
+                repack = true;
+            } else if (arg.startsWith("--prune=")) {
+                expire = arg.substring("--prune=".length());
+            } else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid thread count: " + arg.substring("--threads=".length()));
+                    return;
+                }
+            } else {
+                System.out.println("Usage: opipop gc [--prune=<seconds>|now] [--repack] [--threads=<n>]");
+                return;
+            }
+        }
+
+        // The grace period is given in seconds, "now" meaning none at all
+        long gracePeriod = GarbageCollector.DEFAULT_GRACE_PERIOD;
+        if (expire != null) {
+            try {
+                gracePeriod = expire.equals("now") ? 0 : Long.parseLong(expire) * 1000;
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid prune expiry: " + expire);
+                return;
+            }
+        }
+
+        GarbageCollector.Result result = new GarbageCollector(store, threads, gracePeriod, repack).run();
+        System.out.println("Reachable objects: " + result.getReachable());
+        if (result.getKept() > 0) {
+            System.out.println("Kept " + result.getKept() + " recent unreachable objects");
+        }
+        System.out.println("Pruned " + result.getPruned() + " objects");
+        if (result.getRemovedFiles() > 0) {
+            System.out.println("Removed " + result.getRemovedFiles() + " stale temporary files");
+        }
+        if (repack) {
+            System.out.println("Packed " + result.getPacked() + " objects into " + result.getPacks() + " pack(s)");
+        }
+    }
+}
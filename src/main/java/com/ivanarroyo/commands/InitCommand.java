@@ -1,6 +1,9 @@
 package com.ivanarroyo.commands;
 
+import com.ivanarroyo.core.Config;
 import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.util.Sha1Algorithm;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -14,6 +17,25 @@ public class InitCommand implements Command {
 
     @Override
     public void execute(String[] args) throws Exception {
+        String hashAlgorithm = Sha1Algorithm.NAME;
+        String refFormat = "files";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--hash=")) {
+                hashAlgorithm = args[i].substring("--hash=".length());
+            } else if (args[i].equals("--hash") && i + 1 < args.length) {
+                hashAlgorithm = args[++i];
+            } else if (args[i].startsWith("--ref-format=")) {
+                refFormat = args[i].substring("--ref-format=".length());
+            } else if (args[i].equals("--ref-format") && i + 1 < args.length) {
+                refFormat = args[++i];
+            }
+        }
+        // Fail before touching the filesystem if the algorithm or ref format is unknown
+        HashUtils.algorithm(hashAlgorithm);
+        if (!refFormat.equals("files") && !refFormat.equals("reftable")) {
+            throw new IllegalArgumentException("Unknown ref format: " + refFormat);
+        }
+
         File repo = store.getRepoDir();
         if (repo.exists()) {
             System.out.println("Repository already exists at " + repo.getAbsolutePath());
@@ -28,10 +50,20 @@ public class InitCommand implements Command {
         store.getObjectsDir().mkdirs();
         store.getRefsDir().mkdirs();
         new File(store.getRefsDir(), "heads").mkdirs();
+        if (refFormat.equals("reftable")) {
+            store.getReftableDir().mkdirs();
+        }
 
         // Create HEAD pointing to main branch
         Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
 
+        // Record the repository format; neither the hash algorithm nor the ref backend can change after init
+        Config config = store.getConfig();
+        config.set("core.repositoryFormatVersion", "1");
+        config.set("core.hashAlgorithm", hashAlgorithm);
+        config.set("refs.backend", refFormat);
+        config.save();
+
         System.out.println("Initialized empty repository in " + repo.getAbsolutePath());
     }
 }
@@ -0,0 +1,222 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Commit;
+import com.ivanarroyo.core.History;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Tree;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class LogCommand implements Command {
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.ROOT);
+
+    private final ObjectStore store;
+    private final Map<String, Tree> trees = new HashMap<>();
+
+    public LogCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        String author = null;
+        String revision = "HEAD";
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                for (i++; i < args.length; i++) {
+                    paths.add(normalizePath(args[i]));
+                }
+            } else if (arg.equals("-n") && i + 1 < args.length) {
+                limit = parseLimit(args[++i]);
+            } else if (arg.startsWith("--max-count=")) {
+                limit = parseLimit(arg.substring("--max-count=".length()));
+            } else if (arg.startsWith("--since=")) {
+                since = parseDate(arg.substring("--since=".length()), false);
+            } else if (arg.startsWith("--until=")) {
+                until = parseDate(arg.substring("--until=".length()), true);
+            } else if (arg.startsWith("--author=")) {
+                author = arg.substring("--author=".length());
+            } else if (arg.startsWith("-")) {
+                System.out.println("Unknown option: " + arg);
+                return;
+            } else {
+                revision = arg;
+            }
+        }
+
+        String start = store.resolveRevision(revision);
+        if (start == null) {
+            if (revision.equals("HEAD")) {
+                System.out.println("No commits yet");
+            } else {
+                System.out.println("Unknown revision: " + revision);
+            }
+            return;
+        }
+
+        History history = new History(store);
+        Comparator<String> byDate = Comparator.comparingLong((String id) -> commitTime(history, id)).reversed();
+        PriorityQueue<String> queue = new PriorityQueue<>(byDate);
+        Set<String> seen = new HashSet<>();
+        queue.add(start);
+        seen.add(start);
+
+        // Commits are printed as soon as they are popped, so the first page never needs the whole history
+        int shown = 0;
+        while (shown < limit && !queue.isEmpty()) {
+            String id = queue.poll();
+            long time = history.getCommitTime(id);
+            if (time < since) {
+                break;
+            }
+            List<String> parents = history.getParents(id);
+            for (String parent : parents) {
+                if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+            if (time > until) {
+                continue;
+            }
+            if (!paths.isEmpty() && !touchesPaths(history, id, parents, paths)) {
+                continue;
+            }
+
+            Commit commit = Commit.deserialize(store.readObject(id));
+            if (author != null && (commit.getAuthor() == null || !commit.getAuthor().contains(author))) {
+                continue;
+            }
+            printCommit(id, commit);
+            shown++;
+        }
+    }
+
+    private long commitTime(History history, String id) {
+        try {
+            return history.getCommitTime(id);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read commit " + id, e);
+        }
+    }
+
+    // A commit touches a path when its entries under that path differ from every parent
+    private boolean touchesPaths(History history, String id, List<String> parents, List<String> paths) throws IOException {
+        // The changed-path filters rule out most commits without reading any tree
+        boolean maybe = false;
+        for (String path : paths) {
+            if (path.isEmpty() || history.maybeChanged(id, path)) {
+                maybe = true;
+                break;
+            }
+        }
+        if (!maybe) {
+            return false;
+        }
+
+        Map<String, String> entries = matchingEntries(history.getTreeId(id), paths);
+        if (parents.isEmpty()) {
+            return !entries.isEmpty();
+        }
+        for (String parent : parents) {
+            if (entries.equals(matchingEntries(history.getTreeId(parent), paths))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, String> matchingEntries(String treeId, List<String> paths) throws IOException {
+        Tree tree = trees.get(treeId);
+        if (tree == null) {
+            tree = Tree.deserialize(store.readObject(treeId));
+            trees.put(treeId, tree);
+        }
+        Map<String, String> matches = new TreeMap<>();
+        for (Map.Entry<String, String> entry : tree.getEntries().entrySet()) {
+            for (String path : paths) {
+                if (path.isEmpty() || entry.getKey().equals(path) || entry.getKey().startsWith(path + "/")) {
+                    matches.put(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void printCommit(String id, Commit commit) {
+        String date = DATE_FORMAT.format(Instant.ofEpochSecond(commit.getTimestamp()).atZone(ZoneId.systemDefault()));
+        StringBuilder sb = new StringBuilder();
+        sb.append("commit ").append(id).append("\n");
+        sb.append("Author: ").append(commit.getAuthor()).append("\n");
+        sb.append("Date:   ").append(date).append("\n\n");
+        for (String line : commit.getMessage().split("\n", -1)) {
+            sb.append("    ").append(line).append("\n");
+        }
+        System.out.println(sb);
+    }
+
+    private static String normalizePath(String path) {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized.equals(".") ? "" : normalized;
+    }
+
+    private static int parseLimit(String value) {
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid commit limit: " + value);
+        }
+    }
+
+    // Accepts epoch seconds, yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss in the local time zone
+    private static long parseDate(String value, boolean endOfDay) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Not epoch seconds
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return LocalDateTime.parse(value).atZone(zone).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            // Not a date-time
+        }
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return endOfDay
+                    ? date.plusDays(1).atStartOfDay(zone).toEpochSecond() - 1
+                    : date.atStartOfDay(zone).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + value);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Maintenance;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.util.IoThrottle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MaintenanceCommand implements Command {
+    private final ObjectStore store;
+
+    public MaintenanceCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length == 0 || !args[0].equals("run")) {
+            System.out.println("Usage: opipop maintenance run [--auto] [--task=<name>]...");
+            return;
+        }
+        Maintenance maintenance = new Maintenance(store);
+        boolean auto = false;
+        List<Maintenance.Task> tasks = new ArrayList<>();
+        for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+            if (arg.equals("--auto")) {
+                auto = true;
+            } else if (arg.startsWith("--task=")) {
+                try {
+                    tasks.add(Maintenance.Task.forName(arg.substring("--task=".length())));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else {
+                System.out.println("Unknown option: " + arg);
+                return;
+            }
+        }
+        // --auto runs only what is due, throttled; otherwise the named tasks, or everything, at full speed
+        if (tasks.isEmpty()) {
+            tasks = auto ? maintenance.due() : Arrays.asList(Maintenance.Task.values());
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        IoThrottle throttle = auto
+                ? new IoThrottle(store.getConfig().getLong("maintenance.ioLimit", Maintenance.DEFAULT_IO_LIMIT))
+                : IoThrottle.UNLIMITED;
+
+        List<Maintenance.Task> done = maintenance.run(tasks, throttle);
+        if (done == null) {
+            System.out.println("Another maintenance process is running");
+            return;
+        }
+        for (Maintenance.Task task : done) {
+            System.out.println("Ran " + task.getName());
+        }
+    }
+}
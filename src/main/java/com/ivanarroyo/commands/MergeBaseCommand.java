@@ -0,0 +1,58 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.History;
+import com.ivanarroyo.core.ObjectStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MergeBaseCommand implements Command {
+    private final ObjectStore store;
+
+    public MergeBaseCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        boolean all = false;
+        boolean isAncestor = false;
+        List<String> revisions = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--all")) {
+                all = true;
+            } else if (arg.equals("--is-ancestor")) {
+                isAncestor = true;
+            } else {
+                revisions.add(arg);
+            }
+        }
+
+        if (revisions.size() != 2) {
+            System.out.println("Usage: opipop merge-base [--all | --is-ancestor] <commit> <commit>");
+            return;
+        }
+
+        String a = store.resolveRevision(revisions.get(0));
+        String b = store.resolveRevision(revisions.get(1));
+        if (a == null || b == null) {
+            System.out.println("Unknown revision: " + (a == null ? revisions.get(0) : revisions.get(1)));
+            return;
+        }
+
+        History history = new History(store);
+        if (isAncestor) {
+            System.out.println(history.isAncestor(a, b) ? "yes" : "no");
+            return;
+        }
+
+        List<String> bases = history.mergeBases(a, b);
+        if (bases.isEmpty()) {
+            System.out.println("No common ancestor");
+            return;
+        }
+        for (String base : all ? bases : bases.subList(0, 1)) {
+            System.out.println(base);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Commit;
+import com.ivanarroyo.core.History;
+import com.ivanarroyo.core.Index;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.RefTransaction;
+import com.ivanarroyo.core.Repository;
+import com.ivanarroyo.core.Tree;
+import com.ivanarroyo.diff.MergeResult;
+import com.ivanarroyo.diff.ThreeWayMerge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MergeCommand implements Command {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ObjectStore store;
+
+    public MergeCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: opipop merge <branch>");
+            return;
+        }
+
+        String name = args[0];
+        if (store.getMergeHeadFile().exists()) {
+            System.out.println("Error: A merge is in progress. Resolve conflicts and commit first.");
+            return;
+        }
+        String theirs = store.resolveRevision(name);
+        if (theirs == null) {
+            System.out.println("Unknown revision: " + name);
+            return;
+        }
+        String ours = store.getHeadCommit();
+        if (ours == null) {
+            System.out.println("Cannot merge: no commits yet");
+            return;
+        }
+
+        History history = new History(store);
+        if (history.isAncestor(theirs, ours)) {
+            System.out.println("Already up to date.");
+            return;
+        }
+
+        Map<String, String> oursTree = readTree(history.getTreeId(ours));
+        Index index = new Index(store.getIndexFile());
+        if (index.hasConflicts() || !index.getEntries().equals(oursTree)) {
+            System.out.println("Error: You have uncommitted changes. Commit or stash them first.");
+            return;
+        }
+
+        if (history.isAncestor(ours, theirs)) {
+            fastForward(oursTree, readTree(history.getTreeId(theirs)), name, ours, theirs);
+            return;
+        }
+
+        List<String> bases = history.mergeBases(ours, theirs);
+        String baseTreeId = bases.isEmpty() ? null : history.getTreeId(bases.get(0));
+        String oursTreeId = history.getTreeId(ours);
+        String theirsTreeId = history.getTreeId(theirs);
+
+        // Whole trees that are unchanged on one side are resolved by id without looking at any path
+        Map<String, String> result;
+        List<FileMerge> merges = new ArrayList<>();
+        Map<String, String[]> conflicts = new TreeMap<>();
+        if (oursTreeId.equals(theirsTreeId) || theirsTreeId.equals(baseTreeId)) {
+            result = oursTree;
+        } else if (oursTreeId.equals(baseTreeId)) {
+            result = readTree(theirsTreeId);
+        } else {
+            Map<String, String> baseTree = baseTreeId == null ? new HashMap<>() : readTree(baseTreeId);
+            result = resolveTrees(baseTree, oursTree, readTree(theirsTreeId), merges, conflicts);
+        }
+
+        // Refuse before touching anything if a file we are about to rewrite has local edits
+        List<String> touched = new ArrayList<>();
+        for (String path : union(oursTree.keySet(), result.keySet())) {
+            if (!Objects.equals(oursTree.get(path), result.get(path))) {
+                touched.add(path);
+            }
+        }
+        for (FileMerge merge : merges) {
+            touched.add(merge.path);
+        }
+        touched.addAll(conflicts.keySet());
+        for (String path : touched) {
+            if (!matchesWorkTree(path, oursTree.get(path))) {
+                System.out.println("Error: Your local changes to '" + path + "' would be overwritten by merge.");
+                return;
+            }
+        }
+
+        runContentMerges(merges, name);
+
+        File workTree = store.getWorkTree();
+        for (String path : union(oursTree.keySet(), result.keySet())) {
+            String hash = result.get(path);
+            if (!Objects.equals(oursTree.get(path), hash)) {
+                writeWorkTreeFile(new File(workTree, path), hash);
+            }
+        }
+        for (FileMerge merge : merges) {
+            if (merge.result.hasConflict()) {
+                conflicts.put(merge.path, new String[]{merge.base, merge.ours, merge.theirs});
+                File file = new File(workTree, merge.path);
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), merge.result.getContent());
+            } else {
+                result.put(merge.path, merge.mergedHash);
+                if (!merge.mergedHash.equals(merge.ours)) {
+                    writeWorkTreeFile(new File(workTree, merge.path), merge.mergedHash);
+                }
+            }
+        }
+        for (Map.Entry<String, String[]> conflict : conflicts.entrySet()) {
+            String[] stages = conflict.getValue();
+            // Modify/delete conflicts leave whichever side still has the file in the work tree
+            if (stages[1] == null && stages[2] != null) {
+                writeWorkTreeFile(new File(workTree, conflict.getKey()), stages[2]);
+            }
+        }
+
+        if (!writeIndex(oursTree, result, conflicts)) {
+            return;
+        }
+
+        if (!conflicts.isEmpty()) {
+            try (RefTransaction transaction = new RefTransaction(store)) {
+                transaction.update("MERGE_HEAD", theirs, null).commit();
+            }
+            for (String path : conflicts.keySet()) {
+                System.out.println("CONFLICT: Merge conflict in " + path);
+            }
+            System.out.println("Automatic merge failed; fix conflicts and then commit the result.");
+            return;
+        }
+
+        Tree tree = new Tree();
+        for (Map.Entry<String, String> entry : result.entrySet()) {
+            tree.addEntry(entry.getKey(), entry.getValue());
+        }
+        String treeHash = store.writeObject(tree.serialize());
+        String author = System.getProperty("user.name", "unknown");
+        Commit commit = Commit.withParents(treeHash, Arrays.asList(ours, theirs), "Merge branch '" + name + "'", author);
+        String commitHash = store.writeObject(commit.serialize());
+        store.updateHead(commitHash, ours, "merge " + name + ": Merge made by the three-way strategy.");
+        System.out.println("Merge made by the three-way strategy. [" + commitHash.substring(0, 7) + "]");
+    }
+
+    // Per-path resolution. Paths where at most one side changed are decided by blob id; the rest are
+    // queued for a content merge or recorded as conflicts when one side deleted the file.
+    private Map<String, String> resolveTrees(Map<String, String> base, Map<String, String> ours, Map<String, String> theirs,
+                                             List<FileMerge> merges, Map<String, String[]> conflicts) {
+        Map<String, String> result = new TreeMap<>();
+        TreeSet<String> paths = union(union(base.keySet(), ours.keySet()), theirs.keySet());
+        for (String path : paths) {
+            String b = base.get(path);
+            String o = ours.get(path);
+            String t = theirs.get(path);
+            String resolved;
+            if (Objects.equals(o, t) || Objects.equals(t, b)) {
+                resolved = o;
+            } else if (Objects.equals(o, b)) {
+                resolved = t;
+            } else if (o == null || t == null) {
+                conflicts.put(path, new String[]{b, o, t});
+                continue;
+            } else {
+                merges.add(new FileMerge(path, b, o, t));
+                continue;
+            }
+            if (resolved != null) {
+                result.put(path, resolved);
+            }
+        }
+        return result;
+    }
+
+    // Line merges are independent of each other, so they run on a worker pool
+    private void runContentMerges(List<FileMerge> merges, String theirsLabel) throws IOException, InterruptedException {
+        if (merges.isEmpty()) {
+            return;
+        }
+        int threads = (int) Math.max(1, store.getConfig().getLong("merge.threads",
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, merges.size()));
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (FileMerge merge : merges) {
+                tasks.add(() -> {
+                    byte[] base = merge.base == null ? EMPTY : store.readObject(merge.base);
+                    merge.result = ThreeWayMerge.merge(base, store.readObject(merge.ours),
+                            store.readObject(merge.theirs), "HEAD", theirsLabel);
+                    if (!merge.result.hasConflict()) {
+                        merge.mergedHash = store.writeObject(merge.result.getContent());
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Content merge failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void fastForward(Map<String, String> oursTree, Map<String, String> theirsTree,
+                             String name, String ours, String theirs) throws IOException {
+        File workTree = store.getWorkTree();
+        List<String> changed = new ArrayList<>();
+        for (String path : union(oursTree.keySet(), theirsTree.keySet())) {
+            if (!Objects.equals(oursTree.get(path), theirsTree.get(path))) {
+                if (!matchesWorkTree(path, oursTree.get(path))) {
+                    System.out.println("Error: Your local changes to '" + path + "' would be overwritten by merge.");
+                    return;
+                }
+                changed.add(path);
+            }
+        }
+        for (String path : changed) {
+            writeWorkTreeFile(new File(workTree, path), theirsTree.get(path));
+        }
+
+        if (!writeIndex(oursTree, theirsTree, new TreeMap<>())) {
+            return;
+        }
+        store.updateHead(theirs, ours, "merge " + name + ": Fast-forward");
+        System.out.println("Fast-forward to " + theirs.substring(0, 7));
+    }
+
+    // Through the shared Repository, under the lock add and commit take, and only if nothing was
+    // staged since the index was checked against HEAD
+    private boolean writeIndex(Map<String, String> oursTree, Map<String, String> entries,
+                               Map<String, String[]> conflicts) throws IOException {
+        try {
+            Repository.open(store).replaceIndex(oursTree, entries, conflicts);
+            return true;
+        } catch (IllegalStateException e) {
+            System.out.println("Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // True if the work tree file is exactly the committed version, or absent when there is none
+    private boolean matchesWorkTree(String path, String hash) throws IOException {
+        File file = new File(store.getWorkTree(), path);
+        if (hash == null) {
+            return !file.exists();
+        }
+        return file.isFile() && store.hashFile(file.toPath()).equals(hash);
+    }
+
+    private void writeWorkTreeFile(File file, String hash) throws IOException {
+        if (hash == null) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        store.copyObject(hash, file.toPath());
+    }
+
+    private Map<String, String> readTree(String treeId) throws IOException {
+        return Tree.deserialize(store.readObject(treeId)).getEntries();
+    }
+
+    private static TreeSet<String> union(Iterable<String> a, Iterable<String> b) {
+        TreeSet<String> paths = new TreeSet<>();
+        a.forEach(paths::add);
+        b.forEach(paths::add);
+        return paths;
+    }
+
+    private static final class FileMerge {
+        final String path;
+        final String base;
+        final String ours;
+        final String theirs;
+        MergeResult result;
+        String mergedHash;
+
+        FileMerge(String path, String base, String ours, String theirs) {
+            this.path = path;
+            this.base = base;
+            this.ours = ours;
+            this.theirs = theirs;
+        }
+    }
+}
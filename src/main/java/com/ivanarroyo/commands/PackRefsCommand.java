@@ -0,0 +1,21 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectStore;
+
+public class PackRefsCommand implements Command {
+    private final ObjectStore store;
+
+    public PackRefsCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (args.length > 0) {
+            System.out.println("Usage: opipop pack-refs");
+            return;
+        }
+        int packed = store.packRefs();
+        System.out.println("Packed " + packed + " refs");
+    }
+}
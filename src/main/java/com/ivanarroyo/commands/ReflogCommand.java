@@ -0,0 +1,46 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Reflog;
+
+import java.util.List;
+
+public class ReflogCommand implements Command {
+    private final ObjectStore store;
+
+    public ReflogCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        String name = "HEAD";
+        int limit = Integer.MAX_VALUE;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                try {
+                    limit = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid count: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("-")) {
+                System.out.println("Usage: opipop reflog [-n <count>] [<branch>|HEAD]");
+                return;
+            } else {
+                name = args[i];
+            }
+        }
+
+        Reflog reflog = new Reflog(store, name.equals("HEAD") ? "HEAD" : "refs/heads/" + name);
+        // Only the newest entries are read; older records are never touched
+        int size = reflog.size();
+        int from = Math.max(0, size - Math.max(0, limit));
+        List<Reflog.Entry> entries = reflog.getEntries(from, size);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Reflog.Entry entry = entries.get(i);
+            String id = entry.getNewId() == null ? "0000000" : entry.getNewId().substring(0, Math.min(7, entry.getNewId().length()));
+            System.out.println(id + " " + name + "@{" + (size - 1 - from - i) + "}: " + entry.getMessage());
+        }
+    }
+}
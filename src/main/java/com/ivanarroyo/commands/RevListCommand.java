@@ -0,0 +1,66 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Reachability;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RevListCommand implements Command {
+    private final ObjectStore store;
+
+    public RevListCommand(ObjectStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        boolean count = false;
+        boolean objects = false;
+        boolean negate = false;
+        List<String> include = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals("--count")) {
+                count = true;
+            } else if (arg.equals("--objects")) {
+                objects = true;
+            } else if (arg.equals("--not")) {
+                negate = !negate;
+            } else if (arg.startsWith("-")) {
+                System.out.println("Unknown option: " + arg);
+                return;
+            } else {
+                boolean excluded = arg.startsWith("^") != negate;
+                String revision = arg.startsWith("^") ? arg.substring(1) : arg;
+                String id = store.resolveRevision(revision);
+                if (id == null) {
+                    System.out.println("Unknown revision: " + revision);
+                    return;
+                }
+                (excluded ? exclude : include).add(id);
+            }
+        }
+
+        if (include.isEmpty()) {
+            System.out.println("Usage: opipop rev-list [--count] [--objects] <revision>... [^<revision>...]");
+            return;
+        }
+
+        // With bitmaps this is set algebra over stored bitmaps rather than a walk of the whole history
+        Reachability reachability = new Reachability(store);
+        Reachability.ObjectSet result = reachability.reachableFrom(include);
+        if (!exclude.isEmpty()) {
+            result = result.andNot(reachability.reachableFrom(exclude));
+        }
+
+        if (count) {
+            System.out.println(objects ? result.countObjects() : result.countCommits());
+            return;
+        }
+        for (String id : objects ? result.getObjectIds() : result.getCommitIds()) {
+            System.out.println(id);
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package com.ivanarroyo.commands;
 
+import com.ivanarroyo.core.Commit;
 import com.ivanarroyo.core.Index;
 import com.ivanarroyo.core.ObjectStore;
-import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.core.Reflog;
+import com.ivanarroyo.core.Stash;
+import com.ivanarroyo.core.Tree;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class StashCommand implements Command {
     private final ObjectStore store;
@@ -21,8 +31,17 @@ public class StashCommand implements Command {
 
     @Override
     public void execute(String[] args) throws Exception {
-        if (args.length == 0) {
-            stashChanges();
+        if (args.length == 0 || args[0].equals("push") || args[0].startsWith("-")) {
+            boolean untracked = false;
+            String message = null;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-u") || args[i].equals("--include-untracked")) {
+                    untracked = true;
+                } else if (args[i].equals("-m") && i + 1 < args.length) {
+                    message = args[++i];
+                }
+            }
+            stashChanges(untracked, message);
         } else {
             String subcommand = args[0];
             switch (subcommand) {
@@ -37,227 +56,223 @@ public class StashCommand implements Command {
                     break;
                 default:
                     System.out.println("Unknown stash command: " + subcommand);
-                    System.out.println("Usage: opipop stash [pop|list|clear]");
+                    System.out.println("Usage: opipop stash [push [-u] [-m <message>]|pop|list|clear]");
             }
         }
     }
 
-    private void stashChanges() throws IOException {
+    private void stashChanges(boolean includeUntracked, String message) throws Exception {
         Index index = new Index(store.getIndexFile());
-        index.load(); // ¡IMPORTANTE: cargar el índice desde el archivo!
         Map<String, String> indexEntries = index.getEntries();
 
-        if (indexEntries.isEmpty()) {
+        // Only changed files are stored; the worktree tree is the index with them applied
+        Map<String, String> changed = hashChangedFiles(indexEntries);
+        Map<String, String> untracked = includeUntracked ? writeUntrackedFiles(indexEntries) : new TreeMap<>();
+        if (changed.isEmpty() && untracked.isEmpty()) {
             System.out.println("No changes to stash");
             return;
         }
 
-        // Check for modified files
-        List<StashEntry> modifiedFiles = new ArrayList<>();
-        for (Map.Entry<String, String> entry : indexEntries.entrySet()) {
-            String path = entry.getKey();
-            File file = new File(System.getProperty("user.dir"), path); // Usar ruta absoluta
-            
-            if (!file.exists()) {
-                continue;
-            }
-
-            byte[] content = Files.readAllBytes(file.toPath());
-            String currentHash = HashUtils.sha1(content);
+        String head = store.getHeadCommit();
+        String branch = store.getCurrentBranch();
+        String summary = (branch == null ? "(no branch)" : branch) + ": "
+                + (message != null ? message : head == null ? "(no commit)" : describe(head));
+        String author = System.getProperty("user.name", "unknown");
 
-            if (!currentHash.equals(entry.getValue())) {
-                modifiedFiles.add(new StashEntry(path, currentHash, content));
-            }
+        Tree indexTree = new Tree();
+        Tree workTree = new Tree();
+        for (Map.Entry<String, String> entry : indexEntries.entrySet()) {
+            indexTree.addEntry(entry.getKey(), entry.getValue());
         }
-
-        if (modifiedFiles.isEmpty()) {
-            System.out.println("No changes to stash");
-            return;
+        for (Map.Entry<String, String> entry : indexEntries.entrySet()) {
+            String hash = changed.containsKey(entry.getKey()) ? changed.get(entry.getKey()) : entry.getValue();
+            if (hash != null) {
+                workTree.addEntry(entry.getKey(), hash);
+            }
         }
-
-        // Save stash
-        List<StashEntry> existingStash = loadStash();
-        existingStash.addAll(0, modifiedFiles);
-        
-        // Marcar el final del batch para el nuevo grupo
-        if (!modifiedFiles.isEmpty()) {
-            modifiedFiles.get(modifiedFiles.size() - 1).isBatchEnd = true;
+        List<String> parents = new ArrayList<>();
+        List<String> headParent = new ArrayList<>();
+        if (head != null) {
+            headParent.add(head);
         }
-        
-        saveStash(existingStash);
-
-        // Save objects for stashed files
-        for (StashEntry stashEntry : modifiedFiles) {
-            writeObject(stashEntry.hash, stashEntry.content);
+        parents.add(store.writeObject(Commit.withParents(store.writeObject(indexTree.serialize()), headParent,
+                "index on " + summary, author).serialize()));
+        if (!untracked.isEmpty()) {
+            Tree untrackedTree = new Tree();
+            for (Map.Entry<String, String> entry : untracked.entrySet()) {
+                untrackedTree.addEntry(entry.getKey(), entry.getValue());
+            }
+            parents.add(store.writeObject(Commit.withParents(store.writeObject(untrackedTree.serialize()),
+                    new ArrayList<>(), "untracked files on " + summary, author).serialize()));
         }
-
-        // Restore files to indexed state
-        for (StashEntry stashEntry : modifiedFiles) {
-            String path = stashEntry.path;
-            String indexHash = indexEntries.get(path);
-            File objectFile = store.getObjectFile(indexHash);
-            if (objectFile.exists()) {
-                byte[] content = Files.readAllBytes(objectFile.toPath());
-                Files.write(new File(System.getProperty("user.dir"), path).toPath(), content);
+        String stashCommit = store.writeObject(Commit.withParents(store.writeObject(workTree.serialize()), parents,
+                "WIP on " + summary, author).serialize());
+        new Stash(store).push(stashCommit, (message != null ? "On " : "WIP on ") + summary);
+
+        // Back to the indexed state: changed files get their indexed content, untracked ones go away
+        for (String path : changed.keySet()) {
+            if (store.hasObject(indexEntries.get(path))) {
+                restore(path, indexEntries.get(path));
             }
         }
+        for (String path : untracked.keySet()) {
+            Files.deleteIfExists(new File(store.getWorkTree(), path).toPath());
+        }
 
-        System.out.println("Saved working directory state (stashed " + modifiedFiles.size() + " file(s))");
+        System.out.println("Saved working directory state (stashed " + (changed.size() + untracked.size()) + " file(s))");
     }
 
-    private void popStash() throws IOException {
-        List<StashEntry> stash = loadStash();
-        
-        if (stash.isEmpty()) {
-            System.out.println("No stash entries found");
-            return;
+    // Tracked files whose content differs from the index, hashed on a worker pool; a changed file is
+    // written as a blob by the same task. Deleted files map to null.
+    private Map<String, String> hashChangedFiles(Map<String, String> indexEntries) throws Exception {
+        Map<String, String> changed = new TreeMap<>();
+        if (indexEntries.isEmpty()) {
+            return changed;
         }
-
-        // Find the most recent stash group (all entries until batch end)
-        List<StashEntry> toRestore = new ArrayList<>();
-        for (StashEntry entry : stash) {
-            toRestore.add(entry);
-            if (entry.isBatchEnd) {
-                break;
+        int threads = (int) Math.max(1, store.getConfig().getLong("stash.threads",
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, indexEntries.size()));
+        try {
+            List<String> paths = new ArrayList<>(indexEntries.keySet());
+            List<Callable<String[]>> tasks = new ArrayList<>();
+            for (String path : paths) {
+                tasks.add(() -> {
+                    Path file = new File(store.getWorkTree(), path).toPath();
+                    if (!Files.isRegularFile(file)) {
+                        return new String[]{path, null};
+                    }
+                    if (store.hashFile(file).equals(indexEntries.get(path))) {
+                        return null;
+                    }
+                    return new String[]{path, store.writeBlob(file)};
+                });
             }
-        }
-
-        // Restore files
-        for (StashEntry entry : toRestore) {
-            File objectFile = store.getObjectFile(entry.hash);
-            if (!objectFile.exists()) {
-                System.out.println("Warning: stashed object not found for " + entry.path);
-                continue;
+            for (Future<String[]> future : pool.invokeAll(tasks)) {
+                String[] result = future.get();
+                if (result != null) {
+                    changed.put(result[0], result[1]);
+                }
             }
-            byte[] content = Files.readAllBytes(objectFile.toPath());
-            File targetFile = new File(System.getProperty("user.dir"), entry.path); // Ruta absoluta
-            targetFile.getParentFile().mkdirs();
-            Files.write(targetFile.toPath(), content);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Hashing the worktree failed", e.getCause());
+        } finally {
+            pool.shutdown();
         }
+        return changed;
+    }
 
-        // Remove from stash
-        stash.subList(0, toRestore.size()).clear();
-        saveStash(stash);
-
-        System.out.println("Restored " + toRestore.size() + " file(s) from stash");
+    private Map<String, String> writeUntrackedFiles(Map<String, String> indexEntries) throws IOException {
+        Map<String, String> untracked = new TreeMap<>();
+        collectUntracked(store.getWorkTree(), "", indexEntries, untracked);
+        return untracked;
     }
 
-    private void listStash() throws IOException {
-        List<StashEntry> stash = loadStash();
-        
-        if (stash.isEmpty()) {
-            System.out.println("No stash entries");
+    private void collectUntracked(File dir, String prefix, Map<String, String> indexEntries,
+                                  Map<String, String> untracked) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
             return;
         }
-
-        System.out.println("Stashed changes:");
-        int batchNum = 0;
-        for (StashEntry entry : stash) {
-            System.out.println("  " + entry.path + " (" + entry.hash.substring(0, 7) + ")");
-            if (entry.isBatchEnd) {
-                batchNum++;
-                if (batchNum < countBatches(stash)) {
-                    System.out.println("  ---");
-                }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
             }
-        }
-    }
-
-    private int countBatches(List<StashEntry> stash) {
-        int count = 0;
-        for (StashEntry entry : stash) {
-            if (entry.isBatchEnd) {
-                count++;
+            String path = prefix.isEmpty() ? name : prefix + "/" + name;
+            if (child.isDirectory()) {
+                collectUntracked(child, path, indexEntries, untracked);
+            } else if (child.isFile() && !indexEntries.containsKey(path)) {
+                untracked.put(path, store.writeBlob(child.toPath()));
             }
         }
-        return count;
     }
 
-    private void clearStash() throws IOException {
-        File stashFile = store.getStashFile();
-        if (stashFile.exists()) {
-            stashFile.delete();
-        }
-        System.out.println("Stash cleared");
+    private String describe(String commitHash) throws IOException {
+        Commit commit = Commit.deserialize(store.readObject(commitHash));
+        String subject = commit.getMessage().split("\n", 2)[0];
+        return commitHash.substring(0, 7) + " " + subject;
     }
 
-    private List<StashEntry> loadStash() throws IOException {
-        List<StashEntry> entries = new ArrayList<>();
-        File stashFile = store.getStashFile();
-        
-        if (!stashFile.exists()) {
-            return entries;
+    // Applies the difference between the entry and the index it was made on, so only the stashed
+    // files are touched
+    private void popStash() throws IOException {
+        Stash stash = new Stash(store);
+        String top = stash.get(0);
+        if (top == null) {
+            System.out.println("No stash entries found");
+            return;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(stashFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(" ", 3);
-                if (parts.length >= 2) {
-                    boolean isBatchEnd = parts.length > 2 && "END".equals(parts[2]);
-                    entries.add(new StashEntry(parts[1], parts[0], null, isBatchEnd));
-                }
+        Commit commit = Commit.deserialize(store.readObject(top));
+        List<String> parents = commit.getParentHashes();
+        Map<String, String> work = readTree(commit.getTreeHash());
+        Map<String, String> base = readTree(Commit.deserialize(store.readObject(parents.get(0))).getTreeHash());
+        Map<String, String> untracked = parents.size() > 1
+                ? readTree(Commit.deserialize(store.readObject(parents.get(1))).getTreeHash())
+                : new HashMap<>();
+
+        // Untracked files are not overwritten; the entry stays on the stack
+        for (String path : untracked.keySet()) {
+            if (new File(store.getWorkTree(), path).exists()) {
+                System.out.println("error: " + path + " already exists, no checkout");
+                System.out.println("The stash entry is kept in case you need it again.");
+                return;
             }
         }
 
-        return entries;
-    }
-
-    private void saveStash(List<StashEntry> entries) throws IOException {
-        File stashFile = store.getStashFile();
-        stashFile.getParentFile().mkdirs();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(stashFile))) {
-            for (int i = 0; i < entries.size(); i++) {
-                StashEntry entry = entries.get(i);
-                writer.write(entry.hash + " " + entry.path);
-                
-                // Mark batch end
-                if (entry.isBatchEnd) {
-                    writer.write(" END");
-                }
-                
-                writer.newLine();
+        int restored = 0;
+        for (Map.Entry<String, String> entry : work.entrySet()) {
+            if (!entry.getValue().equals(base.get(entry.getKey()))) {
+                restore(entry.getKey(), entry.getValue());
+                restored++;
             }
         }
-    }
-
-    private void writeObject(String hash, byte[] data) throws IOException {
-        File objectFile = store.getObjectFile(hash);
-        if (objectFile.exists()) {
-            return;
+        for (String path : base.keySet()) {
+            if (!work.containsKey(path)) {
+                Files.deleteIfExists(new File(store.getWorkTree(), path).toPath());
+                restored++;
+            }
+        }
+        for (Map.Entry<String, String> entry : untracked.entrySet()) {
+            restore(entry.getKey(), entry.getValue());
+            restored++;
         }
 
-        objectFile.getParentFile().mkdirs();
+        stash.pop();
+        System.out.println("Restored " + restored + " file(s) from stash");
+    }
 
-        Path tmp = Files.createTempFile(objectFile.getParentFile().toPath(), "opipop-obj-", ".tmp");
-        try {
-            Files.write(tmp, data);
-            Files.move(tmp, objectFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        } finally {
-            try {
-                Files.deleteIfExists(tmp);
-            } catch (IOException e) {
-                // Ignore
-            }
+    private void restore(String path, String hash) throws IOException {
+        if (!store.hasObject(hash)) {
+            System.out.println("Warning: stashed object not found for " + path);
+            return;
         }
+        Path target = new File(store.getWorkTree(), path).toPath();
+        Files.createDirectories(target.getParent());
+        store.copyObject(hash, target);
     }
 
-    private static class StashEntry {
-        String path;
-        String hash;
-        byte[] content;
-        boolean isBatchEnd;
+    private Map<String, String> readTree(String treeHash) throws IOException {
+        return Tree.deserialize(store.readObject(treeHash)).getEntries();
+    }
 
-        StashEntry(String path, String hash, byte[] content) {
-            this(path, hash, content, false);
+    private void listStash() throws IOException {
+        List<Reflog.Entry> entries = new Stash(store).list();
+        if (entries.isEmpty()) {
+            System.out.println("No stash entries");
+            return;
         }
 
-        StashEntry(String path, String hash, byte[] content, boolean isBatchEnd) {
-            this.path = path;
-            this.hash = hash;
-            this.content = content;
-            this.isBatchEnd = isBatchEnd;
+        for (int i = 0; i < entries.size(); i++) {
+            System.out.println("stash@{" + i + "}: " + entries.get(i).getMessage());
         }
     }
+
+    private void clearStash() throws IOException {
+        new Stash(store).clear();
+        System.out.println("Stash cleared");
+    }
 }
@@ -1,19 +1,18 @@
 package com.ivanarroyo.commands;
 
-import com.ivanarroyo.core.Index;
 import com.ivanarroyo.core.ObjectStore;
-import com.ivanarroyo.core.Tree;
-import com.ivanarroyo.core.Commit;
-import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.core.Repository;
+import com.ivanarroyo.diff.Rename;
+import com.ivanarroyo.diff.RenameDetector;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class StatusCommand implements Command {
     private final ObjectStore store;
@@ -24,53 +23,46 @@ public class StatusCommand implements Command {
 
     @Override
     public void execute(String[] args) throws Exception {
-        String branch = store.getCurrentBranch();
-        System.out.println("On branch " + branch);
+        Repository repository = Repository.open(store);
+        Repository.Status status = repository.status();
+        System.out.println("On branch " + status.getBranch());
         System.out.println();
 
-        Index index = new Index(store.getIndexFile());
-        Map<String, String> indexEntries = index.getEntries();
+        Map<String, String> indexEntries = status.getIndex();
+        Map<String, String> headTree = status.getHeadTree();
 
-        Map<String, String> headTree = getHeadTree();
-        Map<String, String> workingDir = getWorkingDirectory();
-
-        Set<String> stagedForCommit = new HashSet<>();
-        Set<String> modified = new HashSet<>();
-        Set<String> deleted = new HashSet<>();
-        Set<String> untracked = new HashSet<>();
-
-        // Check staged changes
-        for (Map.Entry<String, String> entry : indexEntries.entrySet()) {
-            String path = entry.getKey();
-            String indexHash = entry.getValue();
-            String headHash = headTree.get(path);
-
-            if (!indexHash.equals(headHash)) {
-                stagedForCommit.add(path);
-            }
+        Set<String> stagedForCommit = new TreeSet<>(status.getAdded());
+        stagedForCommit.addAll(status.getChanged());
+        Map<String, String> stagedDeleted = new TreeMap<>();
+        for (String path : status.getRemoved()) {
+            stagedDeleted.put(path, headTree.get(path));
         }
 
-        // Check working directory changes
-        for (Map.Entry<String, String> entry : indexEntries.entrySet()) {
-            String path = entry.getKey();
-            String indexHash = entry.getValue();
-            String workHash = workingDir.get(path);
-
-            if (workHash == null) {
-                deleted.add(path);
-            } else if (!workHash.equals(indexHash)) {
-                modified.add(path);
-            }
+        // A staged new file with the same or similar content as a staged deletion is shown as a rename
+        Map<String, String> stagedAdded = new TreeMap<>();
+        for (String path : status.getAdded()) {
+            stagedAdded.put(path, indexEntries.get(path));
+        }
+        List<Rename> renames = detectRenames(repository, stagedDeleted, stagedAdded);
+        for (Rename rename : renames) {
+            stagedForCommit.remove(rename.getNewPath());
+            stagedDeleted.remove(rename.getOldPath());
         }
 
-        // Check untracked files
-        for (String path : workingDir.keySet()) {
-            if (!indexEntries.containsKey(path)) {
-                untracked.add(path);
+        Set<String> conflicts = status.getConflicts();
+        Set<String> modified = status.getModified();
+        Set<String> deleted = status.getMissing();
+        Set<String> untracked = status.getUntracked();
+
+        if (!conflicts.isEmpty()) {
+            System.out.println("Unmerged paths:");
+            for (String path : conflicts) {
+                System.out.println("  both modified: " + path);
             }
+            System.out.println();
         }
 
-        if (!stagedForCommit.isEmpty()) {
+        if (!stagedForCommit.isEmpty() || !stagedDeleted.isEmpty() || !renames.isEmpty()) {
             System.out.println("Changes to be committed:");
             for (String path : stagedForCommit) {
                 if (headTree.containsKey(path)) {
@@ -79,6 +71,12 @@ public class StatusCommand implements Command {
                     System.out.println("  new file: " + path);
                 }
             }
+            for (Rename rename : renames) {
+                System.out.println("  renamed: " + rename.getOldPath() + " -> " + rename.getNewPath());
+            }
+            for (String path : stagedDeleted.keySet()) {
+                System.out.println("  deleted: " + path);
+            }
             System.out.println();
         }
 
@@ -101,59 +99,19 @@ public class StatusCommand implements Command {
             System.out.println();
         }
 
-        if (stagedForCommit.isEmpty() && modified.isEmpty() && deleted.isEmpty() && untracked.isEmpty()) {
+        if (conflicts.isEmpty() && stagedForCommit.isEmpty() && stagedDeleted.isEmpty() && renames.isEmpty() && modified.isEmpty() && deleted.isEmpty() && untracked.isEmpty()) {
             System.out.println("nothing to commit, working tree clean");
         }
     }
 
-    private Map<String, String> getHeadTree() throws IOException {
-        String commitHash = store.getHeadCommit();
-        if (commitHash == null) {
-            return new HashMap<>();
-        }
-
-        File commitFile = store.getObjectFile(commitHash);
-        if (!commitFile.exists()) {
-            return new HashMap<>();
-        }
-
-        byte[] commitData = Files.readAllBytes(commitFile.toPath());
-        Commit commit = Commit.deserialize(commitData);
-
-        File treeFile = store.getObjectFile(commit.getTreeHash());
-        if (!treeFile.exists()) {
-            return new HashMap<>();
-        }
-
-        byte[] treeData = Files.readAllBytes(treeFile.toPath());
-        Tree tree = Tree.deserialize(treeData);
-        return tree.getEntries();
-    }
-
-    private Map<String, String> getWorkingDirectory() throws IOException {
-        Map<String, String> files = new HashMap<>();
-        File currentDir = new File(".");
-        scanDirectory(currentDir, "", files);
-        return files;
-    }
-
-    private void scanDirectory(File dir, String prefix, Map<String, String> files) throws IOException {
-        File[] children = dir.listFiles();
-        if (children == null) return;
-
-        for (File child : children) {
-            String name = child.getName();
-            if (name.equals(".opipop") || name.startsWith(".")) continue;
-
-            String path = prefix.isEmpty() ? name : prefix + "/" + name;
-
-            if (child.isDirectory()) {
-                scanDirectory(child, path, files);
-            } else if (child.isFile()) {
-                byte[] content = Files.readAllBytes(child.toPath());
-                String hash = HashUtils.sha1(content);
-                files.put(path, hash);
-            }
+    private List<Rename> detectRenames(Repository repository, Map<String, String> deleted, Map<String, String> added) throws IOException {
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new ArrayList<>();
         }
+        // Index entries can name blobs that were never written; those only match by id
+        RenameDetector detector = new RenameDetector(
+                (path, id) -> store.hasObject(id) ? repository.readObject(id) : new byte[0],
+                RenameDetector.DEFAULT_THRESHOLD, Runtime.getRuntime().availableProcessors());
+        return detector.detect(deleted, added, new HashMap<>());
     }
 }
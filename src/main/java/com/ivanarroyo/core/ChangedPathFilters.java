@@ -0,0 +1,149 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.BloomFilter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Memory-mapped per-commit Bloom filters of the paths changed against the first parent, stored next to
+// the commit-graph and indexed by graph position. Layout (big-endian):
+//   "OPBF" | version:int | graph checksum:20 bytes | count:int
+//   ends: count ints, cumulative end offset of each filter in the data section
+//   data: filters back to back
+// An empty filter means the commit changed too many paths to be worth filtering.
+public class ChangedPathFilters {
+    static final byte[] MAGIC = "OPBF".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int MAX_CHANGED_PATHS = 512;
+
+    private static final int HEADER_SIZE = 4 + 4 + CommitGraph.CHECKSUM_SIZE + 4;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int dataOffset;
+
+    private ChangedPathFilters(MappedByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+        this.dataOffset = HEADER_SIZE + count * 4;
+    }
+
+    // Returns null when there are no filters or they were written for a different commit-graph
+    public static ChangedPathFilters open(ObjectStore store, CommitGraph graph) throws IOException {
+        File file = store.getChangedPathsFile();
+        if (graph == null || !file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            byte[] checksum = new byte[CommitGraph.CHECKSUM_SIZE];
+            buffer.get(magic);
+            int version = buffer.getInt();
+            buffer.get(checksum);
+            int count = buffer.getInt();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION
+                    || !Arrays.equals(checksum, graph.getChecksum()) || count != graph.size()) {
+                return null;
+            }
+            return new ChangedPathFilters(buffer, count);
+        }
+    }
+
+    // False only if the commit at this graph position certainly did not change the path
+    public boolean maybeChanged(int position, String path) {
+        int start = start(position);
+        int length = buffer.getInt(HEADER_SIZE + position * 4) - start;
+        if (length == 0) {
+            return true;
+        }
+        return BloomFilter.mightContain(buffer, dataOffset + start, length, path);
+    }
+
+    byte[] getFilter(int position) {
+        int start = start(position);
+        byte[] filter = new byte[buffer.getInt(HEADER_SIZE + position * 4) - start];
+        for (int i = 0; i < filter.length; i++) {
+            filter[i] = buffer.get(dataOffset + start + i);
+        }
+        return filter;
+    }
+
+    private int start(int position) {
+        return position == 0 ? 0 : buffer.getInt(HEADER_SIZE + (position - 1) * 4);
+    }
+
+    // Paths whose entries differ between the two flat trees, plus all of their parent directories
+    static byte[] createFilter(Map<String, String> tree, Map<String, String> parentTree) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> entry : tree.entrySet()) {
+            if (!entry.getValue().equals(parentTree.get(entry.getKey()))) {
+                addWithParents(changed, entry.getKey());
+            }
+        }
+        for (String path : parentTree.keySet()) {
+            if (!tree.containsKey(path)) {
+                addWithParents(changed, path);
+            }
+        }
+        if (changed.size() > MAX_CHANGED_PATHS) {
+            return new byte[0];
+        }
+        BloomFilter filter = new BloomFilter(changed.size());
+        for (String path : changed) {
+            filter.add(path);
+        }
+        return filter.toByteArray();
+    }
+
+    private static void addWithParents(Set<String> changed, String path) {
+        String current = path;
+        while (changed.add(current)) {
+            int slash = current.lastIndexOf('/');
+            if (slash < 0) {
+                return;
+            }
+            current = current.substring(0, slash);
+        }
+    }
+
+    static void write(File target, byte[] graphChecksum, List<byte[]> filters) throws IOException {
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), "commit-graph-bloom-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.write(graphChecksum);
+                out.writeInt(filters.size());
+                int end = 0;
+                for (byte[] filter : filters) {
+                    end += filter.length;
+                    out.writeInt(end);
+                }
+                for (byte[] filter : filters) {
+                    out.write(filter);
+                }
+            }
+            Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
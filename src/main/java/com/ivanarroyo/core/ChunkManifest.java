@@ -0,0 +1,184 @@
+package com.ivanarroyo.core;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Manifest of a chunked blob. It is stored under the id of the full content, so trees and the
+// index reference chunked and plain blobs the same way. Layout:
+//   \0opipop-chunked\n
+//   size <20-digit total length>\n
+//   <chunk hash> <chunk length>\n   (one line per chunk, in order)
+// No other stored object ever begins with the magic, so any object that does is a manifest.
+public final class ChunkManifest {
+    static final byte[] MAGIC = "\0opipop-chunked\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkManifest() { }
+
+    public static boolean isManifest(Path objectFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(objectFile, StandardOpenOption.READ)) {
+            return startsWithMagic(channel);
+        }
+    }
+
+    static boolean startsWithMagic(FileChannel channel) throws IOException {
+        if (channel.size() < MAGIC.length) {
+            return false;
+        }
+        ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+        while (head.hasRemaining() && channel.read(head, head.position()) != -1) {
+            // keep reading until the magic length is filled
+        }
+        return Arrays.equals(head.array(), MAGIC);
+    }
+
+    static boolean startsWithMagic(byte[] data, int length) {
+        return length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    // Compares in place, without moving the buffer's position
+    static boolean startsWithMagic(ByteBuffer data) {
+        if (data.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(data.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Reader open(Path objectFile) throws IOException {
+        return new Reader(Files.newInputStream(objectFile));
+    }
+
+    static Reader open(InputStream in) throws IOException {
+        return new Reader(in);
+    }
+
+    public static Writer create(Path target) throws IOException {
+        return new Writer(target);
+    }
+
+    public static final class Chunk {
+        private final String hash;
+        private final long length;
+
+        Chunk(String hash, long length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final BufferedReader reader;
+        private final long size;
+
+        private Reader(InputStream in) throws IOException {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                in.close();
+                throw new IOException("Not a chunk manifest");
+            }
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+            String sizeLine = reader.readLine();
+            if (sizeLine == null || !sizeLine.startsWith("size ")) {
+                reader.close();
+                throw new IOException("Corrupt chunk manifest: missing size");
+            }
+            this.size = Long.parseLong(sizeLine.substring(5).trim());
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // Returns the next chunk, or null after the last one
+        public Chunk next() throws IOException {
+            String line = reader.readLine();
+            if (line == null || line.isEmpty()) {
+                return null;
+            }
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IOException("Corrupt chunk manifest line: " + line);
+            }
+            return new Chunk(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long size;
+
+        private Writer(Path target) throws IOException {
+            this.channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.put(MAGIC);
+            buffer.put(sizeLine(0));
+        }
+
+        public void add(String hash, long length) throws IOException {
+            byte[] line = (hash + " " + length + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (buffer.remaining() < line.length) {
+                flush();
+            }
+            buffer.put(line);
+            size += length;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // Writes any buffered lines and patches the fixed-width size header
+        public void finish() throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.wrap(sizeLine(size));
+            long position = MAGIC.length;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private static byte[] sizeLine(long size) {
+            return String.format("size %020d\n", size).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ivanarroyo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reassembles a chunked blob by opening one chunk at a time
+class ChunkedBlobInputStream extends InputStream {
+    private final ObjectStore store;
+    private final ChunkManifest.Reader manifest;
+    private InputStream current;
+    private boolean finished;
+
+    ChunkedBlobInputStream(ObjectStore store, ChunkManifest.Reader manifest) {
+        this.store = store;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!finished) {
+            if (current == null && !advance()) {
+                return -1;
+            }
+            int n = current.read(b, off, len);
+            if (n != -1) {
+                return n;
+            }
+            current.close();
+            current = null;
+        }
+        return -1;
+    }
+
+    private boolean advance() throws IOException {
+        ChunkManifest.Chunk chunk = manifest.next();
+        if (chunk == null) {
+            finished = true;
+            return false;
+        }
+        if (!store.hasObject(chunk.getHash())) {
+            throw new IOException("Missing chunk " + chunk.getHash());
+        }
+        current = store.openRawObject(chunk.getHash());
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+        manifest.close();
+    }
+}
@@ -3,6 +3,7 @@ package com.ivanarroyo.core;
 import java.io.File;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,19 +11,37 @@ import java.util.Map;
 public class Commit {
     private String hash;
     private String treeHash;
-    private String parentHash;
+    private List<String> parentHashes;
     private String message;
     private long timestamp;
     private String author;
 
     public Commit(String treeHash, String parentHash, String message, String author) {
+        this(treeHash, parentHash == null ? Collections.emptyList() : Collections.singletonList(parentHash),
+                message, author);
+    }
+
+    private Commit(String treeHash, List<String> parentHashes, String message, String author) {
         this.treeHash = treeHash;
-        this.parentHash = parentHash;
+        this.parentHashes = Collections.unmodifiableList(new ArrayList<>(parentHashes));
         this.message = message;
         this.timestamp = Instant.now().getEpochSecond();
         this.author = author;
     }
 
+    // Merge commits have several parents; the first one is the branch that was merged into
+    public static Commit withParents(String treeHash, List<String> parentHashes, String message, String author) {
+        return new Commit(treeHash, parentHashes, message, author);
+    }
+
+    // For commits recreated from elsewhere, such as fast-import, which keep their original time
+    public static Commit withParents(String treeHash, List<String> parentHashes, String message, String author,
+                                     long timestamp) {
+        Commit commit = new Commit(treeHash, parentHashes, message, author);
+        commit.timestamp = timestamp;
+        return commit;
+    }
+
     public String getHash() {
         return hash;
     }
@@ -36,7 +55,11 @@ public class Commit {
     }
 
     public String getParentHash() {
-        return parentHash;
+        return parentHashes.isEmpty() ? null : parentHashes.get(0);
+    }
+
+    public List<String> getParentHashes() {
+        return parentHashes;
     }
 
     public String getMessage() {
@@ -54,7 +77,7 @@ public class Commit {
     public byte[] serialize() {
         StringBuilder sb = new StringBuilder();
         sb.append("tree ").append(treeHash).append("\n");
-        if (parentHash != null) {
+        for (String parentHash : parentHashes) {
             sb.append("parent ").append(parentHash).append("\n");
         }
         sb.append("author ").append(author).append(" ").append(timestamp).append("\n");
@@ -68,7 +91,7 @@ public class Commit {
         String[] lines = content.split("\n");
 
         String treeHash = null;
-        String parentHash = null;
+        List<String> parentHashes = new ArrayList<>();
         String author = null;
         long timestamp = 0;
         StringBuilder message = new StringBuilder();
@@ -83,28 +106,35 @@ public class Commit {
             } else if (line.startsWith("tree ")) {
                 treeHash = line.substring(5).trim();
             } else if (line.startsWith("parent ")) {
-                parentHash = line.substring(7).trim();
+                parentHashes.add(line.substring(7).trim());
             } else if (line.startsWith("author ")) {
-                String[] parts = line.substring(7).trim().split(" ");
-                author = parts[0];
-                if (parts.length > 1) {
-                    timestamp = Long.parseLong(parts[1]);
+                // The timestamp is the last word; the author may contain spaces
+                String rest = line.substring(7).trim();
+                int space = rest.lastIndexOf(' ');
+                author = rest;
+                if (space >= 0 && isNumber(rest.substring(space + 1))) {
+                    author = rest.substring(0, space);
+                    timestamp = Long.parseLong(rest.substring(space + 1));
                 }
             } else if (line.isEmpty()) {
                 inMessage = true;
             }
         }
 
-        System.out.println("Deserialized commit:");
-        System.out.println("Tree: " + treeHash);
-        System.out.println("Parent: " + parentHash);
-        System.out.println("Author: " + author);
-        System.out.println("Timestamp: " + timestamp);
-        System.out.println("Message: " + message.toString());
-
-
-        Commit commit = new Commit(treeHash, parentHash, message.toString(), author);
+        Commit commit = new Commit(treeHash, parentHashes, message.toString(), author);
         commit.timestamp = timestamp;
         return commit;
-    } 
+    }
+
+    private static boolean isNumber(String text) {
+        if (text.isEmpty() || text.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
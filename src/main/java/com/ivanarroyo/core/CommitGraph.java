@@ -0,0 +1,168 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Memory-mapped view of the commit-graph file. Layout (big-endian):
+//   "OPCG" | version:int | hashBytes:int | count:int
+//   fanout: 256 ints, number of commits whose first id byte is <= i
+//   ids:    count * hashBytes, sorted
+//   data:   count * (tree:hashBytes | parent1:int | parent2:int | generation:int | time:long)
+//   extra:  edgeCount:int | edgeCount ints
+//   SHA-1 checksum of everything above
+// A parent value of NO_PARENT means none. If parent2 has EXTRA_EDGES set, the low bits index a run
+// in the extra edge list holding the second and later parents; the last entry of a run has LAST_EDGE set.
+public class CommitGraph {
+    static final byte[] MAGIC = "OPCG".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int FANOUT_SIZE = 256 * 4;
+    static final int NO_PARENT = -1;
+    static final int EXTRA_EDGES = 0x40000000;
+    static final int LAST_EDGE = 0x40000000;
+    static final int CHECKSUM_SIZE = 20;
+
+    private final MappedByteBuffer buffer;
+    private final int hashBytes;
+    private final int count;
+    private final int idsOffset;
+    private final int dataOffset;
+    private final int dataWidth;
+    private final int extraOffset;
+
+    private CommitGraph(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.duplicate().get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported commit-graph file");
+        }
+        this.hashBytes = buffer.getInt(8);
+        this.count = buffer.getInt(12);
+        this.idsOffset = HEADER_SIZE + FANOUT_SIZE;
+        this.dataOffset = idsOffset + count * hashBytes;
+        this.dataWidth = hashBytes + 4 + 4 + 4 + 8;
+        this.extraOffset = dataOffset + count * dataWidth;
+    }
+
+    // Returns null when the repository has no commit-graph or it was written with another hash length
+    public static CommitGraph open(ObjectStore store) throws IOException {
+        File file = store.getCommitGraphFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CommitGraph graph = new CommitGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return graph.hashBytes == store.getHashAlgorithm().getDigestLength() ? graph : null;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Position of a commit in the graph, or -1 if it is not present
+    public int find(String id) {
+        byte[] key = HashUtils.hexToBytes(id);
+        if (key == null || key.length != hashBytes) {
+            return -1;
+        }
+        int first = key[0] & 0xFF;
+        int low = first == 0 ? 0 : buffer.getInt(HEADER_SIZE + (first - 1) * 4);
+        int high = buffer.getInt(HEADER_SIZE + first * 4) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String getId(int position) {
+        return readHex(idsOffset + position * hashBytes);
+    }
+
+    public String getTreeId(int position) {
+        return readHex(dataOffset + position * dataWidth);
+    }
+
+    public List<Integer> getParents(int position) {
+        int base = dataOffset + position * dataWidth + hashBytes;
+        int parent1 = buffer.getInt(base);
+        int parent2 = buffer.getInt(base + 4);
+        if (parent1 == NO_PARENT) {
+            return Collections.emptyList();
+        }
+        List<Integer> parents = new ArrayList<>(2);
+        parents.add(parent1);
+        if (parent2 == NO_PARENT) {
+            return parents;
+        }
+        if ((parent2 & EXTRA_EDGES) == 0) {
+            parents.add(parent2);
+            return parents;
+        }
+        int edge = parent2 & ~EXTRA_EDGES;
+        while (true) {
+            int value = buffer.getInt(extraOffset + 4 + edge * 4);
+            parents.add(value & ~LAST_EDGE);
+            if ((value & LAST_EDGE) != 0) {
+                return parents;
+            }
+            edge++;
+        }
+    }
+
+    // Identifies this version of the file; companion files record it to detect a stale pairing
+    public byte[] getChecksum() {
+        byte[] checksum = new byte[CHECKSUM_SIZE];
+        ByteBuffer view = buffer.duplicate();
+        view.position(buffer.capacity() - CHECKSUM_SIZE);
+        view.get(checksum);
+        return checksum;
+    }
+
+    public int getGeneration(int position) {
+        return buffer.getInt(dataOffset + position * dataWidth + hashBytes + 8);
+    }
+
+    public long getCommitTime(int position) {
+        return buffer.getLong(dataOffset + position * dataWidth + hashBytes + 12);
+    }
+
+    private int compareId(int position, byte[] key) {
+        int offset = idsOffset + position * hashBytes;
+        for (int i = 0; i < hashBytes; i++) {
+            int cmp = Integer.compare(buffer.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String readHex(int offset) {
+        byte[] raw = new byte[hashBytes];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(raw);
+        return HashUtils.bytesToHex(raw);
+    }
+}
@@ -0,0 +1,248 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CommitGraphWriter {
+    private final ObjectStore store;
+
+    public CommitGraphWriter(ObjectStore store) {
+        this.store = store;
+    }
+
+    // Rewrites the commit-graph and its changed-path filters with every commit reachable from the
+    // branches and HEAD. Commits already in the previous graph are copied from it instead of being parsed again.
+    public int write() throws IOException {
+        int hashBytes = store.getHashAlgorithm().getDigestLength();
+        CommitGraph previous = CommitGraph.open(store);
+        ChangedPathFilters previousFilters = ChangedPathFilters.open(store, previous);
+
+        List<String> tips = new ArrayList<>(store.getBranches().values());
+        String head = store.getHeadCommit();
+        if (head != null) {
+            tips.add(head);
+        }
+
+        // Refs that do not name a valid commit object are skipped; missing parents are an error
+        Map<String, Node> nodes = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (String tip : tips) {
+            if (!nodes.containsKey(tip)) {
+                Node node = load(tip, previous, previousFilters, hashBytes);
+                if (node != null) {
+                    nodes.put(tip, node);
+                    pending.addAll(node.parents);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (nodes.containsKey(id)) {
+                continue;
+            }
+            Node node = load(id, previous, previousFilters, hashBytes);
+            if (node == null) {
+                throw new IOException("Missing commit " + id);
+            }
+            nodes.put(id, node);
+            for (String parent : node.parents) {
+                pending.push(parent);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(nodes.keySet());
+        Collections.sort(ids);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+        int[] generations = computeGenerations(ids, nodes, positions);
+
+        byte[] checksum = writeFile(ids, nodes, positions, generations, hashBytes);
+        ChangedPathFilters.write(store.getChangedPathsFile(), checksum, computeFilters(ids, nodes));
+        return ids.size();
+    }
+
+    private Node load(String id, CommitGraph previous, ChangedPathFilters previousFilters, int hashBytes)
+            throws IOException {
+        if (previous != null) {
+            int position = previous.find(id);
+            if (position >= 0) {
+                List<String> parents = new ArrayList<>();
+                for (int parent : previous.getParents(position)) {
+                    parents.add(previous.getId(parent));
+                }
+                Node node = new Node(previous.getTreeId(position), parents, previous.getCommitTime(position));
+                if (previousFilters != null) {
+                    node.filter = previousFilters.getFilter(position);
+                }
+                return node;
+            }
+        }
+
+        byte[] raw = HashUtils.hexToBytes(id);
+        if (raw == null || raw.length != hashBytes || !store.hasObject(id)) {
+            return null;
+        }
+        Commit commit = Commit.deserialize(store.readObject(id));
+        byte[] tree = HashUtils.hexToBytes(commit.getTreeHash());
+        if (tree == null || tree.length != hashBytes) {
+            return null;
+        }
+        return new Node(commit.getTreeHash(), commit.getParentHashes(), commit.getTimestamp());
+    }
+
+    // generation = 1 + max(generation of parents), computed iteratively to survive deep histories
+    private static int[] computeGenerations(List<String> ids, Map<String, Node> nodes, Map<String, Integer> positions) {
+        int[] generations = new int[ids.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int start = 0; start < ids.size(); start++) {
+            if (generations[start] != 0) {
+                continue;
+            }
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int current = stack.peek();
+                if (generations[current] != 0) {
+                    stack.pop();
+                    continue;
+                }
+                int max = 0;
+                boolean ready = true;
+                for (String parent : nodes.get(ids.get(current)).parents) {
+                    int p = positions.get(parent);
+                    if (generations[p] == 0) {
+                        stack.push(p);
+                        ready = false;
+                    } else {
+                        max = Math.max(max, generations[p]);
+                    }
+                }
+                if (ready) {
+                    generations[current] = max + 1;
+                    stack.pop();
+                }
+            }
+        }
+        return generations;
+    }
+
+    // Filters compare each commit with its first parent, like path-limited log does
+    private List<byte[]> computeFilters(List<String> ids, Map<String, Node> nodes) throws IOException {
+        Map<String, Map<String, String>> trees = new HashMap<>();
+        List<byte[]> filters = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Node node = nodes.get(id);
+            if (node.filter == null) {
+                Map<String, String> parentTree = node.parents.isEmpty()
+                        ? Collections.emptyMap()
+                        : readTree(nodes.get(node.parents.get(0)).tree, trees);
+                node.filter = ChangedPathFilters.createFilter(readTree(node.tree, trees), parentTree);
+            }
+            filters.add(node.filter);
+        }
+        return filters;
+    }
+
+    private Map<String, String> readTree(String treeId, Map<String, Map<String, String>> trees) throws IOException {
+        Map<String, String> entries = trees.get(treeId);
+        if (entries == null) {
+            entries = Tree.deserialize(store.readObject(treeId)).getEntries();
+            trees.put(treeId, entries);
+        }
+        return entries;
+    }
+
+    private byte[] writeFile(List<String> ids, Map<String, Node> nodes, Map<String, Integer> positions,
+                             int[] generations, int hashBytes) throws IOException {
+        File target = store.getCommitGraphFile();
+        target.getParentFile().mkdirs();
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), "commit-graph-", ".tmp");
+        try {
+            List<Integer> extraEdges = new ArrayList<>();
+            MessageDigest digest = HashUtils.newSha1();
+            byte[] checksum;
+            try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16), digest))) {
+                out.write(CommitGraph.MAGIC);
+                out.writeInt(CommitGraph.VERSION);
+                out.writeInt(hashBytes);
+                out.writeInt(ids.size());
+
+                int[] fanout = new int[256];
+                for (String id : ids) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+                }
+                int running = 0;
+                for (int i = 0; i < 256; i++) {
+                    running += fanout[i];
+                    out.writeInt(running);
+                }
+
+                for (String id : ids) {
+                    out.write(HashUtils.hexToBytes(id));
+                }
+
+                for (int i = 0; i < ids.size(); i++) {
+                    Node node = nodes.get(ids.get(i));
+                    out.write(HashUtils.hexToBytes(node.tree));
+                    List<String> parents = node.parents;
+                    out.writeInt(parents.isEmpty() ? CommitGraph.NO_PARENT : positions.get(parents.get(0)));
+                    if (parents.size() <= 1) {
+                        out.writeInt(CommitGraph.NO_PARENT);
+                    } else if (parents.size() == 2) {
+                        out.writeInt(positions.get(parents.get(1)));
+                    } else {
+                        out.writeInt(CommitGraph.EXTRA_EDGES | extraEdges.size());
+                        for (int p = 1; p < parents.size(); p++) {
+                            int position = positions.get(parents.get(p));
+                            extraEdges.add(p == parents.size() - 1 ? position | CommitGraph.LAST_EDGE : position);
+                        }
+                    }
+                    out.writeInt(generations[i]);
+                    out.writeLong(node.time);
+                }
+
+                out.writeInt(extraEdges.size());
+                for (int edge : extraEdges) {
+                    out.writeInt(edge);
+                }
+                checksum = digest.digest();
+                out.write(checksum);
+            }
+            Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return checksum;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static final class Node {
+        final String tree;
+        final List<String> parents;
+        final long time;
+        byte[] filter;
+
+        Node(String tree, List<String> parents, long time) {
+            this.tree = tree;
+            this.parents = parents;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ivanarroyo.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public class Config {
+    private final File configFile;
+    private final Properties properties;
+
+    public Config(File configFile) {
+        this.configFile = configFile;
+        this.properties = new Properties();
+        load();
+    }
+
+    public String get(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Invalid value for " + key + " in " + configFile + ": " + value);
+        }
+    }
+
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public void save() throws IOException {
+        configFile.getParentFile().mkdirs();
+        Map<String, String> sorted = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            sorted.put(key, properties.getProperty(key));
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(configFile))) {
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue());
+                writer.newLine();
+            }
+        }
+    }
+
+    private void load() {
+        if (!configFile.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
+            properties.load(reader);
+        } catch (IOException e) {
+            // Ignore, fall back to defaults
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.ivanarroyo.core;
+
+// Content-defined chunking with a rolling gear hash (FastCDC with normalized chunking).
+// Cut points depend only on nearby content, so an insertion shifts at most a couple of chunks.
+public class FastCdcChunker {
+    public static final int DEFAULT_MIN_SIZE = 64 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // splitmix64 with a fixed seed: the table must never change or chunk boundaries would shift
+        long state = 0x6f706970_6f70L;
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskS;
+    private final long maskL;
+
+    public FastCdcChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    public FastCdcChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = 63 - Long.numberOfLeadingZeros(avgSize);
+        // Harder to cut before the average size, easier after it
+        this.maskS = highBits(bits + 2);
+        this.maskL = highBits(Math.max(1, bits - 2));
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAvgSize() {
+        return avgSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // Returns the length of the next chunk starting at offset
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(end, avgSize);
+        long hash = 0;
+        int i = minSize;
+
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskS) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskL) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    // The gear hash shifts left, so the high bits depend on the most bytes of the window
+    private static long highBits(int count) {
+        return count >= 64 ? -1L : ((1L << count) - 1) << (64 - count);
+    }
+}
@@ -0,0 +1,200 @@
+package com.ivanarroyo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Writes branches' history in the format FastImport reads: every commit after its parents, each
+// preceded by the blobs it introduces, with changes given against its first parent. Authors, times
+// and messages are copied byte for byte, so importing the stream recreates the same commit ids.
+public class FastExport {
+    private static final String HEADS = "refs/heads/";
+
+    private final ObjectStore store;
+    private final Map<String, Long> marks = new HashMap<>();
+    // Tree of every exported commit
+    private final Map<String, String> treeIds = new HashMap<>();
+    private final byte[] buffer = new byte[1 << 16];
+    private long nextMark = 1;
+    private String lastTreeId;
+    private Map<String, String> lastTree;
+
+    public FastExport(ObjectStore store) {
+        this.store = store;
+    }
+
+    // Exports the named branches, or all of them when none are given. Returns the number of commits written.
+    public int run(List<String> branchNames, OutputStream out) throws IOException {
+        Map<String, String> heads = new LinkedHashMap<>();
+        if (branchNames.isEmpty()) {
+            heads.putAll(store.getBranches());
+        }
+        for (String name : branchNames) {
+            String id = store.getBranch(name);
+            if (id == null) {
+                throw new IllegalArgumentException("Branch '" + name + "' does not exist");
+            }
+            heads.put(name, id);
+        }
+
+        int commits = 0;
+        Set<String> seen = new HashSet<>();
+        for (Map.Entry<String, String> head : heads.entrySet()) {
+            String ref = HEADS + head.getKey();
+            for (String id : parentsFirst(head.getValue(), seen)) {
+                writeCommit(ref, id, out);
+                commits++;
+            }
+        }
+        for (Map.Entry<String, String> head : heads.entrySet()) {
+            write(out, "reset " + HEADS + head.getKey() + "\nfrom :" + marks.get(head.getValue()) + "\n\n");
+        }
+        write(out, "done\n");
+        out.flush();
+        return commits;
+    }
+
+    // Commits reachable from the head and not yet seen, each after all of its parents
+    private List<String> parentsFirst(String head, Set<String> seen) throws IOException {
+        List<String> order = new ArrayList<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> expanded = new HashSet<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (seen.contains(id)) {
+                stack.pop();
+            } else if (expanded.add(id)) {
+                List<String> parents = Commit.deserialize(store.readObject(id)).getParentHashes();
+                for (int i = parents.size() - 1; i >= 0; i--) {
+                    if (!seen.contains(parents.get(i))) {
+                        stack.push(parents.get(i));
+                    }
+                }
+            } else {
+                stack.pop();
+                seen.add(id);
+                order.add(id);
+            }
+        }
+        return order;
+    }
+
+    private void writeCommit(String ref, String id, OutputStream out) throws IOException {
+        byte[] raw = store.readObject(id);
+        Commit commit = Commit.deserialize(raw);
+        List<String> parents = commit.getParentHashes();
+        // Parents were exported first; usually the first one just before, so its tree is still at hand
+        Map<String, String> base = parents.isEmpty() ? new HashMap<>() : tree(treeIds.get(parents.get(0)));
+        Map<String, String> files = tree(commit.getTreeHash());
+        treeIds.put(id, commit.getTreeHash());
+
+        StringBuilder changes = new StringBuilder();
+        for (String path : base.keySet()) {
+            if (!files.containsKey(path)) {
+                changes.append("D ").append(path).append('\n');
+            }
+        }
+        for (Map.Entry<String, String> entry : new TreeMap<>(files).entrySet()) {
+            String blob = entry.getValue();
+            if (blob.equals(base.get(entry.getKey()))) {
+                continue;
+            }
+            Long mark = marks.get(blob);
+            if (mark == null) {
+                mark = writeBlob(blob, out);
+            }
+            changes.append("M 100644 :").append(mark).append(' ').append(entry.getKey()).append('\n');
+        }
+
+        int body = indexOf(raw, "\n\n");
+        byte[] message = body < 0 ? new byte[0] : Arrays.copyOfRange(raw, body + 2, raw.length);
+        String header = new String(raw, 0, body < 0 ? raw.length : body, StandardCharsets.UTF_8);
+        String author = null;
+        for (String line : header.split("\n")) {
+            if (line.startsWith("author ")) {
+                author = line.substring(7);
+            }
+        }
+
+        long mark = nextMark++;
+        marks.put(id, mark);
+        StringBuilder text = new StringBuilder();
+        if (parents.isEmpty()) {
+            // Without it the commit would continue whatever the ref already holds
+            text.append("reset ").append(ref).append('\n');
+        }
+        text.append("commit ").append(ref).append('\n');
+        text.append("mark :").append(mark).append('\n');
+        if (author != null) {
+            text.append("author ").append(author).append('\n');
+        }
+        text.append("data ").append(message.length).append('\n');
+        write(out, text.toString());
+        out.write(message);
+
+        text.setLength(0);
+        text.append('\n');
+        for (int i = 0; i < parents.size(); i++) {
+            text.append(i == 0 ? "from :" : "merge :").append(marks.get(parents.get(i))).append('\n');
+        }
+        text.append(changes).append('\n');
+        write(out, text.toString());
+    }
+
+    private long writeBlob(String id, OutputStream out) throws IOException {
+        long mark = nextMark++;
+        marks.put(id, mark);
+        ObjectInfo info = store.getObjectInfo(id);
+        if (info == null) {
+            throw new IllegalStateException("Missing blob " + id);
+        }
+        write(out, "blob\nmark :" + mark + "\ndata " + info.getSize() + "\n");
+        try (InputStream in = store.openObject(id)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        write(out, "\n");
+        return mark;
+    }
+
+    private Map<String, String> tree(String treeId) throws IOException {
+        if (!treeId.equals(lastTreeId)) {
+            lastTree = Tree.deserialize(store.readObject(treeId)).getEntries();
+            lastTreeId = treeId;
+        }
+        return lastTree;
+    }
+
+    private static int indexOf(byte[] data, String separator) {
+        byte[] target = separator.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + target.length <= data.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < target.length && match; j++) {
+                match = data[i + j] == target[j];
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,465 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.PersistentHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Reads a stream of history and writes it straight into packs, without touching the index or work
+// tree. Commands, each ended by a blank line or the next command:
+//
+//   blob                              commit <ref>                       reset <ref>
+//   mark :<n>                         mark :<n>                          from <commit>
+//   data <count>                      author <who> <time> [<tz>]
+//   <count bytes>                     data <count>
+//                                     <count bytes of message>
+//   done                              from <commit>
+//                                     merge <commit>
+//                                     M <mode> <blob> <path> | D <path> | deleteall
+//
+// A commit is ":<mark>", a full id, or a ref; a blob is ":<mark>" or a full id. A commit without
+// "from" continues its branch. Marks and each branch's files are kept in memory, the files as
+// persistent maps so branching off copies nothing. Refs are all moved in one transaction at the
+// end, each only if nobody else moved it during the import.
+//
+// Blobs the store would chunk, because of their size or because they start like a chunk manifest,
+// are streamed to a temporary file and stored by ObjectStore.writeBlob as loose objects instead.
+public class FastImport {
+    private static final String HEADS = "refs/heads/";
+    // Larger blobs are never held in memory, even below the chunking threshold
+    private static final long MAX_BUFFERED = 16L * 1024 * 1024;
+
+    private final ObjectStore store;
+    private final Map<Long, String> marks = new HashMap<>();
+    private final Map<String, Branch> branches = new TreeMap<>();
+    private PackWriter.Appender pack;
+    private Input input;
+    private final Result result = new Result();
+
+    public FastImport(ObjectStore store) {
+        this.store = store;
+    }
+
+    // Lines of ":<mark> <id>", as written by exportMarks, so an import can continue an earlier one
+    public void importMarks(Path file) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int space = line.indexOf(' ');
+            if (line.startsWith(":") && space > 1) {
+                marks.put(Long.parseLong(line.substring(1, space)), line.substring(space + 1).trim());
+            }
+        }
+    }
+
+    public void exportMarks(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, String> mark : new TreeMap<>(marks).entrySet()) {
+                writer.write(":" + mark.getKey() + " " + mark.getValue());
+                writer.newLine();
+            }
+        }
+    }
+
+    public Result run(InputStream in) throws IOException {
+        input = new Input(in);
+        try (PackWriter.Appender appender = new PackWriter(store).append()) {
+            pack = appender;
+            String line;
+            while ((line = input.next()) != null) {
+                if (line.equals("done")) {
+                    break;
+                } else if (line.equals("blob")) {
+                    blob();
+                } else if (line.startsWith("commit ")) {
+                    commit(line.substring(7));
+                } else if (line.startsWith("reset ")) {
+                    reset(line.substring(6));
+                } else {
+                    throw input.error("unknown command: " + line);
+                }
+            }
+            result.packs = appender.finish().size();
+        }
+        updateRefs();
+        return result;
+    }
+
+    private void blob() throws IOException {
+        Long mark = readMark();
+        String id = writeBlob();
+        result.blobs++;
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    private void commit(String ref) throws IOException {
+        Branch branch = branch(ref);
+        Long mark = readMark();
+        String author = null;
+        String committer = null;
+        long timestamp = System.currentTimeMillis() / 1000;
+        String line;
+        while ((line = input.peek()) != null && (line.startsWith("author ") || line.startsWith("committer "))) {
+            input.next();
+            if (line.startsWith("author ")) {
+                author = line.substring(7);
+            } else {
+                committer = line.substring(10);
+            }
+        }
+        String who = author != null ? author : committer != null ? committer : System.getProperty("user.name", "unknown");
+        // "<who> <time> [<tz>]"; the time zone is not kept
+        String[] words = who.split(" ");
+        int last = words.length - 1;
+        if (last > 0 && words[last].matches("[+-]\\d{4}")) {
+            last--;
+        }
+        if (last > 0 && words[last].matches("\\d+")) {
+            timestamp = Long.parseLong(words[last]);
+            who = String.join(" ", Arrays.copyOf(words, last));
+        }
+        String message = new String(readData(), StandardCharsets.UTF_8);
+
+        List<String> parents = new ArrayList<>();
+        PersistentHashMap<String, String> files;
+        if ((line = input.peek()) != null && line.startsWith("from ")) {
+            input.next();
+            String from = commitish(line.substring(5));
+            parents.add(from);
+            files = filesOf(from);
+        } else if (branch.head != null) {
+            parents.add(branch.head);
+            files = branch.files != null ? branch.files : filesOf(branch.head);
+        } else {
+            files = new PersistentHashMap<>();
+        }
+        while ((line = input.peek()) != null && line.startsWith("merge ")) {
+            input.next();
+            parents.add(commitish(line.substring(6)));
+        }
+
+        while ((line = input.peek()) != null) {
+            if (line.startsWith("M ")) {
+                input.next();
+                String[] parts = line.split(" ", 4);
+                if (parts.length != 4) {
+                    throw input.error("expected M <mode> <blob> <path>: " + line);
+                }
+                String blob = parts[2].equals("inline") ? writeBlob() : resolve(parts[2]);
+                files.put(parts[3], blob);
+            } else if (line.startsWith("D ")) {
+                input.next();
+                files.remove(line.substring(2));
+            } else if (line.equals("deleteall")) {
+                input.next();
+                files.clear();
+            } else {
+                break;
+            }
+        }
+
+        Tree tree = new Tree();
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            tree.addEntry(entry.getKey(), entry.getValue());
+        }
+        String treeId = write(tree.serialize());
+        String id = write(Commit.withParents(treeId, parents, message, who, timestamp).serialize());
+        branch.head = id;
+        branch.files = files;
+        result.commits++;
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    private void reset(String ref) throws IOException {
+        Branch branch = branch(ref);
+        String line = input.peek();
+        if (line != null && line.startsWith("from ")) {
+            input.next();
+            branch.head = commitish(line.substring(5));
+            branch.files = null;
+        } else {
+            branch.head = null;
+            branch.files = new PersistentHashMap<>();
+        }
+    }
+
+    private Branch branch(String ref) throws IOException {
+        if (!ref.startsWith(HEADS) || ref.length() == HEADS.length()) {
+            throw input.error("only branches under " + HEADS + " can be imported: " + ref);
+        }
+        Branch branch = branches.get(ref);
+        if (branch == null) {
+            branch = new Branch(store.getBranch(ref.substring(HEADS.length())));
+            branches.put(ref, branch);
+        }
+        return branch;
+    }
+
+    private void updateRefs() throws IOException {
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            for (Map.Entry<String, Branch> entry : branches.entrySet()) {
+                Branch branch = entry.getValue();
+                if (branch.head != null && !branch.head.equals(branch.original)) {
+                    transaction.update(entry.getKey(), branch.head, branch.original);
+                    result.refs++;
+                }
+            }
+            if (result.refs > 0) {
+                transaction.setMessage("fast-import");
+                transaction.commit();
+            }
+        }
+    }
+
+    // Files of a commit: from a branch already holding it, otherwise read from its tree
+    private PersistentHashMap<String, String> filesOf(String commit) throws IOException {
+        for (Branch branch : branches.values()) {
+            if (commit.equals(branch.head) && branch.files != null) {
+                return branch.files.snapshot();
+            }
+        }
+        PersistentHashMap<String, String> files = new PersistentHashMap<>();
+        files.putAll(Tree.deserialize(read(Commit.deserialize(read(commit)).getTreeHash())).getEntries());
+        return files;
+    }
+
+    private String commitish(String ref) throws IOException {
+        if (ref.startsWith(":") || isId(ref)) {
+            return resolve(ref);
+        }
+        Branch branch = branches.get(ref);
+        String id = branch != null ? branch.head : store.resolveRevision(ref);
+        if (id == null) {
+            throw input.error("unknown commit: " + ref);
+        }
+        return id;
+    }
+
+    private String resolve(String ref) throws IOException {
+        if (ref.startsWith(":")) {
+            String id;
+            try {
+                id = marks.get(Long.parseLong(ref.substring(1)));
+            } catch (NumberFormatException e) {
+                id = null;
+            }
+            if (id == null) {
+                throw input.error("unknown mark: " + ref);
+            }
+            return id;
+        }
+        if (!isId(ref)) {
+            throw input.error("not an object id: " + ref);
+        }
+        return ref;
+    }
+
+    // Objects already in the store are not packed again
+    private String write(byte[] data) throws IOException {
+        String id = store.hash(data);
+        if (!pack.contains(id) && !store.hasObject(id)) {
+            pack.add(id, data);
+        }
+        return id;
+    }
+
+    private String writeBlob() throws IOException {
+        long count = readCount();
+        long threshold = store.getConfig().getLong("chunking.threshold", ObjectStore.DEFAULT_CHUNK_THRESHOLD);
+        byte[] data = null;
+        if (count < (threshold > 0 ? Math.min(threshold, MAX_BUFFERED) : MAX_BUFFERED)) {
+            data = input.bytes((int) count);
+            if (!ChunkManifest.startsWithMagic(data, data.length)) {
+                return write(data);
+            }
+        }
+        store.getObjectsDir().mkdirs();
+        Path tmp = Files.createTempFile(store.getObjectsDir().toPath(), "opipop-import-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                if (data != null) {
+                    out.write(data);
+                } else {
+                    input.copy(count, out);
+                }
+            }
+            return store.writeBlob(tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private byte[] read(String id) throws IOException {
+        byte[] data = pack.read(id);
+        return data != null ? data : store.readObject(id);
+    }
+
+    private Long readMark() throws IOException {
+        String line = input.peek();
+        if (line == null || !line.startsWith("mark :")) {
+            return null;
+        }
+        input.next();
+        try {
+            return Long.parseLong(line.substring(6));
+        } catch (NumberFormatException e) {
+            throw input.error("bad mark: " + line);
+        }
+    }
+
+    private byte[] readData() throws IOException {
+        long count = readCount();
+        if (count > Integer.MAX_VALUE - 8) {
+            throw input.error("data too long: " + count);
+        }
+        return input.bytes((int) count);
+    }
+
+    private long readCount() throws IOException {
+        String line = input.next();
+        if (line == null || !line.startsWith("data ")) {
+            throw input.error("expected data <count>");
+        }
+        long count;
+        try {
+            count = Long.parseLong(line.substring(5));
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            throw input.error("bad data length: " + line);
+        }
+        return count;
+    }
+
+    private boolean isId(String text) {
+        if (text.length() != store.getHashAlgorithm().getDigestLength() * 2) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Branch {
+        // The ref's value before the import, checked again when it is moved
+        final String original;
+        String head;
+        // Null until needed, then loaded from head
+        PersistentHashMap<String, String> files;
+
+        Branch(String original) {
+            this.original = original;
+            this.head = original;
+        }
+    }
+
+    // Lines and counted data from the stream; blank lines and "#" comments between commands are skipped
+    private static final class Input {
+        private final InputStream in;
+        private String peeked;
+        private long lineNumber;
+
+        Input(InputStream in) {
+            this.in = new BufferedInputStream(in, 1 << 16);
+        }
+
+        String peek() throws IOException {
+            if (peeked == null) {
+                peeked = readLine();
+            }
+            return peeked;
+        }
+
+        String next() throws IOException {
+            String line = peek();
+            peeked = null;
+            return line;
+        }
+
+        byte[] bytes(int count) throws IOException {
+            byte[] data = in.readNBytes(count);
+            if (data.length != count) {
+                throw error("stream ended inside data");
+            }
+            // The data may be followed by one optional newline, which the next readLine skips as blank
+            return data;
+        }
+
+        void copy(long count, OutputStream out) throws IOException {
+            byte[] buffer = new byte[1 << 16];
+            while (count > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (n == -1) {
+                    throw error("stream ended inside data");
+                }
+                out.write(buffer, 0, n);
+                count -= n;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("fast-import: line " + lineNumber + ": " + message);
+        }
+
+        private String readLine() throws IOException {
+            while (true) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') {
+                    line.write(b);
+                }
+                if (b == -1 && line.size() == 0) {
+                    return null;
+                }
+                lineNumber++;
+                String text = line.toString(StandardCharsets.UTF_8);
+                if (!text.isEmpty() && !text.startsWith("#")) {
+                    return text;
+                }
+            }
+        }
+    }
+
+    public static final class Result {
+        private int blobs;
+        private int commits;
+        private int packs;
+        private int refs;
+
+        public int getBlobs() {
+            return blobs;
+        }
+
+        public int getCommits() {
+            return commits;
+        }
+
+        public int getPacks() {
+            return packs;
+        }
+
+        public int getRefs() {
+            return refs;
+        }
+    }
+}
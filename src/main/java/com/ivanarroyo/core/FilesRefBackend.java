@@ -0,0 +1,202 @@
+package com.ivanarroyo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// The default backend: one loose file per branch under refs/heads, plus packed-refs. A loose file
+// overrides the packed entry for the same branch. Each branch is locked with "<branch>.lock".
+final class FilesRefBackend implements RefBackend {
+    static final String NAME = "files";
+
+    private final ObjectStore store;
+    private PackedRefs packedRefs;
+    private FileTime packedRefsStamp;
+
+    FilesRefBackend(ObjectStore store) {
+        this.store = store;
+    }
+
+    private File getHeadsDir() {
+        return new File(store.getRefsDir(), "heads");
+    }
+
+    @Override
+    public String getBranch(String name) throws IOException {
+        File branchFile = new File(getHeadsDir(), name);
+        if (branchFile.isFile()) {
+            return Files.readString(branchFile.toPath()).trim();
+        }
+        return getPackedRefs().get(name);
+    }
+
+    // Only the matching range of packed-refs is read, and only the loose directory the prefix points into is listed
+    @Override
+    public SortedMap<String, String> getBranches(String prefix) throws IOException {
+        SortedMap<String, String> branches = new TreeMap<>(getPackedRefs().list(prefix));
+        String dir = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+        Map<String, String> loose = new TreeMap<>();
+        collectBranches(new File(getHeadsDir(), dir), dir, loose);
+        for (Map.Entry<String, String> entry : loose.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                branches.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return branches;
+    }
+
+    @Override
+    public Locked lock(Collection<String> names) throws IOException {
+        List<Path> locks = new ArrayList<>();
+        try {
+            // Sorted so that every process takes the locks in the same order
+            for (String name : new TreeSet<>(names)) {
+                Path lock = lockFile(name);
+                Files.createDirectories(lock.getParent());
+                try {
+                    Files.createFile(lock);
+                } catch (FileAlreadyExistsException e) {
+                    throw new IllegalStateException("Unable to lock refs/heads/" + name + ": " + lock
+                            + " exists; another opipop process may be running");
+                }
+                locks.add(lock);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(locks);
+            throw e;
+        }
+        return new Locked() {
+            @Override
+            public void apply(Map<String, String> updates) throws IOException {
+                // A deletion would only uncover the packed entry, so it is refused before anything changes
+                for (Map.Entry<String, String> entry : updates.entrySet()) {
+                    if (entry.getValue() == null && getPackedRefs().get(entry.getKey()) != null) {
+                        throw new IllegalStateException("Cannot delete packed ref refs/heads/" + entry.getKey());
+                    }
+                }
+                for (Map.Entry<String, String> entry : updates.entrySet()) {
+                    if (entry.getValue() != null) {
+                        try (FileChannel channel = FileChannel.open(lockFile(entry.getKey()), StandardOpenOption.WRITE)) {
+                            channel.write(ByteBuffer.wrap(entry.getValue().getBytes(StandardCharsets.UTF_8)));
+                            channel.force(true);
+                        }
+                    }
+                }
+                for (Map.Entry<String, String> entry : updates.entrySet()) {
+                    Path target = new File(getHeadsDir(), entry.getKey()).toPath();
+                    Path lock = lockFile(entry.getKey());
+                    if (entry.getValue() == null) {
+                        Files.deleteIfExists(target);
+                        Files.delete(lock);
+                    } else {
+                        Files.move(lock, target, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    locks.remove(lock);
+                    RefTransaction.syncDirectory(target.getParent());
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                release(locks);
+            }
+        };
+    }
+
+    private Path lockFile(String name) {
+        return new File(getHeadsDir(), name + ".lock").toPath();
+    }
+
+    private static void release(List<Path> locks) throws IOException {
+        for (Path lock : locks) {
+            Files.deleteIfExists(lock);
+        }
+        locks.clear();
+    }
+
+    // Moves every branch into packed-refs and deletes the loose files that are now redundant
+    @Override
+    public int pack() throws IOException {
+        Map<String, String> branches = getBranches("");
+        PackedRefs.write(store.getPackedRefsFile(), branches);
+        File headsDir = getHeadsDir();
+        Map<String, String> loose = new TreeMap<>();
+        collectBranches(headsDir, "", loose);
+        for (Map.Entry<String, String> entry : loose.entrySet()) {
+            // A branch locked or moved since it was packed keeps its loose file, which still overrides the packed entry
+            Path branchFile = new File(headsDir, entry.getKey()).toPath();
+            Path lock = lockFile(entry.getKey());
+            try {
+                Files.createFile(lock);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                if (branches.get(entry.getKey()).equals(Files.readString(branchFile).trim())) {
+                    Files.delete(branchFile);
+                }
+            } finally {
+                Files.deleteIfExists(lock);
+            }
+        }
+        removeEmptyDirectories(headsDir);
+        return branches.size();
+    }
+
+    private void removeEmptyDirectories(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                removeEmptyDirectories(child);
+                String[] left = child.list();
+                if (left != null && left.length == 0) {
+                    child.delete();
+                }
+            }
+        }
+    }
+
+    // Mapped once and reused until packed-refs is replaced
+    synchronized PackedRefs getPackedRefs() throws IOException {
+        File file = store.getPackedRefsFile();
+        FileTime stamp = file.isFile() ? Files.getLastModifiedTime(file.toPath()) : FileTime.fromMillis(0);
+        if (packedRefs == null || !stamp.equals(packedRefsStamp)) {
+            packedRefs = PackedRefs.open(file);
+            packedRefsStamp = stamp;
+        }
+        return packedRefs;
+    }
+
+    private void collectBranches(File dir, String prefix, Map<String, String> branches) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                collectBranches(child, name + "/", branches);
+            } else if (!name.endsWith(".lock")) {
+                branches.put(name, Files.readString(child.toPath()).trim());
+            }
+        }
+    }
+}
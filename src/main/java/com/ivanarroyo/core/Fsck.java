@@ -0,0 +1,349 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashAlgorithm;
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Repository integrity check. Every stored object, loose or packed, is re-hashed on a worker pool,
+// reading through memory maps, and must hash to its own name. Then commits, trees, blobs and chunks
+// are walked from every ref, HEAD, MERGE_HEAD, the reflogs and the stash to find missing and
+// unreachable objects.
+public class Fsck {
+    // Largest region mapped at once; bigger objects are hashed window by window
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private final ObjectStore store;
+    private final int threads;
+
+    public Fsck(ObjectStore store, int threads) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+    }
+
+    public Result run() throws IOException, InterruptedException {
+        Result result = new Result();
+        List<String> objects = listObjects(result);
+        result.objectCount = objects.size();
+        result.corrupt.addAll(verifyAll(objects));
+
+        Set<String> present = new HashSet<>(objects);
+        Set<String> reachable = walkFromRoots(present, result);
+        for (String id : objects) {
+            if (!reachable.contains(id)) {
+                result.dangling.add(id);
+            }
+        }
+        return result;
+    }
+
+    private List<String> listObjects(Result result) {
+        File[] files = store.getObjectsDir().listFiles();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        int idLength = store.getHashAlgorithm().getDigestLength();
+        List<String> objects = new ArrayList<>();
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            String name = file.getName();
+            byte[] raw = HashUtils.hexToBytes(name);
+            if (raw != null && raw.length == idLength) {
+                objects.add(name);
+            } else {
+                // Leftovers of interrupted writes and anything else that is not an object
+                result.garbage.add(name);
+            }
+        }
+        // An object may be both loose and packed after an interrupted repack; it is checked once
+        Set<String> loose = new HashSet<>(objects);
+        for (PackFile pack : store.getPacks()) {
+            for (int i = 0; i < pack.size(); i++) {
+                String id = pack.getId(i);
+                if (loose.add(id)) {
+                    objects.add(id);
+                }
+            }
+        }
+        Collections.sort(objects);
+        return objects;
+    }
+
+    // Workers pull objects off a shared counter, so a few huge objects do not stall a whole slice
+    private Set<String> verifyAll(List<String> objects) throws IOException, InterruptedException {
+        Set<String> corrupt = new ConcurrentSkipListSet<>();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, objects.size())));
+        try {
+            List<Callable<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < objects.size()) {
+                        String id = objects.get(index);
+                        if (!verify(id)) {
+                            corrupt.add(id);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Object verification failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return corrupt;
+    }
+
+    // A chunked blob is checked by hashing its chunks in order, since its id is the id of the full content
+    private boolean verify(String id) throws IOException {
+        HashAlgorithm.Hasher hasher = store.getHashAlgorithm().newHasher();
+        try {
+            ChunkManifest.Reader reader = store.openManifest(id);
+            if (reader != null) {
+                long total = 0;
+                try (ChunkManifest.Reader manifest = reader) {
+                    ChunkManifest.Chunk chunk;
+                    while ((chunk = manifest.next()) != null) {
+                        if (hashStored(chunk.getHash(), hasher) != chunk.getLength()) {
+                            return false;
+                        }
+                        total += chunk.getLength();
+                    }
+                    if (total != manifest.getSize()) {
+                        return false;
+                    }
+                }
+            } else {
+                hashStored(id, hasher);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Unreadable objects, missing chunks and malformed manifests are all corruption
+            return false;
+        }
+        return hasher.finish().equals(id);
+    }
+
+    // Loose objects are mapped from their file, packed ones are hashed straight from the mapped pack
+    private long hashStored(String id, HashAlgorithm.Hasher hasher) throws IOException {
+        Path file = store.getObjectFile(id).toPath();
+        if (Files.isRegularFile(file)) {
+            return hashMapped(file, hasher);
+        }
+        ByteBuffer packed = store.getPackedSlice(id);
+        if (packed == null) {
+            throw new NoSuchFileException(file.toString());
+        }
+        long size = packed.remaining();
+        hasher.update(packed);
+        return size;
+    }
+
+    private static long hashMapped(Path file, HashAlgorithm.Hasher hasher) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+            }
+            return size;
+        }
+    }
+
+    private Set<String> walkFromRoots(Set<String> present, Result result) throws IOException {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> commits = new ArrayDeque<>();
+        for (Map.Entry<String, String> branch : store.getBranches().entrySet()) {
+            commits.push(branch.getValue());
+        }
+        String detached = store.getCurrentBranch() == null ? store.getHeadCommit() : null;
+        if (detached != null && !detached.isEmpty()) {
+            commits.push(detached);
+        }
+        File mergeHead = store.getMergeHeadFile();
+        if (mergeHead.isFile()) {
+            commits.push(Files.readString(mergeHead.toPath()).trim());
+        }
+        // Stash entries are commits; older ones are reached through the stash reflog. An old-format
+        // stash file lists blobs instead; it is only read, as converting it would change the repository.
+        List<String> legacyBlobs = new ArrayList<>();
+        File stash = store.getStashFile();
+        if (stash.isFile()) {
+            String content = Files.readString(stash.toPath()).trim();
+            List<Map<String, String>> legacy = Stash.parseLegacy(content);
+            if (legacy == null) {
+                commits.push(content);
+            } else {
+                for (Map<String, String> entry : legacy) {
+                    legacyBlobs.addAll(entry.values());
+                }
+            }
+        }
+        Reflog.forEach(store, reflog -> {
+            for (Reflog.Entry entry : reflog.getEntries(0, reflog.size())) {
+                if (entry.getOldId() != null) {
+                    commits.push(entry.getOldId());
+                }
+                if (entry.getNewId() != null) {
+                    commits.push(entry.getNewId());
+                }
+            }
+        });
+
+        for (String blob : legacyBlobs) {
+            if (isId(blob)) {
+                walkBlob(blob, present, reachable, result);
+            } else {
+                result.invalid.put(blob, "bad blob id in the stash file");
+            }
+        }
+        while (!commits.isEmpty()) {
+            String id = commits.pop();
+            if (!reachable.add(id)) {
+                continue;
+            }
+            if (!present.contains(id)) {
+                result.missing.put(id, "commit");
+                continue;
+            }
+            Commit commit;
+            try {
+                commit = Commit.deserialize(store.readObject(id));
+            } catch (RuntimeException e) {
+                result.invalid.put(id, "unparseable commit");
+                continue;
+            }
+            if (!isId(commit.getTreeHash())) {
+                result.invalid.put(id, "commit has no valid tree");
+                continue;
+            }
+            walkTree(commit.getTreeHash(), present, reachable, result);
+            for (String parent : commit.getParentHashes()) {
+                if (isId(parent)) {
+                    commits.push(parent);
+                } else {
+                    result.invalid.put(id, "bad parent " + parent);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private void walkTree(String treeId, Set<String> present, Set<String> reachable, Result result) throws IOException {
+        if (!reachable.add(treeId)) {
+            return;
+        }
+        if (!present.contains(treeId)) {
+            result.missing.put(treeId, "tree");
+            return;
+        }
+        for (Map.Entry<String, String> entry : Tree.deserialize(store.readObject(treeId)).getEntries().entrySet()) {
+            if (isId(entry.getValue())) {
+                walkBlob(entry.getValue(), present, reachable, result);
+            } else {
+                result.invalid.put(treeId, "bad entry for " + entry.getKey());
+            }
+        }
+    }
+
+    private void walkBlob(String blobId, Set<String> present, Set<String> reachable, Result result) throws IOException {
+        if (!reachable.add(blobId)) {
+            return;
+        }
+        if (!present.contains(blobId)) {
+            result.missing.put(blobId, "blob");
+            return;
+        }
+        List<String> chunks;
+        try {
+            chunks = store.getChunkIds(blobId);
+        } catch (IOException | NumberFormatException e) {
+            // Already reported as corrupt by the hash check
+            return;
+        }
+        for (String chunk : chunks) {
+            if (reachable.add(chunk) && !present.contains(chunk)) {
+                result.missing.put(chunk, "chunk");
+            }
+        }
+    }
+
+    private boolean isId(String id) {
+        byte[] raw = HashUtils.hexToBytes(id);
+        return raw != null && raw.length == store.getHashAlgorithm().getDigestLength();
+    }
+
+    public static final class Result {
+        private int objectCount;
+        private final Set<String> corrupt = new TreeSet<>();
+        private final Map<String, String> missing = new TreeMap<>();
+        private final Map<String, String> invalid = new TreeMap<>();
+        private final Set<String> dangling = new TreeSet<>();
+        private final Set<String> garbage = new TreeSet<>();
+
+        public int getObjectCount() {
+            return objectCount;
+        }
+
+        // Objects whose content does not hash to their id
+        public Set<String> getCorrupt() {
+            return corrupt;
+        }
+
+        // Referenced id -> kind of object expected
+        public Map<String, String> getMissing() {
+            return missing;
+        }
+
+        // Object id -> what is wrong with its content
+        public Map<String, String> getInvalid() {
+            return invalid;
+        }
+
+        // Objects not reachable from any ref
+        public Set<String> getDangling() {
+            return dangling;
+        }
+
+        // Files in the objects directory that are not objects
+        public Set<String> getGarbage() {
+            return garbage;
+        }
+
+        public boolean hasErrors() {
+            return !corrupt.isEmpty() || !missing.isEmpty() || !invalid.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.util.IoThrottle;
+import com.ivanarroyo.util.ObjectIdSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Removes objects that nothing refers to. Commits are walked from every branch, HEAD, MERGE_HEAD,
+// the reflogs, the stash and the index; their trees, blobs and chunks are then marked on a worker pool.
+// Another command may be writing objects while gc runs, and those are not reachable yet, so any
+// object younger than the grace period is kept together with everything it refers to. Writing an
+// object that already exists refreshes its timestamp for the same reason.
+public class GarbageCollector {
+    public static final long DEFAULT_GRACE_PERIOD = 14L * 24 * 60 * 60 * 1000;
+
+    private final ObjectStore store;
+    private final int threads;
+    private final long gracePeriod;
+    private final boolean repack;
+    private boolean incremental;
+    private IoThrottle throttle = IoThrottle.UNLIMITED;
+
+    // gracePeriod is in milliseconds; 0 prunes every unreachable object
+    public GarbageCollector(ObjectStore store, int threads, long gracePeriod, boolean repack) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+        this.gracePeriod = Math.max(0, gracePeriod);
+        this.repack = repack;
+    }
+
+    // An incremental repack only packs loose survivors into one new pack and leaves existing packs alone
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    public Result run() throws IOException, InterruptedException {
+        Result result = new Result();
+        // An old-format stash names its blobs only in text, so it becomes commits before anything is marked
+        new Stash(store).convertLegacy();
+        // Without a grace period even objects written this very millisecond are fair game
+        long cutoff = gracePeriod == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - gracePeriod;
+        int idBytes = store.getHashAlgorithm().getDigestLength();
+
+        List<String> loose = store.getLooseObjectIds();
+        List<PackFile> packs = store.getPacks();
+        Map<File, Long> packTimes = new HashMap<>();
+        int packed = 0;
+        for (PackFile pack : packs) {
+            packed += pack.size();
+            packTimes.put(pack.getPackFile(), pack.getPackFile().lastModified());
+        }
+        ObjectIdSet present = new ObjectIdSet(idBytes, loose.size() + packed);
+        for (String id : loose) {
+            present.add(id);
+        }
+        for (PackFile pack : packs) {
+            for (int i = 0; i < pack.size(); i++) {
+                present.add(pack.getId(i));
+            }
+        }
+
+        ObjectIdSet marked = new ObjectIdSet(idBytes, present.size());
+        List<String> trees = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        markCommits(roots(blobs), present, marked, trees);
+        markContents(trees, blobs, present, marked);
+        result.reachable = marked.size();
+
+        // Unreachable but recent objects survive, and so does everything they point to
+        Deque<String> recent = new ArrayDeque<>();
+        for (String id : loose) {
+            if (!marked.contains(id) && store.getObjectFile(id).lastModified() >= cutoff) {
+                recent.push(id);
+            }
+        }
+        for (PackFile pack : packs) {
+            if (pack.getPackFile().lastModified() >= cutoff) {
+                for (int i = 0; i < pack.size(); i++) {
+                    if (!marked.contains(pack.getId(i))) {
+                        recent.push(pack.getId(i));
+                    }
+                }
+            }
+        }
+        keepAlive(recent, present, marked);
+        result.kept = marked.size() - result.reachable;
+
+        for (String id : loose) {
+            File file = store.getObjectFile(id);
+            // The timestamp is checked again right before deleting, in case the object was just rewritten
+            if (!marked.contains(id) && file.lastModified() < cutoff && file.delete()) {
+                result.pruned++;
+            }
+        }
+        result.removedFiles += removeStaleFiles(store.getObjectsDir(), cutoff);
+        result.removedFiles += removeStaleFiles(store.getPackDir(), cutoff);
+
+        if (repack) {
+            repack(marked, packs, packTimes, result);
+        }
+
+        if (store.getCommitGraphFile().exists()) {
+            new CommitGraphWriter(store).write();
+        }
+        if (store.getBitmapFile().exists()) {
+            new ReachabilityBitmapWriter(store).write();
+        }
+        return result;
+    }
+
+    // Commits named by refs and the stash, and blobs held only by the index
+    private List<String> roots(List<String> blobs) throws IOException {
+        List<String> commits = new ArrayList<>(store.getBranches().values());
+        String detached = store.getCurrentBranch() == null ? store.getHeadCommit() : null;
+        if (detached != null && !detached.isEmpty()) {
+            commits.add(detached);
+        }
+        File mergeHead = store.getMergeHeadFile();
+        if (mergeHead.isFile()) {
+            commits.add(Files.readString(mergeHead.toPath()).trim());
+        }
+        // Everything a ref used to point at stays recoverable through its reflog
+        Reflog.forEach(store, reflog -> {
+            for (Reflog.Entry entry : reflog.getEntries(0, reflog.size())) {
+                if (entry.getOldId() != null) {
+                    commits.add(entry.getOldId());
+                }
+                if (entry.getNewId() != null) {
+                    commits.add(entry.getNewId());
+                }
+            }
+        });
+
+        // Stash entries are commits; older ones are reached through the stash reflog above
+        File stash = store.getStashFile();
+        if (stash.isFile()) {
+            commits.add(Files.readString(stash.toPath()).trim());
+        }
+        Index index = new Index(store.getIndexFile());
+        blobs.addAll(index.getEntries().values());
+        for (String[] stages : index.getConflicts().values()) {
+            for (String stage : stages) {
+                if (stage != null) {
+                    blobs.add(stage);
+                }
+            }
+        }
+        return commits;
+    }
+
+    // History is a chain, so commits are walked on one thread; their trees are collected for the pool
+    private void markCommits(List<String> tips, ObjectIdSet present, ObjectIdSet marked, List<String> trees)
+            throws IOException {
+        Deque<String> pending = new ArrayDeque<>(tips);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!present.contains(id) || !marked.add(id)) {
+                continue;
+            }
+            Commit commit = parseCommit(id);
+            trees.add(commit.getTreeHash());
+            pending.addAll(commit.getParentHashes());
+        }
+    }
+
+    // Workers pull trees and then root blobs off a shared counter, marking each blob's chunks as they go
+    private void markContents(List<String> trees, List<String> blobs, ObjectIdSet present, ObjectIdSet marked)
+            throws IOException, InterruptedException {
+        int total = trees.size() + blobs.size();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, total)));
+        try {
+            List<Callable<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < total) {
+                        if (index < trees.size()) {
+                            markTree(trees.get(index), present, marked);
+                        } else {
+                            markBlob(blobs.get(index - trees.size()), present, marked);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Marking reachable objects failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void markTree(String id, ObjectIdSet present, ObjectIdSet marked) throws IOException {
+        if (!present.contains(id) || !marked.add(id)) {
+            return;
+        }
+        for (String blob : Tree.deserialize(store.readObject(id)).getEntries().values()) {
+            markBlob(blob, present, marked);
+        }
+    }
+
+    private void markBlob(String id, ObjectIdSet present, ObjectIdSet marked) throws IOException {
+        if (!present.contains(id) || !marked.add(id)) {
+            return;
+        }
+        for (String chunk : store.getChunkIds(id)) {
+            if (present.contains(chunk)) {
+                marked.add(chunk);
+            }
+        }
+    }
+
+    // Objects carry no type, so one is guessed from the content: commits start with their tree line
+    // and trees are lists of "<id> <path>". A blob mistaken for a tree only keeps more objects alive.
+    private void keepAlive(Deque<String> pending, ObjectIdSet present, ObjectIdSet marked) throws IOException {
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!present.contains(id) || !marked.add(id)) {
+                continue;
+            }
+            List<String> chunks = store.getChunkIds(id);
+            if (!chunks.isEmpty()) {
+                pending.addAll(chunks);
+                continue;
+            }
+            byte[] data = store.readObject(id);
+            String text = new String(data, StandardCharsets.UTF_8);
+            if (text.startsWith("tree ")) {
+                Commit commit = Commit.deserialize(data);
+                pending.push(commit.getTreeHash());
+                pending.addAll(commit.getParentHashes());
+            } else if (looksLikeTree(text)) {
+                pending.addAll(Tree.deserialize(data).getEntries().values());
+            }
+        }
+    }
+
+    private boolean looksLikeTree(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (String line : text.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space <= 0 || !isId(line.substring(0, space))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Commit parseCommit(String id) throws IOException {
+        try {
+            return Commit.deserialize(store.readObject(id));
+        } catch (RuntimeException e) {
+            // Pruning with part of the history unreadable could delete reachable objects
+            throw new IllegalStateException("Cannot read commit " + id + ", not pruning", e);
+        }
+    }
+
+    // Survivors are written into fresh packs, after which the loose copies and old packs can go
+    private void repack(ObjectIdSet marked, List<PackFile> packs, Map<File, Long> packTimes, Result result)
+            throws IOException {
+        TreeMap<String, Long> survivors = new TreeMap<>();
+        List<String> packedLoose = new ArrayList<>();
+        for (String id : store.getLooseObjectIds()) {
+            long size = store.getObjectFile(id).length();
+            // Objects that would not fit in a pack of their own stay loose
+            if (marked.contains(id) && size < PackWriter.MAX_PACK_SIZE) {
+                survivors.put(id, size);
+                packedLoose.add(id);
+            }
+        }
+        if (incremental) {
+            for (PackFile pack : packs) {
+                for (int i = 0; i < pack.size(); i++) {
+                    survivors.remove(pack.getId(i));
+                }
+            }
+        } else {
+            for (PackFile pack : packs) {
+                for (int i = 0; i < pack.size(); i++) {
+                    String id = pack.getId(i);
+                    if (marked.contains(id)) {
+                        survivors.putIfAbsent(id, (long) pack.getLength(i));
+                    }
+                }
+            }
+        }
+        if (!survivors.isEmpty()) {
+            result.packs = new PackWriter(store, throttle).write(survivors).size();
+        }
+        result.packed = survivors.size();
+
+        for (String id : packedLoose) {
+            store.getObjectFile(id).delete();
+        }
+        if (incremental) {
+            return;
+        }
+        for (PackFile pack : packs) {
+            File packFile = pack.getPackFile();
+            // A pack freshened while gc ran may hold an object that was reused in the meantime
+            if (packFile.lastModified() != packTimes.get(packFile)) {
+                continue;
+            }
+            // The index goes first so no reader finds a pack whose file is already gone
+            if (pack.getIndexFile().delete()) {
+                packFile.delete();
+                for (int i = 0; i < pack.size(); i++) {
+                    if (!marked.contains(pack.getId(i))) {
+                        result.pruned++;
+                    }
+                }
+            }
+        }
+    }
+
+    // Temp files left behind by interrupted writes, once they are older than the grace period
+    private int removeStaleFiles(File dir, long cutoff) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || isId(name) || name.endsWith(".pack") || name.endsWith(".idx")) {
+                continue;
+            }
+            if (file.lastModified() < cutoff && file.delete()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isId(String id) {
+        byte[] raw = HashUtils.hexToBytes(id);
+        return raw != null && raw.length == store.getHashAlgorithm().getDigestLength();
+    }
+
+    public static final class Result {
+        private int reachable;
+        private int kept;
+        private int pruned;
+        private int removedFiles;
+        private int packed;
+        private int packs;
+
+        public int getReachable() {
+            return reachable;
+        }
+
+        // Unreachable objects kept because they are younger than the grace period
+        public int getKept() {
+            return kept;
+        }
+
+        public int getPruned() {
+            return pruned;
+        }
+
+        // Stale temp files deleted
+        public int getRemovedFiles() {
+            return removedFiles;
+        }
+
+        public int getPacked() {
+            return packed;
+        }
+
+        public int getPacks() {
+            return packs;
+        }
+    }
+}
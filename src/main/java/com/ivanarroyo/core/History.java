@@ -0,0 +1,295 @@
+package com.ivanarroyo.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Commit ancestry queries. Commits are looked up in the commit-graph first and only parsed from
+// the object store when the graph is missing or older than the commit.
+public class History {
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    private static final int FLAG_A = 1;
+    private static final int FLAG_B = 2;
+    private static final int BOTH = FLAG_A | FLAG_B;
+    private static final int STALE = 4;
+
+    private final ObjectStore store;
+    private final CommitGraph graph;
+    private final ChangedPathFilters filters;
+    private final Map<String, Node> cache = new HashMap<>();
+
+    public History(ObjectStore store) throws IOException {
+        this.store = store;
+        this.graph = CommitGraph.open(store);
+        this.filters = ChangedPathFilters.open(store, graph);
+    }
+
+    public boolean hasCommitGraph() {
+        return graph != null;
+    }
+
+    public List<String> getParents(String id) throws IOException {
+        return node(id).parents;
+    }
+
+    public String getTreeId(String id) throws IOException {
+        return node(id).tree;
+    }
+
+    public long getCommitTime(String id) throws IOException {
+        return node(id).time;
+    }
+
+    public int getGeneration(String id) throws IOException {
+        return node(id).generation;
+    }
+
+    // False only if the commit certainly left the path (a file or directory) unchanged against its first parent
+    public boolean maybeChanged(String id, String path) throws IOException {
+        int position = node(id).position;
+        return filters == null || position < 0 || filters.maybeChanged(position, path);
+    }
+
+    // Newest first: higher generation, then later commit time
+    public Comparator<String> newestFirst() {
+        return (a, b) -> {
+            try {
+                Node x = node(a);
+                Node y = node(b);
+                int cmp = Integer.compare(y.generation, x.generation);
+                return cmp != 0 ? cmp : Long.compare(y.time, x.time);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read commit", e);
+            }
+        };
+    }
+
+    public boolean isAncestor(String ancestor, String descendant) throws IOException {
+        if (ancestor.equals(descendant)) {
+            return true;
+        }
+        int cutoff = node(ancestor).generation;
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(descendant);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!seen.add(id)) {
+                continue;
+            }
+            for (String parent : node(id).parents) {
+                if (parent.equals(ancestor)) {
+                    return true;
+                }
+                // Ancestors always have a lower generation, so nothing at or below the cutoff can lead to it
+                if (cutoff == GENERATION_INFINITY || node(parent).generation > cutoff) {
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    // Returns {commits reachable only from a, commits reachable only from b}
+    public int[] aheadBehind(String a, String b) throws IOException {
+        if (a.equals(b)) {
+            return new int[]{0, 0};
+        }
+        Map<String, Integer> flags = new HashMap<>();
+        Map<String, Integer> counted = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(newestFirst());
+        Set<String> queued = new HashSet<>();
+        flags.put(a, FLAG_A);
+        flags.put(b, FLAG_B);
+        queue.add(a);
+        queue.add(b);
+        queued.add(a);
+        queued.add(b);
+        int nonStale = 2;
+        int revisits = 0;
+        int[] result = new int[2];
+
+        // Walk until every queued commit is reachable from both sides. A commit can be reached again
+        // after it was counted when timestamps are out of order; those revisits must still be drained.
+        while ((nonStale > 0 || revisits > 0) && !queue.isEmpty()) {
+            String id = queue.poll();
+            queued.remove(id);
+            int f = flags.get(id);
+            if (f != BOTH) {
+                nonStale--;
+            }
+
+            Integer previous = counted.put(id, f);
+            if (previous != null) {
+                revisits--;
+                if (previous != BOTH) {
+                    result[previous == FLAG_A ? 0 : 1]--;
+                }
+            }
+            if (f != BOTH) {
+                result[f == FLAG_A ? 0 : 1]++;
+            }
+
+            for (String parent : node(id).parents) {
+                int old = flags.getOrDefault(parent, 0);
+                int updated = old | f;
+                if (updated == old) {
+                    continue;
+                }
+                flags.put(parent, updated);
+                if (queued.contains(parent)) {
+                    if (updated == BOTH) {
+                        nonStale--;
+                    }
+                } else {
+                    queue.add(parent);
+                    queued.add(parent);
+                    if (updated != BOTH) {
+                        nonStale++;
+                    }
+                    if (counted.containsKey(parent)) {
+                        revisits++;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // Best common ancestors of two commits. Both sides are painted down newest first; a commit painted
+    // by both is a candidate and paints everything below it stale, so the walk ends once only stale
+    // commits are queued instead of running to the root.
+    public List<String> mergeBases(String a, String b) throws IOException {
+        if (a.equals(b)) {
+            return Collections.singletonList(a);
+        }
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(newestFirst());
+        Set<String> queued = new HashSet<>();
+        flags.put(a, FLAG_A);
+        flags.put(b, FLAG_B);
+        queue.add(a);
+        queue.add(b);
+        queued.add(a);
+        queued.add(b);
+        // Queued commits not yet painted stale, kept up to date so no pop has to scan the queue
+        int nonStale = 2;
+        List<String> candidates = new ArrayList<>();
+
+        while (nonStale > 0) {
+            String id = queue.poll();
+            queued.remove(id);
+            int f = flags.get(id) & (BOTH | STALE);
+            if ((f & STALE) == 0) {
+                nonStale--;
+            }
+            if (f == BOTH) {
+                if (!candidates.contains(id)) {
+                    candidates.add(id);
+                }
+                f |= STALE;
+            }
+            for (String parent : node(id).parents) {
+                int old = flags.getOrDefault(parent, 0);
+                int updated = old | f;
+                if (updated == old) {
+                    continue;
+                }
+                flags.put(parent, updated);
+                if (queued.contains(parent)) {
+                    if ((old & STALE) == 0 && (updated & STALE) != 0) {
+                        nonStale--;
+                    }
+                } else {
+                    queue.add(parent);
+                    queued.add(parent);
+                    if ((updated & STALE) == 0) {
+                        nonStale++;
+                    }
+                }
+            }
+        }
+
+        // A candidate painted stale was reached from another candidate, so it is not a best base
+        List<String> bases = new ArrayList<>();
+        for (String candidate : candidates) {
+            if ((flags.get(candidate) & STALE) == 0) {
+                bases.add(candidate);
+            }
+        }
+        return removeRedundant(bases);
+    }
+
+    // Drops bases that are ancestors of other bases (criss-cross merges can produce both)
+    private List<String> removeRedundant(List<String> bases) throws IOException {
+        if (bases.size() < 2) {
+            return bases;
+        }
+        List<String> result = new ArrayList<>();
+        for (String base : bases) {
+            boolean redundant = false;
+            for (String other : bases) {
+                if (!other.equals(base) && isAncestor(base, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(base);
+            }
+        }
+        return result;
+    }
+
+    private Node node(String id) throws IOException {
+        Node node = cache.get(id);
+        if (node != null) {
+            return node;
+        }
+
+        int position = graph == null ? -1 : graph.find(id);
+        if (position >= 0) {
+            List<String> parents = new ArrayList<>(2);
+            for (int parent : graph.getParents(position)) {
+                parents.add(graph.getId(parent));
+            }
+            node = new Node(graph.getTreeId(position), parents, graph.getCommitTime(position),
+                    graph.getGeneration(position), position);
+        } else {
+            if (!store.hasObject(id)) {
+                throw new IOException("Missing commit " + id);
+            }
+            Commit commit = Commit.deserialize(store.readObject(id));
+            node = new Node(commit.getTreeHash(), commit.getParentHashes(), commit.getTimestamp(),
+                    GENERATION_INFINITY, -1);
+        }
+        cache.put(id, node);
+        return node;
+    }
+
+    private static final class Node {
+        final String tree;
+        final List<String> parents;
+        final long time;
+        final int generation;
+        final int position;
+
+        Node(String tree, List<String> parents, long time, int generation, int position) {
+            this.tree = tree;
+            this.parents = parents;
+            this.time = time;
+            this.generation = generation;
+            this.position = position;
+        }
+    }
+}
@@ -1,31 +1,64 @@
 package com.ivanarroyo.core;
 
+import com.ivanarroyo.util.PersistentHashMap;
+
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.TreeMap;
 
+// Entries live in a persistent map, so getEntries() hands out an O(1) snapshot instead of a copy;
+// a snapshot never sees later changes, however many paths a checkout or merge rewrites
 public class Index {
     private final File indexFile;
-    private final Map<String, String> entries; // path -> hash
+    private final PersistentHashMap<String, String> entries; // path -> hash
+    private final Map<String, String[]> conflicts; // path -> {base, ours, theirs}, null where absent
 
     public Index(File indexFile) {
         this.indexFile = indexFile;
-        this.entries = new HashMap<>();
+        this.entries = new PersistentHashMap<>();
+        this.conflicts = new TreeMap<>();
         load();
     }
 
+    // Adding a path resolves any conflict recorded for it
     public void add(String path, String hash) {
         entries.put(path, hash);
+        conflicts.remove(path);
     }
 
     public void remove(String path) {
         entries.remove(path);
+        conflicts.remove(path);
+    }
+
+    // Records an unmerged path as stages 1 (base), 2 (ours) and 3 (theirs)
+    public void addConflict(String path, String base, String ours, String theirs) {
+        entries.remove(path);
+        conflicts.put(path, new String[]{base, ours, theirs});
+    }
+
+    public Map<String, String[]> getConflicts() {
+        Map<String, String[]> copy = new TreeMap<>();
+        for (Map.Entry<String, String[]> entry : conflicts.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
     }
 
+    // Changes made to the returned map stay in it
     public Map<String, String> getEntries() {
-        return new HashMap<>(entries);
+        return entries.snapshot();
     }
 
     public String getHash(String path) {
@@ -36,12 +69,42 @@ public class Index {
         return entries.containsKey(path);
     }
 
+    // Written into index.lock, fsynced and renamed over the index, so a reader never sees a
+    // half-written index and two writers cannot interleave
     public void save() throws IOException {
         indexFile.getParentFile().mkdirs();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile))) {
-            for (Map.Entry<String, String> entry : entries.entrySet()) {
-                writer.write(entry.getValue() + " " + entry.getKey());
-                writer.newLine();
+        Path lock = new File(indexFile.getPath() + ".lock").toPath();
+        try {
+            Files.createFile(lock);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException("Unable to lock " + indexFile + ": another opipop process may be running");
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.WRITE)) {
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel)));
+                write(writer);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(lock, indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(lock);
+        }
+    }
+
+    private void write(BufferedWriter writer) throws IOException {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            writer.write(entry.getValue() + " " + entry.getKey());
+            writer.newLine();
+        }
+        // Unmerged stages are written as "hash:stage path"
+        for (Map.Entry<String, String[]> entry : conflicts.entrySet()) {
+            for (int stage = 1; stage <= 3; stage++) {
+                String hash = entry.getValue()[stage - 1];
+                if (hash != null) {
+                    writer.write(hash + ":" + stage + " " + entry.getKey());
+                    writer.newLine();
+                }
             }
         }
     }
@@ -55,8 +118,17 @@ public class Index {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(" ", 2);
-                if (parts.length == 2) {
+                if (parts.length != 2) {
+                    continue;
+                }
+                int colon = parts[0].indexOf(':');
+                if (colon < 0) {
                     entries.put(parts[1], parts[0]);
+                } else if (colon == parts[0].length() - 2) {
+                    int stage = parts[0].charAt(colon + 1) - '0';
+                    if (stage >= 1 && stage <= 3) {
+                        conflicts.computeIfAbsent(parts[1], path -> new String[3])[stage - 1] = parts[0].substring(0, colon);
+                    }
                 }
             }
         } catch (IOException e) {
@@ -66,5 +138,6 @@ public class Index {
 
     public void clear() {
         entries.clear();
+        conflicts.clear();
     }
 }
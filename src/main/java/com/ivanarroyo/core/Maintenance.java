@@ -0,0 +1,203 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.util.IoThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// Keeps a repository in shape without anyone running gc by hand. Commands that write objects count
+// themselves in .opipop/maintenance; every few of them the cheap heuristics below are checked and,
+// if any task is due, a detached JVM runs the tasks. Maintenance holds its own lock file and never
+// takes a lock foreground commands need, and gc's grace period keeps their fresh objects safe.
+public class Maintenance {
+    public static final long DEFAULT_CHECK_INTERVAL = 25;
+    public static final long DEFAULT_LOOSE_LIMIT = 6700;
+    public static final long DEFAULT_PACK_LIMIT = 50;
+    public static final long DEFAULT_IO_LIMIT = 16L * 1024 * 1024;
+
+    public enum Task {
+        // Prunes and packs loose objects into one new pack
+        LOOSE_OBJECTS("loose-objects"),
+        // Prunes and consolidates all packs into one
+        GC("gc"),
+        COMMIT_GRAPH("commit-graph"),
+        BITMAPS("bitmaps");
+
+        private final String name;
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Task forName(String name) {
+            for (Task task : values()) {
+                if (task.name.equals(name)) {
+                    return task;
+                }
+            }
+            throw new IllegalArgumentException("Unknown maintenance task: " + name);
+        }
+    }
+
+    private final ObjectStore store;
+
+    public Maintenance(ObjectStore store) {
+        this.store = store;
+    }
+
+    public File getStateFile() {
+        return new File(store.getRepoDir(), "maintenance");
+    }
+
+    public File getLockFile() {
+        return new File(store.getRepoDir(), "maintenance.lock");
+    }
+
+    // Called after each command that writes objects. Returns the tasks due once enough commands have
+    // run since the last check, and nothing otherwise.
+    public List<Task> afterCommand() throws IOException {
+        Config state = new Config(getStateFile());
+        long interval = store.getConfig().getLong("maintenance.checkInterval", DEFAULT_CHECK_INTERVAL);
+        long commands = state.getLong("commands", 0) + 1;
+        boolean check = commands >= interval;
+        state.set("commands", check ? "0" : Long.toString(commands));
+        state.save();
+        return check ? due() : new ArrayList<>();
+    }
+
+    public List<Task> due() throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        long looseLimit = store.getConfig().getLong("gc.auto", DEFAULT_LOOSE_LIMIT);
+        if (looseLimit > 0 && countLooseObjects(looseLimit) >= looseLimit) {
+            tasks.add(Task.LOOSE_OBJECTS);
+        }
+        long packLimit = store.getConfig().getLong("gc.autoPackLimit", DEFAULT_PACK_LIMIT);
+        if (packLimit > 0 && store.getPacks().size() > packLimit) {
+            tasks.add(Task.GC);
+        }
+        long refsChanged = lastRefChange();
+        if (store.getCommitGraphFile().exists() && store.getCommitGraphFile().lastModified() < refsChanged) {
+            tasks.add(Task.COMMIT_GRAPH);
+        }
+        if (store.getBitmapFile().exists() && store.getBitmapFile().lastModified() < refsChanged) {
+            tasks.add(Task.BITMAPS);
+        }
+        return tasks;
+    }
+
+    // Objects are not sharded into subdirectories, so instead of sampling one shard the directory is
+    // streamed only until the limit is reached; the cost of the check stays bounded by the limit.
+    int countLooseObjects(long limit) throws IOException {
+        int idBytes = store.getHashAlgorithm().getDigestLength();
+        int count = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(store.getObjectsDir().toPath())) {
+            for (Path entry : entries) {
+                byte[] raw = HashUtils.hexToBytes(entry.getFileName().toString());
+                if (raw != null && raw.length == idBytes && ++count >= limit) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private long lastRefChange() {
+        long latest = Math.max(store.getHeadFile().lastModified(), store.getPackedRefsFile().lastModified());
+        latest = Math.max(latest, new File(store.getReftableDir(), ReftableBackend.LIST).lastModified());
+        File[] heads = new File(store.getRefsDir(), "heads").listFiles();
+        if (heads != null) {
+            for (File head : heads) {
+                latest = Math.max(latest, head.lastModified());
+            }
+        }
+        return latest;
+    }
+
+    // Runs the tasks under the maintenance lock. Returns the tasks run, or null if another
+    // maintenance process holds the lock.
+    public List<Task> run(List<Task> tasks, IoThrottle throttle) throws IOException, InterruptedException {
+        store.getRepoDir().mkdirs();
+        try (FileChannel channel = FileChannel.open(getLockFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                return null;
+            }
+            try {
+                List<Task> done = new ArrayList<>();
+                for (Task task : tasks) {
+                    runTask(task, throttle);
+                    done.add(task);
+                }
+                return done;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void runTask(Task task, IoThrottle throttle) throws IOException, InterruptedException {
+        switch (task) {
+            case LOOSE_OBJECTS:
+            case GC:
+                // One thread, so marking does not compete with foreground commands for the CPU either
+                GarbageCollector gc = new GarbageCollector(store, 1, gracePeriod(), true);
+                gc.setIncremental(task == Task.LOOSE_OBJECTS);
+                gc.setThrottle(throttle);
+                gc.run();
+                break;
+            case COMMIT_GRAPH:
+                new CommitGraphWriter(store).write();
+                break;
+            case BITMAPS:
+                new ReachabilityBitmapWriter(store).write();
+                break;
+            default:
+                throw new IllegalStateException("Unhandled task " + task);
+        }
+    }
+
+    // Background maintenance prunes with the same grace period as a plain gc
+    private long gracePeriod() {
+        String expire = store.getConfig().get("gc.pruneExpire", null);
+        if (expire == null) {
+            return GarbageCollector.DEFAULT_GRACE_PERIOD;
+        }
+        return expire.equals("now") ? 0 : store.getConfig().getLong("gc.pruneExpire", 0) * 1000;
+    }
+
+    // Starts "opipop maintenance run --auto" in a separate JVM that outlives this command
+    public void startBackground() throws IOException {
+        Optional<String> java = ProcessHandle.current().info().command();
+        String classPath = System.getProperty("java.class.path");
+        if (java.isEmpty() || classPath == null || classPath.isEmpty()) {
+            return;
+        }
+        ProcessBuilder builder = new ProcessBuilder(java.get(), "-cp", classPath,
+                "com.ivanarroyo.Main", "maintenance", "run", "--auto");
+        builder.directory(store.getWorkTree());
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        builder.start();
+    }
+}
@@ -0,0 +1,63 @@
+package com.ivanarroyo.core;
+
+import java.nio.charset.StandardCharsets;
+
+// Type and size of a stored object, worked out from its first bytes. Objects carry no type, so it
+// is guessed the way gc does: commits start with their tree line, and a tree's first line is
+// "<id> <path>". Anything else, and every chunked object, is a blob.
+public final class ObjectInfo {
+    public static final String BLOB = "blob";
+    public static final String TREE = "tree";
+    public static final String COMMIT = "commit";
+
+    // How much of an object is read to tell its type
+    static final int HEAD_SIZE = 512;
+
+    private final String id;
+    private final String type;
+    private final long size;
+
+    ObjectInfo(String id, String type, long size) {
+        this.id = id;
+        this.type = type;
+        this.size = size;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    static String typeOf(byte[] head, int length, int idLength) {
+        String text = new String(head, 0, length, StandardCharsets.UTF_8);
+        if (text.startsWith("tree ") && isId(text, 5, idLength)) {
+            return COMMIT;
+        }
+        int space = text.indexOf(' ');
+        int newline = text.indexOf('\n');
+        if (space == idLength && isId(text, 0, idLength) && (newline < 0 || newline > space + 1)) {
+            return TREE;
+        }
+        return BLOB;
+    }
+
+    private static boolean isId(String text, int start, int idLength) {
+        if (text.length() < start + idLength) {
+            return false;
+        }
+        for (int i = start; i < start + idLength; i++) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
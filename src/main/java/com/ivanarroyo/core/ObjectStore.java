@@ -1,12 +1,38 @@
 package com.ivanarroyo.core;
 
+import com.ivanarroyo.util.HashAlgorithm;
+import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.util.Sha1Algorithm;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 public class ObjectStore {
+    public static final long DEFAULT_CHUNK_THRESHOLD = 64L * 1024 * 1024;
+
     private final File repoDir;
-    
+    private Config config;
+    private HashAlgorithm hashAlgorithm;
+    private List<PackFile> packs;
+    private FileTime packsStamp;
+    private RefBackend refBackend;
+
     public ObjectStore(String repoPath) {
         this.repoDir = new File(repoPath);
     }
@@ -15,6 +41,10 @@ public class ObjectStore {
         return repoDir;
     }
 
+    public File getWorkTree() {
+        return repoDir.getAbsoluteFile().getParentFile();
+    }
+
     public File getObjectsDir() {
         return new File(repoDir, "objects");
     }
@@ -27,6 +57,18 @@ public class ObjectStore {
         return new File(getObjectsDir(), hash);
     }
 
+    public File getPackDir() {
+        return new File(getObjectsDir(), "pack");
+    }
+
+    public File getPackedRefsFile() {
+        return new File(repoDir, "packed-refs");
+    }
+
+    public File getReftableDir() {
+        return new File(repoDir, "reftable");
+    }
+
     public File getIndexFile() {
         return new File(repoDir, "index");
     }
@@ -39,6 +81,448 @@ public class ObjectStore {
         return new File(repoDir, "stash");
     }
 
+    public File getMergeHeadFile() {
+        return new File(repoDir, "MERGE_HEAD");
+    }
+
+    public File getConfigFile() {
+        return new File(repoDir, "config");
+    }
+
+    public File getCommitGraphFile() {
+        return new File(repoDir, "commit-graph");
+    }
+
+    public File getChangedPathsFile() {
+        return new File(repoDir, "commit-graph.bloom");
+    }
+
+    public File getBitmapFile() {
+        return new File(repoDir, "bitmaps");
+    }
+
+    public synchronized Config getConfig() {
+        if (config == null) {
+            config = new Config(getConfigFile());
+        }
+        return config;
+    }
+
+    public synchronized HashAlgorithm getHashAlgorithm() {
+        if (hashAlgorithm == null) {
+            hashAlgorithm = HashUtils.algorithm(getConfig().get("core.hashAlgorithm", Sha1Algorithm.NAME));
+        }
+        return hashAlgorithm;
+    }
+
+    public String hash(byte[] data) {
+        return getHashAlgorithm().hash(data);
+    }
+
+    public String hashFile(Path file) throws IOException {
+        return getHashAlgorithm().hash(file);
+    }
+
+    // Objects are looked up loose first, then in the packs
+    public boolean hasObject(String hash) {
+        return getObjectFile(hash).exists() || findPacked(hash) != null;
+    }
+
+    public byte[] readObject(String hash) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.exists(objectFile)) {
+            if (ChunkManifest.isManifest(objectFile)) {
+                try (InputStream in = openObject(hash)) {
+                    return in.readAllBytes();
+                }
+            }
+            return Files.readAllBytes(objectFile);
+        }
+        byte[] data = readPacked(hash);
+        if (ChunkManifest.startsWithMagic(data, data.length)) {
+            try (InputStream in = openObject(hash)) {
+                return in.readAllBytes();
+            }
+        }
+        return data;
+    }
+
+    public InputStream openObject(String hash) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.exists(objectFile)) {
+            if (ChunkManifest.isManifest(objectFile)) {
+                return new ChunkedBlobInputStream(this, ChunkManifest.open(objectFile));
+            }
+            return Files.newInputStream(objectFile);
+        }
+        // Packed objects are streamed straight from the mapped pack
+        PackedObject packed = findPacked(hash);
+        if (packed == null) {
+            throw new NoSuchFileException(objectFile.toString());
+        }
+        if (ChunkManifest.startsWithMagic(packed.pack.slice(packed.position))) {
+            return new ChunkedBlobInputStream(this, ChunkManifest.open(packed.pack.open(packed.position)));
+        }
+        return packed.pack.open(packed.position);
+    }
+
+    // Type and size of an object from its first bytes only; null if there is no such object
+    public ObjectInfo getObjectInfo(String hash) throws IOException {
+        byte[] head = new byte[ObjectInfo.HEAD_SIZE];
+        int length;
+        long size;
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.isRegularFile(objectFile)) {
+            try (FileChannel channel = FileChannel.open(objectFile, StandardOpenOption.READ)) {
+                size = channel.size();
+                ByteBuffer buffer = ByteBuffer.wrap(head, 0, (int) Math.min(head.length, size));
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // keep reading until the head is filled
+                }
+                length = buffer.position();
+            }
+        } else {
+            PackedObject packed = findPacked(hash);
+            if (packed == null) {
+                return null;
+            }
+            ByteBuffer slice = packed.pack.slice(packed.position);
+            size = slice.remaining();
+            length = (int) Math.min(head.length, size);
+            slice.get(head, 0, length);
+        }
+        if (ChunkManifest.startsWithMagic(head, length)) {
+            try (ChunkManifest.Reader manifest = openManifest(hash)) {
+                return new ObjectInfo(hash, ObjectInfo.BLOB, manifest.getSize());
+            }
+        }
+        return new ObjectInfo(hash, ObjectInfo.typeOf(head, length, getHashAlgorithm().getDigestLength() * 2), size);
+    }
+
+    // Ids of the chunks a chunked blob is stored as; empty for plain or missing objects
+    public List<String> getChunkIds(String hash) throws IOException {
+        ChunkManifest.Reader reader = openManifest(hash);
+        if (reader == null) {
+            return Collections.emptyList();
+        }
+        List<String> chunks = new ArrayList<>();
+        try (ChunkManifest.Reader manifest = reader) {
+            ChunkManifest.Chunk chunk;
+            while ((chunk = manifest.next()) != null) {
+                chunks.add(chunk.getHash());
+            }
+        }
+        return chunks;
+    }
+
+    // Whether the object is stored as a chunk manifest, from its first bytes only
+    public boolean isChunked(String hash) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.isRegularFile(objectFile)) {
+            return ChunkManifest.isManifest(objectFile);
+        }
+        PackedObject packed = findPacked(hash);
+        return packed != null && ChunkManifest.startsWithMagic(packed.pack.slice(packed.position));
+    }
+
+    // Null unless the object is stored as a chunk manifest
+    ChunkManifest.Reader openManifest(String hash) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.isRegularFile(objectFile)) {
+            return ChunkManifest.isManifest(objectFile) ? ChunkManifest.open(objectFile) : null;
+        }
+        PackedObject packed = findPacked(hash);
+        if (packed == null) {
+            return null;
+        }
+        // Checked in the mapped pack, so plain objects are never copied out
+        if (!ChunkManifest.startsWithMagic(packed.pack.slice(packed.position))) {
+            return null;
+        }
+        return ChunkManifest.open(packed.pack.open(packed.position));
+    }
+
+    // Chunks are always read as stored, never interpreted as manifests
+    InputStream openRawObject(String hash) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.exists(objectFile)) {
+            return Files.newInputStream(objectFile);
+        }
+        PackedObject packed = findPacked(hash);
+        if (packed == null) {
+            throw new NoSuchFileException(objectFile.toString());
+        }
+        return packed.pack.open(packed.position);
+    }
+
+    // Stored bytes of a packed object, as a view into the mapped pack; null if the object is not packed
+    ByteBuffer getPackedSlice(String hash) {
+        PackedObject packed = findPacked(hash);
+        return packed == null ? null : packed.pack.slice(packed.position);
+    }
+
+    private byte[] readPacked(String hash) throws IOException {
+        PackedObject packed = findPacked(hash);
+        if (packed == null) {
+            throw new NoSuchFileException(getObjectFile(hash).getPath());
+        }
+        return packed.pack.read(packed.position);
+    }
+
+    private PackedObject findPacked(String hash) {
+        for (PackFile pack : getPacks()) {
+            int position = pack.find(hash);
+            if (position >= 0) {
+                return new PackedObject(pack, position);
+            }
+        }
+        return null;
+    }
+
+    // The pack directory changes whenever a pack is added or removed, so its timestamp tells
+    // whether the mapped packs are still current
+    synchronized List<PackFile> getPacks() {
+        File packDir = getPackDir();
+        FileTime stamp;
+        try {
+            stamp = Files.getLastModifiedTime(packDir.toPath());
+        } catch (IOException e) {
+            stamp = FileTime.fromMillis(0);
+        }
+        if (packs == null || !stamp.equals(packsStamp)) {
+            try {
+                packs = PackFile.openAll(packDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open packs in " + packDir, e);
+            }
+            packsStamp = stamp;
+        }
+        return packs;
+    }
+
+    // Ids of all objects stored loose in the objects directory
+    List<String> getLooseObjectIds() {
+        List<String> ids = new ArrayList<>();
+        String[] names = getObjectsDir().list();
+        if (names == null) {
+            return ids;
+        }
+        int idBytes = getHashAlgorithm().getDigestLength();
+        for (String name : names) {
+            byte[] raw = HashUtils.hexToBytes(name);
+            if (raw != null && raw.length == idBytes) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+
+    private static final class PackedObject {
+        final PackFile pack;
+        final int position;
+
+        PackedObject(PackFile pack, int position) {
+            this.pack = pack;
+            this.position = position;
+        }
+    }
+
+    public String writeObject(byte[] data) throws IOException {
+        String hash = hash(data);
+        writeObject(hash, data);
+        return hash;
+    }
+
+    public void writeObject(String hash, byte[] data) throws IOException {
+        writeObject(hash, data, 0, data.length);
+    }
+
+    private void writeObject(String hash, byte[] data, int offset, int length) throws IOException {
+        if (freshen(hash)) {
+            return;
+        }
+
+        Path tmp = createTempObject();
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                out.write(data, offset, length);
+            }
+            Files.move(tmp, getObjectFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    public String writeBlob(Path source) throws IOException {
+        long threshold = getConfig().getLong("chunking.threshold", DEFAULT_CHUNK_THRESHOLD);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Content that looks like a manifest must be stored as one, or it would be misread
+            if ((threshold > 0 && in.size() >= threshold) || ChunkManifest.startsWithMagic(in)) {
+                return writeChunkedBlob(in);
+            }
+            return writePlainBlob(in);
+        }
+    }
+
+    // Hashes and stores a file in a single pass, never holding more than one buffer in memory
+    private String writePlainBlob(FileChannel in) throws IOException {
+        HashAlgorithm.Hasher hasher = getHashAlgorithm().newHasher();
+        Path tmp = createTempObject();
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(HashUtils.BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    hasher.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+
+            return publish(tmp, hasher.finish());
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    // Splits the file into content-defined chunks, storing only chunks not already present
+    private String writeChunkedBlob(FileChannel in) throws IOException {
+        Config cfg = getConfig();
+        FastCdcChunker chunker = new FastCdcChunker(
+                (int) cfg.getLong("chunking.minSize", FastCdcChunker.DEFAULT_MIN_SIZE),
+                (int) cfg.getLong("chunking.avgSize", FastCdcChunker.DEFAULT_AVG_SIZE),
+                (int) cfg.getLong("chunking.maxSize", FastCdcChunker.DEFAULT_MAX_SIZE));
+        HashAlgorithm algorithm = getHashAlgorithm();
+        HashAlgorithm.Hasher hasher = algorithm.newHasher();
+        Path tmp = createTempObject();
+        try {
+            try (ChunkManifest.Writer manifest = ChunkManifest.create(tmp)) {
+                byte[] buffer = new byte[chunker.getMaxSize()];
+                int length = 0;
+                boolean eof = false;
+                while (true) {
+                    while (!eof && length < buffer.length) {
+                        int n = in.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+                        if (n == -1) {
+                            eof = true;
+                        } else {
+                            length += n;
+                        }
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+
+                    int chunkLength = chunker.cut(buffer, 0, length);
+                    if (ChunkManifest.startsWithMagic(buffer, length)) {
+                        // No stored chunk may look like a manifest; split off the first byte
+                        chunkLength = 1;
+                    }
+                    hasher.update(buffer, 0, chunkLength);
+                    HashAlgorithm.Hasher chunkHasher = algorithm.newHasher();
+                    chunkHasher.update(buffer, 0, chunkLength);
+                    String chunkHash = chunkHasher.finish();
+                    writeObject(chunkHash, buffer, 0, chunkLength);
+                    manifest.add(chunkHash, chunkLength);
+
+                    System.arraycopy(buffer, chunkLength, buffer, 0, length - chunkLength);
+                    length -= chunkLength;
+                }
+                manifest.finish();
+            }
+            return publish(tmp, hasher.finish());
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private String publish(Path tmp, String hash) throws IOException {
+        if (!freshen(hash)) {
+            Files.move(tmp, getObjectFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        return hash;
+    }
+
+    // An existing object that is about to be referenced again gets a new timestamp, so a concurrent
+    // gc sees it as recent and does not prune it. Returns false if the object does not exist.
+    private boolean freshen(String hash) {
+        File objectFile = getObjectFile(hash);
+        if (objectFile.exists()) {
+            objectFile.setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        PackedObject packed = findPacked(hash);
+        if (packed != null) {
+            packed.pack.getPackFile().setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    // Streams an object's content into a working tree file
+    public void copyObject(String hash, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkManifest.Reader reader = openManifest(hash);
+            if (reader == null) {
+                transferRaw(hash, out);
+                return;
+            }
+            try (ChunkManifest.Reader manifest = reader) {
+                ChunkManifest.Chunk chunk;
+                while ((chunk = manifest.next()) != null) {
+                    transferRaw(chunk.getHash(), out);
+                }
+            }
+        }
+    }
+
+    private void transferRaw(String hash, FileChannel out) throws IOException {
+        Path objectFile = getObjectFile(hash).toPath();
+        if (Files.exists(objectFile)) {
+            transfer(objectFile, out);
+            return;
+        }
+        PackedObject packed = findPacked(hash);
+        if (packed == null) {
+            throw new NoSuchFileException(objectFile.toString());
+        }
+        ByteBuffer slice = packed.pack.slice(packed.position);
+        while (slice.hasRemaining()) {
+            out.write(slice);
+        }
+    }
+
+    private static void transfer(Path source, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private Path createTempObject() throws IOException {
+        File objectsDir = getObjectsDir();
+        objectsDir.mkdirs();
+        return Files.createTempFile(objectsDir.toPath(), "opipop-obj-", ".tmp");
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
     public String getCurrentBranch() throws IOException {
         File head = getHeadFile();
         if (!head.exists()) {
@@ -56,25 +540,119 @@ public class ObjectStore {
         if (branch == null) {
             return Files.readString(getHeadFile().toPath()).trim();
         }
-        File branchFile = new File(getRefsDir(), "heads/" + branch);
-        if (!branchFile.exists()) {
-            return null;
-        }
-        return Files.readString(branchFile.toPath()).trim();
+        return getBranch(branch);
+    }
+
+    // Commit id of the branch, or null if it does not exist
+    public String getBranch(String name) throws IOException {
+        return getRefBackend().getBranch(name);
     }
 
     public void updateHead(String commitHash) throws IOException {
+        try (RefTransaction transaction = new RefTransaction(this)) {
+            transaction.update(getHeadRef(), commitHash).commit();
+        }
+    }
+
+    // Moves HEAD only if it still points at expectedOld (null for an unborn branch), so two
+    // concurrent commits cannot silently drop one another
+    public void updateHead(String commitHash, String expectedOld) throws IOException {
+        updateHead(commitHash, expectedOld, "update");
+    }
+
+    public void updateHead(String commitHash, String expectedOld, String message) throws IOException {
+        try (RefTransaction transaction = new RefTransaction(this)) {
+            transaction.update(getHeadRef(), commitHash, expectedOld).setMessage(message).commit();
+        }
+    }
+
+    // The ref a new commit moves: the current branch, or HEAD itself when detached
+    public String getHeadRef() throws IOException {
         String branch = getCurrentBranch();
+        return branch == null ? "HEAD" : "refs/heads/" + branch;
+    }
+
+    public void setCurrentBranch(String branch) throws IOException {
+        try (RefTransaction transaction = new RefTransaction(this)) {
+            transaction.update("HEAD", "ref: refs/heads/" + branch).commit();
+        }
+    }
+
+    // Resolves HEAD, a branch name, a full object id, a unique abbreviated id, or a reflog entry such as
+    // "main@{2}", "HEAD@{2024-05-01}" or "@{3 hours ago}". Returns null if nothing matches.
+    public String resolveRevision(String revision) throws IOException {
+        if (revision.equals("HEAD")) {
+            return getHeadCommit();
+        }
+        int at = revision.indexOf("@{");
+        if (at >= 0 && revision.endsWith("}")) {
+            return resolveReflog(revision.substring(0, at), revision.substring(at + 2, revision.length() - 1));
+        }
+        String branch = getBranch(revision);
         if (branch != null) {
-            File branchFile = new File(getRefsDir(), "heads/" + branch);
-            branchFile.getParentFile().mkdirs();
-            Files.writeString(branchFile.toPath(), commitHash);
-        } else {
-            Files.writeString(getHeadFile().toPath(), commitHash);
+            return branch;
+        }
+        if (HashUtils.hexToBytes(revision.length() % 2 == 0 ? revision : revision + "0") == null) {
+            return null;
+        }
+        if (hasObject(revision)) {
+            return revision;
         }
+        if (revision.length() < 4) {
+            return null;
+        }
+        TreeSet<String> matches = new TreeSet<>();
+        for (String id : getLooseObjectIds()) {
+            if (id.startsWith(revision)) {
+                matches.add(id);
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            matches.addAll(pack.findPrefix(revision));
+        }
+        return matches.size() == 1 ? matches.first() : null;
     }
 
-    public void setCurrentBranch(String branch) throws IOException {
-        Files.writeString(getHeadFile().toPath(), "ref: refs/heads/" + branch);
+    // "@{N}" without a ref means the current branch
+    private String resolveReflog(String name, String selector) throws IOException {
+        String ref = name.isEmpty() ? getHeadRef() : name.equals("HEAD") ? "HEAD" : "refs/heads/" + name;
+        Reflog reflog = new Reflog(this, ref);
+        if (!selector.isEmpty() && selector.chars().allMatch(Character::isDigit)) {
+            Reflog.Entry entry = selector.length() > 9 ? null : reflog.getRecent(Integer.parseInt(selector));
+            return entry == null ? null : entry.getNewId();
+        }
+        long time = Reflog.parseTime(selector, System.currentTimeMillis());
+        return time < 0 ? null : reflog.getValueAt(time);
+    }
+
+    // Branch name -> commit id, sorted by name
+    public Map<String, String> getBranches() throws IOException {
+        return getBranches("");
+    }
+
+    // Branches whose names start with the prefix
+    public Map<String, String> getBranches(String prefix) throws IOException {
+        return getRefBackend().getBranches(prefix);
+    }
+
+    // Rewrites the branches into the backend's most compact form: packed-refs for the files backend,
+    // a single table for reftable. Returns the number of branches.
+    public int packRefs() throws IOException {
+        return getRefBackend().pack();
+    }
+
+    // Chosen per repository with refs.backend, "files" unless init asked for another format
+    synchronized RefBackend getRefBackend() {
+        if (refBackend == null) {
+            String name = getConfig().get("refs.backend", FilesRefBackend.NAME);
+            if (name.equals(FilesRefBackend.NAME)) {
+                refBackend = new FilesRefBackend(this);
+            } else if (name.equals(ReftableBackend.NAME)) {
+                refBackend = new ReftableBackend(this);
+            } else {
+                throw new IllegalStateException("Unknown refs.backend in " + getConfigFile() + ": " + name);
+            }
+        }
+        return refBackend;
     }
 }
@@ -0,0 +1,103 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.EwahBitmap;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+// Marks every object reachable from a set of commits: commits, trees, blobs and blob chunks.
+// Objects with a position in the bitmap index are set in a bit set, others are collected by id.
+// A commit with a stored bitmap is not walked; its bitmap is collected instead.
+class ObjectWalk {
+    private final ObjectStore store;
+    private final History history;
+    private final ToIntFunction<String> positions;
+    private final Function<String, EwahBitmap> storedBitmaps;
+
+    final BitSet bits = new BitSet();
+    final Set<String> extraObjects = new HashSet<>();
+    final Set<String> extraCommits = new HashSet<>();
+    final List<EwahBitmap> reused = new ArrayList<>();
+
+    private final Set<String> seen = new HashSet<>();
+
+    ObjectWalk(ObjectStore store, History history, ToIntFunction<String> positions,
+               Function<String, EwahBitmap> storedBitmaps) {
+        this.store = store;
+        this.history = history;
+        this.positions = positions;
+        this.storedBitmaps = storedBitmaps;
+    }
+
+    void walk(Collection<String> tips) throws IOException {
+        Deque<String> pending = new ArrayDeque<>(tips);
+        while (!pending.isEmpty()) {
+            String commit = pending.pop();
+            if (!seen.add(commit)) {
+                continue;
+            }
+            EwahBitmap stored = storedBitmaps.apply(commit);
+            if (stored != null) {
+                reused.add(stored);
+                continue;
+            }
+            if (!mark(commit)) {
+                extraCommits.add(commit);
+            }
+            String tree = history.getTreeId(commit);
+            if (seen.add(tree)) {
+                mark(tree);
+                for (String blob : Tree.deserialize(store.readObject(tree)).getEntries().values()) {
+                    if (seen.add(blob)) {
+                        mark(blob);
+                        // Only the first bytes are looked at unless the blob really is chunked
+                        if (store.isChunked(blob)) {
+                            for (String chunk : store.getChunkIds(blob)) {
+                                if (seen.add(chunk)) {
+                                    mark(chunk);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            for (String parent : history.getParents(commit)) {
+                pending.push(parent);
+            }
+        }
+    }
+
+    // The walked objects and every reused bitmap combined
+    EwahBitmap toBitmap() {
+        EwahBitmap result = EwahBitmap.fromBitSet(bits);
+        for (EwahBitmap bitmap : reused) {
+            result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    // Returns false if the object is not in the index and was recorded by id
+    private boolean mark(String id) {
+        int position = positions.applyAsInt(id);
+        if (position < 0) {
+            extraObjects.add(id);
+            return false;
+        }
+        bits.set(position);
+        return true;
+    }
+
+    static ToIntFunction<String> positionsOf(Map<String, Integer> positions) {
+        return id -> positions.getOrDefault(id, -1);
+    }
+}
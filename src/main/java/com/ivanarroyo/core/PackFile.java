@@ -0,0 +1,208 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Objects packed into one file by gc --repack, stored exactly as they would be loose. Both files are
+// memory mapped; a lookup is a fanout jump plus a binary search over the sorted ids in the .idx.
+//   .pack: "OPPK", version, object count, object bytes back to back, SHA-1 of everything before it
+//   .idx:  "OPIX", version, hash bytes, object count, fanout[256], sorted ids, offsets (long),
+//          lengths (int), checksum of the .pack
+final class PackFile {
+    static final byte[] PACK_MAGIC = "OPPK".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] INDEX_MAGIC = "OPIX".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int PACK_HEADER_SIZE = 12;
+    static final int INDEX_HEADER_SIZE = 16;
+    static final int FANOUT_SIZE = 256 * 4;
+    static final int CHECKSUM_SIZE = 20;
+    static final String PREFIX = "pack-";
+
+    private final File packFile;
+    private final File indexFile;
+    private final ByteBuffer index;
+    private final ByteBuffer pack;
+    private final int hashBytes;
+    private final int count;
+    private final int offsetsStart;
+    private final int lengthsStart;
+
+    private PackFile(File packFile, File indexFile, ByteBuffer index, ByteBuffer pack) throws IOException {
+        this.packFile = packFile;
+        this.indexFile = indexFile;
+        this.index = index;
+        this.pack = pack;
+
+        byte[] magic = new byte[4];
+        copy(index, 0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC) || index.getInt(4) != VERSION) {
+            throw new IOException("Not a pack index: " + indexFile);
+        }
+        this.hashBytes = index.getInt(8);
+        this.count = index.getInt(12);
+        this.offsetsStart = INDEX_HEADER_SIZE + FANOUT_SIZE + count * hashBytes;
+        this.lengthsStart = offsetsStart + count * 8;
+        if (index.capacity() != lengthsStart + count * 4 + CHECKSUM_SIZE) {
+            throw new IOException("Truncated pack index: " + indexFile);
+        }
+        copy(pack, 0, magic);
+        if (!Arrays.equals(magic, PACK_MAGIC) || pack.getInt(8) != count) {
+            throw new IOException("Pack does not match its index: " + packFile);
+        }
+    }
+
+    // Packs become visible through their index, which is always written after the pack itself
+    static List<PackFile> openAll(File packDir) throws IOException {
+        List<PackFile> packs = new ArrayList<>();
+        File[] indexes = packDir.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(".idx"));
+        if (indexes == null) {
+            return packs;
+        }
+        Arrays.sort(indexes);
+        for (File indexFile : indexes) {
+            String base = indexFile.getName().substring(0, indexFile.getName().length() - ".idx".length());
+            File packFile = new File(packDir, base + ".pack");
+            if (packFile.isFile()) {
+                packs.add(new PackFile(packFile, indexFile, map(indexFile), map(packFile)));
+            }
+        }
+        return packs;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Position of the id in this pack, or -1
+    int find(String id) {
+        byte[] raw = HashUtils.hexToBytes(id);
+        if (raw == null || raw.length != hashBytes) {
+            return -1;
+        }
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(INDEX_HEADER_SIZE + (first - 1) * 4);
+        int hi = index.getInt(INDEX_HEADER_SIZE + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    String getId(int position) {
+        byte[] raw = new byte[hashBytes];
+        copy(index, INDEX_HEADER_SIZE + FANOUT_SIZE + position * hashBytes, raw);
+        return HashUtils.bytesToHex(raw);
+    }
+
+    // Ids starting with the given hex prefix
+    List<String> findPrefix(String prefix) {
+        List<String> matches = new ArrayList<>();
+        int from = 0;
+        int to = count;
+        byte[] head = prefix.length() >= 2 ? HashUtils.hexToBytes(prefix.substring(0, 2)) : null;
+        if (head != null) {
+            // Only the fanout bucket of the first byte can match
+            int first = head[0] & 0xff;
+            from = first == 0 ? 0 : index.getInt(INDEX_HEADER_SIZE + (first - 1) * 4);
+            to = index.getInt(INDEX_HEADER_SIZE + first * 4);
+        }
+        for (int i = from; i < to; i++) {
+            String id = getId(i);
+            if (id.startsWith(prefix)) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    int getLength(int position) {
+        return index.getInt(lengthsStart + position * 4);
+    }
+
+    // Read-only view of the object's bytes; independent of other callers' positions
+    ByteBuffer slice(int position) {
+        int offset = (int) index.getLong(offsetsStart + position * 8);
+        ByteBuffer view = pack.duplicate();
+        view.position(offset).limit(offset + getLength(position));
+        return view.slice();
+    }
+
+    byte[] read(int position) {
+        ByteBuffer view = slice(position);
+        byte[] data = new byte[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
+    InputStream open(int position) {
+        ByteBuffer view = slice(position);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, view.remaining());
+                view.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    private static void copy(ByteBuffer buffer, int offset, byte[] target) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(target);
+    }
+
+    private int compareId(int position, byte[] raw) {
+        int base = INDEX_HEADER_SIZE + FANOUT_SIZE + position * hashBytes;
+        for (int i = 0; i < hashBytes; i++) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
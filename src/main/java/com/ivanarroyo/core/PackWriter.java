@@ -0,0 +1,338 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.HashUtils;
+import com.ivanarroyo.util.IoThrottle;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+// Writes objects into pack files, sorted by id. A new pack is started whenever the current one
+// would grow past the size that can be mapped in one piece.
+class PackWriter {
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    private final ObjectStore store;
+    private final IoThrottle throttle;
+
+    PackWriter(ObjectStore store) {
+        this(store, IoThrottle.UNLIMITED);
+    }
+
+    PackWriter(ObjectStore store, IoThrottle throttle) {
+        this.store = store;
+        this.throttle = throttle;
+    }
+
+    // objects maps id -> stored size. Returns the pack files written; each becomes visible to
+    // readers only once its index has been moved into place.
+    List<File> write(SortedMap<String, Long> objects) throws IOException {
+        List<File> written = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long total = PackFile.PACK_HEADER_SIZE + PackFile.CHECKSUM_SIZE;
+        for (Map.Entry<String, Long> entry : objects.entrySet()) {
+            if (!batch.isEmpty() && total + entry.getValue() > MAX_PACK_SIZE) {
+                written.add(writePack(batch));
+                batch.clear();
+                total = PackFile.PACK_HEADER_SIZE + PackFile.CHECKSUM_SIZE;
+            }
+            batch.add(entry.getKey());
+            total += entry.getValue();
+        }
+        if (!batch.isEmpty()) {
+            written.add(writePack(batch));
+        }
+        return written;
+    }
+
+    private File writePack(List<String> ids) throws IOException {
+        File packDir = store.getPackDir();
+        packDir.mkdirs();
+        long[] offsets = new long[ids.size()];
+        int[] lengths = new int[ids.size()];
+
+        Path packTmp = Files.createTempFile(packDir.toPath(), "pack-", ".tmp");
+        Path indexTmp = Files.createTempFile(packDir.toPath(), "idx-", ".tmp");
+        try {
+            MessageDigest digest = HashUtils.newSha1();
+            byte[] checksum;
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(packTmp), 1 << 16)) {
+                DigestOutputStream digesting = new DigestOutputStream(file, digest);
+                DataOutputStream out = new DataOutputStream(digesting);
+                out.write(PackFile.PACK_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(ids.size());
+                long offset = PackFile.PACK_HEADER_SIZE;
+                byte[] buffer = new byte[HashUtils.BUFFER_SIZE];
+                for (int i = 0; i < ids.size(); i++) {
+                    long length = 0;
+                    try (InputStream in = store.openRawObject(ids.get(i))) {
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, n);
+                            length += n;
+                            throttle.acquire(n);
+                        }
+                    }
+                    if (length > Integer.MAX_VALUE) {
+                        throw new IOException("Object too large to pack: " + ids.get(i));
+                    }
+                    offsets[i] = offset;
+                    lengths[i] = (int) length;
+                    offset += length;
+                }
+                out.flush();
+                checksum = digest.digest();
+                file.write(checksum);
+            }
+
+            String name = PackFile.PREFIX + HashUtils.bytesToHex(checksum);
+            writeIndex(indexTmp, ids, offsets, lengths, checksum);
+            File packFile = new File(packDir, name + ".pack");
+            Files.move(packTmp, packFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(indexTmp, new File(packDir, name + ".idx").toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return packFile;
+        } finally {
+            Files.deleteIfExists(packTmp);
+            Files.deleteIfExists(indexTmp);
+        }
+    }
+
+    // Packs objects as they are produced rather than copying them out of the store
+    Appender append() {
+        return new Appender();
+    }
+
+    // Objects are appended to a temporary pack through one write buffer and can be read back at
+    // once; the store only sees them after finish(). Closing without finishing throws them away.
+    final class Appender implements Closeable {
+        private final Map<String, Location> written = new HashMap<>();
+        private final List<File> finished = new ArrayList<>();
+        private final ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+        private Segment current;
+        private final List<String> ids = new ArrayList<>();
+        private long size;
+
+        boolean contains(String id) {
+            return written.containsKey(id);
+        }
+
+        // Objects already appended are skipped
+        void add(String id, byte[] data) throws IOException {
+            if (written.containsKey(id)) {
+                return;
+            }
+            if (current != null && size + data.length + PackFile.CHECKSUM_SIZE > MAX_PACK_SIZE) {
+                finishPack();
+            }
+            if (current == null) {
+                startPack();
+            }
+            long offset = size;
+            if (data.length > pending.remaining()) {
+                flushPending();
+            }
+            if (data.length >= pending.capacity()) {
+                write(ByteBuffer.wrap(data), offset);
+            } else {
+                pending.put(data);
+            }
+            size += data.length;
+            ids.add(id);
+            written.put(id, new Location(current, offset, data.length));
+        }
+
+        // Content of an appended object, or null
+        byte[] read(String id) throws IOException {
+            Location location = written.get(id);
+            if (location == null) {
+                return null;
+            }
+            if (location.segment == current) {
+                flushPending();
+            }
+            ByteBuffer data = ByteBuffer.allocate(location.length);
+            if (location.segment.channel != null) {
+                readFully(location.segment.channel, data, location.offset);
+            } else {
+                try (FileChannel channel = FileChannel.open(location.segment.path, StandardOpenOption.READ)) {
+                    readFully(channel, data, location.offset);
+                }
+            }
+            return data.array();
+        }
+
+        // Moves every pack into place. Returns the pack files written.
+        List<File> finish() throws IOException {
+            if (current != null) {
+                finishPack();
+            }
+            return new ArrayList<>(finished);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.channel.close();
+                Files.deleteIfExists(current.path);
+                current = null;
+            }
+        }
+
+        private void startPack() throws IOException {
+            File packDir = store.getPackDir();
+            packDir.mkdirs();
+            Path path = Files.createTempFile(packDir.toPath(), "pack-", ".tmp");
+            current = new Segment(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            ByteBuffer header = ByteBuffer.allocate(PackFile.PACK_HEADER_SIZE);
+            header.put(PackFile.PACK_MAGIC).putInt(PackFile.VERSION).putInt(0).flip();
+            write(header, 0);
+            size = PackFile.PACK_HEADER_SIZE;
+        }
+
+        // The object count goes into the header, then the checksum is taken over the whole file
+        private void finishPack() throws IOException {
+            flushPending();
+            FileChannel channel = current.channel;
+            ByteBuffer count = ByteBuffer.allocate(4).putInt(0, ids.size());
+            write(count, 8);
+
+            MessageDigest digest = HashUtils.newSha1();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            for (long position = 0; position < size; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+                readFully(channel, buffer, position);
+                position += buffer.limit();
+                digest.update(buffer.array(), 0, buffer.limit());
+            }
+            byte[] checksum = digest.digest();
+            write(ByteBuffer.wrap(checksum), size);
+            channel.force(true);
+            channel.close();
+            current.channel = null;
+
+            List<String> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            long[] offsets = new long[sorted.size()];
+            int[] lengths = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                Location location = written.get(sorted.get(i));
+                offsets[i] = location.offset;
+                lengths[i] = location.length;
+            }
+
+            File packDir = store.getPackDir();
+            String name = PackFile.PREFIX + HashUtils.bytesToHex(checksum);
+            Path indexTmp = Files.createTempFile(packDir.toPath(), "idx-", ".tmp");
+            try {
+                writeIndex(indexTmp, sorted, offsets, lengths, checksum);
+                File packFile = new File(packDir, name + ".pack");
+                Files.move(current.path, packFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                current.path = packFile.toPath();
+                Files.move(indexTmp, new File(packDir, name + ".idx").toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                finished.add(packFile);
+            } finally {
+                Files.deleteIfExists(indexTmp);
+            }
+            current = null;
+            ids.clear();
+        }
+
+        private void flushPending() throws IOException {
+            if (pending.position() > 0) {
+                pending.flip();
+                write(pending, size - pending.remaining());
+                pending.clear();
+            }
+        }
+
+        private void write(ByteBuffer data, long position) throws IOException {
+            while (data.hasRemaining()) {
+                position += current.channel.write(data, position);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of pack");
+            }
+            position += n;
+        }
+    }
+
+    // A pack being appended to, then the finished pack once it is moved into place
+    private static final class Segment {
+        Path path;
+        FileChannel channel;
+
+        Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private void writeIndex(Path target, List<String> ids, long[] offsets, int[] lengths, byte[] checksum)
+            throws IOException {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[HashUtils.hexToBytes(id)[0] & 0xff]++;
+        }
+        for (int i = 1; i < 256; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), 1 << 16))) {
+            out.write(PackFile.INDEX_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            out.writeInt(store.getHashAlgorithm().getDigestLength());
+            out.writeInt(ids.size());
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(HashUtils.hexToBytes(id));
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+            out.write(checksum);
+        }
+    }
+}
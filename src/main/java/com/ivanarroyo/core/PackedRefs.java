@@ -0,0 +1,189 @@
+package com.ivanarroyo.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// All branches in one file, one "<id> <name>" line each, sorted by the UTF-8 bytes of the name.
+// The file is memory mapped and searched in place: a probe lands anywhere in a line and backs up
+// to its start, so neither a lookup nor a prefix scan has to parse the whole file.
+final class PackedRefs {
+    static final String HEADER = "# opipop packed-refs sorted\n";
+
+    private static final PackedRefs EMPTY = new PackedRefs(ByteBuffer.allocate(0), 0);
+
+    private final ByteBuffer data;
+    private final int start;
+
+    private PackedRefs(ByteBuffer data, int start) {
+        this.data = data;
+        this.start = start;
+    }
+
+    static PackedRefs open(File file) throws IOException {
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("packed-refs too large: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        // Skip the header line, if any
+        int start = 0;
+        if (data.limit() > 0 && data.get(0) == '#') {
+            while (start < data.limit() && data.get(start) != '\n') {
+                start++;
+            }
+            start++;
+        }
+        return new PackedRefs(data, Math.min(start, data.limit()));
+    }
+
+    // Commit id of the branch, or null
+    String get(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = start;
+        int hi = data.limit();
+        while (lo < hi) {
+            int line = lineStart((lo + hi) >>> 1, lo);
+            int space = indexOf(' ', line);
+            int end = indexOf('\n', space);
+            int cmp = compare(space + 1, end, key);
+            if (cmp == 0) {
+                return string(line, space);
+            } else if (cmp < 0) {
+                lo = end + 1;
+            } else {
+                hi = line;
+            }
+        }
+        return null;
+    }
+
+    // Branches whose names start with the prefix, in name order
+    SortedMap<String, String> list(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        // Lower bound: the first line whose name is not below the prefix
+        int lo = start;
+        int hi = data.limit();
+        while (lo < hi) {
+            int line = lineStart((lo + hi) >>> 1, lo);
+            int space = indexOf(' ', line);
+            int end = indexOf('\n', space);
+            if (compare(space + 1, end, key) < 0) {
+                lo = end + 1;
+            } else {
+                hi = line;
+            }
+        }
+
+        SortedMap<String, String> refs = new TreeMap<>();
+        for (int line = lo; line < data.limit(); ) {
+            int space = indexOf(' ', line);
+            int end = indexOf('\n', space);
+            if (!startsWith(space + 1, end, key)) {
+                break;
+            }
+            refs.put(string(space + 1, end), string(line, space));
+            line = end + 1;
+        }
+        return refs;
+    }
+
+    // Written into packed-refs.lock and renamed over the file, so readers see either the old or the
+    // new set of refs and two writers cannot interleave
+    static void write(File file, Map<String, String> refs) throws IOException {
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(refs.entrySet());
+        sorted.sort((a, b) -> Arrays.compareUnsigned(
+                a.getKey().getBytes(StandardCharsets.UTF_8), b.getKey().getBytes(StandardCharsets.UTF_8)));
+        Path tmp = new File(file.getPath() + ".lock").toPath();
+        try {
+            Files.createFile(tmp);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException("Unable to lock " + file + ": another opipop process may be running");
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+                 BufferedWriter writer = new BufferedWriter(
+                         new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+                writer.write(HEADER);
+                for (Map.Entry<String, String> ref : sorted) {
+                    if (ref.getKey().indexOf(' ') >= 0 || ref.getKey().indexOf('\n') >= 0) {
+                        throw new IllegalArgumentException("Invalid branch name: " + ref.getKey());
+                    }
+                    writer.write(ref.getValue() + " " + ref.getKey() + "\n");
+                }
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private int lineStart(int position, int floor) {
+        while (position > floor && data.get(position - 1) != '\n') {
+            position--;
+        }
+        return position;
+    }
+
+    private int indexOf(char c, int from) {
+        int i = from;
+        while (i < data.limit() && data.get(i) != c) {
+            i++;
+        }
+        return i;
+    }
+
+    private int compare(int from, int to, byte[] key) {
+        int length = Math.min(to - from, key.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(data.get(from + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(to - from, key.length);
+    }
+
+    private boolean startsWith(int from, int to, byte[] key) {
+        if (to - from < key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (data.get(from + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
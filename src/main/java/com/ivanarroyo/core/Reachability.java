@@ -0,0 +1,84 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.EwahBitmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Sets of objects reachable from commits. Commits covered by the bitmap file are answered from their
+// stored bitmaps; only commits newer than the bitmaps are walked, and objects missing from the bitmap
+// object table are tracked by id.
+public class Reachability {
+    private final ObjectStore store;
+    private final History history;
+    private final ReachabilityBitmaps bitmaps;
+
+    public Reachability(ObjectStore store) throws IOException {
+        this.store = store;
+        this.history = new History(store);
+        this.bitmaps = ReachabilityBitmaps.open(store);
+    }
+
+    public boolean hasBitmaps() {
+        return bitmaps != null;
+    }
+
+    public ObjectSet reachableFrom(Collection<String> commits) throws IOException {
+        ObjectWalk walk = bitmaps == null
+                ? new ObjectWalk(store, history, id -> -1, id -> null)
+                : new ObjectWalk(store, history, bitmaps::find, bitmaps::getBitmap);
+        walk.walk(commits);
+        return new ObjectSet(walk.toBitmap(), walk.extraObjects, walk.extraCommits);
+    }
+
+    public final class ObjectSet {
+        private final EwahBitmap bitmap;
+        private final Set<String> extraObjects;
+        private final Set<String> extraCommits;
+
+        private ObjectSet(EwahBitmap bitmap, Set<String> extraObjects, Set<String> extraCommits) {
+            this.bitmap = bitmap;
+            this.extraObjects = extraObjects;
+            this.extraCommits = extraCommits;
+        }
+
+        // Objects in this set but not in the other; an object is either in the bitmap table or tracked by id
+        public ObjectSet andNot(ObjectSet other) {
+            Set<String> objects = new HashSet<>(extraObjects);
+            objects.removeAll(other.extraObjects);
+            Set<String> commits = new HashSet<>(extraCommits);
+            commits.removeAll(other.extraCommits);
+            return new ObjectSet(bitmap.andNot(other.bitmap), objects, commits);
+        }
+
+        public int countObjects() {
+            return bitmap.cardinality() + extraObjects.size();
+        }
+
+        public int countCommits() {
+            int inBitmap = bitmaps == null ? 0 : bitmap.and(bitmaps.getCommits()).cardinality();
+            return inBitmap + extraCommits.size();
+        }
+
+        public List<String> getCommitIds() {
+            Set<String> ids = new TreeSet<>(extraCommits);
+            if (bitmaps != null) {
+                bitmap.and(bitmaps.getCommits()).forEach(position -> ids.add(bitmaps.getId(position)));
+            }
+            return new ArrayList<>(ids);
+        }
+
+        public List<String> getObjectIds() {
+            Set<String> ids = new TreeSet<>(extraObjects);
+            if (bitmaps != null) {
+                bitmap.forEach(position -> ids.add(bitmaps.getId(position)));
+            }
+            return new ArrayList<>(ids);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.EwahBitmap;
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ReachabilityBitmapWriter {
+    // Besides every ref tip, one commit in this many gets a bitmap
+    static final int SELECTION_INTERVAL = 100;
+
+    private final ObjectStore store;
+
+    public ReachabilityBitmapWriter(ObjectStore store) {
+        this.store = store;
+    }
+
+    // Rewrites the bitmap file for everything reachable from the branches and HEAD.
+    // Returns the number of bitmaps written.
+    public int write() throws IOException {
+        History history = new History(store);
+        Set<String> tips = new LinkedHashSet<>();
+        for (String tip : store.getBranches().values()) {
+            if (store.hasObject(tip)) {
+                tips.add(tip);
+            }
+        }
+        String head = store.getHeadCommit();
+        if (head != null && store.hasObject(head)) {
+            tips.add(head);
+        }
+
+        // Full walk to build the object table; tree entries that are not well-formed ids are left out
+        int hashBytes = store.getHashAlgorithm().getDigestLength();
+        ObjectWalk all = new ObjectWalk(store, history, id -> -1, id -> null);
+        all.walk(tips);
+        List<String> ids = new ArrayList<>();
+        for (String id : all.extraObjects) {
+            byte[] raw = HashUtils.hexToBytes(id);
+            if (raw != null && raw.length == hashBytes) {
+                ids.add(id);
+            }
+        }
+        Collections.sort(ids);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+
+        // Older commits first, so each bitmap can reuse the ones below it instead of walking further
+        List<String> order = parentsFirst(all.extraCommits, history);
+        Map<String, EwahBitmap> bitmaps = new LinkedHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            String commit = order.get(i);
+            if (!positions.containsKey(commit) || (!tips.contains(commit) && i % SELECTION_INTERVAL != 0)) {
+                continue;
+            }
+            ObjectWalk walk = new ObjectWalk(store, history, ObjectWalk.positionsOf(positions), bitmaps::get);
+            walk.walk(Collections.singletonList(commit));
+            bitmaps.put(commit, walk.toBitmap());
+        }
+
+        BitSet commits = new BitSet();
+        for (String commit : all.extraCommits) {
+            Integer position = positions.get(commit);
+            if (position != null) {
+                commits.set(position);
+            }
+        }
+
+        writeFile(ids, hashBytes, EwahBitmap.fromBitSet(commits), bitmaps, positions);
+        return bitmaps.size();
+    }
+
+    private static List<String> parentsFirst(Set<String> commits, History history) throws IOException {
+        List<String> order = new ArrayList<>(commits.size());
+        Set<String> done = new HashSet<>();
+        List<String> sorted = new ArrayList<>(commits);
+        Collections.sort(sorted);
+        Deque<String> stack = new ArrayDeque<>();
+        for (String start : sorted) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String current = stack.peek();
+                if (done.contains(current)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : history.getParents(current)) {
+                    if (!done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    done.add(current);
+                    order.add(current);
+                    stack.pop();
+                }
+            }
+        }
+        return order;
+    }
+
+    private void writeFile(List<String> ids, int hashBytes, EwahBitmap commits, Map<String, EwahBitmap> bitmaps,
+                           Map<String, Integer> positions) throws IOException {
+        File target = store.getBitmapFile();
+        target.getParentFile().mkdirs();
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), "bitmaps-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.write(ReachabilityBitmaps.MAGIC);
+                out.writeInt(ReachabilityBitmaps.VERSION);
+                out.writeInt(hashBytes);
+                out.writeInt(ids.size());
+                out.writeInt(bitmaps.size());
+                for (String id : ids) {
+                    out.write(HashUtils.hexToBytes(id));
+                }
+                commits.writeTo(out);
+                for (Map.Entry<String, EwahBitmap> entry : bitmaps.entrySet()) {
+                    out.writeInt(positions.get(entry.getKey()));
+                    entry.getValue().writeTo(out);
+                }
+            }
+            Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.EwahBitmap;
+import com.ivanarroyo.util.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Memory-mapped reachability bitmaps. Every bit position names an object in the file's own sorted
+// object table. Layout (big-endian):
+//   "OPBM" | version:int | hashBytes:int | objectCount:int | bitmapCount:int
+//   ids:     objectCount * hashBytes, sorted
+//   commits: EWAH bitmap of the positions that are commits
+//   entries: bitmapCount * (commit position:int | EWAH bitmap of everything reachable from it)
+// An EWAH bitmap is sizeInBits:int | wordCount:int | wordCount longs.
+public class ReachabilityBitmaps {
+    static final byte[] MAGIC = "OPBM".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+
+    private final MappedByteBuffer buffer;
+    private final int hashBytes;
+    private final int count;
+    private final EwahBitmap commits;
+    private final Map<Integer, Integer> bitmapOffsets = new HashMap<>();
+
+    private ReachabilityBitmaps(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.duplicate().get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported bitmap file");
+        }
+        this.hashBytes = buffer.getInt(8);
+        this.count = buffer.getInt(12);
+        int bitmapCount = buffer.getInt(16);
+
+        int offset = HEADER_SIZE + count * hashBytes;
+        this.commits = EwahBitmap.read(buffer, offset);
+        offset += commits.serializedSize();
+        for (int i = 0; i < bitmapCount; i++) {
+            int position = buffer.getInt(offset);
+            bitmapOffsets.put(position, offset + 4);
+            offset += 4 + EwahBitmap.read(buffer, offset + 4).serializedSize();
+        }
+    }
+
+    // Returns null when the repository has no bitmaps or they were written with another hash length
+    public static ReachabilityBitmaps open(ObjectStore store) throws IOException {
+        File file = store.getBitmapFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ReachabilityBitmaps bitmaps = new ReachabilityBitmaps(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return bitmaps.hashBytes == store.getHashAlgorithm().getDigestLength() ? bitmaps : null;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getBitmapCount() {
+        return bitmapOffsets.size();
+    }
+
+    public EwahBitmap getCommits() {
+        return commits;
+    }
+
+    // Position of an object in the table, or -1 if it is not present
+    public int find(String id) {
+        byte[] key = HashUtils.hexToBytes(id);
+        if (key == null || key.length != hashBytes) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String getId(int position) {
+        byte[] raw = new byte[hashBytes];
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_SIZE + position * hashBytes);
+        view.get(raw);
+        return HashUtils.bytesToHex(raw);
+    }
+
+    // Everything reachable from the commit, or null if no bitmap was stored for it
+    public EwahBitmap getBitmap(String commitId) {
+        int position = find(commitId);
+        Integer offset = position < 0 ? null : bitmapOffsets.get(position);
+        return offset == null ? null : EwahBitmap.read(buffer, offset);
+    }
+
+    private int compareId(int position, byte[] key) {
+        int offset = HEADER_SIZE + position * hashBytes;
+        for (int i = 0; i < hashBytes; i++) {
+            int cmp = Integer.compare(buffer.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
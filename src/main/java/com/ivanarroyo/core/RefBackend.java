@@ -0,0 +1,29 @@
+package com.ivanarroyo.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+// Storage for branches. HEAD and the other pseudo-refs are always plain files next to it; only
+// refs/heads/* goes through the backend, which a repository picks with refs.backend in its config.
+interface RefBackend {
+    // Commit id of the branch, or null
+    String getBranch(String name) throws IOException;
+
+    // Branches whose names start with the prefix, sorted by name
+    SortedMap<String, String> getBranches(String prefix) throws IOException;
+
+    // Locks the branches against other writers until the returned handle is closed. Values read
+    // while the lock is held stay current.
+    Locked lock(Collection<String> names) throws IOException;
+
+    // Rewrites the storage into its most compact form; returns the number of branches
+    int pack() throws IOException;
+
+    interface Locked extends Closeable {
+        // Stores the new values (null deletes the branch) all at once
+        void apply(Map<String, String> updates) throws IOException;
+    }
+}
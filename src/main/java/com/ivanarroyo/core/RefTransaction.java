@@ -0,0 +1,289 @@
+package com.ivanarroyo.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Updates several refs ("HEAD", "MERGE_HEAD", "refs/heads/<branch>") all or nothing. HEAD and the
+// other pseudo-refs are locked by creating "<ref>.lock" exclusively; branches are locked through the
+// repository's ref backend. Once every lock is held, the expected old values are checked; the new
+// values are written and fsynced into the lock files, the branches are handed to the backend in one
+// batch, and only then are the pseudo-refs renamed into place. A failure before that point leaves
+// every ref untouched.
+public class RefTransaction implements Closeable {
+    private static final String HEADS = "refs/heads/";
+    private static final Set<String> PSEUDO_REFS = Set.of("HEAD", "MERGE_HEAD", Stash.REF);
+
+    private final ObjectStore store;
+    // Sorted so that every process takes the locks in the same order
+    private final Map<String, Update> updates = new TreeMap<>();
+    private final List<Path> locks = new ArrayList<>();
+    private RefBackend.Locked branches;
+    private String message = "update";
+    private boolean logged = true;
+    private boolean prepared;
+    private boolean done;
+
+    public RefTransaction(ObjectStore store) {
+        this.store = store;
+    }
+
+    // Recorded in the reflogs of the refs this transaction moves
+    public RefTransaction setMessage(String message) {
+        this.message = message;
+        return this;
+    }
+
+    // For updates that rewrite the reflog themselves, such as dropping a stash entry
+    RefTransaction withoutReflog() {
+        logged = false;
+        return this;
+    }
+
+    // Sets the ref whatever its current value
+    public RefTransaction update(String ref, String newValue) {
+        return add(ref, newValue, null, false);
+    }
+
+    // Sets the ref only if it still holds expectedOld; null expects the ref not to exist
+    public RefTransaction update(String ref, String newValue, String expectedOld) {
+        return add(ref, newValue, expectedOld, true);
+    }
+
+    // Deletes the ref only if it still holds expectedOld. The files backend refuses to delete a packed branch.
+    public RefTransaction delete(String ref, String expectedOld) {
+        return add(ref, null, expectedOld, true);
+    }
+
+    private RefTransaction add(String ref, String newValue, String expectedOld, boolean check) {
+        if (prepared || done) {
+            throw new IllegalStateException("Transaction already prepared");
+        }
+        if (!isValidRefName(ref)) {
+            throw new IllegalArgumentException("Invalid ref name: " + ref);
+        }
+        if (updates.put(ref, new Update(newValue, expectedOld, check)) != null) {
+            throw new IllegalArgumentException("Ref updated twice in one transaction: " + ref);
+        }
+        return this;
+    }
+
+    // HEAD, the other pseudo-refs opipop writes, or a branch. Refs are files in the repository, so any
+    // other name could have a transaction overwrite its config, index or objects.
+    public static boolean isValidRefName(String ref) {
+        if (PSEUDO_REFS.contains(ref)) {
+            return true;
+        }
+        if (!ref.startsWith(HEADS) || ref.endsWith(".lock")) {
+            return false;
+        }
+        for (String part : ref.substring(HEADS.length()).split("/", -1)) {
+            if (part.isEmpty() || part.startsWith(".")) {
+                return false;
+            }
+            for (int i = 0; i < part.length(); i++) {
+                char c = part.charAt(i);
+                if (c <= ' ' || c == 0x7f || c == '\\') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Takes every lock and checks the expected values. The caller may then do other work, such as
+    // writing the index, knowing no other process can move these refs until commit or close.
+    public void prepare() throws IOException {
+        if (done) {
+            throw new IllegalStateException("Transaction already finished");
+        }
+        if (prepared) {
+            return;
+        }
+        try {
+            List<String> branchNames = new ArrayList<>();
+            for (String ref : updates.keySet()) {
+                if (ref.startsWith(HEADS)) {
+                    branchNames.add(ref.substring(HEADS.length()));
+                    continue;
+                }
+                Path lock = lockFile(ref);
+                Files.createDirectories(lock.getParent());
+                try {
+                    Files.createFile(lock);
+                } catch (FileAlreadyExistsException e) {
+                    throw new IllegalStateException("Unable to lock " + ref + ": " + lock
+                            + " exists; another opipop process may be running");
+                }
+                locks.add(lock);
+            }
+            if (!branchNames.isEmpty()) {
+                branches = store.getRefBackend().lock(branchNames);
+            }
+            for (Map.Entry<String, Update> entry : updates.entrySet()) {
+                Update update = entry.getValue();
+                String current = read(entry.getKey());
+                update.current = current;
+                if (update.check && !Objects.equals(current, update.expectedOld)) {
+                    throw new IllegalStateException("Ref " + entry.getKey() + " changed concurrently: expected "
+                            + (update.expectedOld == null ? "no ref" : update.expectedOld)
+                            + " but found " + (current == null ? "no ref" : current));
+                }
+            }
+            prepared = true;
+        } catch (IOException | RuntimeException e) {
+            releaseLocks();
+            throw e;
+        }
+    }
+
+    public void commit() throws IOException {
+        prepare();
+        try {
+            // Everything is durable in the lock files before the first ref changes
+            Map<String, String> branchUpdates = new TreeMap<>();
+            for (Map.Entry<String, Update> entry : updates.entrySet()) {
+                String value = entry.getValue().newValue;
+                if (entry.getKey().startsWith(HEADS)) {
+                    branchUpdates.put(entry.getKey().substring(HEADS.length()), value);
+                } else if (value != null) {
+                    try (FileChannel channel = FileChannel.open(lockFile(entry.getKey()), StandardOpenOption.WRITE)) {
+                        channel.write(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+                        channel.force(true);
+                    }
+                }
+            }
+            if (branches != null) {
+                branches.apply(branchUpdates);
+            }
+            writeReflogs();
+            for (Map.Entry<String, Update> entry : updates.entrySet()) {
+                if (entry.getKey().startsWith(HEADS)) {
+                    continue;
+                }
+                Path target = refFile(entry.getKey());
+                if (entry.getValue().newValue == null) {
+                    Files.deleteIfExists(target);
+                    Files.delete(lockFile(entry.getKey()));
+                } else {
+                    Files.move(lockFile(entry.getKey()), target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            locks.clear();
+            for (String ref : updates.keySet()) {
+                if (!ref.startsWith(HEADS)) {
+                    syncDirectory(refFile(ref).getParent());
+                }
+            }
+        } finally {
+            done = true;
+            releaseLocks();
+        }
+    }
+
+    // Logged while the locks are held, as commit ids: a symbolic HEAD is logged as the commit of the
+    // branch it points to. Moving the branch HEAD is on also moves HEAD, so that is logged for HEAD too.
+    private void writeReflogs() throws IOException {
+        if (!logged) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String head = read("HEAD");
+        for (Map.Entry<String, Update> entry : updates.entrySet()) {
+            String ref = entry.getKey();
+            Update update = entry.getValue();
+            if (update.newValue == null || !(ref.equals("HEAD") || ref.equals(Stash.REF) || ref.startsWith(HEADS))) {
+                continue;
+            }
+            String oldId = loggable(commitOf(update.current));
+            String newId = loggable(commitOf(update.newValue));
+            new Reflog(store, ref).append(oldId, newId, now, message);
+            if (!updates.containsKey("HEAD") && ("ref: " + ref).equals(head)) {
+                new Reflog(store, "HEAD").append(oldId, newId, now, message);
+            }
+        }
+    }
+
+    private String commitOf(String value) throws IOException {
+        if (value != null && value.startsWith("ref: ")) {
+            String target = value.substring("ref: ".length());
+            return updates.containsKey(target) ? updates.get(target).newValue : read(target);
+        }
+        return value;
+    }
+
+    private static String loggable(String value) {
+        return value == null || value.length() > 64 || value.indexOf(' ') >= 0 ? null : value;
+    }
+
+    // Releases the locks of a transaction that was not committed
+    @Override
+    public void close() throws IOException {
+        done = true;
+        releaseLocks();
+    }
+
+    // Current value of a ref, packed branches included; null if it does not exist
+    String read(String ref) throws IOException {
+        if (ref.startsWith(HEADS)) {
+            return store.getBranch(ref.substring(HEADS.length()));
+        }
+        Path file = refFile(ref);
+        return Files.isRegularFile(file) ? Files.readString(file).trim() : null;
+    }
+
+    private Path refFile(String ref) {
+        return new File(store.getRepoDir(), ref).toPath();
+    }
+
+    private Path lockFile(String ref) {
+        return new File(store.getRepoDir(), ref + ".lock").toPath();
+    }
+
+    private void releaseLocks() throws IOException {
+        for (Path lock : locks) {
+            Files.deleteIfExists(lock);
+        }
+        locks.clear();
+        if (branches != null) {
+            branches.close();
+            branches = null;
+        }
+    }
+
+    // Makes the renames themselves durable; not every platform can open a directory for this
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private static final class Update {
+        final String newValue;
+        final String expectedOld;
+        final boolean check;
+        String current;
+
+        Update(String newValue, String expectedOld, boolean check) {
+            this.newValue = newValue;
+            this.expectedOld = expectedOld;
+            this.check = check;
+        }
+    }
+}
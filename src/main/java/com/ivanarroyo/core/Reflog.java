@@ -0,0 +1,267 @@
+package com.ivanarroyo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// History of the values of one ref, in .opipop/logs/<ref>. Every record is exactly RECORD_SIZE
+// bytes, so entry i lives at i * RECORD_SIZE: "@{N}" is a single positioned read and a lookup by
+// time is a binary search over the timestamps. Records stay readable text:
+//   <old id, padded to 64> <new id, padded to 64> <13-digit millis> <message, padded>\n
+// A missing id is written as "0". Each record goes out in one append-mode write.
+public class Reflog {
+    public static final int RECORD_SIZE = 256;
+
+    private static final int ID_WIDTH = 64;
+    private static final int NEW_OFFSET = ID_WIDTH + 1;
+    private static final int TIME_OFFSET = NEW_OFFSET + ID_WIDTH + 1;
+    private static final int TIME_WIDTH = 13;
+    private static final int MESSAGE_OFFSET = TIME_OFFSET + TIME_WIDTH + 1;
+    private static final int MESSAGE_WIDTH = RECORD_SIZE - MESSAGE_OFFSET - 1;
+
+    private final ObjectStore store;
+    private final String ref;
+
+    public Reflog(ObjectStore store, String ref) {
+        this.store = store;
+        this.ref = ref;
+    }
+
+    public File getFile() {
+        return new File(store.getRepoDir(), "logs/" + ref);
+    }
+
+    // Callers hold the ref's lock, so appends to one reflog never race
+    void append(String oldId, String newId, long time, String message) throws IOException {
+        File file = getFile();
+        file.getParentFile().mkdirs();
+        ByteBuffer record = ByteBuffer.wrap(encode(oldId, newId, time, message));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // A record torn by a crash would shift every later one, so it is cut off first
+            long size = channel.size();
+            if (size % RECORD_SIZE != 0) {
+                channel.truncate(size - size % RECORD_SIZE);
+            }
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+    }
+
+    // Drops the newest records, keeping the first size; callers hold the ref's lock
+    void truncate(int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate((long) size * RECORD_SIZE);
+            channel.force(true);
+        }
+    }
+
+    public int size() {
+        return (int) (getFile().length() / RECORD_SIZE);
+    }
+
+    // Entry by position, oldest first
+    public Entry get(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+            return read(channel, index);
+        }
+    }
+
+    // Entries from (inclusive) to to (exclusive), oldest first, read with one sequential pass
+    public List<Entry> getEntries(int from, int to) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (from >= to) {
+            return entries;
+        }
+        try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+            for (int i = from; i < to; i++) {
+                entries.add(read(channel, i));
+            }
+        }
+        return entries;
+    }
+
+    // "@{n}": the n-th most recent entry, 0 being the current value. Null if the log is shorter.
+    public Entry getRecent(int n) throws IOException {
+        int size = size();
+        if (n < 0 || n >= size) {
+            return null;
+        }
+        return get(size - 1 - n);
+    }
+
+    // Value of the ref at the given time: the new id of the last entry no later than it, or the old
+    // id of the first entry if the log starts afterwards. Null for an empty log.
+    public String getValueAt(long time) throws IOException {
+        int size = size();
+        if (size == 0) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (read(channel, mid).getTime() <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo == 0 ? read(channel, 0).getOldId() : read(channel, lo - 1).getNewId();
+        }
+    }
+
+    // Accepts "2024-05-01", "2024-05-01T12:30:00" (local time), or "<n> <unit>s ago" with a unit from
+    // seconds to weeks, also written "<n>.<unit>.ago". Returns epoch millis, or -1 if unparseable.
+    public static long parseTime(String text, long now) {
+        String value = text.trim().replace('.', ' ');
+        String[] words = value.split("\\s+");
+        if (words.length == 3 && words[2].equals("ago") && words[0].chars().allMatch(Character::isDigit)
+                && words[0].length() <= 9) {
+            String unit = words[1].endsWith("s") ? words[1].substring(0, words[1].length() - 1) : words[1];
+            long amount = Long.parseLong(words[0]);
+            switch (unit) {
+                case "second":
+                    return now - amount * 1000L;
+                case "minute":
+                    return now - amount * 60_000L;
+                case "hour":
+                    return now - amount * 3_600_000L;
+                case "day":
+                    return now - amount * 86_400_000L;
+                case "week":
+                    return now - amount * 604_800_000L;
+                default:
+                    return -1;
+            }
+        }
+        try {
+            if (text.length() == 10) {
+                return LocalDate.parse(text).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(text.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static Entry read(FileChannel channel, int index) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long position = (long) index * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                throw new IOException("Truncated reflog record " + index);
+            }
+        }
+        String text = new String(record.array(), StandardCharsets.UTF_8);
+        try {
+            return new Entry(id(text.substring(0, ID_WIDTH)), id(text.substring(NEW_OFFSET, NEW_OFFSET + ID_WIDTH)),
+                    Long.parseLong(new String(record.array(), TIME_OFFSET, TIME_WIDTH, StandardCharsets.US_ASCII)),
+                    new String(record.array(), MESSAGE_OFFSET, MESSAGE_WIDTH, StandardCharsets.UTF_8).trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt reflog record " + index, e);
+        }
+    }
+
+    private static byte[] encode(String oldId, String newId, long time, String message) {
+        byte[] record = new byte[RECORD_SIZE];
+        Arrays.fill(record, (byte) ' ');
+        put(record, 0, oldId, ID_WIDTH);
+        put(record, NEW_OFFSET, newId, ID_WIDTH);
+        byte[] digits = String.format("%013d", time).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, record, TIME_OFFSET, TIME_WIDTH);
+        // Messages are cut to fit, on a character boundary, and kept to one line
+        String line = message.replace('\n', ' ');
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        while (text.length > MESSAGE_WIDTH) {
+            line = line.substring(0, line.length() - 1);
+            text = line.getBytes(StandardCharsets.UTF_8);
+        }
+        System.arraycopy(text, 0, record, MESSAGE_OFFSET, text.length);
+        record[RECORD_SIZE - 1] = '\n';
+        return record;
+    }
+
+    private static void put(byte[] record, int offset, String id, int width) {
+        String value = id == null ? "0" : id;
+        if (value.length() > width || value.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Cannot log ref value: " + id);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, record, offset, bytes.length);
+    }
+
+    private static String id(String field) {
+        String value = field.trim();
+        return value.equals("0") ? null : value;
+    }
+
+    // Reflogs of every ref that has one: "HEAD", "refs/heads/..." and "stash"
+    static void forEach(ObjectStore store, RefConsumer consumer) throws IOException {
+        File logsDir = new File(store.getRepoDir(), "logs");
+        walk(store, logsDir, "", consumer);
+    }
+
+    private static void walk(ObjectStore store, File dir, String prefix, RefConsumer consumer) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                walk(store, child, name + "/", consumer);
+            } else {
+                consumer.accept(new Reflog(store, name));
+            }
+        }
+    }
+
+    interface RefConsumer {
+        void accept(Reflog reflog) throws IOException;
+    }
+
+    public static final class Entry {
+        private final String oldId;
+        private final String newId;
+        private final long time;
+        private final String message;
+
+        Entry(String oldId, String newId, long time, String message) {
+            this.oldId = oldId;
+            this.newId = newId;
+            this.time = time;
+            this.message = message;
+        }
+
+        // Null when the ref did not exist before
+        public String getOldId() {
+            return oldId;
+        }
+
+        public String getNewId() {
+            return newId;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.ivanarroyo.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// One immutable, sorted table of branch records:
+//   header:  "OPRT", version, block size
+//   blocks:  records, then the restart offsets and their count
+//   index:   the last name, offset and length of every block
+//   footer:  index offset, block count, record count, "OPRT"
+// A record stores how many leading bytes its name shares with the previous one, the rest of the
+// name, and either a value or a deletion marker. Every RESTART_INTERVAL records the full name is
+// stored again, so a lookup binary searches the index, then the restarts of one block, and decodes
+// at most RESTART_INTERVAL records. Names are ordered by their UTF-8 bytes.
+final class Reftable {
+    static final int VERSION = 1;
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final int RESTART_INTERVAL = 16;
+
+    private static final byte[] MAGIC = "OPRT".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 12;
+    private static final int FOOTER_SIZE = 20;
+    private static final byte DELETED = 0;
+    private static final byte VALUE = 1;
+
+    private final Path file;
+    private final ByteBuffer data;
+    private final byte[][] lastNames;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private final int recordCount;
+
+    private Reftable(Path file, ByteBuffer data, byte[][] lastNames, int[] blockOffsets, int[] blockLengths,
+                     int recordCount) {
+        this.file = file;
+        this.data = data;
+        this.lastNames = lastNames;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.recordCount = recordCount;
+    }
+
+    static Reftable open(Path file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Reftable too large: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = data.limit();
+        if (size < HEADER_SIZE + FOOTER_SIZE || !hasMagic(data, 0) || !hasMagic(data, size - MAGIC.length)) {
+            throw new IOException("Not a reftable: " + file);
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported reftable version " + data.getInt(4) + ": " + file);
+        }
+        int footer = size - FOOTER_SIZE;
+        long indexOffset = data.getLong(footer);
+        int blockCount = data.getInt(footer + 8);
+        int recordCount = data.getInt(footer + 12);
+        if (indexOffset < HEADER_SIZE || indexOffset > footer || blockCount < 0) {
+            throw new IOException("Corrupt reftable footer: " + file);
+        }
+
+        byte[][] lastNames = new byte[blockCount][];
+        int[] blockOffsets = new int[blockCount];
+        int[] blockLengths = new int[blockCount];
+        int[] position = {(int) indexOffset};
+        try {
+            for (int i = 0; i < blockCount; i++) {
+                lastNames[i] = readBytes(data, position, readVarint(data, position));
+                blockOffsets[i] = readVarint(data, position);
+                blockLengths[i] = readVarint(data, position);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt reftable index: " + file, e);
+        }
+        return new Reftable(file, data, lastNames, blockOffsets, blockLengths, recordCount);
+    }
+
+    // Writes and fsyncs a table of the given records; a null value records a deletion
+    static void write(Path file, Map<String, String> refs, int blockSize) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(refs.entrySet());
+        sorted.sort((a, b) -> Arrays.compareUnsigned(
+                a.getKey().getBytes(StandardCharsets.UTF_8), b.getKey().getBytes(StandardCharsets.UTF_8)));
+        for (Map.Entry<String, String> ref : sorted) {
+            names.add(ref.getKey().getBytes(StandardCharsets.UTF_8));
+            values.add(ref.getValue());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC);
+        writeInt(out, VERSION);
+        writeInt(out, blockSize);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        List<Integer> restarts = new ArrayList<>();
+        byte[] previous = new byte[0];
+        int inBlock = 0;
+        int blockCount = 0;
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i);
+            byte[] value = values.get(i) == null ? null : values.get(i).getBytes(StandardCharsets.UTF_8);
+            // A block is closed before a record would push it past the block size; a record larger
+            // than a whole block gets a block of its own
+            int estimate = name.length + (value == null ? 0 : value.length) + 16;
+            if (!restarts.isEmpty() && block.size() + estimate + 4 * (restarts.size() + 2) > blockSize) {
+                finishBlock(out, index, block, restarts, previous);
+                blockCount++;
+                inBlock = 0;
+            }
+            int shared = 0;
+            if (inBlock % RESTART_INTERVAL == 0) {
+                restarts.add(block.size());
+            } else {
+                shared = commonPrefix(previous, name);
+            }
+            writeVarint(block, shared);
+            writeVarint(block, name.length - shared);
+            block.write(name, shared, name.length - shared);
+            if (value == null) {
+                block.write(DELETED);
+            } else {
+                block.write(VALUE);
+                writeVarint(block, value.length);
+                block.write(value);
+            }
+            previous = name;
+            inBlock++;
+        }
+        if (!restarts.isEmpty()) {
+            finishBlock(out, index, block, restarts, previous);
+            blockCount++;
+        }
+        long indexOffset = out.size();
+        index.writeTo(out);
+        writeLong(out, indexOffset);
+        writeInt(out, blockCount);
+        writeInt(out, names.size());
+        out.write(MAGIC);
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void finishBlock(ByteArrayOutputStream out, ByteArrayOutputStream index,
+                                    ByteArrayOutputStream block, List<Integer> restarts, byte[] lastName)
+            throws IOException {
+        for (int restart : restarts) {
+            writeInt(block, restart);
+        }
+        writeInt(block, restarts.size());
+        writeVarint(index, lastName.length);
+        index.write(lastName, 0, lastName.length);
+        writeVarint(index, out.size());
+        writeVarint(index, block.size());
+        block.writeTo(out);
+        block.reset();
+        restarts.clear();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int size() {
+        return recordCount;
+    }
+
+    // The record for the name, whose value is null if the branch was deleted; null if the table has no record for it
+    Record get(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = seek(key);
+        return cursor != null && Arrays.equals(cursor.name, key) ? cursor.record() : null;
+    }
+
+    // Records whose names start with the prefix, deletions included, in name order
+    List<Record> scan(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        List<Record> records = new ArrayList<>();
+        Cursor cursor = seek(key);
+        while (cursor != null && startsWith(cursor.name, key)) {
+            records.add(cursor.record());
+            if (!cursor.next()) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    // A cursor on the first record whose name is not below the key, or null if there is none
+    private Cursor seek(byte[] key) {
+        int lo = 0;
+        int hi = lastNames.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(lastNames[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == lastNames.length) {
+            return null;
+        }
+        int block = lo;
+        // The last restart whose full name is not above the key
+        int restartCount = restartCount(block);
+        int rlo = 0;
+        int rhi = restartCount;
+        while (rlo < rhi) {
+            int mid = (rlo + rhi) >>> 1;
+            Cursor probe = new Cursor(block, restart(block, mid));
+            probe.next();
+            if (Arrays.compareUnsigned(probe.name, key) <= 0) {
+                rlo = mid + 1;
+            } else {
+                rhi = mid;
+            }
+        }
+        Cursor cursor = new Cursor(block, restart(block, Math.max(rlo - 1, 0)));
+        while (cursor.next()) {
+            if (Arrays.compareUnsigned(cursor.name, key) >= 0) {
+                return cursor;
+            }
+        }
+        return null;
+    }
+
+    private int restartCount(int block) {
+        return data.getInt(blockOffsets[block] + blockLengths[block] - 4);
+    }
+
+    private int restart(int block, int i) {
+        int restarts = blockOffsets[block] + blockLengths[block] - 4 - 4 * restartCount(block);
+        return blockOffsets[block] + data.getInt(restarts + 4 * i);
+    }
+
+    private int recordsEnd(int block) {
+        return blockOffsets[block] + blockLengths[block] - 4 - 4 * restartCount(block);
+    }
+
+    // Decodes records one after the other, moving on to the next block at the end of one
+    private final class Cursor {
+        private int block;
+        private final int[] position = new int[1];
+        private byte[] name = new byte[0];
+        private String value;
+
+        Cursor(int block, int position) {
+            this.block = block;
+            this.position[0] = position;
+        }
+
+        boolean next() {
+            if (position[0] >= recordsEnd(block)) {
+                if (block + 1 >= blockOffsets.length) {
+                    return false;
+                }
+                block++;
+                position[0] = blockOffsets[block];
+            }
+            int shared = readVarint(data, position);
+            int suffix = readVarint(data, position);
+            byte[] next = Arrays.copyOf(name, shared + suffix);
+            System.arraycopy(readBytes(data, position, suffix), 0, next, shared, suffix);
+            name = next;
+            if (data.get(position[0]++) == DELETED) {
+                value = null;
+            } else {
+                value = new String(readBytes(data, position, readVarint(data, position)), StandardCharsets.UTF_8);
+            }
+            return true;
+        }
+
+        Record record() {
+            return new Record(new String(name, StandardCharsets.UTF_8), value);
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer data, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] name, byte[] prefix) {
+        return name.length >= prefix.length && Arrays.equals(name, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < length && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int readVarint(ByteBuffer data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data.get(position[0]++);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer data, int[] position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = data.duplicate();
+        slice.position(position[0]);
+        slice.get(bytes);
+        position[0] += length;
+        return bytes;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    static final class Record {
+        private final String name;
+        private final String value;
+
+        Record(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        // Null for a deletion
+        String getValue() {
+            return value;
+        }
+    }
+}
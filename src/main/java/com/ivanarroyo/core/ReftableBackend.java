@@ -0,0 +1,273 @@
+package com.ivanarroyo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Branches in a stack of Reftable files under .opipop/reftable, named oldest first in tables.list.
+// An update writes one new table holding only the branches it changes, deletions as tombstones, and
+// then swaps in a new list, so it costs the same however many branches exist. Lookups ask the tables
+// newest first. Tables are never modified after they are listed, so readers take no lock; writers
+// serialize on tables.list.lock. After each update the newest tables are merged whenever a table is
+// not at least twice the size of everything above it, which keeps the stack logarithmic in length.
+final class ReftableBackend implements RefBackend {
+    static final String NAME = "reftable";
+    static final String LIST = "tables.list";
+
+    private static final int READ_ATTEMPTS = 5;
+
+    private final ObjectStore store;
+    // Open tables by file name; a name is never reused for different contents
+    private final Map<String, Reftable> tables = new HashMap<>();
+    private int blockSize = Reftable.DEFAULT_BLOCK_SIZE;
+
+    ReftableBackend(ObjectStore store) {
+        this.store = store;
+    }
+
+    void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    private File getDir() {
+        return store.getReftableDir();
+    }
+
+    private Path getListFile() {
+        return new File(getDir(), LIST).toPath();
+    }
+
+    @Override
+    public String getBranch(String name) throws IOException {
+        List<Reftable> stack = stack();
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            Reftable.Record record = stack.get(i).get(name);
+            if (record != null) {
+                return record.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, String> getBranches(String prefix) throws IOException {
+        SortedMap<String, String> branches = new TreeMap<>();
+        for (Reftable table : stack()) {
+            for (Reftable.Record record : table.scan(prefix)) {
+                if (record.getValue() == null) {
+                    branches.remove(record.getName());
+                } else {
+                    branches.put(record.getName(), record.getValue());
+                }
+            }
+        }
+        return branches;
+    }
+
+    // One lock covers every branch: an update replaces the whole list anyway
+    @Override
+    public Locked lock(Collection<String> names) throws IOException {
+        Path lock = lockStack();
+        return new Locked() {
+            private boolean released;
+
+            @Override
+            public void apply(Map<String, String> updates) throws IOException {
+                if (updates.isEmpty()) {
+                    return;
+                }
+                List<String> names = readList();
+                String table = nextTableName(names);
+                writeTable(table, updates);
+                names.add(table);
+                replaceList(lock, names, compact(names));
+                released = true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!released) {
+                    Files.deleteIfExists(lock);
+                    released = true;
+                }
+            }
+        };
+    }
+
+    // Merges the whole stack into one table without tombstones
+    @Override
+    public int pack() throws IOException {
+        Path lock = lockStack();
+        try {
+            List<String> names = readList();
+            if (names.isEmpty()) {
+                return 0;
+            }
+            Map<String, String> branches = merge(names, true);
+            String table = nextTableName(names);
+            writeTable(table, branches);
+            List<String> merged = new ArrayList<>(names);
+            names.clear();
+            names.add(table);
+            replaceList(lock, names, merged);
+            lock = null;
+            return branches.size();
+        } finally {
+            if (lock != null) {
+                Files.deleteIfExists(lock);
+            }
+        }
+    }
+
+    // Called with the lock held. A table left behind by a writer that failed before listing it is
+    // not visible to anyone and is simply replaced.
+    private void writeTable(String name, Map<String, String> records) throws IOException {
+        Files.deleteIfExists(tablePath(name));
+        Reftable.write(tablePath(name), records, blockSize);
+    }
+
+    private Path lockStack() throws IOException {
+        Path lock = new File(getDir(), LIST + ".lock").toPath();
+        Files.createDirectories(lock.getParent());
+        try {
+            Files.createFile(lock);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException("Unable to lock " + getListFile() + ": " + lock
+                    + " exists; another opipop process may be running");
+        }
+        return lock;
+    }
+
+    // Geometric compaction of the newest tables. Returns the names merged away; the list is updated in place.
+    private List<String> compact(List<String> names) throws IOException {
+        int start = names.size() - 1;
+        long above = Files.size(tablePath(names.get(start)));
+        while (start > 0) {
+            long size = Files.size(tablePath(names.get(start - 1)));
+            if (size > 2 * above) {
+                break;
+            }
+            above += size;
+            start--;
+        }
+        List<String> merged = new ArrayList<>(names.subList(start, names.size()));
+        if (merged.size() < 2) {
+            return new ArrayList<>();
+        }
+        // Tombstones still hide records in the tables below, unless there are none
+        Map<String, String> records = merge(merged, start == 0);
+        String table = nextTableName(names);
+        writeTable(table, records);
+        names.subList(start, names.size()).clear();
+        names.add(table);
+        return merged;
+    }
+
+    // Newest record of every name in the tables, oldest table first in the list
+    private Map<String, String> merge(List<String> names, boolean dropDeletions) throws IOException {
+        Map<String, String> records = new HashMap<>();
+        for (String name : names) {
+            for (Reftable.Record record : open(name).scan("")) {
+                records.put(record.getName(), record.getValue());
+            }
+        }
+        if (dropDeletions) {
+            records.values().removeIf(value -> value == null);
+        }
+        return records;
+    }
+
+    // The new list is written into the lock file and renamed over tables.list, which releases the
+    // lock. Only then are the tables it no longer names deleted; readers that already mapped them
+    // keep working, and readers that are too late retry with the new list.
+    private void replaceList(Path lock, List<String> names, List<String> obsolete) throws IOException {
+        StringBuilder list = new StringBuilder();
+        for (String name : names) {
+            list.append(name).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(list.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        RefTransaction.syncDirectory(getDir().toPath());
+        Files.move(lock, getListFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        RefTransaction.syncDirectory(getDir().toPath());
+        for (String name : obsolete) {
+            Files.deleteIfExists(tablePath(name));
+        }
+    }
+
+    private List<String> readList() throws IOException {
+        List<String> names = new ArrayList<>();
+        Path list = getListFile();
+        if (Files.isRegularFile(list)) {
+            for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    names.add(line.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    // Tables in the current list, oldest first. A table can be compacted away between reading the
+    // list and opening it; the list is then read again.
+    private List<Reftable> stack() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            List<String> names = readList();
+            try {
+                List<Reftable> stack = new ArrayList<>();
+                for (String name : names) {
+                    stack.add(open(name));
+                }
+                synchronized (tables) {
+                    tables.keySet().retainAll(names);
+                }
+                return stack;
+            } catch (NoSuchFileException e) {
+                if (attempt >= READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Reftable open(String name) throws IOException {
+        synchronized (tables) {
+            Reftable table = tables.get(name);
+            if (table == null) {
+                table = Reftable.open(tablePath(name));
+                tables.put(name, table);
+            }
+            return table;
+        }
+    }
+
+    private Path tablePath(String name) {
+        return new File(getDir(), name).toPath();
+    }
+
+    // Names only grow, so a name is never reused while a reader may still have it open
+    private static String nextTableName(List<String> names) {
+        long last = 0;
+        for (String name : names) {
+            last = Math.max(last, Long.parseLong(name.substring(0, name.indexOf('.'))));
+        }
+        return String.format("%012d.ref", last + 1);
+    }
+}
@@ -0,0 +1,571 @@
+package com.ivanarroyo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Typed entry point for programs that embed opipop. One instance per repository is shared by every
+// thread: reads work on an immutable snapshot of the index, reloaded only when the index file
+// changes, and on a shared cache of object contents, so they take no locks. Writes to the index and
+// refs serialize on one lock in this process, held only while the index and refs are updated, and
+// on the usual lock files against other processes. The shared instance is replaced when the
+// repository's config changes or its directory is replaced, so long-running processes such as the
+// daemon keep their caches warm without serving a stale repository.
+public class Repository {
+    public static final long DEFAULT_OBJECT_CACHE_SIZE = 32L * 1024 * 1024;
+    public static final String NOTHING_TO_COMMIT = "Nothing to commit";
+
+    // A file changed this soon after it was hashed might change again within the same timestamp
+    private static final long RACY_WINDOW_MS = 1000;
+    private static final Map<Path, Repository> OPEN = new ConcurrentHashMap<>();
+
+    private final ObjectStore store;
+    // Identity of the repository when the shared instance was opened, null for other instances
+    private final String stamp;
+    private final File workTree;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ObjectCache objects;
+    // Worktree hashes by path, reused while a file's size and modification time are unchanged
+    private final Map<String, FileHash> fileHashes = new ConcurrentHashMap<>();
+    private volatile IndexSnapshot index;
+
+    public Repository(ObjectStore store) {
+        this(store, null);
+    }
+
+    private Repository(ObjectStore store, String stamp) {
+        this.store = store;
+        this.stamp = stamp;
+        this.workTree = store.getWorkTree();
+        this.objects = new ObjectCache(store.getConfig().getLong("core.objectCacheSize", DEFAULT_OBJECT_CACHE_SIZE));
+    }
+
+    // The shared instance for the repository in the work tree
+    public static Repository open(File workTree) throws IOException {
+        File repoDir = new File(workTree, ".opipop");
+        if (!repoDir.isDirectory()) {
+            throw new IllegalArgumentException("Not an opipop repository: " + workTree);
+        }
+        return open(repoDir.toPath().toAbsolutePath().normalize(), null);
+    }
+
+    // The shared instance for the store's repository, made around this store if there is none yet
+    // or the one there is has gone stale
+    public static Repository open(ObjectStore store) throws IOException {
+        return open(store.getRepoDir().toPath().toAbsolutePath().normalize(), store);
+    }
+
+    private static Repository open(Path repoDir, ObjectStore store) throws IOException {
+        String stamp = stamp(repoDir);
+        return OPEN.compute(repoDir, (dir, open) -> open != null && Objects.equals(open.stamp, stamp) ? open
+                : new Repository(store != null ? store : new ObjectStore(dir.toString()), stamp));
+    }
+
+    // Identity of the repository directory plus the config's size and time. Null if there is no repository yet.
+    private static String stamp(Path repoDir) throws IOException {
+        if (!Files.isDirectory(repoDir)) {
+            return null;
+        }
+        BasicFileAttributes dir = Files.readAttributes(repoDir, BasicFileAttributes.class);
+        Path config = repoDir.resolve("config");
+        String configStamp = Files.isRegularFile(config)
+                ? Files.size(config) + "@" + Files.getLastModifiedTime(config) : "none";
+        return dir.fileKey() + "/" + dir.creationTime() + "/" + configStamp;
+    }
+
+    public ObjectStore getStore() {
+        return store;
+    }
+
+    public File getWorkTree() {
+        return workTree;
+    }
+
+    // Contents of an object. Objects never change, so they are cached for every caller.
+    public byte[] readObject(String id) throws IOException {
+        byte[] data = objects.get(id);
+        if (data == null) {
+            data = store.readObject(id);
+            objects.put(id, data);
+        }
+        return data.clone();
+    }
+
+    // Object id of a revision (see ObjectStore.resolveRevision), or null
+    public String resolve(String revision) throws IOException {
+        return store.resolveRevision(revision);
+    }
+
+    // Path -> blob id of every staged entry, as of the last write of the index
+    public Map<String, String> getIndex() throws IOException {
+        return snapshot().entries;
+    }
+
+    // Paths with unmerged stages, as of the last write of the index
+    public Set<String> getConflicts() throws IOException {
+        return snapshot().conflicts;
+    }
+
+    // Stages files given relative to the work tree. Returns path -> blob id of those that changed.
+    public Map<String, String> add(String... paths) throws IOException {
+        // Blobs are content addressed, so they are written before taking the lock
+        Map<String, String> hashes = new TreeMap<>();
+        Path root = workTree.toPath();
+        for (String path : paths) {
+            Path file = root.resolve(path).normalize();
+            if (!file.startsWith(root)) {
+                throw new IllegalArgumentException("File is outside repository: " + path);
+            }
+            if (!Files.isRegularFile(file)) {
+                throw new IllegalArgumentException("File not found: " + path);
+            }
+            hashes.put(root.relativize(file).toString().replace(File.separatorChar, '/'), store.writeBlob(file));
+        }
+
+        writeLock.lock();
+        try {
+            Index current = new Index(store.getIndexFile());
+            Map<String, String> added = new TreeMap<>();
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                if (!entry.getValue().equals(current.getHash(entry.getKey()))) {
+                    current.add(entry.getKey(), entry.getValue());
+                    added.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!added.isEmpty()) {
+                current.save();
+            }
+            return added;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Applies path -> blob id changes to the index as it is now, a null id unstaging the path, in
+    // one write. Changes others made to other paths since the caller looked are kept.
+    public void updateIndex(Map<String, String> changes) throws IOException {
+        writeLock.lock();
+        try {
+            Index current = new Index(store.getIndexFile());
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    current.remove(change.getKey());
+                } else {
+                    current.add(change.getKey(), change.getValue());
+                }
+            }
+            current.save();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Replaces the whole index, only if it still holds exactly the expected entries and no conflicts,
+    // so nothing staged since the caller read it is lost
+    public void replaceIndex(Map<String, String> expected, Map<String, String> entries,
+                             Map<String, String[]> conflicts) throws IOException {
+        writeLock.lock();
+        try {
+            Index current = new Index(store.getIndexFile());
+            if (current.hasConflicts() || !current.getEntries().equals(expected)) {
+                throw new IllegalStateException("The index changed while it was being rewritten");
+            }
+            current.clear();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                current.add(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, String[]> conflict : conflicts.entrySet()) {
+                String[] stages = conflict.getValue();
+                current.addConflict(conflict.getKey(), stages[0], stages[1], stages[2]);
+            }
+            current.save();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Commits the index on top of HEAD, with MERGE_HEAD as second parent during a merge
+    public Commit commit(String message, String author) throws IOException {
+        writeLock.lock();
+        try {
+            Index current = new Index(store.getIndexFile());
+            if (current.hasConflicts()) {
+                throw new IllegalStateException("Committing is not possible because you have unmerged files");
+            }
+            Map<String, String> staged = current.getEntries();
+            if (staged.isEmpty()) {
+                throw new IllegalStateException(NOTHING_TO_COMMIT);
+            }
+            Tree tree = new Tree();
+            for (Map.Entry<String, String> entry : staged.entrySet()) {
+                tree.addEntry(entry.getKey(), entry.getValue());
+            }
+            String treeHash = store.writeObject(tree.serialize());
+
+            List<String> parents = new ArrayList<>();
+            String parentHash = store.getHeadCommit();
+            if (parentHash != null) {
+                parents.add(parentHash);
+            }
+            File mergeHead = store.getMergeHeadFile();
+            String mergeParent = mergeHead.exists() ? Files.readString(mergeHead.toPath()).trim() : null;
+            if (mergeParent != null) {
+                parents.add(mergeParent);
+            }
+
+            Commit commit = Commit.withParents(treeHash, parents, message, author);
+            String commitHash = store.writeObject(commit.serialize());
+            commit.setHash(commitHash);
+
+            // Moving the branch and clearing MERGE_HEAD happen together, and only if no other commit
+            // moved the branch since its parent was read
+            try (RefTransaction transaction = new RefTransaction(store)) {
+                transaction.update(store.getHeadRef(), commitHash, parentHash);
+                String kind = mergeParent != null ? "commit (merge)" : parentHash == null ? "commit (initial)" : "commit";
+                transaction.setMessage(kind + ": " + message);
+                if (mergeParent != null) {
+                    transaction.delete("MERGE_HEAD", mergeParent);
+                }
+                transaction.commit();
+            }
+            return commit;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Switches to the branch, rewriting the work tree and index. Files not in the branch are deleted,
+    // untracked ones included, except hidden ones, which status never shows. Returns the commit now
+    // checked out.
+    public String checkout(String branch) throws IOException {
+        writeLock.lock();
+        try {
+            String commitHash = store.getBranch(branch);
+            if (commitHash == null) {
+                throw new IllegalArgumentException("Branch '" + branch + "' does not exist");
+            }
+            String currentBranch = store.getCurrentBranch();
+            if (branch.equals(currentBranch)) {
+                return commitHash;
+            }
+            Status status = status();
+            if (!status.getModified().isEmpty() || !status.getMissing().isEmpty()) {
+                throw new IllegalStateException("You have uncommitted changes. Commit or stash them first.");
+            }
+
+            try (RefTransaction transaction = new RefTransaction(store)) {
+                File headFile = store.getHeadFile();
+                String oldHead = headFile.isFile() ? Files.readString(headFile.toPath()).trim() : null;
+                transaction.update("HEAD", "ref: refs/heads/" + branch, oldHead);
+                String from = currentBranch == null ? oldHead : currentBranch;
+                transaction.setMessage("checkout: moving from " + from + " to " + branch);
+                transaction.prepare();
+
+                Map<String, String> target = readTree(commitHash);
+                Map<String, String> indexed = snapshot().entries;
+                for (Map.Entry<String, String> entry : target.entrySet()) {
+                    if (!entry.getValue().equals(indexed.get(entry.getKey()))) {
+                        store.copyObject(entry.getValue(), new File(workTree, entry.getKey()).toPath());
+                    }
+                }
+                deleteOutside(workTree, "", target);
+
+                Index updated = new Index(store.getIndexFile());
+                updated.clear();
+                for (Map.Entry<String, String> entry : target.entrySet()) {
+                    updated.add(entry.getKey(), entry.getValue());
+                }
+                updated.save();
+                transaction.commit();
+            }
+            return commitHash;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Deletes the files below the directory that are not in the tree, then directories left empty
+    private void deleteOutside(File dir, String prefix, Map<String, String> tree) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            String path = prefix.isEmpty() ? name : prefix + "/" + name;
+            if (child.isDirectory()) {
+                deleteOutside(child, path, tree);
+                String[] left = child.list();
+                if (left != null && left.length == 0) {
+                    Files.deleteIfExists(child.toPath());
+                }
+            } else if (!tree.containsKey(path)) {
+                Files.deleteIfExists(child.toPath());
+                fileHashes.remove(path);
+            }
+        }
+    }
+
+    // Compares HEAD, the index and the work tree. Takes no lock.
+    public Status status() throws IOException {
+        IndexSnapshot snapshot = snapshot();
+        String head = store.getHeadCommit();
+        Map<String, String> headTree = headTree(head);
+        Map<String, String> files = new HashMap<>();
+        scan(workTree, "", files);
+
+        Status status = new Status(store.getCurrentBranch(), head, snapshot.entries, headTree);
+        for (Map.Entry<String, String> entry : snapshot.entries.entrySet()) {
+            String path = entry.getKey();
+            String headHash = headTree.get(path);
+            if (headHash == null) {
+                status.added.add(path);
+            } else if (!headHash.equals(entry.getValue())) {
+                status.changed.add(path);
+            }
+            String fileHash = files.get(path);
+            if (fileHash == null) {
+                status.missing.add(path);
+            } else if (!fileHash.equals(entry.getValue())) {
+                status.modified.add(path);
+            }
+        }
+        for (String path : headTree.keySet()) {
+            if (!snapshot.entries.containsKey(path) && !snapshot.conflicts.contains(path)) {
+                status.removed.add(path);
+            }
+        }
+        for (String path : files.keySet()) {
+            if (!snapshot.entries.containsKey(path) && !snapshot.conflicts.contains(path)) {
+                status.untracked.add(path);
+            }
+        }
+        status.conflicts.addAll(snapshot.conflicts);
+        return status;
+    }
+
+    // Files of HEAD's tree; empty before the first commit or when its objects are missing
+    private Map<String, String> headTree(String head) throws IOException {
+        if (head == null || head.isEmpty() || !store.hasObject(head)) {
+            return new HashMap<>();
+        }
+        Commit commit = Commit.deserialize(readObject(head));
+        if (!store.hasObject(commit.getTreeHash())) {
+            return new HashMap<>();
+        }
+        return Tree.deserialize(readObject(commit.getTreeHash())).getEntries();
+    }
+
+    private Map<String, String> readTree(String commitHash) throws IOException {
+        Commit commit = Commit.deserialize(readObject(commitHash));
+        return Tree.deserialize(readObject(commit.getTreeHash())).getEntries();
+    }
+
+    private void scan(File dir, String prefix, Map<String, String> files) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            String path = prefix.isEmpty() ? name : prefix + "/" + name;
+            if (child.isDirectory()) {
+                scan(child, path, files);
+            } else if (child.isFile()) {
+                files.put(path, hashFile(path, child.toPath()));
+            }
+        }
+    }
+
+    private String hashFile(String path, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        FileHash cached = fileHashes.get(path);
+        if (cached != null && cached.size == attributes.size() && cached.modified == modified
+                && cached.hashedAt - modified > RACY_WINDOW_MS) {
+            return cached.hash;
+        }
+        long now = System.currentTimeMillis();
+        String hash = store.hashFile(file);
+        fileHashes.put(path, new FileHash(attributes.size(), modified, now, hash));
+        return hash;
+    }
+
+    // The index as last written, reloaded only when the file was replaced
+    private IndexSnapshot snapshot() throws IOException {
+        Path file = store.getIndexFile().toPath();
+        Object stamp;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            stamp = attributes.fileKey() + "/" + attributes.size() + "/" + attributes.lastModifiedTime();
+        } catch (NoSuchFileException e) {
+            stamp = null;
+        }
+        IndexSnapshot current = index;
+        if (current != null && Objects.equals(current.stamp, stamp)) {
+            return current;
+        }
+        Index loaded = new Index(store.getIndexFile());
+        current = new IndexSnapshot(stamp, Collections.unmodifiableMap(loaded.getEntries()),
+                Collections.unmodifiableSet(new TreeSet<>(loaded.getConflicts().keySet())));
+        index = current;
+        return current;
+    }
+
+    private static final class IndexSnapshot {
+        final Object stamp;
+        final Map<String, String> entries;
+        final Set<String> conflicts;
+
+        IndexSnapshot(Object stamp, Map<String, String> entries, Set<String> conflicts) {
+            this.stamp = stamp;
+            this.entries = entries;
+            this.conflicts = conflicts;
+        }
+    }
+
+    private static final class FileHash {
+        final long size;
+        final long modified;
+        final long hashedAt;
+        final String hash;
+
+        FileHash(long size, long modified, long hashedAt, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hashedAt = hashedAt;
+            this.hash = hash;
+        }
+    }
+
+    // Least recently used objects are dropped once their total size passes the limit; objects
+    // larger than a sixteenth of it are not kept at all
+    private static final class ObjectCache {
+        private final long limit;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        ObjectCache(long limit) {
+            this.limit = limit;
+        }
+
+        synchronized byte[] get(String id) {
+            return entries.get(id);
+        }
+
+        synchronized void put(String id, byte[] data) {
+            if (data.length > limit / 16 || entries.containsKey(id)) {
+                return;
+            }
+            entries.put(id, data);
+            size += data.length;
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (size > limit && eldest.hasNext()) {
+                size -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Paths by state, each sorted
+    public static final class Status {
+        private final String branch;
+        private final String head;
+        private final Map<String, String> index;
+        private final Map<String, String> headTree;
+        private final Set<String> added = new TreeSet<>();
+        private final Set<String> changed = new TreeSet<>();
+        private final Set<String> removed = new TreeSet<>();
+        private final Set<String> modified = new TreeSet<>();
+        private final Set<String> missing = new TreeSet<>();
+        private final Set<String> untracked = new TreeSet<>();
+        private final Set<String> conflicts = new TreeSet<>();
+
+        Status(String branch, String head, Map<String, String> index, Map<String, String> headTree) {
+            this.branch = branch;
+            this.head = head;
+            this.index = index;
+            this.headTree = Collections.unmodifiableMap(headTree);
+        }
+
+        // Null when HEAD is detached
+        public String getBranch() {
+            return branch;
+        }
+
+        // Null before the first commit
+        public String getHead() {
+            return head;
+        }
+
+        // Path -> blob id of the index this status was taken from
+        public Map<String, String> getIndex() {
+            return index;
+        }
+
+        // Path -> blob id of HEAD's tree this status was taken from
+        public Map<String, String> getHeadTree() {
+            return headTree;
+        }
+
+        // Staged, not in HEAD
+        public Set<String> getAdded() {
+            return Collections.unmodifiableSet(added);
+        }
+
+        // Staged with content different from HEAD
+        public Set<String> getChanged() {
+            return Collections.unmodifiableSet(changed);
+        }
+
+        // In HEAD, no longer staged
+        public Set<String> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+
+        // Work tree content differs from the index
+        public Set<String> getModified() {
+            return Collections.unmodifiableSet(modified);
+        }
+
+        // Staged but deleted from the work tree
+        public Set<String> getMissing() {
+            return Collections.unmodifiableSet(missing);
+        }
+
+        public Set<String> getUntracked() {
+            return Collections.unmodifiableSet(untracked);
+        }
+
+        public Set<String> getConflicts() {
+            return Collections.unmodifiableSet(conflicts);
+        }
+
+        public boolean isClean() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && modified.isEmpty()
+                    && missing.isEmpty() && untracked.isEmpty() && conflicts.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.ivanarroyo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The stash is a stack of commits. The "stash" ref names the newest entry and its reflog is the
+// stack itself: stash@{n} is the n-th newest record. Pushing appends one record, popping truncates
+// one, and listing reads each record once.
+//
+// An entry is a commit whose tree is the worktree when it was stashed. Its first parent is a commit
+// of the index, made on top of HEAD; a second parent, if present, is a commit of the untracked files.
+//
+// Older versions kept the stash file as lines of "<blob> <path>", newest entry first, with " END" on
+// the last line of each entry. Such a file is converted on first use: every entry becomes a commit of
+// its files on top of an empty index commit, so popping it writes those files back as before.
+public class Stash {
+    public static final String REF = "stash";
+
+    private final ObjectStore store;
+
+    public Stash(ObjectStore store) {
+        this.store = store;
+    }
+
+    private Reflog getReflog() {
+        return new Reflog(store, REF);
+    }
+
+    public int size() throws IOException {
+        convertLegacy();
+        return store.getStashFile().isFile() ? getReflog().size() : 0;
+    }
+
+    // Entries newest first, as stash@{0}, stash@{1}, ...
+    public List<Reflog.Entry> list() throws IOException {
+        List<Reflog.Entry> entries = getReflog().getEntries(0, size());
+        List<Reflog.Entry> newestFirst = new ArrayList<>(entries.size());
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            newestFirst.add(entries.get(i));
+        }
+        return newestFirst;
+    }
+
+    // Commit of stash@{n}, or null if there are fewer entries
+    public String get(int n) throws IOException {
+        if (n >= size()) {
+            return null;
+        }
+        Reflog.Entry entry = getReflog().getRecent(n);
+        return entry == null ? null : entry.getNewId();
+    }
+
+    public void push(String commit, String message) throws IOException {
+        String top = currentTop();
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.setMessage(message).update(REF, commit, top).commit();
+        }
+    }
+
+    // Removes stash@{0} and returns its commit, or null if the stash is empty
+    public String pop() throws IOException {
+        String top = currentTop();
+        if (top == null) {
+            return null;
+        }
+        try (RefTransaction transaction = new RefTransaction(store).withoutReflog()) {
+            int size = getReflog().size();
+            Reflog.Entry below = size > 1 ? getReflog().get(size - 2) : null;
+            if (below != null) {
+                transaction.update(REF, below.getNewId(), top);
+            } else {
+                transaction.delete(REF, top);
+            }
+            // The record is dropped while the ref is locked, so no push can slip in between
+            transaction.prepare();
+            getReflog().truncate(Math.max(size - 1, 0));
+            transaction.commit();
+        }
+        return top;
+    }
+
+    public void clear() throws IOException {
+        String top = currentTop();
+        if (top == null) {
+            Files.deleteIfExists(getReflog().getFile().toPath());
+            return;
+        }
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.delete(REF, top).prepare();
+            Files.deleteIfExists(getReflog().getFile().toPath());
+            transaction.commit();
+        }
+    }
+
+    private String currentTop() throws IOException {
+        convertLegacy();
+        return store.getStashFile().isFile() ? Files.readString(store.getStashFile().toPath()).trim() : null;
+    }
+
+    void convertLegacy() throws IOException {
+        File file = store.getStashFile();
+        if (!file.isFile()) {
+            return;
+        }
+        String legacy = Files.readString(file.toPath()).trim();
+        List<Map<String, String>> entries = parseLegacy(legacy);
+        if (entries == null) {
+            return;
+        }
+
+        String author = System.getProperty("user.name", "unknown");
+        String base = store.writeObject(Commit.withParents(store.writeObject(new Tree().serialize()),
+                new ArrayList<>(), "index on (legacy stash)", author).serialize());
+        List<String> commits = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Tree tree = new Tree();
+            for (Map.Entry<String, String> entry : entries.get(i).entrySet()) {
+                tree.addEntry(entry.getKey(), entry.getValue());
+            }
+            String message = "WIP on (legacy stash): " + entries.get(i).size() + " file(s)";
+            commits.add(store.writeObject(Commit.withParents(store.writeObject(tree.serialize()),
+                    List.of(base), message, author).serialize()));
+            messages.add(message);
+        }
+
+        // The old file is the expected value, so a concurrent conversion or push makes this one fail
+        try (RefTransaction transaction = new RefTransaction(store).withoutReflog()) {
+            if (commits.isEmpty()) {
+                transaction.delete(REF, legacy);
+            } else {
+                transaction.update(REF, commits.get(commits.size() - 1), legacy);
+            }
+            transaction.prepare();
+            Files.deleteIfExists(getReflog().getFile().toPath());
+            long now = System.currentTimeMillis();
+            String previous = null;
+            for (int i = 0; i < commits.size(); i++) {
+                getReflog().append(previous, commits.get(i), now, messages.get(i));
+                previous = commits.get(i);
+            }
+            transaction.commit();
+        }
+    }
+
+    // Path -> blob id of each entry of an old-format stash, oldest entry last; null if the content is
+    // a ref. Reads only, so checks such as fsck can use it on a repository they must not change.
+    static List<Map<String, String>> parseLegacy(String content) {
+        // A ref holds a single id; only the old format has spaces
+        if (content.indexOf(' ') < 0) {
+            return null;
+        }
+        List<Map<String, String>> entries = new ArrayList<>();
+        Map<String, String> files = new TreeMap<>();
+        for (String line : content.split("\n")) {
+            String[] parts = line.trim().split(" ", 3);
+            if (parts.length < 2) {
+                continue;
+            }
+            files.put(parts[1], parts[0]);
+            if (parts.length > 2 && parts[2].equals("END")) {
+                entries.add(files);
+                files = new TreeMap<>();
+            }
+        }
+        if (!files.isEmpty()) {
+            entries.add(files);
+        }
+        return entries;
+    }
+}
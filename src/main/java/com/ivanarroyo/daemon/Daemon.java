@@ -0,0 +1,276 @@
+package com.ivanarroyo.daemon;
+
+import com.ivanarroyo.Main;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Repository;
+import com.ivanarroyo.util.ThreadLocalOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jdk.net.ExtendedSocketOptions;
+
+// Runs commands for thin clients over a Unix domain socket, so a command pays for neither JVM
+// startup nor warm-up, and repositories stay open between commands: each is the shared Repository,
+// with its index snapshot, cached objects (HEAD's commit and tree among them) and work tree hashes,
+// around an ObjectStore with the mapped packs, packed-refs, reftables and parsed config. Those caches
+// revalidate themselves against file stamps; Repository replaces the whole instance when the
+// repository's config changes or the repository directory is replaced.
+//
+// A request is the client's working directory and arguments. The reply is a sequence of frames:
+// stdout or stderr bytes as the command prints them, then its exit status.
+//
+// Requests carry commit messages and paths, so only the user running the daemon may talk to it: the
+// default socket lives in a directory only that user can enter, the socket itself is made owner-only
+// once bound, and both ends check that the other side runs as the same user.
+public class Daemon implements Closeable {
+    public static final String SOCKET_ENV = "OPIPOP_DAEMON_SOCKET";
+
+    static final int MAGIC = 0x4f505044;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int EXIT = 0;
+
+    private static final ThreadLocalOutputStream OUT = new ThreadLocalOutputStream(System.out);
+    private static final ThreadLocalOutputStream ERR = new ThreadLocalOutputStream(System.err);
+    private static boolean installed;
+
+    private final Path socket;
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "opipop-daemon");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocketChannel server;
+
+    public Daemon(Path socket) {
+        this.socket = socket;
+    }
+
+    // $OPIPOP_DAEMON_SOCKET, or daemon.sock in a private directory: opipop/ in $XDG_RUNTIME_DIR, or
+    // ~/.opipop-daemon where that is not set
+    public static Path getDefaultSocket() {
+        String configured = System.getenv(SOCKET_ENV);
+        if (configured != null && !configured.isEmpty()) {
+            return Path.of(configured);
+        }
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        Path dir = runtime != null && !runtime.isEmpty()
+                ? Path.of(runtime, "opipop")
+                : Path.of(System.getProperty("user.home"), ".opipop-daemon");
+        return dir.resolve("daemon.sock");
+    }
+
+    public Path getSocket() {
+        return socket;
+    }
+
+    // Binds the socket. A socket file left by a daemon that died is replaced; a live one is not.
+    public synchronized void start() throws IOException {
+        Path dir = socket.toAbsolutePath().getParent();
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+            restrict(dir, "rwx------");
+        }
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (!isOwnedByCurrentUser(socket)) {
+                throw new IllegalStateException(socket + " belongs to another user");
+            }
+            boolean live;
+            try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                live = probe.isConnected();
+            } catch (IOException e) {
+                live = false;
+            }
+            if (live) {
+                throw new IllegalStateException("A daemon is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }
+        installOutput();
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        restrict(socket, "rw-------");
+    }
+
+    // Whether the file exists and belongs to the user running this process
+    static boolean isOwnedByCurrentUser(Path file) throws IOException {
+        return Files.getOwner(file, LinkOption.NOFOLLOW_LINKS).equals(currentUser());
+    }
+
+    // Whether the other end of the connection runs as this process's user. Where the platform cannot
+    // tell, the socket file's owner is all there is to go on.
+    static boolean isPeerCurrentUser(SocketChannel channel) throws IOException {
+        UserPrincipal peer;
+        try {
+            peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user();
+        } catch (UnsupportedOperationException e) {
+            return true;
+        }
+        return peer.equals(currentUser());
+    }
+
+    private static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    private static void restrict(Path file, String permissions) throws IOException {
+        if (Files.getFileAttributeView(file, PosixFileAttributeView.class) != null) {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(permissions));
+        }
+    }
+
+    // Commands print through System.out and System.err, so those are switched per thread, once per JVM
+    private static synchronized void installOutput() {
+        if (!installed) {
+            System.setOut(new PrintStream(OUT, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(ERR, true, StandardCharsets.UTF_8));
+            installed = true;
+        }
+    }
+
+    // Accepts clients until close; each one is served on its own thread
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            workers.execute(() -> handle(client));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (server != null) {
+            // Removed first: serve returns once the channel is closed, and the process may exit with it
+            Files.deleteIfExists(socket);
+            server.close();
+            server = null;
+        }
+        workers.shutdown();
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            if (!isPeerCurrentUser(client)) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            String directory = in.readUTF();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            int status;
+            boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+            if (stop) {
+                new Frames(out, STDOUT).write("Daemon stopped\n".getBytes(StandardCharsets.UTF_8));
+                status = 0;
+            } else {
+                status = run(Path.of(directory), args, out);
+            }
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+            // Only once the client has its answer: the daemon's process exits as soon as serve returns
+            if (stop) {
+                close();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to report to
+        }
+    }
+
+    private int run(Path directory, String[] args, DataOutputStream out) throws IOException {
+        Frames stdout = new Frames(out, STDOUT);
+        Frames stderr = new Frames(out, STDERR);
+        OUT.redirect(stdout);
+        ERR.redirect(stderr);
+        try {
+            if (args.length == 0 || args[0].equals("daemon")) {
+                System.out.println("Usage: opipop <command>");
+                return 1;
+            }
+            return Main.run(getStore(directory), args) ? 0 : 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            OUT.reset();
+            ERR.reset();
+        }
+    }
+
+    // The store of the shared Repository for the directory, so commands going through Repository
+    // find its caches warm. Without a repository yet (init) there is nothing to keep.
+    ObjectStore getStore(Path directory) throws IOException {
+        Path workTree = directory.toAbsolutePath().normalize();
+        if (!Files.isDirectory(workTree.resolve(".opipop"))) {
+            return new ObjectStore(workTree.resolve(".opipop").toString());
+        }
+        return Repository.open(workTree.toFile()).getStore();
+    }
+
+    // Writes each chunk of output as one frame on the shared connection
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final int channel;
+
+        Frames(DataOutputStream out, int channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.ivanarroyo.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// The thin side of the daemon: sends the working directory and arguments, then copies the command's
+// output frames to this process's stdout and stderr as they arrive
+public class DaemonClient {
+    private final Path socket;
+
+    public DaemonClient(Path socket) {
+        this.socket = socket;
+    }
+
+    // Runs the command in the daemon if one of this user's is listening on the default socket, and
+    // returns its exit status. Returns null, having done nothing, if there is none, so the caller can
+    // run the command itself.
+    public static Integer forward(String[] args) {
+        Path socket = Daemon.getDefaultSocket();
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        DaemonClient client = new DaemonClient(socket);
+        SocketChannel channel;
+        try {
+            channel = client.connect();
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalStateException e) {
+            System.err.println("warning: " + e.getMessage() + "; running the command here");
+            return null;
+        }
+        try (channel) {
+            return client.run(channel, Path.of("").toAbsolutePath(), args, System.out, System.err);
+        } catch (IOException e) {
+            System.err.println("error: lost connection to the daemon: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // Returns the command's exit status
+    public int run(Path directory, String[] args, PrintStream out, PrintStream err) throws IOException {
+        try (SocketChannel channel = connect()) {
+            return run(channel, directory, args, out, err);
+        }
+    }
+
+    // Connects only to a daemon run by this user, so no one else sees the request or writes the output
+    private SocketChannel connect() throws IOException {
+        if (!Daemon.isOwnedByCurrentUser(socket)) {
+            throw new IllegalStateException("daemon socket " + socket + " belongs to another user");
+        }
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        try {
+            if (!Daemon.isPeerCurrentUser(channel)) {
+                throw new IllegalStateException("daemon on " + socket + " runs as another user");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private int run(SocketChannel channel, Path directory, String[] args, PrintStream out, PrintStream err)
+            throws IOException {
+        DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        request.writeInt(Daemon.MAGIC);
+        request.writeUTF(directory.toString());
+        request.writeInt(args.length);
+        for (String arg : args) {
+            request.writeUTF(arg);
+        }
+        request.flush();
+
+        DataInputStream reply = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        while (true) {
+            int type;
+            try {
+                type = reply.readUnsignedByte();
+            } catch (EOFException e) {
+                throw new IOException("daemon closed the connection before the command finished");
+            }
+            if (type == Daemon.EXIT) {
+                out.flush();
+                err.flush();
+                return reply.readInt();
+            }
+            byte[] data = new byte[reply.readInt()];
+            reply.readFully(data);
+            if (type == Daemon.STDERR) {
+                err.write(data);
+            } else {
+                out.write(data);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.ivanarroyo.diff;
+
+import java.util.List;
+import java.util.Locale;
+
+public enum DiffAlgorithm {
+    MYERS {
+        @Override
+        public List<Edit> diff(int[] a, int[] b) {
+            return MyersDiff.diff(a, b);
+        }
+    },
+    HISTOGRAM {
+        @Override
+        public List<Edit> diff(int[] a, int[] b) {
+            return HistogramDiff.diff(a, b);
+        }
+    };
+
+    public abstract List<Edit> diff(int[] a, int[] b);
+
+    public static DiffAlgorithm forName(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "myers":
+            case "default":
+                return MYERS;
+            case "histogram":
+                return HISTOGRAM;
+            default:
+                throw new IllegalArgumentException("Unknown diff algorithm: " + name);
+        }
+    }
+}
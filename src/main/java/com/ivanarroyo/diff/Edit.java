@@ -0,0 +1,52 @@
+package com.ivanarroyo.diff;
+
+// Lines [beginA, endA) of the old sequence replaced by lines [beginB, endB) of the new one.
+// An empty A range is an insertion and an empty B range a deletion.
+public final class Edit {
+    private final int beginA;
+    private final int endA;
+    private final int beginB;
+    private final int endB;
+
+    public Edit(int beginA, int endA, int beginB, int endB) {
+        this.beginA = beginA;
+        this.endA = endA;
+        this.beginB = beginB;
+        this.endB = endB;
+    }
+
+    public int getBeginA() {
+        return beginA;
+    }
+
+    public int getEndA() {
+        return endA;
+    }
+
+    public int getBeginB() {
+        return beginB;
+    }
+
+    public int getEndB() {
+        return endB;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Edit)) {
+            return false;
+        }
+        Edit other = (Edit) o;
+        return beginA == other.beginA && endA == other.endA && beginB == other.beginB && endB == other.endB;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((beginA * 31 + endA) * 31 + beginB) * 31 + endB;
+    }
+
+    @Override
+    public String toString() {
+        return "Edit[" + beginA + "-" + endA + ", " + beginB + "-" + endB + "]";
+    }
+}
@@ -0,0 +1,108 @@
+package com.ivanarroyo.diff;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Histogram diff: anchors each region on the longest common run built around the line that occurs
+// least often in the old side, then splits around it. Lines repeated many times (blank lines, braces)
+// are never used as anchors, which keeps large repetitive files fast and the output readable. Regions
+// without a usable anchor fall back to Myers.
+public final class HistogramDiff {
+    // Lines occurring more often than this in the old region are not used as anchors
+    static final int MAX_CHAIN_LENGTH = 64;
+
+    private HistogramDiff() { }
+
+    public static List<Edit> diff(int[] a, int[] b) {
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        // Regions are independent once split, so an explicit stack keeps deep splits off the call stack
+        Deque<int[]> regions = new ArrayDeque<>();
+        regions.push(new int[]{0, a.length, 0, b.length});
+        while (!regions.isEmpty()) {
+            int[] region = regions.pop();
+            split(a, region[0], region[1], b, region[2], region[3], deleted, inserted, regions);
+        }
+        return MyersDiff.toEdits(deleted, inserted);
+    }
+
+    private static void split(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                              boolean[] deleted, boolean[] inserted, Deque<int[]> regions) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(deleted, aLo, aHi, true);
+            Arrays.fill(inserted, bLo, bHi, true);
+            return;
+        }
+
+        // line id -> {occurrences, last position}; earlier positions are chained through previous[]
+        Map<Integer, int[]> histogram = new HashMap<>();
+        int[] previous = new int[aHi - aLo];
+        for (int i = aLo; i < aHi; i++) {
+            int[] entry = histogram.computeIfAbsent(a[i], id -> new int[]{0, -1});
+            previous[i - aLo] = entry[1];
+            entry[0]++;
+            entry[1] = i;
+        }
+
+        int bestCount = MAX_CHAIN_LENGTH + 1;
+        int bestABegin = 0;
+        int bestAEnd = 0;
+        int bestBBegin = 0;
+        int bestBEnd = 0;
+        int j = bLo;
+        while (j < bHi) {
+            int[] entry = histogram.get(b[j]);
+            if (entry == null || entry[0] > MAX_CHAIN_LENGTH || entry[0] > bestCount) {
+                j++;
+                continue;
+            }
+            int next = j + 1;
+            for (int i = entry[1]; i >= 0; i = previous[i - aLo]) {
+                int aBegin = i;
+                int aEnd = i + 1;
+                int bBegin = j;
+                int bEnd = j + 1;
+                int count = entry[0];
+                while (aBegin > aLo && bBegin > bLo && a[aBegin - 1] == b[bBegin - 1]) {
+                    aBegin--;
+                    bBegin--;
+                    count = Math.min(count, histogram.get(a[aBegin])[0]);
+                }
+                while (aEnd < aHi && bEnd < bHi && a[aEnd] == b[bEnd]) {
+                    count = Math.min(count, histogram.get(a[aEnd])[0]);
+                    aEnd++;
+                    bEnd++;
+                }
+                // Lines inside this run cannot anchor a better one
+                next = Math.max(next, bEnd);
+                if (count < bestCount || (count == bestCount && aEnd - aBegin > bestAEnd - bestABegin)) {
+                    bestCount = count;
+                    bestABegin = aBegin;
+                    bestAEnd = aEnd;
+                    bestBBegin = bBegin;
+                    bestBEnd = bEnd;
+                }
+            }
+            j = next;
+        }
+
+        if (bestCount > MAX_CHAIN_LENGTH) {
+            MyersDiff.mark(a, aLo, aHi, b, bLo, bHi, deleted, inserted);
+            return;
+        }
+        regions.push(new int[]{bestAEnd, aHi, bestBEnd, bHi});
+        regions.push(new int[]{aLo, bestABegin, bLo, bestBBegin});
+    }
+}
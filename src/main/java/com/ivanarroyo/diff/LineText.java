@@ -0,0 +1,82 @@
+package com.ivanarroyo.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Text split into lines, each keeping its line terminator. Bytes map 1:1 to chars (ISO-8859-1),
+// so any encoding survives a round trip unchanged.
+public final class LineText {
+    private static final int BINARY_PROBE = 8000;
+
+    private final List<String> lines;
+
+    private LineText(List<String> lines) {
+        this.lines = lines;
+    }
+
+    public static LineText of(byte[] content) {
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return new LineText(lines);
+    }
+
+    // Same heuristic as most tools: a NUL byte near the start means binary
+    public static boolean isBinary(byte[] content) {
+        int limit = Math.min(content.length, BINARY_PROBE);
+        for (int i = 0; i < limit; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reads only as much of the stream as the check looks at
+    public static boolean isBinary(InputStream in) throws IOException {
+        return isBinary(in.readNBytes(BINARY_PROBE));
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public String get(int index) {
+        return lines.get(index);
+    }
+
+    // Maps each line to an id shared by every text interned with the same table
+    public int[] intern(Map<String, Integer> table) {
+        int[] ids = new int[lines.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Integer id = table.get(lines.get(i));
+            if (id == null) {
+                id = table.size();
+                table.put(lines.get(i), id);
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    public static byte[] toBytes(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line);
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,19 @@
+package com.ivanarroyo.diff;
+
+public final class MergeResult {
+    private final byte[] content;
+    private final boolean conflict;
+
+    public MergeResult(byte[] content, boolean conflict) {
+        this.content = content;
+        this.conflict = conflict;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public boolean hasConflict() {
+        return conflict;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ivanarroyo.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Myers' O(ND) difference algorithm in linear space: each step finds where the forward and
+// backward searches meet (the middle snake) and recurses on both halves, so memory stays O(N + M)
+public final class MyersDiff {
+
+    private MyersDiff() { }
+
+    public static List<Edit> diff(int[] a, int[] b) {
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        mark(a, 0, a.length, b, 0, b.length, deleted, inserted);
+        return toEdits(deleted, inserted);
+    }
+
+    // Marks lines of a[aLo, aHi) that are removed and lines of b[bLo, bHi) that are added
+    static void mark(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, boolean[] deleted, boolean[] inserted) {
+        // Common prefix and suffix never take part in an edit
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(deleted, aLo, aHi, true);
+            Arrays.fill(inserted, bLo, bHi, true);
+            return;
+        }
+
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int[] forward = new int[2 * maxD + 2];
+        int[] backward = new int[2 * maxD + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the paths can only meet while extending forward, otherwise backward
+        boolean checkForward = (delta & 1) != 0;
+        int forwardStart = 0;
+        int forwardEnd = 0;
+        int backwardStart = 0;
+        int backwardEnd = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int index = offset + k;
+                int x = (k == -d || (k != d && forward[index - 1] < forward[index + 1]))
+                        ? forward[index + 1]
+                        : forward[index - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[index] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (checkForward) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < backward.length && backward[other] != -1 && x >= n - backward[other]) {
+                        split(a, aLo, aHi, b, bLo, bHi, x, y, deleted, inserted);
+                        return;
+                    }
+                }
+            }
+
+            for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                int index = offset + k;
+                int x = (k == -d || (k != d && backward[index - 1] < backward[index + 1]))
+                        ? backward[index + 1]
+                        : backward[index - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[index] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!checkForward) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < forward.length && forward[other] != -1) {
+                        int forwardX = forward[other];
+                        int forwardY = offset + forwardX - other;
+                        if (forwardX >= n - x) {
+                            split(a, aLo, aHi, b, bLo, bHi, forwardX, forwardY, deleted, inserted);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Nothing in common
+        Arrays.fill(deleted, aLo, aHi, true);
+        Arrays.fill(inserted, bLo, bHi, true);
+    }
+
+    private static void split(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int x, int y,
+                              boolean[] deleted, boolean[] inserted) {
+        mark(a, aLo, aLo + x, b, bLo, bLo + y, deleted, inserted);
+        mark(a, aLo + x, aHi, b, bLo + y, bHi, deleted, inserted);
+    }
+
+    // Unmarked lines of both sides pair up in order; each run of marked lines between pairs is one edit
+    static List<Edit> toEdits(boolean[] deleted, boolean[] inserted) {
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int beginA = i;
+            int beginB = j;
+            while (i < deleted.length && deleted[i]) {
+                i++;
+            }
+            while (j < inserted.length && inserted[j]) {
+                j++;
+            }
+            edits.add(new Edit(beginA, i, beginB, j));
+        }
+        return edits;
+    }
+}
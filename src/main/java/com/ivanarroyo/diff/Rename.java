@@ -0,0 +1,54 @@
+package com.ivanarroyo.diff;
+
+import java.util.Objects;
+
+public final class Rename {
+    private final String oldPath;
+    private final String newPath;
+    private final int score;
+    private final boolean copy;
+
+    public Rename(String oldPath, String newPath, int score, boolean copy) {
+        this.oldPath = oldPath;
+        this.newPath = newPath;
+        this.score = score;
+        this.copy = copy;
+    }
+
+    public String getOldPath() {
+        return oldPath;
+    }
+
+    public String getNewPath() {
+        return newPath;
+    }
+
+    // Similarity in percent; 100 means the content is identical
+    public int getScore() {
+        return score;
+    }
+
+    // A copy leaves its source in place; a rename consumes it
+    public boolean isCopy() {
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rename)) return false;
+        Rename other = (Rename) o;
+        return score == other.score && copy == other.copy
+                && oldPath.equals(other.oldPath) && newPath.equals(other.newPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(oldPath, newPath, score, copy);
+    }
+
+    @Override
+    public String toString() {
+        return (copy ? "copy " : "rename ") + oldPath + " -> " + newPath + " (" + score + "%)";
+    }
+}
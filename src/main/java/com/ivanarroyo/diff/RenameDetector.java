@@ -0,0 +1,331 @@
+package com.ivanarroyo.diff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Pairs removed paths with added paths whose content is the same or similar. Identical blobs are
+// matched by id. Every other file is fingerprinted with a MinHash signature over its lines, and
+// locality-sensitive hashing of the signatures yields the few candidate pairs worth an exact
+// similarity score, instead of scoring every add against every delete.
+public class RenameDetector {
+    public static final int DEFAULT_THRESHOLD = 50;
+
+    // 16 bands of 4 rows: pairs around 50% similar collide in some band about half the time,
+    // pairs at 80% almost always
+    static final int BANDS = 16;
+    static final int ROWS = 4;
+    static final int SIGNATURE_SIZE = BANDS * ROWS;
+
+    private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+
+    static {
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            SEEDS[i] = mix(0x9e3779b97f4a7c15L * (i + 1));
+        }
+    }
+
+    public interface ContentLoader {
+        byte[] load(String path, String id) throws IOException;
+    }
+
+    private final ContentLoader loader;
+    private final int threshold;
+    private final int threads;
+
+    public RenameDetector(ContentLoader loader, int threshold, int threads) {
+        if (threshold < 0 || threshold > 100) {
+            throw new IllegalArgumentException("Rename threshold must be between 0 and 100: " + threshold);
+        }
+        this.loader = loader;
+        this.threshold = threshold;
+        this.threads = Math.max(1, threads);
+    }
+
+    // deleted and added map path -> blob id. copySources are unchanged files that added paths may have
+    // been copied from; pass an empty map to detect renames only.
+    public List<Rename> detect(Map<String, String> deleted, Map<String, String> added,
+                               Map<String, String> copySources) throws IOException {
+        List<Rename> result = new ArrayList<>();
+        Map<String, String> remainingDeleted = new TreeMap<>(deleted);
+        Map<String, String> remainingAdded = new TreeMap<>(added);
+        matchExact(remainingDeleted, remainingAdded, copySources, result);
+        if (remainingAdded.isEmpty() || (remainingDeleted.isEmpty() && copySources.isEmpty())) {
+            return sorted(result);
+        }
+
+        List<String> sourcePaths = new ArrayList<>(remainingDeleted.keySet());
+        int renameSources = sourcePaths.size();
+        sourcePaths.addAll(copySources.keySet());
+        List<String> sourceIds = new ArrayList<>(remainingDeleted.values());
+        sourceIds.addAll(copySources.values());
+        List<String> addedPaths = new ArrayList<>(remainingAdded.keySet());
+        List<String> addedIds = new ArrayList<>(remainingAdded.values());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Fingerprint[] sources = fingerprintAll(pool, sourcePaths, sourceIds);
+            Fingerprint[] targets = fingerprintAll(pool, addedPaths, addedIds);
+
+            // LSH index of the sources: one bucket table per band
+            List<Map<Long, List<Integer>>> buckets = new ArrayList<>(BANDS);
+            for (int band = 0; band < BANDS; band++) {
+                Map<Long, List<Integer>> table = new HashMap<>();
+                for (int s = 0; s < sources.length; s++) {
+                    if (sources[s] != null) {
+                        table.computeIfAbsent(sources[s].bandKey(band), k -> new ArrayList<>()).add(s);
+                    }
+                }
+                buckets.add(table);
+            }
+
+            List<Callable<List<Candidate>>> tasks = new ArrayList<>();
+            for (int t = 0; t < targets.length; t++) {
+                int target = t;
+                tasks.add(() -> scoreCandidates(targets[target], target, sources, buckets));
+            }
+            List<Candidate> candidates = new ArrayList<>();
+            for (List<Candidate> found : invokeAll(pool, tasks)) {
+                candidates.addAll(found);
+            }
+
+            // Best pairs win; each added path is matched once and each deleted path renamed once
+            candidates.sort(Comparator.comparingInt((Candidate c) -> -c.score)
+                    .thenComparing(c -> addedPaths.get(c.target))
+                    .thenComparing(c -> sourcePaths.get(c.source)));
+            Set<Integer> usedTargets = new HashSet<>();
+            Set<Integer> usedSources = new HashSet<>();
+            for (Candidate candidate : candidates) {
+                if (usedTargets.contains(candidate.target)) {
+                    continue;
+                }
+                boolean copy = candidate.source >= renameSources || usedSources.contains(candidate.source);
+                if (copy && copySources.isEmpty()) {
+                    continue;
+                }
+                usedTargets.add(candidate.target);
+                if (!copy) {
+                    usedSources.add(candidate.source);
+                }
+                result.add(new Rename(sourcePaths.get(candidate.source), addedPaths.get(candidate.target),
+                        candidate.score, copy));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return sorted(result);
+    }
+
+    // Identical ids pair up first, in path order, with no content read at all
+    private static void matchExact(Map<String, String> deleted, Map<String, String> added,
+                                   Map<String, String> copySources, List<Rename> result) {
+        Map<String, List<String>> deletedById = new HashMap<>();
+        for (Map.Entry<String, String> entry : deleted.entrySet()) {
+            deletedById.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        Map<String, String> copyById = new HashMap<>();
+        for (Map.Entry<String, String> entry : new TreeMap<>(copySources).entrySet()) {
+            copyById.putIfAbsent(entry.getValue(), entry.getKey());
+        }
+        Map<String, String> renamedFrom = new HashMap<>();
+        for (Map.Entry<String, String> entry : new ArrayList<>(added.entrySet())) {
+            String id = entry.getValue();
+            List<String> sources = deletedById.get(id);
+            if (sources != null && !sources.isEmpty()) {
+                String source = sources.remove(0);
+                deleted.remove(source);
+                renamedFrom.put(id, source);
+                result.add(new Rename(source, entry.getKey(), 100, false));
+            } else if (copyById.containsKey(id)) {
+                result.add(new Rename(copyById.get(id), entry.getKey(), 100, true));
+            } else if (renamedFrom.containsKey(id) && !copySources.isEmpty()) {
+                result.add(new Rename(renamedFrom.get(id), entry.getKey(), 100, true));
+            } else {
+                continue;
+            }
+            added.remove(entry.getKey());
+        }
+    }
+
+    private List<Candidate> scoreCandidates(Fingerprint target, int targetIndex, Fingerprint[] sources,
+                                            List<Map<Long, List<Integer>>> buckets) {
+        if (target == null) {
+            return Collections.emptyList();
+        }
+        Set<Integer> seen = new LinkedHashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            List<Integer> bucket = buckets.get(band).get(target.bandKey(band));
+            if (bucket != null) {
+                seen.addAll(bucket);
+            }
+        }
+        List<Candidate> found = new ArrayList<>();
+        for (int source : seen) {
+            int score = similarity(sources[source], target);
+            if (score >= threshold) {
+                found.add(new Candidate(source, targetIndex, score));
+            }
+        }
+        return found;
+    }
+
+    private Fingerprint[] fingerprintAll(ExecutorService pool, List<String> paths, List<String> ids) throws IOException {
+        List<Callable<Fingerprint>> tasks = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            String id = ids.get(i);
+            tasks.add(() -> Fingerprint.of(loader.load(path, id)));
+        }
+        return invokeAll(pool, tasks).toArray(new Fingerprint[0]);
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Rename detection interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Rename detection failed", e.getCause());
+        }
+    }
+
+    private static List<Rename> sorted(List<Rename> renames) {
+        renames.sort(Comparator.comparing(Rename::getNewPath));
+        return renames;
+    }
+
+    // Bytes of lines the two files have in common, relative to the larger file
+    static int similarity(Fingerprint a, Fingerprint b) {
+        long common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.lines.length && j < b.lines.length) {
+            int cmp = Long.compare(a.lines[i], b.lines[j]);
+            if (cmp == 0) {
+                common += Math.min(a.lengths[i], b.lengths[j]);
+                i++;
+                j++;
+            } else if (cmp < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (int) (common * 100 / Math.max(a.size, b.size));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    static final class Fingerprint {
+        final long size;
+        // Sorted line hashes, with the length of each line alongside
+        final long[] lines;
+        final int[] lengths;
+        final long[] signature;
+
+        private Fingerprint(long size, long[] lines, int[] lengths, long[] signature) {
+            this.size = size;
+            this.lines = lines;
+            this.lengths = lengths;
+            this.signature = signature;
+        }
+
+        // Null for empty content, which is only ever matched by id
+        static Fingerprint of(byte[] content) {
+            if (content.length == 0) {
+                return null;
+            }
+            List<long[]> entries = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i <= content.length; i++) {
+                if (i == content.length || content[i] == '\n') {
+                    int end = Math.min(i + 1, content.length);
+                    if (end > start) {
+                        entries.add(new long[]{lineHash(content, start, end), end - start});
+                    }
+                    start = i + 1;
+                }
+            }
+            entries.sort((x, y) -> Long.compare(x[0], y[0]));
+
+            long[] lines = new long[entries.size()];
+            int[] lengths = new int[entries.size()];
+            long[] signature = new long[SIGNATURE_SIZE];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = entries.get(i)[0];
+                lengths[i] = (int) entries.get(i)[1];
+                // Duplicate lines are one shingle, so skip repeats when building the signature
+                if (i > 0 && lines[i] == lines[i - 1]) {
+                    continue;
+                }
+                for (int k = 0; k < SIGNATURE_SIZE; k++) {
+                    long value = mix(lines[i] ^ SEEDS[k]);
+                    if (value < signature[k]) {
+                        signature[k] = value;
+                    }
+                }
+            }
+            return new Fingerprint(content.length, lines, lengths, signature);
+        }
+
+        long bandKey(int band) {
+            long key = band;
+            for (int row = 0; row < ROWS; row++) {
+                key = mix(key * 31 + signature[band * ROWS + row]);
+            }
+            return key;
+        }
+
+        // FNV-1a over the line, ignoring its terminator so a changed line ending still matches
+        private static long lineHash(byte[] content, int start, int end) {
+            while (end > start && (content[end - 1] == '\n' || content[end - 1] == '\r')) {
+                end--;
+            }
+            long hash = 0xcbf29ce484222325L;
+            for (int i = start; i < end; i++) {
+                hash ^= content[i] & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    private static final class Candidate {
+        final int source;
+        final int target;
+        final int score;
+
+        Candidate(int source, int target, int score) {
+            this.source = source;
+            this.target = target;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.ivanarroyo.diff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Line-based three-way merge. Both sides are diffed against the base; base regions touched by only
+// one side take that side's lines, regions touched by both become conflicts unless both sides made
+// the same change. Changes that overlap or touch are treated as conflicting.
+public final class ThreeWayMerge {
+
+    private ThreeWayMerge() { }
+
+    public static MergeResult merge(byte[] base, byte[] ours, byte[] theirs, String oursLabel, String theirsLabel) {
+        if (LineText.isBinary(base) || LineText.isBinary(ours) || LineText.isBinary(theirs)) {
+            return new MergeResult(ours, true);
+        }
+
+        LineText baseText = LineText.of(base);
+        LineText oursText = LineText.of(ours);
+        LineText theirsText = LineText.of(theirs);
+        Map<String, Integer> table = new HashMap<>();
+        int[] baseIds = baseText.intern(table);
+        List<Edit> oursEdits = MyersDiff.diff(baseIds, oursText.intern(table));
+        List<Edit> theirsEdits = MyersDiff.diff(baseIds, theirsText.intern(table));
+
+        List<String> out = new ArrayList<>();
+        boolean conflict = false;
+        int basePosition = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            int start;
+            if (j >= theirsEdits.size() || (i < oursEdits.size()
+                    && oursEdits.get(i).getBeginA() <= theirsEdits.get(j).getBeginA())) {
+                start = oursEdits.get(i).getBeginA();
+            } else {
+                start = theirsEdits.get(j).getBeginA();
+            }
+
+            // Grow the region until no edit from either side starts inside or right at its end
+            int end = start;
+            int oursFrom = i;
+            int theirsFrom = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < oursEdits.size() && oursEdits.get(i).getBeginA() <= end) {
+                    end = Math.max(end, oursEdits.get(i).getEndA());
+                    i++;
+                    grew = true;
+                }
+                while (j < theirsEdits.size() && theirsEdits.get(j).getBeginA() <= end) {
+                    end = Math.max(end, theirsEdits.get(j).getEndA());
+                    j++;
+                    grew = true;
+                }
+            }
+
+            addRange(out, baseText, basePosition, start);
+            List<String> oursRegion = applyEdits(baseText, oursText, oursEdits.subList(oursFrom, i), start, end);
+            List<String> theirsRegion = applyEdits(baseText, theirsText, theirsEdits.subList(theirsFrom, j), start, end);
+            if (oursFrom == i) {
+                out.addAll(theirsRegion);
+            } else if (theirsFrom == j || oursRegion.equals(theirsRegion)) {
+                out.addAll(oursRegion);
+            } else {
+                conflict = true;
+                out.add("<<<<<<< " + oursLabel + "\n");
+                addTerminated(out, oursRegion);
+                out.add("=======\n");
+                addTerminated(out, theirsRegion);
+                out.add(">>>>>>> " + theirsLabel + "\n");
+            }
+            basePosition = end;
+        }
+        addRange(out, baseText, basePosition, baseText.size());
+        return new MergeResult(LineText.toBytes(out), conflict);
+    }
+
+    // The side's version of base lines [start, end)
+    private static List<String> applyEdits(LineText base, LineText side, List<Edit> edits, int start, int end) {
+        List<String> lines = new ArrayList<>();
+        int position = start;
+        for (Edit edit : edits) {
+            addRange(lines, base, position, edit.getBeginA());
+            addRange(lines, side, edit.getBeginB(), edit.getEndB());
+            position = edit.getEndA();
+        }
+        addRange(lines, base, position, end);
+        return lines;
+    }
+
+    private static void addRange(List<String> out, LineText text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            out.add(text.get(i));
+        }
+    }
+
+    // Conflict markers must start on their own line even if a side ends without a newline
+    private static void addTerminated(List<String> out, List<String> lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            out.add(i == lines.size() - 1 && !line.endsWith("\n") ? line + "\n" : line);
+        }
+    }
+}
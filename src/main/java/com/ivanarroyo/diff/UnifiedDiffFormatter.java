@@ -0,0 +1,173 @@
+package com.ivanarroyo.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes unified diffs straight to a stream. Each hunk is written as soon as its edits are grouped,
+// so the output is never assembled in memory.
+public class UnifiedDiffFormatter {
+    private static final String NULL_PATH = "/dev/null";
+
+    private final OutputStream out;
+    private final int context;
+    private final DiffAlgorithm algorithm;
+
+    public UnifiedDiffFormatter(OutputStream out, int context, DiffAlgorithm algorithm) {
+        if (context < 0) {
+            throw new IllegalArgumentException("Context must not be negative: " + context);
+        }
+        this.out = out;
+        this.context = context;
+        this.algorithm = algorithm;
+    }
+
+    // Opens one side's content. It is opened once to probe for binary data, and read in full only
+    // when both sides turn out to be text.
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    public void format(String path, String oldId, String newId, byte[] oldContent, byte[] newContent) throws IOException {
+        format(path, oldId, newId, of(oldContent), of(newContent));
+    }
+
+    // A null old or new id means the file was added or removed
+    public void format(String path, String oldId, String newId, ContentSource oldContent, ContentSource newContent)
+            throws IOException {
+        write("diff --git a/" + path + " b/" + path + "\n");
+        if (oldId == null) {
+            write("new file\n");
+        } else if (newId == null) {
+            write("deleted file\n");
+        }
+        writeBody(oldId == null ? NULL_PATH : "a/" + path, newId == null ? NULL_PATH : "b/" + path,
+                oldId, newId, oldContent, newContent);
+    }
+
+    public void formatRename(Rename rename, String oldId, String newId, byte[] oldContent, byte[] newContent)
+            throws IOException {
+        formatRename(rename, oldId, newId, of(oldContent), of(newContent));
+    }
+
+    // Renamed or copied file; identical content gets the headers only
+    public void formatRename(Rename rename, String oldId, String newId, ContentSource oldContent,
+                             ContentSource newContent) throws IOException {
+        String kind = rename.isCopy() ? "copy" : "rename";
+        write("diff --git a/" + rename.getOldPath() + " b/" + rename.getNewPath() + "\n");
+        write("similarity index " + rename.getScore() + "%\n");
+        write(kind + " from " + rename.getOldPath() + "\n");
+        write(kind + " to " + rename.getNewPath() + "\n");
+        if (!oldId.equals(newId)) {
+            writeBody("a/" + rename.getOldPath(), "b/" + rename.getNewPath(), oldId, newId, oldContent, newContent);
+        }
+    }
+
+    private void writeBody(String oldLabel, String newLabel, String oldId, String newId,
+                           ContentSource oldContent, ContentSource newContent) throws IOException {
+        write("index " + abbreviate(oldId) + ".." + abbreviate(newId) + "\n");
+
+        // Binary content is reported from its first bytes, without reading, splitting or diffing the rest
+        if (isBinary(oldContent) || isBinary(newContent)) {
+            write("Binary files " + oldLabel + " and " + newLabel + " differ\n");
+            return;
+        }
+
+        write("--- " + oldLabel + "\n");
+        write("+++ " + newLabel + "\n");
+        LineText oldText = LineText.of(readAll(oldContent));
+        LineText newText = LineText.of(readAll(newContent));
+        Map<String, Integer> table = new HashMap<>();
+        int[] oldLines = oldText.intern(table);
+        int[] newLines = newText.intern(table);
+        writeHunks(oldText, newText, algorithm.diff(oldLines, newLines));
+    }
+
+    private static boolean isBinary(ContentSource content) throws IOException {
+        try (InputStream in = content.open()) {
+            return LineText.isBinary(in);
+        }
+    }
+
+    private static byte[] readAll(ContentSource content) throws IOException {
+        try (InputStream in = content.open()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static ContentSource of(byte[] content) {
+        return () -> new ByteArrayInputStream(content);
+    }
+
+    private void writeHunks(LineText a, LineText b, List<Edit> edits) throws IOException {
+        int first = 0;
+        while (first < edits.size()) {
+            // Edits whose context would touch or overlap share a hunk
+            int last = first;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).getBeginA() - edits.get(last).getEndA() <= 2 * context) {
+                last++;
+            }
+
+            Edit head = edits.get(first);
+            Edit tail = edits.get(last);
+            // Lines before the first edit and after the last are common, so both sides get the same context
+            int leading = Math.min(context, head.getBeginA());
+            int trailing = Math.min(context, a.size() - tail.getEndA());
+            int aStart = head.getBeginA() - leading;
+            int bStart = head.getBeginB() - leading;
+            int aEnd = tail.getEndA() + trailing;
+            int bEnd = tail.getEndB() + trailing;
+            write("@@ -" + range(aStart, aEnd - aStart) + " +" + range(bStart, bEnd - bStart) + " @@\n");
+
+            int position = aStart;
+            for (int k = first; k <= last; k++) {
+                Edit edit = edits.get(k);
+                for (; position < edit.getBeginA(); position++) {
+                    writeLine(' ', a.get(position));
+                }
+                for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
+                    writeLine('-', a.get(i));
+                }
+                for (int j = edit.getBeginB(); j < edit.getEndB(); j++) {
+                    writeLine('+', b.get(j));
+                }
+                position = edit.getEndA();
+            }
+            for (; position < aEnd; position++) {
+                writeLine(' ', a.get(position));
+            }
+            first = last + 1;
+        }
+    }
+
+    // 1-based start line; an empty range names the line before it
+    private static String range(int start, int count) {
+        String first = String.valueOf(count == 0 ? start : start + 1);
+        return count == 1 ? first : first + "," + count;
+    }
+
+    private void writeLine(char prefix, String line) throws IOException {
+        out.write(prefix);
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        if (!line.endsWith("\n")) {
+            write("\n\\ No newline at end of file\n");
+        }
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String abbreviate(String id) {
+        if (id == null) {
+            return "0000000";
+        }
+        return id.length() > 7 ? id.substring(0, 7) : id;
+    }
+}
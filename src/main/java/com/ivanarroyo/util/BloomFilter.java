@@ -0,0 +1,109 @@
+package com.ivanarroyo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Fixed-size Bloom filter over strings using double hashing of two murmur3 seeds
+public class BloomFilter {
+    public static final int BITS_PER_ENTRY = 10;
+    public static final int NUM_HASHES = 7;
+
+    private static final int SEED_1 = 0x293ae76f;
+    private static final int SEED_2 = 0x7e646e2c;
+
+    private final byte[] bits;
+
+    public BloomFilter(int entries) {
+        this.bits = new byte[Math.max(1, (entries * BITS_PER_ENTRY + 7) / 8)];
+    }
+
+    public BloomFilter(byte[] bits) {
+        this.bits = bits;
+    }
+
+    public void add(String key) {
+        int[] positions = positions(key, bits.length);
+        for (int position : positions) {
+            bits[position >>> 3] |= (byte) (1 << (position & 7));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        return mightContain(ByteBuffer.wrap(bits), 0, bits.length, key);
+    }
+
+    public byte[] toByteArray() {
+        return bits;
+    }
+
+    // Tests a filter stored at [offset, offset + length) of a buffer, e.g. a mapped file, without copying it
+    public static boolean mightContain(ByteBuffer data, int offset, int length, String key) {
+        for (int position : positions(key, length)) {
+            if ((data.get(offset + (position >>> 3)) & (1 << (position & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] positions(String key, int length) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(SEED_1, data);
+        int h2 = murmur3(SEED_2, data);
+        long bitCount = (long) length * 8;
+        int[] positions = new int[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long combined = Integer.toUnsignedLong(h1 + i * h2);
+            positions[i] = (int) (combined % bitCount);
+        }
+        return positions;
+    }
+
+    @SuppressWarnings("fallthrough")
+    static int murmur3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int hash = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[i * 4] & 0xFF)
+                    | (data[i * 4 + 1] & 0xFF) << 8
+                    | (data[i * 4 + 2] & 0xFF) << 16
+                    | (data[i * 4 + 3] & 0xFF) << 24;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            hash ^= k;
+            hash = Integer.rotateLeft(hash, 13);
+            hash = hash * 5 + 0xe6546b64;
+        }
+
+        int tail = blocks * 4;
+        int k = 0;
+        switch (data.length & 3) {
+            case 3:
+                k ^= (data[tail + 2] & 0xFF) << 16;
+                // fall through
+            case 2:
+                k ^= (data[tail + 1] & 0xFF) << 8;
+                // fall through
+            case 1:
+                k ^= data[tail] & 0xFF;
+                k *= c1;
+                k = Integer.rotateLeft(k, 15);
+                k *= c2;
+                hash ^= k;
+                break;
+            default:
+                break;
+        }
+
+        hash ^= data.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,286 @@
+package com.ivanarroyo.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+
+// Immutable word-aligned hybrid (EWAH) compressed bitmap. The words are a sequence of markers, each
+// followed by its literal words. A marker packs:
+//   bit 0       running bit
+//   bits 1-32   number of clean words (all running bit) before the literals
+//   bits 33-63  number of literal words that follow
+// Set operations walk both bitmaps run by run, so long clean stretches cost a single step.
+public final class EwahBitmap {
+    private static final long MAX_RUN = 0xFFFFFFFFL;
+    private static final int MAX_LITERALS = 0x7FFFFFFF;
+
+    private final long[] words;
+    private final int length;
+    private final int sizeInBits;
+
+    private EwahBitmap(long[] words, int length, int sizeInBits) {
+        this.words = words;
+        this.length = length;
+        this.sizeInBits = sizeInBits;
+    }
+
+    public static EwahBitmap empty() {
+        return new EwahBitmap(new long[0], 0, 0);
+    }
+
+    public static EwahBitmap fromBitSet(BitSet bits) {
+        Builder builder = new Builder();
+        for (long word : bits.toLongArray()) {
+            builder.addWords(word, 1);
+        }
+        return builder.build(bits.length());
+    }
+
+    public static EwahBitmap of(int... positions) {
+        BitSet bits = new BitSet();
+        for (int position : positions) {
+            bits.set(position);
+        }
+        return fromBitSet(bits);
+    }
+
+    public int sizeInBits() {
+        return sizeInBits;
+    }
+
+    public boolean get(int position) {
+        long wordIndex = position >>> 6;
+        WordIterator it = new WordIterator(this);
+        long current = 0;
+        while (it.hasNext()) {
+            long count = it.count();
+            if (wordIndex < current + count) {
+                return (it.word() & (1L << (position & 63))) != 0;
+            }
+            current += count;
+            it.advance(count);
+        }
+        return false;
+    }
+
+    public int cardinality() {
+        long total = 0;
+        WordIterator it = new WordIterator(this);
+        while (it.hasNext()) {
+            long count = it.count();
+            total += Long.bitCount(it.word()) * count;
+            it.advance(count);
+        }
+        return (int) total;
+    }
+
+    public void forEach(IntConsumer action) {
+        WordIterator it = new WordIterator(this);
+        long base = 0;
+        while (it.hasNext()) {
+            long count = it.count();
+            long word = it.word();
+            if (word != 0) {
+                for (long i = 0; i < count; i++) {
+                    long remaining = word;
+                    while (remaining != 0) {
+                        int bit = Long.numberOfTrailingZeros(remaining);
+                        action.accept((int) ((base + i) * 64 + bit));
+                        remaining &= remaining - 1;
+                    }
+                }
+            }
+            base += count;
+            it.advance(count);
+        }
+    }
+
+    public EwahBitmap or(EwahBitmap other) {
+        return combine(this, other, (a, b) -> a | b);
+    }
+
+    public EwahBitmap and(EwahBitmap other) {
+        return combine(this, other, (a, b) -> a & b);
+    }
+
+    public EwahBitmap andNot(EwahBitmap other) {
+        return combine(this, other, (a, b) -> a & ~b);
+    }
+
+    private static EwahBitmap combine(EwahBitmap left, EwahBitmap right, LongBinaryOperator op) {
+        WordIterator x = new WordIterator(left);
+        WordIterator y = new WordIterator(right);
+        Builder out = new Builder();
+        while (x.hasNext() || y.hasNext()) {
+            // An exhausted side behaves as an endless run of zeros
+            long countX = x.hasNext() ? x.count() : Long.MAX_VALUE;
+            long countY = y.hasNext() ? y.count() : Long.MAX_VALUE;
+            long n = Math.min(countX, countY);
+            out.addWords(op.applyAsLong(x.hasNext() ? x.word() : 0, y.hasNext() ? y.word() : 0), n);
+            if (x.hasNext()) {
+                x.advance(n);
+            }
+            if (y.hasNext()) {
+                y.advance(n);
+            }
+        }
+        return out.build(Math.max(left.sizeInBits, right.sizeInBits));
+    }
+
+    public int serializedSize() {
+        return 8 + length * 8;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(sizeInBits);
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    public static EwahBitmap read(ByteBuffer buffer, int offset) {
+        int sizeInBits = buffer.getInt(offset);
+        int length = buffer.getInt(offset + 4);
+        long[] words = new long[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = buffer.getLong(offset + 8 + i * 8);
+        }
+        return new EwahBitmap(words, length, sizeInBits);
+    }
+
+    private static final class Builder {
+        private long[] words = new long[8];
+        private int length;
+        private int marker = -1;
+
+        void addWords(long word, long count) {
+            if (word == 0 || word == -1L) {
+                addRun(word == -1L, count);
+            } else {
+                for (long i = 0; i < count; i++) {
+                    addLiteral(word);
+                }
+            }
+        }
+
+        private void addRun(boolean bit, long count) {
+            while (count > 0) {
+                if (marker >= 0 && literals(words[marker]) == 0) {
+                    long run = runLength(words[marker]);
+                    if (run == 0 || runBit(words[marker]) == bit) {
+                        long n = Math.min(count, MAX_RUN - run);
+                        if (n > 0) {
+                            words[marker] = marker(bit, run + n, 0);
+                            count -= n;
+                            continue;
+                        }
+                    }
+                }
+                newMarker();
+                long n = Math.min(count, MAX_RUN);
+                words[marker] = marker(bit, n, 0);
+                count -= n;
+            }
+        }
+
+        private void addLiteral(long word) {
+            if (marker < 0 || literals(words[marker]) == MAX_LITERALS) {
+                newMarker();
+            }
+            long m = words[marker];
+            words[marker] = marker(runBit(m), runLength(m), literals(m) + 1);
+            append(word);
+        }
+
+        private void newMarker() {
+            marker = length;
+            append(0);
+        }
+
+        private void append(long word) {
+            if (length == words.length) {
+                long[] grown = new long[words.length * 2];
+                System.arraycopy(words, 0, grown, 0, length);
+                words = grown;
+            }
+            words[length++] = word;
+        }
+
+        EwahBitmap build(int sizeInBits) {
+            return new EwahBitmap(words, length, sizeInBits);
+        }
+
+        private static long marker(boolean bit, long run, int literals) {
+            return (bit ? 1L : 0L) | (run << 1) | ((long) literals << 33);
+        }
+    }
+
+    private static boolean runBit(long marker) {
+        return (marker & 1) != 0;
+    }
+
+    private static long runLength(long marker) {
+        return (marker >>> 1) & MAX_RUN;
+    }
+
+    private static int literals(long marker) {
+        return (int) (marker >>> 33);
+    }
+
+    // Yields the uncompressed word sequence as (word, repeat count) steps
+    private static final class WordIterator {
+        private final long[] words;
+        private final int length;
+        private int next;
+        private boolean runBit;
+        private long runRemaining;
+        private int literalsRemaining;
+        private int literal;
+
+        WordIterator(EwahBitmap bitmap) {
+            this.words = bitmap.words;
+            this.length = bitmap.length;
+            load();
+        }
+
+        boolean hasNext() {
+            return runRemaining > 0 || literalsRemaining > 0;
+        }
+
+        long word() {
+            if (runRemaining > 0) {
+                return runBit ? -1L : 0L;
+            }
+            return words[literal];
+        }
+
+        long count() {
+            return runRemaining > 0 ? runRemaining : 1;
+        }
+
+        void advance(long n) {
+            if (runRemaining > 0) {
+                runRemaining -= n;
+            } else {
+                literal++;
+                literalsRemaining--;
+            }
+            load();
+        }
+
+        private void load() {
+            while (runRemaining == 0 && literalsRemaining == 0 && next < length) {
+                long m = words[next];
+                runBit = EwahBitmap.runBit(m);
+                runRemaining = EwahBitmap.runLength(m);
+                literalsRemaining = EwahBitmap.literals(m);
+                literal = next + 1;
+                next = literal + literalsRemaining;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.ivanarroyo.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+public interface HashAlgorithm {
+
+    String getName();
+
+    // Length of a raw digest in bytes; ids are twice as long in hex
+    int getDigestLength();
+
+    Hasher newHasher();
+
+    default String hash(byte[] data) {
+        Hasher hasher = newHasher();
+        hasher.update(data, 0, data.length);
+        return hasher.finish();
+    }
+
+    default String hash(Path file) throws IOException {
+        return HashUtils.hash(file, newHasher());
+    }
+
+    interface Hasher {
+        void update(byte[] data, int offset, int length);
+
+        void update(ByteBuffer buffer);
+
+        String finish();
+    }
+}
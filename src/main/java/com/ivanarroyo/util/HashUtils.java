@@ -1,26 +1,94 @@
 package com.ivanarroyo.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class HashUtils {
 
+    public static final int BUFFER_SIZE = 64 * 1024;
+
     private HashUtils() { }
 
     public static String sha1(byte[] data) {
+        MessageDigest digest = newSha1();
+        byte[] hashBytes = digest.digest(data);
+        return bytesToHex(hashBytes);
+    }
+
+    public static String sha1(Path file) throws IOException {
+        return hash(file, new Sha1Algorithm().newHasher());
+    }
+
+    public static HashAlgorithm algorithm(String name) {
+        switch (name) {
+            case Sha1Algorithm.NAME:
+                return new Sha1Algorithm();
+            case MerkleSha256Algorithm.NAME:
+                return new MerkleSha256Algorithm();
+            default:
+                throw new IllegalArgumentException("Unknown hash algorithm: " + name);
+        }
+    }
+
+    static String hash(Path file, HashAlgorithm.Hasher hasher) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hasher.finish();
+    }
+
+    public static MessageDigest newSha1() {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hashBytes = digest.digest(data);
-            return bytesToHex(hashBytes);
-        } catch (Exception e) {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Could not compute SHA-1 hash", e);
         }
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    public static String bytesToHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            hex[i * 2] = Character.forDigit(v >>> 4, 16);
+            hex[i * 2 + 1] = Character.forDigit(v & 0x0F, 16);
+        }
+        return new String(hex);
+    }
+
+    // Returns null if the string is not an even-length lowercase hex id
+    public static byte[] hexToBytes(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = hexValue(hex.charAt(i * 2));
+            int low = hexValue(hex.charAt(i * 2 + 1));
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
         }
-        return sb.toString();
+        return -1;
     }
 }
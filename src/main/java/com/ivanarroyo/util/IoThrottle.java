@@ -0,0 +1,41 @@
+package com.ivanarroyo.util;
+
+import java.io.InterruptedIOException;
+
+// Caps the average rate of a stream of I/O by sleeping whenever the bytes done so far are ahead
+// of schedule. Background work uses it so it does not starve foreground commands of disk bandwidth.
+public final class IoThrottle {
+    public static final IoThrottle UNLIMITED = new IoThrottle(0);
+
+    private final long bytesPerSecond;
+    private long start = -1;
+    private long total;
+
+    // 0 or less means no limit
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (start < 0) {
+                start = now;
+            }
+            total += bytes;
+            wait = start + (long) (total * 1e9 / bytesPerSecond) - now;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.ivanarroyo.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Chunked Merkle tree over SHA-256. Leaves are fixed-size slices of the input hashed independently,
+// so a single large file can be hashed on every core. Leaves and inner nodes use distinct prefixes
+// (0x00 / 0x01) and an unpaired node is promoted to the next level unchanged.
+public class MerkleSha256Algorithm implements HashAlgorithm {
+    public static final String NAME = "merkle-sha256";
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+    // Leaf buffers start this small and grow to the leaf size only for inputs that need it
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final int leafSize;
+    private final ForkJoinPool pool;
+
+    public MerkleSha256Algorithm() {
+        this(DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    MerkleSha256Algorithm(int leafSize, ForkJoinPool pool) {
+        this.leafSize = leafSize;
+        this.pool = pool;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 32;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new MerkleHasher();
+    }
+
+    // Reads and hashes disjoint leaf ranges of the file in parallel; a single leaf on this thread
+    @Override
+    public String hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int leaves = (int) Math.max(1, (size + leafSize - 1) / leafSize);
+            byte[][] digests = new byte[leaves][];
+            LeafRangeTask task = new LeafRangeTask(channel, size, digests, 0, leaves);
+            if (leaves == 1) {
+                task.compute();
+            } else {
+                pool.invoke(task);
+            }
+            return HashUtils.bytesToHex(combine(digests));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private byte[] hashLeaf(byte[] data, int offset, int length) {
+        MessageDigest digest = newSha256();
+        digest.update(LEAF_PREFIX);
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+
+    private static byte[] combine(byte[][] leaves) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int left = i * 2;
+                if (left + 1 < level.length) {
+                    MessageDigest digest = newSha256();
+                    digest.update(NODE_PREFIX);
+                    digest.update(level[left]);
+                    digest.update(level[left + 1]);
+                    next[i] = digest.digest();
+                } else {
+                    next[i] = level[left];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not compute SHA-256 hash", e);
+        }
+    }
+
+    private final class LeafRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final byte[][] digests;
+        private final int from;
+        private final int to;
+
+        LeafRangeTask(FileChannel channel, long size, byte[][] digests, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.digests = digests;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 4) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafRangeTask(channel, size, digests, from, mid),
+                        new LeafRangeTask(channel, size, digests, mid, to));
+                return;
+            }
+
+            byte[] buffer = new byte[(int) Math.min(leafSize, size - (long) from * leafSize)];
+            for (int leaf = from; leaf < to; leaf++) {
+                long start = (long) leaf * leafSize;
+                int length = (int) Math.min(leafSize, size - start);
+                ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+                try {
+                    while (target.hasRemaining()) {
+                        if (channel.read(target, start + target.position()) == -1) {
+                            throw new IOException("File shrank while hashing");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                digests[leaf] = hashLeaf(buffer, 0, length);
+            }
+        }
+    }
+
+    // Buffers one leaf at a time and hashes full leaves on the pool while the caller keeps reading
+    private final class MerkleHasher implements Hasher {
+        private final int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        private final List<byte[]> completed = new ArrayList<>();
+        private final Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+        private byte[] leaf = new byte[Math.min(leafSize, INITIAL_BUFFER_SIZE)];
+        private int filled;
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int n = Math.min(length, leafSize - filled);
+                ensureCapacity(filled + n);
+                System.arraycopy(data, offset, leaf, filled, n);
+                filled += n;
+                offset += n;
+                length -= n;
+                if (filled == leafSize) {
+                    submitLeaf();
+                }
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), leafSize - filled);
+                ensureCapacity(filled + n);
+                buffer.get(leaf, filled, n);
+                filled += n;
+                if (filled == leafSize) {
+                    submitLeaf();
+                }
+            }
+        }
+
+        // The last, partial leaf is hashed here: waiting on the pool for it would only add a hand-off
+        @Override
+        public String finish() {
+            while (!inFlight.isEmpty()) {
+                drainOldest();
+            }
+            if (filled > 0 || completed.isEmpty()) {
+                completed.add(hashLeaf(leaf, 0, filled));
+            }
+            return HashUtils.bytesToHex(combine(completed.toArray(new byte[0][])));
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > leaf.length) {
+                leaf = Arrays.copyOf(leaf, Math.min(leafSize, Math.max(needed, leaf.length * 2)));
+            }
+        }
+
+        private void submitLeaf() {
+            final byte[] full = leaf;
+            completed.add(null);
+            inFlight.add(pool.submit(() -> hashLeaf(full, 0, leafSize)));
+            if (inFlight.size() >= maxInFlight) {
+                drainOldest();
+            }
+            // An input that filled one leaf is likely to fill the next
+            leaf = new byte[leafSize];
+            filled = 0;
+        }
+
+        // Tasks are joined in submission order, so the oldest one owns the first unfilled slot
+        private void drainOldest() {
+            byte[] digest = inFlight.removeFirst().join();
+            completed.set(completed.size() - inFlight.size() - 1, digest);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.ivanarroyo.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Fixed-capacity set of object ids packed into a long[] with open addressing, safe for concurrent
+// adds. Ids are already uniformly distributed, so their leading bytes serve as the hash. A slot is
+// claimed with a CAS on its state before the id is written; readers wait for claimed slots to fill.
+public final class ObjectIdSet {
+    private static final int EMPTY = 0;
+    private static final int WRITING = 1;
+    private static final int FULL = 2;
+
+    private final int idBytes;
+    private final int words;
+    private final long[] keys;
+    private final AtomicIntegerArray states;
+    private final int mask;
+    private final int limit;
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Room for at least expected ids at a load factor of one half
+    public ObjectIdSet(int idBytes, int expected) {
+        if (idBytes <= 0 || idBytes % 4 != 0) {
+            throw new IllegalArgumentException("Unsupported id length: " + idBytes);
+        }
+        int capacity = 16;
+        while (capacity < expected * 2L) {
+            if (capacity >= 1 << 30) {
+                throw new IllegalArgumentException("Too many ids: " + expected);
+            }
+            capacity <<= 1;
+        }
+        this.idBytes = idBytes;
+        this.words = (idBytes + 7) / 8;
+        this.keys = new long[capacity * words];
+        this.states = new AtomicIntegerArray(capacity);
+        this.mask = capacity - 1;
+        this.limit = capacity - capacity / 4;
+    }
+
+    // False if the id was already present. Ids that are not well-formed are rejected.
+    public boolean add(String id) {
+        long[] key = pack(id);
+        if (key == null) {
+            throw new IllegalArgumentException("Not an object id: " + id);
+        }
+        int slot = (int) (key[0] >>> 32) & mask;
+        while (true) {
+            int state = states.get(slot);
+            if (state == EMPTY) {
+                if (size.get() >= limit) {
+                    throw new IllegalStateException("Object id set is full");
+                }
+                if (states.compareAndSet(slot, EMPTY, WRITING)) {
+                    System.arraycopy(key, 0, keys, slot * words, words);
+                    states.set(slot, FULL);
+                    size.incrementAndGet();
+                    return true;
+                }
+                continue;
+            }
+            if (matches(slot, key)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean contains(String id) {
+        long[] key = pack(id);
+        if (key == null) {
+            return false;
+        }
+        int slot = (int) (key[0] >>> 32) & mask;
+        while (states.get(slot) != EMPTY) {
+            if (matches(slot, key)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private boolean matches(int slot, long[] key) {
+        while (states.get(slot) == WRITING) {
+            Thread.onSpinWait();
+        }
+        int base = slot * words;
+        for (int i = 0; i < words; i++) {
+            if (keys[base + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long[] pack(String id) {
+        byte[] raw = HashUtils.hexToBytes(id);
+        if (raw == null || raw.length != idBytes) {
+            return null;
+        }
+        long[] key = new long[words];
+        for (int i = 0; i < raw.length; i++) {
+            key[i / 8] |= (raw[i] & 0xffL) << (56 - 8 * (i % 8));
+        }
+        return key;
+    }
+}
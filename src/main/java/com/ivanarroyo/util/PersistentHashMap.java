@@ -0,0 +1,347 @@
+package com.ivanarroyo.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+// Map over a hash array mapped trie whose nodes are never modified: a write copies the path from
+// the root to the changed slot and publishes the new root, so snapshot() is O(1) and a snapshot,
+// or an iterator, never sees later writes. Writers are serialized; readers take no lock. Null keys
+// are not supported.
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final Object NOT_FOUND = new Object();
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private volatile State state;
+
+    public PersistentHashMap() {
+        this.state = State.EMPTY;
+    }
+
+    private PersistentHashMap(State state) {
+        this.state = state;
+    }
+
+    // An independent map with the current contents; writes to either one do not affect the other
+    public PersistentHashMap<K, V> snapshot() {
+        return new PersistentHashMap<>(state);
+    }
+
+    @Override
+    public int size() {
+        return state.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != NOT_FOUND;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object value = find(key);
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    private Object find(Object key) {
+        Node root = state.root;
+        if (key == null || root == null) {
+            return NOT_FOUND;
+        }
+        return root.find(0, hash(key), key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V put(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        State current = state;
+        int hash = hash(key);
+        Object old = current.root == null ? NOT_FOUND : current.root.find(0, hash, key);
+        Node root = (current.root == null ? BitmapNode.EMPTY : current.root).put(0, hash, key, value);
+        if (root != current.root) {
+            state = new State(root, current.size + (old == NOT_FOUND ? 1 : 0));
+        }
+        return old == NOT_FOUND ? null : (V) old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(Object key) {
+        State current = state;
+        if (key == null || current.root == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Object old = current.root.find(0, hash, key);
+        if (old == NOT_FOUND) {
+            return null;
+        }
+        state = new State(current.root.remove(0, hash, key), current.size - 1);
+        return (V) old;
+    }
+
+    @Override
+    public synchronized void clear() {
+        state = State.EMPTY;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator(state.root);
+            }
+
+            @Override
+            public int size() {
+                return PersistentHashMap.this.size();
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // The root and size are published together
+    private static final class State {
+        static final State EMPTY = new State(null, 0);
+
+        final Node root;
+        final int size;
+
+        State(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    // Both node kinds keep key/value pairs in one array; a null key marks a child node in the value slot
+    private abstract static class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object find(int shift, int hash, Object key);
+
+        // This node if nothing changed
+        abstract Node put(int shift, int hash, Object key, Object value);
+
+        // Null once the node is empty. The key must be present.
+        abstract Node remove(int shift, int hash, Object key);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if (array[i] == null) {
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+            }
+            return array[i].equals(key) ? array[i + 1] : NOT_FOUND;
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, i);
+                copy[i] = key;
+                copy[i + 1] = value;
+                System.arraycopy(array, i, copy, i + 2, array.length - i);
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node) v).put(shift + BITS, hash, key, value);
+                return child == v ? this : with(i + 1, null, child);
+            }
+            if (k.equals(key)) {
+                return v == value ? this : with(i + 1, key, value);
+            }
+            // Two keys in one slot move down a level together
+            return with(i + 1, null, pair(shift + BITS, hash(k), k, v, hash, key, value));
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if (array[i] == null) {
+                Node child = ((Node) array[i + 1]).remove(shift + BITS, hash, key);
+                if (child != null) {
+                    return with(i + 1, null, child);
+                }
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+
+        private BitmapNode with(int valueSlot, Object key, Object value) {
+            Object[] copy = array.clone();
+            copy[valueSlot - 1] = key;
+            copy[valueSlot] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private static Node pair(int shift, int hash1, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            return EMPTY.put(shift, hash1, key1, value1).put(shift, hash2, key2, value2);
+        }
+    }
+
+    // Keys whose whole hashes are equal, searched linearly
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value) {
+            if (hash != this.hash) {
+                int bit = 1 << ((this.hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[]{null, this}).put(shift, hash, key, value);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[i + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            if (array.length == 2) {
+                return null;
+            }
+            int i = indexOf(key);
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Depth-first over the root it started from; removing through it removes from the map
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // 32-bit hashes give at most seven bitmap levels, then one collision node
+        private final Object[][] arrays = new Object[9][];
+        private final int[] positions = new int[9];
+        private int depth = -1;
+        private Map.Entry<K, V> next;
+        private K last;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                arrays[++depth] = root.array;
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int i = positions[depth];
+                if (i >= array.length) {
+                    positions[depth--] = 0;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) {
+                    arrays[++depth] = ((Node) array[i + 1]).array;
+                } else {
+                    next = new SimpleImmutableEntry<>((K) array[i], (V) array[i + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = next;
+            last = entry.getKey();
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            PersistentHashMap.this.remove(last);
+            last = null;
+        }
+    }
+}
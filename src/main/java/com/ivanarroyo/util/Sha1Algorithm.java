@@ -0,0 +1,44 @@
+package com.ivanarroyo.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+public class Sha1Algorithm implements HashAlgorithm {
+    public static final String NAME = "sha1";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 20;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        MessageDigest digest = HashUtils.newSha1();
+        return new Hasher() {
+            @Override
+            public void update(byte[] data, int offset, int length) {
+                digest.update(data, offset, length);
+            }
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public String finish() {
+                return HashUtils.bytesToHex(digest.digest());
+            }
+        };
+    }
+
+    @Override
+    public String hash(byte[] data) {
+        return HashUtils.sha1(data);
+    }
+}
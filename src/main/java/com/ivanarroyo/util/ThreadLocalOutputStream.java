@@ -0,0 +1,44 @@
+package com.ivanarroyo.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes wherever the current thread redirected it, or to the fallback. Installed behind System.out
+// and System.err, it lets commands running concurrently in one JVM each print to their own client.
+// Threads started by a command inherit its target.
+public final class ThreadLocalOutputStream extends OutputStream {
+    private final OutputStream fallback;
+    private final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<>();
+
+    public ThreadLocalOutputStream(OutputStream fallback) {
+        this.fallback = fallback;
+    }
+
+    public void redirect(OutputStream out) {
+        target.set(out);
+    }
+
+    public void reset() {
+        target.remove();
+    }
+
+    private OutputStream current() {
+        OutputStream out = target.get();
+        return out != null ? out : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        current().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        current().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        current().flush();
+    }
+}
@@ -126,6 +126,18 @@ class AddCommandTest {
         assertDoesNotThrow(() -> addCommand.execute(new String[]{"testdir"}));
     }
 
+    @Test
+    void testAddUpdatesIndex() throws Exception {
+        File testFile = new File(workingDir, "dir/test.txt");
+        testFile.getParentFile().mkdirs();
+        Files.writeString(testFile.toPath(), "indexed");
+
+        addCommand.execute(new String[]{"dir/test.txt"});
+
+        Index index = new Index(store.getIndexFile());
+        assertEquals(HashUtils.sha1("indexed".getBytes()), index.getHash("dir/test.txt"));
+    }
+
     private void deleteDirectory(File dir) {
         File[] files = dir.listFiles();
         if (files != null) {
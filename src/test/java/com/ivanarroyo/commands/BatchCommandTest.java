@@ -0,0 +1,213 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Index;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.util.HashUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream output;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+
+        originalOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void testRunsOperationsAgainstOneIndex() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        String a = HashUtils.sha1("a".getBytes());
+        String b = HashUtils.sha1("b".getBytes());
+
+        run("add a.txt\nadd b.txt\nrm b.txt\nhash-object b.txt\ncat-file " + a + "\ncat-file nope\nfrob x\n");
+
+        assertEquals("Added file: a.txt (hash: " + a + ")\n"
+                + "Added file: b.txt (hash: " + b + ")\n"
+                + "Removed from index: b.txt\n"
+                + b + "\n"
+                + a + " 1\n"
+                + "a\n"
+                + "nope missing\n"
+                + "error: unknown batch command: frob\n", output.toString(StandardCharsets.UTF_8));
+        Index index = new Index(store.getIndexFile());
+        assertEquals(a, index.getHash("a.txt"));
+        assertFalse(index.contains("b.txt"));
+    }
+
+    @Test
+    void testIndexIsWrittenOnlyOnFlush() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+
+        // Input breaks off after b.txt is staged, so only the flush before it reaches the index
+        InputStream in = new SequenceInputStream(
+                new ByteArrayInputStream("add a.txt\nflush\nadd b.txt\n".getBytes(StandardCharsets.UTF_8)),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("broken pipe");
+                    }
+                });
+        assertThrows(IOException.class, () -> new BatchCommand(store, in).execute(new String[]{}));
+
+        Index index = new Index(store.getIndexFile());
+        assertTrue(index.contains("a.txt"));
+        assertFalse(index.contains("b.txt"));
+    }
+
+    @Test
+    void testNulDelimitedRecordsAndRefUpdates() throws Exception {
+        Files.writeString(tempDir.resolve("with space.txt"), "x");
+        String blob = HashUtils.sha1("x".getBytes());
+
+        run("add with space.txt\0update-ref refs/heads/one " + blob + "\0update-ref refs/heads/missing 1234\0", "-z");
+
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("error: update-ref: No such object: 1234"));
+        assertEquals(blob, new Index(store.getIndexFile()).getHash("with space.txt"));
+        assertEquals(blob, store.getBranch("one"));
+        assertNull(store.getBranch("missing"));
+    }
+
+    @Test
+    void testRefUpdateChecksOldValue() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        String blob = HashUtils.sha1("a".getBytes());
+        run("hash-object a.txt\nupdate-ref refs/heads/one " + blob + "\nflush\n"
+                + "update-ref refs/heads/one " + blob + " 0000\nflush\n");
+
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("error: flush: Ref refs/heads/one changed concurrently"));
+        assertEquals(blob, store.getBranch("one"));
+    }
+
+    @Test
+    void testRefUpdatesAreLimitedToHeadAndBranches() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        String blob = HashUtils.sha1("a".getBytes());
+        String config = "core.hashAlgorithm=sha1\n";
+        Files.writeString(store.getConfigFile().toPath(), config);
+
+        run("hash-object a.txt\nupdate-ref config " + blob + "\nupdate-ref refs/heads/../../index " + blob
+                + "\nupdate-ref refs/tags/v1 " + blob + "\n");
+
+        String text = output.toString(StandardCharsets.UTF_8);
+        assertEquals(blob, store.getBranch("config"));
+        assertEquals(config, Files.readString(store.getConfigFile().toPath()));
+        assertTrue(text.contains("error: update-ref: Not HEAD or a branch: refs/heads/../../index"));
+        assertTrue(text.contains("error: update-ref: Not HEAD or a branch: refs/tags/v1"));
+        assertFalse(Files.exists(store.getIndexFile().toPath()));
+        assertFalse(Files.exists(tempDir.resolve(".opipop/refs/tags/v1")));
+    }
+
+    @Test
+    void testIoErrorsFailOnlyTheirRecord() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        String blob = HashUtils.sha1("a".getBytes());
+        // A directory where the branch file should be makes writing the ref fail
+        Files.createDirectories(tempDir.resolve(".opipop/refs/heads/one/inside"));
+
+        run("hash-object a.txt\nupdate-ref one " + blob + "\nflush\nhash-object a.txt\n");
+        String text = output.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("\nerror: flush: "), text);
+        assertTrue(text.endsWith(blob + "\n"), text);
+    }
+
+    @Test
+    void testHeadOnABranchMovesTheBranch() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        String a = HashUtils.sha1("a".getBytes());
+        String b = HashUtils.sha1("b".getBytes());
+
+        run("hash-object a.txt\nhash-object b.txt\nupdate-ref HEAD " + a + "\nflush\n");
+        assertEquals(a, store.getBranch("main"));
+        assertEquals("ref: refs/heads/main", Files.readString(store.getHeadFile().toPath()).trim());
+
+        output.reset();
+        run("update-ref HEAD " + b + " " + a + "\n");
+        assertFalse(output.toString(StandardCharsets.UTF_8).contains("error"), output.toString(StandardCharsets.UTF_8));
+        assertEquals(b, store.getBranch("main"));
+        assertEquals("ref: refs/heads/main", Files.readString(store.getHeadFile().toPath()).trim());
+    }
+
+    @Test
+    void testIndexChangesMadeDuringTheBatchAreKept() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        String b = HashUtils.sha1("b".getBytes());
+
+        // Another writer stages b.txt after the batch has staged a.txt, before it flushes
+        InputStream otherWriter = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                Index index = new Index(store.getIndexFile());
+                index.add("b.txt", b);
+                index.save();
+                return -1;
+            }
+        };
+        InputStream in = new SequenceInputStream(new SequenceInputStream(
+                new ByteArrayInputStream("add a.txt\n".getBytes(StandardCharsets.UTF_8)), otherWriter),
+                new ByteArrayInputStream("flush\n".getBytes(StandardCharsets.UTF_8)));
+        new BatchCommand(store, in).execute(new String[]{});
+
+        Index index = new Index(store.getIndexFile());
+        assertTrue(index.contains("a.txt"));
+        assertEquals(b, index.getHash("b.txt"));
+    }
+
+    @Test
+    void testRepeatedRefUpdateChecksTheQueuedValue() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        String a = HashUtils.sha1("a".getBytes());
+        String b = HashUtils.sha1("b".getBytes());
+
+        run("hash-object a.txt\nhash-object b.txt\n"
+                + "update-ref one " + a + "\nupdate-ref one " + b + " " + b + "\n"
+                + "update-ref two " + a + "\nupdate-ref two " + b + " " + a + "\n");
+
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains(
+                "error: update-ref: Ref refs/heads/one changed concurrently: expected " + b + " but found " + a));
+        assertEquals(a, store.getBranch("one"));
+        assertEquals(b, store.getBranch("two"));
+    }
+
+    private void run(String input, String... args) throws Exception {
+        new BatchCommand(store, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))).execute(args);
+    }
+}
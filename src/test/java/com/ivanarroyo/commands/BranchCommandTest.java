@@ -6,8 +6,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -99,4 +101,45 @@ class BranchCommandTest {
         String content = Files.readString(branchFile.toPath());
         assertEquals(commitHash, content);
     }
+
+    @Test
+    void testListGlobAcrossPackedAndLooseRefs() throws Exception {
+        File headsDir = new File(store.getRefsDir(), "heads");
+        Files.writeString(new File(headsDir, "main").toPath(), "commit123");
+        new File(headsDir, "feature").mkdirs();
+        Files.writeString(new File(headsDir, "feature/a").toPath(), "commit123");
+        Files.writeString(new File(headsDir, "feature/b").toPath(), "commit123");
+        Files.writeString(new File(headsDir, "fix").toPath(), "commit123");
+        store.packRefs();
+        new File(headsDir, "feature").mkdirs();
+        Files.writeString(new File(headsDir, "feature/c").toPath(), "commit456");
+
+        assertEquals("  feature/a\n  feature/b\n  feature/c\n", capture("--list", "feature/*"));
+        assertEquals("  fix\n* main\n", capture("--list", "f?x", "ma*"));
+        assertEquals("  feature/a\n  feature/b\n  feature/c\n  fix\n* main\n", capture());
+    }
+
+    @Test
+    void testCreateBranchThatOnlyExistsPacked() throws Exception {
+        File headsDir = new File(store.getRefsDir(), "heads");
+        Files.writeString(new File(headsDir, "main").toPath(), "commit123");
+        Files.writeString(new File(headsDir, "feature").toPath(), "commit123");
+        store.packRefs();
+        assertFalse(new File(headsDir, "feature").exists());
+
+        assertEquals("Branch 'feature' already exists\n", capture("feature"));
+        assertFalse(new File(headsDir, "feature").exists());
+    }
+
+    private String capture(String... args) throws Exception {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            branchCommand.execute(args);
+        } finally {
+            System.setOut(originalOut);
+        }
+        return output.toString();
+    }
 }
@@ -0,0 +1,97 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Commit;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Tree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatFileCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream output;
+    private String blob;
+    private String tree;
+    private String commit;
+    private byte[] commitBytes;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+
+        blob = store.writeObject("hello\n".getBytes());
+        Tree t = new Tree();
+        t.addEntry("hello.txt", blob);
+        tree = store.writeObject(t.serialize());
+        commitBytes = new Commit(tree, null, "first", "tester").serialize();
+        commit = store.writeObject(commitBytes);
+        store.updateHead(commit);
+
+        originalOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void testSingleObject() throws Exception {
+        run("", blob);
+        run("", "-t", "HEAD");
+        run("", "-s", tree);
+        run("", "-t", "nope");
+
+        assertEquals("hello\n" + "commit\n" + (blob.length() + 11) + "\n"
+                + "fatal: Not a valid object name nope\n", output());
+    }
+
+    @Test
+    void testBatchCheck() throws Exception {
+        run(blob + "\nmain\n\nnope\n", "--batch-check");
+
+        assertEquals(blob + " blob 6\n"
+                + commit + " commit " + commitBytes.length + "\n"
+                + " missing\n"
+                + "nope missing\n", output());
+    }
+
+    @Test
+    void testBatchStreamsContent() throws Exception {
+        run(blob + "\n" + commit + "\n", "--batch");
+
+        assertEquals(blob + " blob 6\nhello\n\n"
+                + commit + " commit " + commitBytes.length + "\n" + new String(commitBytes, StandardCharsets.UTF_8) + "\n",
+                output());
+    }
+
+    private void run(String input, String... args) throws Exception {
+        new CatFileCommand(store, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))).execute(args);
+    }
+
+    private String output() {
+        System.out.flush();
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -34,7 +34,7 @@ class CheckoutCommandTest {
         new File(store.getRefsDir(), "heads").mkdirs();
         Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
         
-        checkoutCommand = new CheckoutCommand(store, workingDir);
+        checkoutCommand = new CheckoutCommand(store);
     }
 
     @Test
@@ -138,6 +138,20 @@ class CheckoutCommandTest {
         assertFalse(existingFile.exists());
     }
 
+    @Test
+    void testCheckoutKeepsRepository() throws Exception {
+        Tree tree = new Tree();
+        String treeHash = store.writeObject(tree.serialize());
+        String commitHash = store.writeObject(new Commit(treeHash, null, "Empty commit", "test").serialize());
+        Files.writeString(new File(store.getRefsDir(), "heads/develop").toPath(), commitHash);
+
+        checkoutCommand.execute(new String[]{"develop"});
+
+        assertTrue(store.getObjectFile(commitHash).exists());
+        assertTrue(store.getObjectFile(treeHash).exists());
+        assertEquals(commitHash, store.getHeadCommit());
+    }
+
     @Test
     void testCheckoutUpdatesIndex() throws Exception {
         String content = "content";
@@ -0,0 +1,129 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Index;
+import com.ivanarroyo.core.ObjectStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class DiffCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private DiffCommand diffCommand;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream output;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        new InitCommand(store).execute(new String[]{});
+        diffCommand = new DiffCommand(store);
+
+        write("a.txt", "1\n2\n3\n");
+        write("b.txt", "b\n");
+        new AddCommand(store).execute(new String[]{"a.txt", "b.txt"});
+        new CommitCommand(store).execute(new String[]{"-m", "base"});
+
+        originalOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void testCleanTreeHasNoDiff() throws Exception {
+        diffCommand.execute(new String[]{});
+        assertEquals("", output.toString());
+    }
+
+    @Test
+    void testWorkTreeAgainstIndex() throws Exception {
+        write("a.txt", "1\ntwo\n3\n");
+        diffCommand.execute(new String[]{});
+
+        String diff = output.toString();
+        assertTrue(diff.startsWith("diff --git a/a.txt b/a.txt\n"));
+        assertTrue(diff.contains("-2\n+two\n"));
+        assertFalse(diff.contains("b.txt"));
+    }
+
+    @Test
+    void testCachedAgainstHead() throws Exception {
+        write("a.txt", "1\ntwo\n3\n");
+        diffCommand.execute(new String[]{"--cached"});
+        assertEquals("", output.toString());
+
+        new AddCommand(store).execute(new String[]{"a.txt"});
+        output.reset();
+        diffCommand.execute(new String[]{"--cached"});
+        assertTrue(output.toString().contains("+two\n"));
+    }
+
+    @Test
+    void testCommitAgainstCommit() throws Exception {
+        String first = store.getHeadCommit();
+        write("b.txt", "b\nmore\n");
+        Files.delete(tempDir.resolve("a.txt"));
+        new AddCommand(store).execute(new String[]{"b.txt"});
+        new CommitCommand(store).execute(new String[]{"-m", "second"});
+        String second = store.getHeadCommit();
+
+        output.reset();
+        diffCommand.execute(new String[]{"--histogram", first, second, "--", "b.txt"});
+
+        String diff = output.toString();
+        assertTrue(diff.contains("+more\n"));
+        assertFalse(diff.contains("a.txt"));
+    }
+
+    @Test
+    void testBinaryFile() throws Exception {
+        Files.write(tempDir.resolve("a.txt"), new byte[]{0, 1, 2});
+        diffCommand.execute(new String[]{});
+        assertTrue(output.toString().contains("Binary files a/a.txt and b/a.txt differ"));
+    }
+
+    @Test
+    void testStagedRenameIsDetected() throws Exception {
+        Files.move(tempDir.resolve("a.txt"), tempDir.resolve("c.txt"));
+        Index index = new Index(store.getIndexFile());
+        index.remove("a.txt");
+        index.save();
+        new AddCommand(store).execute(new String[]{"c.txt"});
+        output.reset();
+
+        diffCommand.execute(new String[]{"--cached"});
+        assertEquals("diff --git a/a.txt b/c.txt\nsimilarity index 100%\nrename from a.txt\nrename to c.txt\n",
+                output.toString());
+
+        output.reset();
+        diffCommand.execute(new String[]{"--cached", "--no-renames"});
+        assertTrue(output.toString().contains("deleted file\n"));
+        assertTrue(output.toString().contains("new file\n"));
+    }
+
+    @Test
+    void testUnknownRevision() throws Exception {
+        diffCommand.execute(new String[]{"nope"});
+        assertTrue(output.toString().contains("Unknown revision: nope"));
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.writeString(tempDir.resolve(path), content);
+    }
+}
@@ -1,5 +1,6 @@
 package com.ivanarroyo.commands;
 
+import com.ivanarroyo.core.Config;
 import com.ivanarroyo.core.ObjectStore;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
@@ -81,4 +82,27 @@ class InitCommandTest {
         assertDoesNotThrow(() -> initCommand.execute(new String[]{"extra", "args"}));
         assertTrue(store.getRepoDir().exists());
     }
+
+    @Test
+    void testInitRecordsDefaultHashAlgorithm() throws Exception {
+        initCommand.execute(new String[]{});
+
+        Config config = new Config(store.getConfigFile());
+        assertEquals("sha1", config.get("core.hashAlgorithm", null));
+    }
+
+    @Test
+    void testInitWithHashAlgorithm() throws Exception {
+        initCommand.execute(new String[]{"--hash=merkle-sha256"});
+
+        Config config = new Config(store.getConfigFile());
+        assertEquals("merkle-sha256", config.get("core.hashAlgorithm", null));
+        assertEquals("merkle-sha256", new ObjectStore(store.getRepoDir().getPath()).getHashAlgorithm().getName());
+    }
+
+    @Test
+    void testInitWithUnknownHashAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> initCommand.execute(new String[]{"--hash", "md5"}));
+        assertFalse(store.getRepoDir().exists());
+    }
 }
@@ -0,0 +1,162 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Commit;
+import com.ivanarroyo.core.CommitGraphWriter;
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Tree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class LogCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private LogCommand logCommand;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream output;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        logCommand = new LogCommand(store);
+
+        originalOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void testLogNoCommits() {
+        assertDoesNotThrow(() -> logCommand.execute(new String[]{}));
+        assertTrue(output.toString().contains("No commits yet"));
+    }
+
+    @Test
+    void testLogNewestFirst() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2"), "second", "bob", 2000);
+        String c3 = commit(c2, Map.of("a.txt", "3"), "third", "alice", 3000);
+        store.updateHead(c3);
+
+        logCommand.execute(new String[]{});
+
+        assertEquals(List.of(c3, c2, c1), printedCommits());
+        assertTrue(output.toString().contains("    second"));
+    }
+
+    @Test
+    void testLogLimit() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2"), "second", "alice", 2000);
+        store.updateHead(c2);
+
+        logCommand.execute(new String[]{"-n", "1"});
+
+        assertEquals(List.of(c2), printedCommits());
+    }
+
+    @Test
+    void testLogSinceUntilAndAuthor() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2"), "second", "bob", 2000);
+        String c3 = commit(c2, Map.of("a.txt", "3"), "third", "alice", 3000);
+        store.updateHead(c3);
+
+        logCommand.execute(new String[]{"--since=1500", "--until=2500"});
+        assertEquals(List.of(c2), printedCommits());
+
+        output.reset();
+        logCommand.execute(new String[]{"--author=alice"});
+        assertEquals(List.of(c3, c1), printedCommits());
+    }
+
+    @Test
+    void testLogPathLimited() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1", "dir/b.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2", "dir/b.txt", "1"), "second", "alice", 2000);
+        String c3 = commit(c2, Map.of("a.txt", "2", "dir/b.txt", "2"), "third", "alice", 3000);
+        store.updateHead(c3);
+
+        logCommand.execute(new String[]{"--", "a.txt"});
+        assertEquals(List.of(c2, c1), printedCommits());
+
+        output.reset();
+        logCommand.execute(new String[]{"--", "dir"});
+        assertEquals(List.of(c3, c1), printedCommits());
+    }
+
+    @Test
+    void testLogRevisionWithCommitGraph() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2"), "second", "alice", 2000);
+        store.updateHead(c2);
+        Files.writeString(new File(store.getRefsDir(), "heads/old").toPath(), c1);
+        new CommitGraphWriter(store).write();
+
+        logCommand.execute(new String[]{"old"});
+        assertEquals(List.of(c1), printedCommits());
+
+        output.reset();
+        logCommand.execute(new String[]{c2.substring(0, 7)});
+        assertEquals(List.of(c2, c1), printedCommits());
+    }
+
+    @Test
+    void testLogPathLimitedWithChangedPathFilters() throws Exception {
+        String c1 = commit(null, Map.of("a.txt", "1", "dir/b.txt", "1"), "first", "alice", 1000);
+        String c2 = commit(c1, Map.of("a.txt", "2", "dir/b.txt", "1"), "second", "alice", 2000);
+        String c3 = commit(c2, Map.of("a.txt", "2", "dir/b.txt", "2"), "third", "alice", 3000);
+        store.updateHead(c3);
+        new CommitGraphWriter(store).write();
+
+        logCommand.execute(new String[]{"--", "dir/b.txt"});
+        assertEquals(List.of(c3, c1), printedCommits());
+    }
+
+    private List<String> printedCommits() {
+        List<String> ids = new ArrayList<>();
+        Matcher matcher = Pattern.compile("^commit (\\w+)$", Pattern.MULTILINE).matcher(output.toString());
+        while (matcher.find()) {
+            ids.add(matcher.group(1));
+        }
+        return ids;
+    }
+
+    private String commit(String parent, Map<String, String> files, String message, String author, long time)
+            throws IOException {
+        Tree tree = new Tree();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            tree.addEntry(file.getKey(), store.writeObject(file.getValue().getBytes()));
+        }
+        String treeHash = store.writeObject(tree.serialize());
+        String data = new String(new Commit(treeHash, parent, message, author).serialize())
+                .replaceFirst("author " + author + " \\d+", "author " + author + " " + time);
+        return store.writeObject(data.getBytes());
+    }
+}
@@ -0,0 +1,176 @@
+package com.ivanarroyo.commands;
+
+import com.ivanarroyo.core.Commit;
+import com.ivanarroyo.core.Index;
+import com.ivanarroyo.core.ObjectStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class MergeCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private MergeCommand mergeCommand;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        new InitCommand(store).execute(new String[]{});
+        mergeCommand = new MergeCommand(store);
+
+        write("a.txt", "1\n2\n3\n4\n5\n");
+        write("b.txt", "b\n");
+        commitAll("base", "a.txt", "b.txt");
+        new BranchCommand(store).execute(new String[]{"feature"});
+    }
+
+    @Test
+    void testMergeNoArguments() {
+        assertDoesNotThrow(() -> mergeCommand.execute(new String[]{}));
+    }
+
+    @Test
+    void testAlreadyUpToDate() throws Exception {
+        String head = store.getHeadCommit();
+        mergeCommand.execute(new String[]{"feature"});
+        assertEquals(head, store.getHeadCommit());
+    }
+
+    @Test
+    void testFastForward() throws Exception {
+        checkout("feature");
+        write("c.txt", "new\n");
+        commitAll("add c", "c.txt");
+        String feature = store.getHeadCommit();
+        checkout("main");
+        assertFalse(tempDir.resolve("c.txt").toFile().exists());
+
+        mergeCommand.execute(new String[]{"feature"});
+
+        assertEquals(feature, store.getHeadCommit());
+        assertEquals("new\n", read("c.txt"));
+        assertTrue(new Index(store.getIndexFile()).contains("c.txt"));
+    }
+
+    @Test
+    void testCleanThreeWayMerge() throws Exception {
+        write("a.txt", "one\n2\n3\n4\n5\n");
+        commitAll("main edit", "a.txt");
+        String main = store.getHeadCommit();
+
+        checkout("feature");
+        write("a.txt", "1\n2\n3\n4\nfive\n");
+        write("c.txt", "feature file\n");
+        commitAll("feature edit", "a.txt", "c.txt");
+        String feature = store.getHeadCommit();
+        checkout("main");
+
+        mergeCommand.execute(new String[]{"feature"});
+
+        assertEquals("one\n2\n3\n4\nfive\n", read("a.txt"));
+        assertEquals("feature file\n", read("c.txt"));
+        Commit merge = Commit.deserialize(store.readObject(store.getHeadCommit()));
+        assertEquals(List.of(main, feature), merge.getParentHashes());
+        Index index = new Index(store.getIndexFile());
+        assertFalse(index.hasConflicts());
+        assertEquals(store.hashFile(tempDir.resolve("a.txt")), index.getHash("a.txt"));
+        assertFalse(store.getMergeHeadFile().exists());
+    }
+
+    @Test
+    void testConflictThenCommit() throws Exception {
+        write("a.txt", "1\n2\nmain\n4\n5\n");
+        commitAll("main edit", "a.txt");
+        String main = store.getHeadCommit();
+
+        checkout("feature");
+        write("a.txt", "1\n2\nfeature\n4\n5\n");
+        commitAll("feature edit", "a.txt");
+        String feature = store.getHeadCommit();
+        checkout("main");
+
+        mergeCommand.execute(new String[]{"feature"});
+
+        assertEquals(main, store.getHeadCommit());
+        assertEquals("1\n2\n<<<<<<< HEAD\nmain\n=======\nfeature\n>>>>>>> feature\n4\n5\n", read("a.txt"));
+        Index index = new Index(store.getIndexFile());
+        assertTrue(index.hasConflicts());
+        assertEquals(3, index.getConflicts().get("a.txt").length);
+        assertEquals(feature, Files.readString(store.getMergeHeadFile().toPath()).trim());
+
+        new CommitCommand(store).execute(new String[]{"-m", "too early"});
+        assertEquals(main, store.getHeadCommit());
+
+        write("a.txt", "1\n2\nboth\n4\n5\n");
+        commitAll("resolve", "a.txt");
+        Commit merge = Commit.deserialize(store.readObject(store.getHeadCommit()));
+        assertEquals(List.of(main, feature), merge.getParentHashes());
+        assertFalse(store.getMergeHeadFile().exists());
+    }
+
+    @Test
+    void testModifyDeleteConflict() throws Exception {
+        Files.delete(tempDir.resolve("b.txt"));
+        Index index = new Index(store.getIndexFile());
+        index.remove("b.txt");
+        index.save();
+        new CommitCommand(store).execute(new String[]{"-m", "delete b"});
+
+        checkout("feature");
+        write("b.txt", "changed\n");
+        commitAll("change b", "b.txt");
+        checkout("main");
+
+        mergeCommand.execute(new String[]{"feature"});
+
+        String[] stages = new Index(store.getIndexFile()).getConflicts().get("b.txt");
+        assertNotNull(stages);
+        assertNull(stages[1]);
+        assertEquals("changed\n", read("b.txt"));
+    }
+
+    @Test
+    void testRefusesToOverwriteLocalChanges() throws Exception {
+        write("b.txt", "main b\n");
+        commitAll("main edit", "b.txt");
+
+        checkout("feature");
+        write("a.txt", "feature a\n");
+        commitAll("feature edit", "a.txt");
+        checkout("main");
+
+        write("a.txt", "local edit\n");
+        String head = store.getHeadCommit();
+        mergeCommand.execute(new String[]{"feature"});
+
+        assertEquals(head, store.getHeadCommit());
+        assertEquals("local edit\n", read("a.txt"));
+    }
+
+    private void checkout(String branch) throws Exception {
+        new CheckoutCommand(store).execute(new String[]{branch});
+    }
+
+    private void commitAll(String message, String... files) throws Exception {
+        new AddCommand(store).execute(files);
+        new CommitCommand(store).execute(new String[]{"-m", message});
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.writeString(tempDir.resolve(path), content);
+    }
+
+    private String read(String path) throws IOException {
+        return Files.readString(tempDir.resolve(path));
+    }
+}
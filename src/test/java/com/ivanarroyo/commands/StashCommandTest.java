@@ -128,4 +128,38 @@ class StashCommandTest {
         // Mensaje esperado: "No changes to stash"
         assertFalse(store.getStashFile().exists());
     }
+
+    @Test
+    void testEntriesPopInReverseOrder() throws Exception {
+        File file1 = new File(workingDir, "file1.txt");
+        Files.writeString(file1.toPath(), "first");
+        stashCommand.execute(new String[]{});
+        Files.writeString(file1.toPath(), "second");
+        stashCommand.execute(new String[]{"push", "-m", "second try"});
+        assertEquals("original", Files.readString(file1.toPath()));
+
+        stashCommand.execute(new String[]{"pop"});
+        assertEquals("second", Files.readString(file1.toPath()));
+        Files.writeString(file1.toPath(), "original");
+        stashCommand.execute(new String[]{"pop"});
+        assertEquals("first", Files.readString(file1.toPath()));
+        assertFalse(store.getStashFile().exists());
+    }
+
+    @Test
+    void testIncludeUntrackedAndDeletedFiles() throws Exception {
+        File file1 = new File(workingDir, "file1.txt");
+        File untracked = new File(workingDir, "notes/todo.txt");
+        untracked.getParentFile().mkdirs();
+        Files.writeString(untracked.toPath(), "todo");
+        Files.delete(file1.toPath());
+
+        stashCommand.execute(new String[]{"-u"});
+        assertEquals("original", Files.readString(file1.toPath()));
+        assertFalse(untracked.exists());
+
+        stashCommand.execute(new String[]{"pop"});
+        assertFalse(file1.exists());
+        assertEquals("todo", Files.readString(untracked.toPath()));
+    }
 }
@@ -10,8 +10,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -146,4 +148,38 @@ class StatusCommandTest {
         
         assertDoesNotThrow(() -> statusCommand.execute(new String[]{}));
     }
+
+    @Test
+    void testStatusShowsStagedRenameAndDeletion() throws Exception {
+        Files.writeString(new File(workingDir, "old.txt").toPath(), "one\ntwo\nthree\n");
+        Files.writeString(new File(workingDir, "gone.txt").toPath(), "gone\n");
+        new AddCommand(store).execute(new String[]{"old.txt", "gone.txt"});
+        new CommitCommand(store).execute(new String[]{"-m", "initial"});
+
+        Files.move(new File(workingDir, "old.txt").toPath(), new File(workingDir, "new.txt").toPath());
+        Files.delete(new File(workingDir, "gone.txt").toPath());
+        Index index = new Index(store.getIndexFile());
+        index.remove("old.txt");
+        index.remove("gone.txt");
+        index.save();
+        new AddCommand(store).execute(new String[]{"new.txt"});
+
+        String output = captureStatus();
+        assertTrue(output.contains("renamed: old.txt -> new.txt"), output);
+        assertTrue(output.contains("deleted: gone.txt"), output);
+        assertFalse(output.contains("new file: new.txt"), output);
+        assertFalse(output.contains("Untracked"), output);
+    }
+
+    private String captureStatus() throws Exception {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            statusCommand.execute(new String[]{});
+        } finally {
+            System.setOut(originalOut);
+        }
+        return output.toString();
+    }
 }
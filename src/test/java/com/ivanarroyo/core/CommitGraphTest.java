@@ -0,0 +1,177 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+class CommitGraphTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private String treeHash;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        treeHash = store.writeObject(new Tree().serialize());
+    }
+
+    @Test
+    void testNoGraphFile() throws IOException {
+        assertNull(CommitGraph.open(store));
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        String c1 = commit(null, "first");
+        String c2 = commit(c1, "second");
+        String c3 = commit(c2, "third");
+        setBranch("main", c3);
+
+        assertEquals(3, new CommitGraphWriter(store).write());
+        CommitGraph graph = CommitGraph.open(store);
+        assertNotNull(graph);
+        assertEquals(3, graph.size());
+
+        int p1 = graph.find(c1);
+        int p2 = graph.find(c2);
+        int p3 = graph.find(c3);
+        assertEquals(c3, graph.getId(p3));
+        assertEquals(treeHash, graph.getTreeId(p3));
+        assertEquals(List.of(p2), graph.getParents(p3));
+        assertTrue(graph.getParents(p1).isEmpty());
+        assertEquals(1, graph.getGeneration(p1));
+        assertEquals(2, graph.getGeneration(p2));
+        assertEquals(3, graph.getGeneration(p3));
+        assertEquals(-1, graph.find("0000000000000000000000000000000000000000"));
+        assertEquals(-1, graph.find("not-a-hash"));
+    }
+
+    @Test
+    void testRewriteAddsNewCommits() throws IOException {
+        String c1 = commit(null, "first");
+        setBranch("main", c1);
+        new CommitGraphWriter(store).write();
+
+        String c2 = commit(c1, "second");
+        setBranch("feature", c2);
+        assertEquals(2, new CommitGraphWriter(store).write());
+
+        CommitGraph graph = CommitGraph.open(store);
+        assertEquals(2, graph.getGeneration(graph.find(c2)));
+    }
+
+    @Test
+    void testInvalidBranchIsSkipped() throws IOException {
+        String c1 = commit(null, "first");
+        setBranch("main", c1);
+        setBranch("broken", "deadbeef");
+
+        assertEquals(1, new CommitGraphWriter(store).write());
+    }
+
+    @Test
+    void testHistoryWithAndWithoutGraph() throws IOException {
+        String base = commit(null, "base");
+        String main1 = commit(base, "main 1");
+        String main2 = commit(main1, "main 2");
+        String feature = commit(base, "feature");
+        setBranch("main", main2);
+        setBranch("feature", feature);
+
+        assertHistory(new History(store), base, main2, feature);
+        new CommitGraphWriter(store).write();
+        History history = new History(store);
+        assertTrue(history.hasCommitGraph());
+        assertHistory(history, base, main2, feature);
+    }
+
+    @Test
+    void testHistoryFallsBackForCommitsNewerThanGraph() throws IOException {
+        String c1 = commit(null, "first");
+        setBranch("main", c1);
+        new CommitGraphWriter(store).write();
+        String c2 = commit(c1, "second");
+
+        History history = new History(store);
+        assertEquals(History.GENERATION_INFINITY, history.getGeneration(c2));
+        assertTrue(history.isAncestor(c1, c2));
+        assertArrayEquals(new int[]{1, 0}, history.aheadBehind(c2, c1));
+    }
+
+    @Test
+    void testChangedPathFilters() throws IOException {
+        String root = commitFiles(null, Map.of("README", "1", "config/prod.yaml", "1"));
+        String docs = commitFiles(root, Map.of("README", "2", "config/prod.yaml", "1"));
+        String config = commitFiles(docs, Map.of("README", "2", "config/prod.yaml", "2"));
+        setBranch("main", config);
+        new CommitGraphWriter(store).write();
+
+        History history = new History(store);
+        assertTrue(history.maybeChanged(config, "config/prod.yaml"));
+        assertTrue(history.maybeChanged(config, "config"));
+        assertTrue(history.maybeChanged(docs, "README"));
+        assertTrue(history.maybeChanged(root, "config/prod.yaml"));
+        assertFalse(history.maybeChanged(docs, "config/prod.yaml"));
+        assertFalse(history.maybeChanged(docs, "config"));
+    }
+
+    @Test
+    void testChangedPathFiltersIgnoredWhenStale() throws IOException {
+        String c1 = commitFiles(null, Map.of("a.txt", "1"));
+        setBranch("main", c1);
+        new CommitGraphWriter(store).write();
+        byte[] filters = Files.readAllBytes(store.getChangedPathsFile().toPath());
+
+        String c2 = commitFiles(c1, Map.of("a.txt", "2"));
+        setBranch("main", c2);
+        new CommitGraphWriter(store).write();
+        CommitGraph graph = CommitGraph.open(store);
+        assertNotNull(ChangedPathFilters.open(store, graph));
+
+        Files.write(store.getChangedPathsFile().toPath(), filters);
+        assertNull(ChangedPathFilters.open(store, graph));
+        assertTrue(new History(store).maybeChanged(c2, "b.txt"));
+    }
+
+    private String commitFiles(String parent, Map<String, String> files) throws IOException {
+        Tree tree = new Tree();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            tree.addEntry(file.getKey(), store.writeObject(file.getValue().getBytes()));
+        }
+        String treeId = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeId, parent, "commit", "tester").serialize());
+    }
+
+    private void assertHistory(History history, String base, String main, String feature) throws IOException {
+        assertTrue(history.isAncestor(base, main));
+        assertTrue(history.isAncestor(base, feature));
+        assertFalse(history.isAncestor(feature, main));
+        assertFalse(history.isAncestor(main, base));
+        assertArrayEquals(new int[]{2, 1}, history.aheadBehind(main, feature));
+        assertArrayEquals(new int[]{0, 2}, history.aheadBehind(base, main));
+        assertArrayEquals(new int[]{0, 0}, history.aheadBehind(main, main));
+    }
+
+    private String commit(String parent, String message) throws IOException {
+        return store.writeObject(new Commit(treeHash, parent, message, "tester").serialize());
+    }
+
+    private void setBranch(String name, String hash) throws IOException {
+        Files.writeString(new File(store.getRefsDir(), "heads/" + name).toPath(), hash);
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+
 class CommitTest {
 
     private String treeHash;
@@ -118,4 +120,32 @@ class CommitTest {
         assertTrue(commit.getTimestamp() >= before);
         assertTrue(commit.getTimestamp() <= after);
     }
+
+    @Test
+    void testMergeCommitRoundTrip() {
+        List<String> parents = List.of(parentHash, "second456", "third789");
+        Commit original = Commit.withParents(treeHash, parents, message, author);
+        String content = new String(original.serialize());
+        assertTrue(content.contains("parent second456\nparent third789\n"));
+
+        Commit deserialized = Commit.deserialize(original.serialize());
+        assertEquals(parents, deserialized.getParentHashes());
+        assertEquals(parentHash, deserialized.getParentHash());
+    }
+
+    @Test
+    void testRootCommitHasNoParents() {
+        Commit commit = Commit.deserialize(new Commit(treeHash, null, message, author).serialize());
+        assertTrue(commit.getParentHashes().isEmpty());
+    }
+
+    @Test
+    void testAuthorWithSpacesRoundTrips() {
+        Commit commit = Commit.withParents(treeHash, List.of(), message, "Jane Doe <jane@example.com>", 1234);
+
+        Commit restored = Commit.deserialize(commit.serialize());
+
+        assertEquals("Jane Doe <jane@example.com>", restored.getAuthor());
+        assertEquals(1234, restored.getTimestamp());
+    }
 }
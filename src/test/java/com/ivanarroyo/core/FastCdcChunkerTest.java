@@ -0,0 +1,97 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+class FastCdcChunkerTest {
+
+    private final FastCdcChunker chunker = new FastCdcChunker(256, 1024, 4096);
+
+    @Test
+    void testInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(2048, 1024, 4096));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(0, 1024, 4096));
+    }
+
+    @Test
+    void testSmallInputIsSingleChunk() {
+        byte[] data = new byte[100];
+        assertEquals(100, chunker.cut(data, 0, data.length));
+    }
+
+    @Test
+    void testChunkSizesWithinBounds() {
+        byte[] data = randomBytes(1, 200_000);
+        List<Integer> sizes = split(data);
+
+        int total = 0;
+        for (int i = 0; i < sizes.size(); i++) {
+            int size = sizes.get(i);
+            assertTrue(size <= 4096);
+            if (i < sizes.size() - 1) {
+                assertTrue(size > 256);
+            }
+            total += size;
+        }
+        assertEquals(data.length, total);
+    }
+
+    @Test
+    void testDeterministic() {
+        byte[] data = randomBytes(7, 50_000);
+        assertEquals(split(data), split(data));
+    }
+
+    @Test
+    void testInsertionOnlyChangesNearbyChunks() {
+        byte[] original = randomBytes(3, 200_000);
+        byte[] modified = new byte[original.length + 10];
+        System.arraycopy(original, 0, modified, 0, 100_000);
+        System.arraycopy(original, 100_000, modified, 100_010, original.length - 100_000);
+
+        Set<String> before = chunkSet(original);
+        List<String> after = chunkList(modified);
+        long changed = after.stream().filter(c -> !before.contains(c)).count();
+
+        assertTrue(changed <= 3, "expected only chunks near the edit to change, got " + changed);
+    }
+
+    private List<Integer> split(byte[] data) {
+        List<Integer> sizes = new ArrayList<>();
+        int offset = 0;
+        while (offset < data.length) {
+            int size = chunker.cut(data, offset, data.length - offset);
+            sizes.add(size);
+            offset += size;
+        }
+        return sizes;
+    }
+
+    private List<String> chunkList(byte[] data) {
+        List<String> chunks = new ArrayList<>();
+        int offset = 0;
+        for (int size : split(data)) {
+            byte[] chunk = new byte[size];
+            System.arraycopy(data, offset, chunk, 0, size);
+            chunks.add(com.ivanarroyo.util.HashUtils.sha1(chunk));
+            offset += size;
+        }
+        return chunks;
+    }
+
+    private Set<String> chunkSet(byte[] data) {
+        return new HashSet<>(chunkList(data));
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
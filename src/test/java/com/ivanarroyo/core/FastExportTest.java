@@ -0,0 +1,92 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastExportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore source;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source = repository("source");
+    }
+
+    @Test
+    void testRoundTripRecreatesTheSameCommits() throws Exception {
+        String a = source.writeObject("a\n".getBytes());
+        String b = source.writeObject("b\n".getBytes());
+        String base = commit(List.of(), "base", "a.txt", a);
+        String main = commit(List.of(base), "main\n\nwith a body\n", "a.txt", b, "sub/b.txt", b);
+        String topic = commit(List.of(base), "topic", "c.txt", a);
+        String merge = commit(List.of(main, topic), "merge", "a.txt", b, "c.txt", a);
+        String root = commit(List.of(), "unrelated", "x.txt", a);
+        Files.writeString(new File(source.getRefsDir(), "heads/main").toPath(), merge);
+        Files.writeString(new File(source.getRefsDir(), "heads/topic").toPath(), topic);
+        Files.writeString(new File(source.getRefsDir(), "heads/other").toPath(), root);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assertEquals(5, new FastExport(source).run(List.of(), stream));
+        String text = stream.toString(StandardCharsets.UTF_8);
+        // Each blob is written once, however many commits use it
+        assertEquals(2, text.split("blob\nmark :", -1).length - 1);
+        assertTrue(text.endsWith("done\n"));
+
+        ObjectStore target = repository("target");
+        FastImport.Result result = new FastImport(target).run(new ByteArrayInputStream(stream.toByteArray()));
+        assertEquals(5, result.getCommits());
+        assertEquals(3, result.getRefs());
+        assertEquals(merge, target.getBranch("main"));
+        assertEquals(topic, target.getBranch("topic"));
+        assertEquals(root, target.getBranch("other"));
+        assertArrayEquals(source.readObject(main), target.readObject(main));
+    }
+
+    @Test
+    void testExportsOnlyTheNamedBranch() throws Exception {
+        String blob = source.writeObject("x".getBytes());
+        String first = commit(List.of(), "first", "x.txt", blob);
+        String second = commit(List.of(first), "second", "x.txt", blob, "y.txt", blob);
+        Files.writeString(new File(source.getRefsDir(), "heads/main").toPath(), first);
+        Files.writeString(new File(source.getRefsDir(), "heads/topic").toPath(), second);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assertEquals(1, new FastExport(source).run(List.of("main"), stream));
+        assertFalse(stream.toString(StandardCharsets.UTF_8).contains("refs/heads/topic"));
+        assertThrows(IllegalArgumentException.class, () -> new FastExport(source).run(List.of("nope"), stream));
+    }
+
+    private ObjectStore repository(String name) throws IOException {
+        ObjectStore store = new ObjectStore(tempDir.resolve(name).resolve(".opipop").toString());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        return store;
+    }
+
+    // Files are given as path, blob pairs
+    private String commit(List<String> parents, String message, String... files) throws IOException {
+        Tree tree = new Tree();
+        for (int i = 0; i < files.length; i += 2) {
+            tree.addEntry(files[i], files[i + 1]);
+        }
+        String treeId = source.writeObject(tree.serialize());
+        return source.writeObject(Commit.withParents(treeId, parents, message, "A. Tester", 1700000000L + parents.size())
+                .serialize());
+    }
+}
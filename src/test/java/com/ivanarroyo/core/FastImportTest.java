@@ -0,0 +1,173 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastImportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testImportsHistoryIntoAPack() throws Exception {
+        FastImport.Result result = run("blob\nmark :1\ndata 6\nhello\n\n"
+                + "blob\nmark :2\ndata 4\nbye\n"
+                + "# comments and blank lines are skipped\n\n"
+                + "commit refs/heads/main\nmark :3\nauthor Jane Doe <jane@example.com> 1700000000 +0100\n"
+                + "data 5\nfirst\nM 100644 :1 dir/hello.txt\nM 644 :2 bye.txt\n\n"
+                + "commit refs/heads/main\nmark :4\nauthor Jane Doe <jane@example.com> 1700000100 +0100\n"
+                + "data 6\nsecond\nD bye.txt\nM 644 inline new file.txt\ndata 3\nnew\n\n"
+                + "done\n");
+
+        assertEquals(2, result.getBlobs());
+        assertEquals(2, result.getCommits());
+        assertEquals(1, result.getPacks());
+        assertEquals(1, result.getRefs());
+        assertEquals(List.of(), store.getLooseObjectIds());
+
+        String head = store.getBranch("main");
+        Commit second = Commit.deserialize(store.readObject(head));
+        assertEquals("second", second.getMessage());
+        assertEquals("Jane Doe <jane@example.com>", second.getAuthor());
+        assertEquals(1700000100, second.getTimestamp());
+        Map<String, String> files = Tree.deserialize(store.readObject(second.getTreeHash())).getEntries();
+        assertEquals(2, files.size());
+        assertEquals("hello\n", new String(store.readObject(files.get("dir/hello.txt")), StandardCharsets.UTF_8));
+        assertEquals("new", new String(store.readObject(files.get("new file.txt")), StandardCharsets.UTF_8));
+
+        Commit first = Commit.deserialize(store.readObject(second.getParentHash()));
+        assertEquals("first", first.getMessage());
+        assertTrue(first.getParentHashes().isEmpty());
+        assertEquals(head, new Reflog(store, "refs/heads/main").get(0).getNewId());
+    }
+
+    @Test
+    void testBranchesMergesAndResets() throws Exception {
+        run("blob\nmark :1\ndata 1\na\n"
+                + "commit refs/heads/main\nmark :2\nauthor t 1\ndata 4\nbase\nM 644 :1 a.txt\n\n"
+                + "commit refs/heads/topic\nmark :3\nauthor t 2\ndata 5\ntopic\nfrom :2\nM 644 :1 b.txt\n\n"
+                + "commit refs/heads/main\nmark :4\nauthor t 3\ndata 5\nmerge\nfrom :2\nmerge :3\nM 644 :1 b.txt\n\n"
+                + "reset refs/heads/orphan\n"
+                + "commit refs/heads/orphan\nauthor t 4\ndata 6\norphan\nM 644 :1 c.txt\n\n");
+
+        Commit merge = Commit.deserialize(store.readObject(store.getBranch("main")));
+        Commit topic = Commit.deserialize(store.readObject(store.getBranch("topic")));
+        assertEquals(List.of(topic.getParentHash(), store.getBranch("topic")), merge.getParentHashes());
+        assertEquals(Map.of("a.txt", "ignored", "b.txt", "ignored").keySet(),
+                Tree.deserialize(store.readObject(merge.getTreeHash())).getEntries().keySet());
+
+        Commit orphan = Commit.deserialize(store.readObject(store.getBranch("orphan")));
+        assertTrue(orphan.getParentHashes().isEmpty());
+        assertEquals(Map.of("c.txt", "ignored").keySet(),
+                Tree.deserialize(store.readObject(orphan.getTreeHash())).getEntries().keySet());
+    }
+
+    @Test
+    void testMarksCarryOverBetweenImports() throws Exception {
+        Path marks = tempDir.resolve("marks");
+        FastImport first = new FastImport(store);
+        first.run(stream("blob\nmark :7\ndata 2\nhi\ncommit refs/heads/main\nmark :8\ndata 1\nx\nM 644 :7 hi.txt\n\n"));
+        first.exportMarks(marks);
+        String head = store.getBranch("main");
+        assertTrue(Files.readString(marks).contains(":8 " + head));
+
+        FastImport second = new FastImport(store);
+        second.importMarks(marks);
+        second.run(stream("commit refs/heads/main\ndata 1\ny\nfrom :8\nM 644 :7 again.txt\n\n"));
+        Commit commit = Commit.deserialize(store.readObject(store.getBranch("main")));
+        assertEquals(head, commit.getParentHash());
+        assertEquals(2, Tree.deserialize(store.readObject(commit.getTreeHash())).getEntries().size());
+    }
+
+    @Test
+    void testChunksLargeBlobsAndManifestLookalikes() throws Exception {
+        Files.writeString(tempDir.resolve(".opipop/config"),
+                "chunking.threshold=1000\nchunking.minSize=64\nchunking.avgSize=256\nchunking.maxSize=512\n");
+        String large = "0123456789abcdef".repeat(100);
+        String lookalike = "\0opipop-chunked\nnot a manifest";
+        run("blob\nmark :1\ndata " + large.length() + "\n" + large + "\n"
+                + "blob\nmark :2\ndata " + lookalike.length() + "\n" + lookalike + "\n"
+                + "blob\nmark :3\ndata 5\nsmall\n"
+                + "commit refs/heads/main\ndata 1\nx\nM 644 :1 large\nM 644 :2 lookalike\nM 644 :3 small\n\n");
+
+        Map<String, String> files = Tree.deserialize(store.readObject(
+                Commit.deserialize(store.readObject(store.getBranch("main"))).getTreeHash())).getEntries();
+        assertTrue(store.isChunked(files.get("large")));
+        assertTrue(store.isChunked(files.get("lookalike")));
+        assertFalse(store.isChunked(files.get("small")));
+        assertEquals(large, new String(store.readObject(files.get("large")), StandardCharsets.UTF_8));
+        assertEquals(lookalike, new String(store.readObject(files.get("lookalike")), StandardCharsets.UTF_8));
+        assertEquals(store.hash(lookalike.getBytes(StandardCharsets.UTF_8)), files.get("lookalike"));
+    }
+
+    @Test
+    void testBadInputLeavesRefsAlone() throws Exception {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> run("commit refs/heads/main\ndata 1\nx\nM 644 :99 a.txt\n\n"));
+        assertTrue(e.getMessage().contains("unknown mark: :99"));
+        assertThrows(IllegalArgumentException.class, () -> run("commit HEAD\ndata 1\nx\n"));
+        assertThrows(IllegalArgumentException.class, () -> run("frobnicate\n"));
+        assertNull(store.getBranch("main"));
+        assertTrue(store.getPacks().isEmpty());
+    }
+
+    @Test
+    void testRefMovedDuringImportIsNotOverwritten() throws Exception {
+        run("commit refs/heads/main\nmark :1\ndata 1\nx\n\n");
+        String before = store.getBranch("main");
+
+        // Another writer moves main once the whole stream has been read
+        FastImport fastImport = new FastImport(store);
+        ByteArrayInputStream in = new ByteArrayInputStream(
+                "commit refs/heads/main\ndata 1\ny\n\n".getBytes(StandardCharsets.UTF_8)) {
+            private boolean moved;
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                if (!moved && n < 0) {
+                    moved = true;
+                    try {
+                        store.updateHead(store.writeObject(new Commit(
+                                store.writeObject(new Tree().serialize()), before, "other", "t").serialize()));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return n;
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> fastImport.run(in));
+        assertEquals("other", Commit.deserialize(store.readObject(store.getBranch("main"))).getMessage());
+    }
+
+    private FastImport.Result run(String input) throws IOException {
+        return new FastImport(store).run(stream(input));
+    }
+
+    private static ByteArrayInputStream stream(String input) {
+        return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,132 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+class FsckTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testCleanRepository() throws Exception {
+        String blob = store.writeObject("hello\n".getBytes());
+        String commit = commit(null, blob);
+        store.updateHead(commit);
+
+        Fsck.Result result = new Fsck(store, 4).run();
+
+        assertFalse(result.hasErrors());
+        assertEquals(3, result.getObjectCount());
+        assertTrue(result.getDangling().isEmpty());
+        assertTrue(result.getGarbage().isEmpty());
+    }
+
+    @Test
+    void testTruncatedObjectIsCorrupt() throws Exception {
+        String blob = store.writeObject("some longer content\n".getBytes());
+        store.updateHead(commit(null, blob));
+        Files.write(store.getObjectFile(blob).toPath(), "some lo".getBytes());
+
+        Fsck.Result result = new Fsck(store, 2).run();
+
+        assertEquals(Set.of(blob), result.getCorrupt());
+        assertTrue(result.hasErrors());
+    }
+
+    @Test
+    void testMissingAndDanglingObjects() throws Exception {
+        String blob = store.writeObject("a\n".getBytes());
+        String first = commit(null, blob);
+        String second = commit(first, store.writeObject("b\n".getBytes()));
+        store.updateHead(second);
+        String orphan = store.writeObject("nobody points here\n".getBytes());
+        Files.delete(store.getObjectFile(blob).toPath());
+        Files.writeString(store.getObjectsDir().toPath().resolve("opipop-obj-123.tmp"), "partial");
+
+        Fsck.Result result = new Fsck(store, 2).run();
+
+        assertEquals(Map.of(blob, "blob"), result.getMissing());
+        assertEquals(Set.of(orphan), result.getDangling());
+        assertEquals(Set.of("opipop-obj-123.tmp"), result.getGarbage());
+    }
+
+    @Test
+    void testStashKeepsBlobsReachable() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        String stashed = store.writeObject("stashed\n".getBytes());
+        new Stash(store).push(commit(null, stashed), "WIP on main: a");
+
+        assertTrue(new Fsck(store, 1).run().getDangling().isEmpty());
+    }
+
+    @Test
+    void testOldFormatStashIsReadWithoutChangingIt() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        String stashed = store.writeObject("stashed\n".getBytes());
+        String legacy = stashed + " a.txt END\n";
+        Files.writeString(store.getStashFile().toPath(), legacy);
+        int objects = store.getObjectsDir().list().length;
+
+        Fsck.Result result = new Fsck(store, 2).run();
+
+        assertFalse(result.hasErrors());
+        assertTrue(result.getDangling().isEmpty());
+        assertEquals(legacy, Files.readString(store.getStashFile().toPath()));
+        assertEquals(objects, store.getObjectsDir().list().length);
+        assertFalse(new Reflog(store, Stash.REF).getFile().exists());
+    }
+
+    @Test
+    void testChunkedBlobs() throws Exception {
+        store.getConfig().set("chunking.threshold", "1");
+        store.getConfig().set("chunking.minSize", "64");
+        store.getConfig().set("chunking.avgSize", "256");
+        store.getConfig().set("chunking.maxSize", "1024");
+        byte[] content = new byte[8192];
+        new Random(5).nextBytes(content);
+        Path source = tempDir.resolve("big.bin");
+        Files.write(source, content);
+        String blob = store.writeBlob(source);
+        store.updateHead(commit(null, blob));
+        assertTrue(store.getChunkIds(blob).size() > 1);
+
+        Fsck.Result clean = new Fsck(store, 4).run();
+        assertFalse(clean.hasErrors());
+        assertTrue(clean.getDangling().isEmpty());
+
+        String chunk = store.getChunkIds(blob).get(0);
+        Files.delete(store.getObjectFile(chunk).toPath());
+        Fsck.Result broken = new Fsck(store, 4).run();
+        assertTrue(broken.getCorrupt().contains(blob));
+        assertEquals("chunk", broken.getMissing().get(chunk));
+    }
+
+    private String commit(String parent, String blob) throws IOException {
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", blob);
+        String treeHash = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeHash, parent, "message", "tester").serialize());
+    }
+}
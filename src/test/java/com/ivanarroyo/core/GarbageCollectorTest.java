@@ -0,0 +1,173 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+class GarbageCollectorTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testPrunesOnlyUnreachableObjects() throws Exception {
+        String blob = store.writeObject("kept\n".getBytes());
+        String first = commit(null, blob);
+        String second = commit(first, store.writeObject("kept too\n".getBytes()));
+        store.updateHead(second);
+        String orphan = store.writeObject("orphan\n".getBytes());
+
+        GarbageCollector.Result result = new GarbageCollector(store, 4, 0, false).run();
+
+        assertEquals(1, result.getPruned());
+        assertEquals(6, result.getReachable());
+        assertFalse(store.hasObject(orphan));
+        assertTrue(store.hasObject(blob));
+        assertTrue(store.hasObject(first));
+    }
+
+    @Test
+    void testGracePeriodKeepsRecentObjectsAndWhatTheyReference() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        // An unreachable commit still being written by another command, pointing at old objects
+        String oldBlob = store.writeObject("old\n".getBytes());
+        Tree tree = new Tree();
+        tree.addEntry("old.txt", oldBlob);
+        String oldTree = store.writeObject(tree.serialize());
+        age(oldBlob, oldTree);
+        String pending = store.writeObject(new Commit(oldTree, null, "pending", "tester").serialize());
+        String stale = store.writeObject("stale\n".getBytes());
+        age(stale);
+
+        GarbageCollector.Result result = new GarbageCollector(store, 2, HOUR, false).run();
+
+        assertEquals(3, result.getKept());
+        assertEquals(1, result.getPruned());
+        assertTrue(store.hasObject(pending));
+        assertTrue(store.hasObject(oldTree));
+        assertTrue(store.hasObject(oldBlob));
+        assertFalse(store.hasObject(stale));
+    }
+
+    @Test
+    void testRewritingAnObjectRefreshesIt() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        String blob = store.writeObject("reused\n".getBytes());
+        age(blob);
+
+        store.writeObject("reused\n".getBytes());
+        new GarbageCollector(store, 2, HOUR, false).run();
+
+        assertTrue(store.hasObject(blob));
+    }
+
+    @Test
+    void testIndexAndStashAreRoots() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        String staged = store.writeObject("staged\n".getBytes());
+        String conflicted = store.writeObject("theirs\n".getBytes());
+        Index index = new Index(store.getIndexFile());
+        index.add("staged.txt", staged);
+        index.addConflict("c.txt", null, staged, conflicted);
+        index.save();
+        String stashed = store.writeObject("stashed\n".getBytes());
+        String older = store.writeObject("stashed earlier\n".getBytes());
+        Stash stash = new Stash(store);
+        stash.push(commit(null, older), "WIP on main: older");
+        stash.push(commit(null, stashed), "WIP on main: newer");
+
+        GarbageCollector.Result result = new GarbageCollector(store, 2, 0, false).run();
+
+        assertEquals(0, result.getPruned());
+        assertTrue(store.hasObject(staged));
+        assertTrue(store.hasObject(conflicted));
+        assertTrue(store.hasObject(stashed));
+        assertTrue(store.hasObject(older));
+    }
+
+    @Test
+    void testRepackMovesSurvivorsIntoAPack() throws Exception {
+        store.getConfig().set("chunking.threshold", "1");
+        store.getConfig().set("chunking.minSize", "64");
+        store.getConfig().set("chunking.avgSize", "256");
+        store.getConfig().set("chunking.maxSize", "1024");
+        byte[] content = new byte[8192];
+        new Random(9).nextBytes(content);
+        Path source = tempDir.resolve("big.bin");
+        Files.write(source, content);
+        String big = store.writeBlob(source);
+        String first = commit(null, big);
+        store.updateHead(first);
+        String orphan = store.writeObject("orphan\n".getBytes());
+
+        GarbageCollector.Result result = new GarbageCollector(store, 4, 0, true).run();
+
+        assertEquals(1, result.getPacks());
+        assertEquals(result.getReachable(), result.getPacked());
+        assertTrue(store.getLooseObjectIds().isEmpty());
+        assertFalse(store.hasObject(orphan));
+        assertArrayEquals(content, store.readObject(big));
+        Path copy = tempDir.resolve("copy.bin");
+        store.copyObject(big, copy);
+        assertArrayEquals(content, Files.readAllBytes(copy));
+        assertEquals(first, store.resolveRevision(first.substring(0, 10)));
+        assertFalse(new Fsck(store, 2).run().hasErrors());
+
+        // A second repack replaces the first pack and drops what became unreachable
+        String second = commit(first, store.writeObject("next\n".getBytes()));
+        store.updateHead(second);
+        result = new GarbageCollector(store, 4, 0, true).run();
+        assertEquals(1, store.getPacks().size());
+        assertEquals(result.getReachable(), store.getPacks().get(0).size());
+        assertTrue(store.getLooseObjectIds().isEmpty());
+        assertEquals(first, Commit.deserialize(store.readObject(second)).getParentHash());
+    }
+
+    @Test
+    void testRemovesStaleTempFiles() throws Exception {
+        store.updateHead(commit(null, store.writeObject("a\n".getBytes())));
+        Path stale = store.getObjectsDir().toPath().resolve("opipop-obj-1.tmp");
+        Path fresh = store.getObjectsDir().toPath().resolve("opipop-obj-2.tmp");
+        Files.writeString(stale, "partial");
+        Files.writeString(fresh, "partial");
+        stale.toFile().setLastModified(System.currentTimeMillis() - 2 * HOUR);
+
+        GarbageCollector.Result result = new GarbageCollector(store, 1, HOUR, false).run();
+
+        assertEquals(1, result.getRemovedFiles());
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(fresh));
+    }
+
+    private void age(String... ids) {
+        for (String id : ids) {
+            store.getObjectFile(id).setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        }
+    }
+
+    private String commit(String parent, String blob) throws IOException {
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", blob);
+        String treeHash = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeHash, parent, "message", "tester").serialize());
+    }
+}
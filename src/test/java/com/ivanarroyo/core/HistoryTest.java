@@ -0,0 +1,159 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+class HistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private String treeHash;
+    private long clock = 1000;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        treeHash = store.writeObject(new Tree().serialize());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testMergeBaseOfDivergedBranches(boolean withGraph) throws IOException {
+        String base = commit("base");
+        for (int i = 0; i < 5; i++) {
+            base = commit("base " + i, base);
+        }
+        String main = base;
+        String feature = base;
+        for (int i = 0; i < 20; i++) {
+            main = commit("main " + i, main);
+            feature = commit("feature " + i, feature);
+        }
+        setBranches(main, feature, withGraph);
+
+        History history = new History(store);
+        assertEquals(List.of(base), history.mergeBases(main, feature));
+        assertEquals(List.of(base), history.mergeBases(feature, main));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testMergeBaseWhenOneIsAncestor(boolean withGraph) throws IOException {
+        String c1 = commit("one");
+        String c2 = commit("two", c1);
+        String c3 = commit("three", c2);
+        setBranches(c3, c1, withGraph);
+
+        History history = new History(store);
+        assertEquals(List.of(c1), history.mergeBases(c1, c3));
+        assertEquals(List.of(c1), history.mergeBases(c3, c1));
+        assertEquals(List.of(c3), history.mergeBases(c3, c3));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testMergeBaseAfterMerge(boolean withGraph) throws IOException {
+        String base = commit("base");
+        String main1 = commit("main 1", base);
+        String feature1 = commit("feature 1", base);
+        String merge = commit("merge feature", main1, feature1);
+        String main2 = commit("main 2", merge);
+        String feature2 = commit("feature 2", feature1);
+        setBranches(main2, feature2, withGraph);
+
+        History history = new History(store);
+        assertEquals(List.of(feature1), history.mergeBases(main2, feature2));
+        assertEquals(List.of(main1, feature1), history.getParents(merge));
+        assertTrue(history.isAncestor(feature1, main2));
+        assertFalse(history.isAncestor(feature2, main2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testCrissCrossMergeHasTwoBases(boolean withGraph) throws IOException {
+        String base = commit("base");
+        String a1 = commit("a1", base);
+        String b1 = commit("b1", base);
+        String a2 = commit("a2", a1, b1);
+        String b2 = commit("b2", b1, a1);
+        setBranches(a2, b2, withGraph);
+
+        History history = new History(store);
+        assertEquals(new HashSet<>(Arrays.asList(a1, b1)), new HashSet<>(history.mergeBases(a2, b2)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testMergeBaseAcrossWideHistory(boolean withGraph) throws IOException {
+        // Many side branches reach the same commits, which must each be queued only once
+        String base = commit("base");
+        String main = commit("main", base);
+        for (int i = 0; i < 40; i++) {
+            String side = commit("side " + i, base);
+            main = commit("merge " + i, main, side);
+        }
+        String feature = commit("feature", base);
+        setBranches(main, feature, withGraph);
+
+        assertEquals(List.of(base), new History(store).mergeBases(main, feature));
+        assertEquals(List.of(base), new History(store).mergeBases(feature, main));
+    }
+
+    @Test
+    void testUnrelatedHistories() throws IOException {
+        String a = commit("a");
+        String b = commit("b");
+        assertTrue(new History(store).mergeBases(a, b).isEmpty());
+    }
+
+    @Test
+    void testOctopusMergeInCommitGraph() throws IOException {
+        String base = commit("base");
+        String p1 = commit("p1", base);
+        String p2 = commit("p2", base);
+        String p3 = commit("p3", base);
+        String octopus = commit("octopus", p1, p2, p3);
+        setBranches(octopus, p1, true);
+
+        CommitGraph graph = CommitGraph.open(store);
+        List<Integer> parents = graph.getParents(graph.find(octopus));
+        assertEquals(3, parents.size());
+        assertEquals(p1, graph.getId(parents.get(0)));
+        assertEquals(p2, graph.getId(parents.get(1)));
+        assertEquals(p3, graph.getId(parents.get(2)));
+        assertEquals(3, graph.getGeneration(graph.find(octopus)));
+        assertEquals(List.of(p1, p2, p3), new History(store).getParents(octopus));
+    }
+
+    private String commit(String message, String... parents) throws IOException {
+        String data = new String(Commit.withParents(treeHash, Arrays.asList(parents), message, "tester").serialize())
+                .replaceFirst("author tester \\d+", "author tester " + clock++);
+        return store.writeObject(data.getBytes());
+    }
+
+    private void setBranches(String main, String feature, boolean withGraph) throws IOException {
+        Files.writeString(new File(store.getRefsDir(), "heads/main").toPath(), main);
+        Files.writeString(new File(store.getRefsDir(), "heads/feature").toPath(), feature);
+        if (withGraph) {
+            new CommitGraphWriter(store).write();
+        }
+    }
+}
@@ -136,4 +136,28 @@ class IndexTest {
         Index loadedIndex = new Index(indexFile);
         assertTrue(loadedIndex.getEntries().isEmpty());
     }
+
+    @Test
+    void testConflictStagesSaveAndLoad() throws IOException {
+        index.add("clean.txt", "hash0");
+        index.add("both.txt", "old");
+        index.addConflict("both.txt", "base1", "ours2", "theirs3");
+        index.addConflict("deleted.txt", "base1", null, "theirs3");
+        index.save();
+
+        Index loaded = new Index(indexFile);
+        assertTrue(loaded.hasConflicts());
+        assertEquals(Map.of("clean.txt", "hash0"), loaded.getEntries());
+        assertArrayEquals(new String[]{"base1", "ours2", "theirs3"}, loaded.getConflicts().get("both.txt"));
+        assertArrayEquals(new String[]{"base1", null, "theirs3"}, loaded.getConflicts().get("deleted.txt"));
+    }
+
+    @Test
+    void testAddResolvesConflict() {
+        index.addConflict("file.txt", "a", "b", "c");
+        index.add("file.txt", "resolved");
+
+        assertFalse(index.hasConflicts());
+        assertEquals("resolved", index.getHash("file.txt"));
+    }
 }
@@ -0,0 +1,108 @@
+package com.ivanarroyo.core;
+
+import com.ivanarroyo.util.IoThrottle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+class MaintenanceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private Maintenance maintenance;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        maintenance = new Maintenance(store);
+    }
+
+    @Test
+    void testChecksOnlyEveryIntervalCommands() throws Exception {
+        store.getConfig().set("maintenance.checkInterval", "3");
+        store.getConfig().set("gc.auto", "2");
+        store.writeObject("a\n".getBytes());
+        store.writeObject("b\n".getBytes());
+
+        assertTrue(maintenance.afterCommand().isEmpty());
+        assertTrue(maintenance.afterCommand().isEmpty());
+        assertEquals(List.of(Maintenance.Task.LOOSE_OBJECTS), maintenance.afterCommand());
+        // The counter starts over after a check
+        assertTrue(maintenance.afterCommand().isEmpty());
+    }
+
+    @Test
+    void testLooseObjectCountStopsAtLimit() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            store.writeObject(("object " + i).getBytes());
+        }
+        Files.writeString(store.getObjectsDir().toPath().resolve("opipop-obj-1.tmp"), "partial");
+
+        assertEquals(5, maintenance.countLooseObjects(5));
+        assertEquals(20, maintenance.countLooseObjects(100));
+    }
+
+    @Test
+    void testStaleCommitGraphIsDue() throws Exception {
+        store.updateHead(commit(null, "a\n"));
+        new CommitGraphWriter(store).write();
+        store.getConfig().set("gc.auto", "0");
+        assertTrue(maintenance.due().isEmpty());
+
+        store.updateHead(commit(store.getHeadCommit(), "b\n"));
+        store.getCommitGraphFile().setLastModified(System.currentTimeMillis() - 60_000);
+
+        assertEquals(List.of(Maintenance.Task.COMMIT_GRAPH), maintenance.due());
+    }
+
+    @Test
+    void testLooseObjectsTaskPacksIncrementally() throws Exception {
+        String first = commit(null, "a\n");
+        store.updateHead(first);
+        new GarbageCollector(store, 1, 0, true).run();
+        assertEquals(1, store.getPacks().size());
+        String second = commit(first, "b\n");
+        store.updateHead(second);
+
+        List<Maintenance.Task> done = maintenance.run(List.of(Maintenance.Task.LOOSE_OBJECTS), IoThrottle.UNLIMITED);
+
+        assertEquals(List.of(Maintenance.Task.LOOSE_OBJECTS), done);
+        assertTrue(store.getLooseObjectIds().isEmpty());
+        // The existing pack is left alone and the new objects get a pack of their own
+        assertEquals(2, store.getPacks().size());
+        assertEquals(first, Commit.deserialize(store.readObject(second)).getParentHash());
+    }
+
+    @Test
+    void testSkipsWhileAnotherMaintenanceHoldsTheLock() throws Exception {
+        try (FileChannel channel = FileChannel.open(maintenance.getLockFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            assertNull(maintenance.run(List.of(Maintenance.Task.GC), IoThrottle.UNLIMITED));
+        }
+        assertNotNull(maintenance.run(List.of(Maintenance.Task.GC), IoThrottle.UNLIMITED));
+    }
+
+    private String commit(String parent, String content) throws IOException {
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", store.writeObject(content.getBytes()));
+        String treeHash = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeHash, parent, "message " + content.trim(), "tester").serialize());
+    }
+}
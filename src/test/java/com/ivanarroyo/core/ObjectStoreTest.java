@@ -1,5 +1,6 @@
 package com.ivanarroyo.core;
 
+import com.ivanarroyo.util.HashUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.io.TempDir;
@@ -7,8 +8,10 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Random;
 
 class ObjectStoreTest {
 
@@ -165,4 +168,173 @@ class ObjectStoreTest {
         String content = Files.readString(store.getHeadFile().toPath());
         assertEquals("ref: refs/heads/feature", content);
     }
+
+    @Test
+    void testWriteObjectReturnsHash() throws IOException {
+        byte[] data = "object data".getBytes();
+        String hash = store.writeObject(data);
+
+        assertEquals(HashUtils.sha1(data), hash);
+        assertTrue(store.hasObject(hash));
+        assertArrayEquals(data, store.readObject(hash));
+    }
+
+    @Test
+    void testWriteBlobStreamsFile() throws IOException {
+        byte[] data = new byte[3 * HashUtils.BUFFER_SIZE + 17];
+        new Random(42).nextBytes(data);
+        Path source = tempDir.resolve("large.bin");
+        Files.write(source, data);
+
+        String hash = store.writeBlob(source);
+
+        assertEquals(HashUtils.sha1(data), hash);
+        assertArrayEquals(data, Files.readAllBytes(store.getObjectFile(hash).toPath()));
+    }
+
+    @Test
+    void testWriteBlobExistingObjectLeavesNoTempFiles() throws IOException {
+        Path source = tempDir.resolve("file.txt");
+        Files.writeString(source, "same content");
+
+        String first = store.writeBlob(source);
+        String second = store.writeBlob(source);
+
+        assertEquals(first, second);
+        assertEquals(1, store.getObjectsDir().list().length);
+    }
+
+    @Test
+    void testCopyObject() throws IOException {
+        String hash = store.writeObject("restored".getBytes());
+        Path target = tempDir.resolve("dir/sub/restored.txt");
+
+        store.copyObject(hash, target);
+
+        assertEquals("restored", Files.readString(target));
+    }
+
+    @Test
+    void testWriteBlobAboveThresholdIsChunked() throws IOException {
+        configureSmallChunks();
+        byte[] data = new byte[50_000];
+        new Random(9).nextBytes(data);
+        Path source = tempDir.resolve("big.bin");
+        Files.write(source, data);
+
+        String hash = store.writeBlob(source);
+
+        assertEquals(HashUtils.sha1(data), hash);
+        assertTrue(ChunkManifest.isManifest(store.getObjectFile(hash).toPath()));
+        assertTrue(store.isChunked(hash));
+        assertFalse(store.isChunked(store.getChunkIds(hash).get(0)));
+        assertArrayEquals(data, store.readObject(hash));
+
+        Path target = tempDir.resolve("out/big.bin");
+        store.copyObject(hash, target);
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    void testChunkedBlobReusesUnchangedChunks() throws IOException {
+        configureSmallChunks();
+        byte[] data = new byte[100_000];
+        new Random(11).nextBytes(data);
+        Path source = tempDir.resolve("dump.bin");
+        Files.write(source, data);
+        store.writeBlob(source);
+        int objectsBefore = store.getObjectsDir().list().length;
+
+        byte[] appended = new byte[data.length + 500];
+        System.arraycopy(data, 0, appended, 0, data.length);
+        Files.write(source, appended);
+        String hash = store.writeBlob(source);
+
+        int newObjects = store.getObjectsDir().list().length - objectsBefore;
+        assertTrue(newObjects <= 3, "only the tail chunk and manifest should be new, got " + newObjects);
+        assertArrayEquals(appended, store.readObject(hash));
+    }
+
+    @Test
+    void testContentLookingLikeManifestRoundTrips() throws IOException {
+        byte[] data = "\0opipop-chunked\nsize 3\nnot really".getBytes();
+        Path source = tempDir.resolve("tricky.bin");
+        Files.write(source, data);
+
+        String hash = store.writeBlob(source);
+
+        assertEquals(HashUtils.sha1(data), hash);
+        assertArrayEquals(data, store.readObject(hash));
+    }
+
+    @Test
+    void testConfiguredHashAlgorithm() throws IOException {
+        repoDir.mkdirs();
+        store.getConfig().set("core.hashAlgorithm", "merkle-sha256");
+        Path source = tempDir.resolve("file.bin");
+        Files.writeString(source, "merkle content");
+
+        String hash = store.writeBlob(source);
+
+        assertEquals(64, hash.length());
+        assertEquals(store.hashFile(source), hash);
+        assertEquals(hash, store.hash("merkle content".getBytes()));
+    }
+
+    @Test
+    void testGetObjectInfo() throws IOException {
+        repoDir.mkdirs();
+        String blob = store.writeObject("plain text\n".getBytes());
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", blob);
+        String treeHash = store.writeObject(tree.serialize());
+        byte[] commit = new Commit(treeHash, null, "message", "tester").serialize();
+        String commitHash = store.writeObject(commit);
+
+        assertEquals(ObjectInfo.BLOB, store.getObjectInfo(blob).getType());
+        assertEquals(11, store.getObjectInfo(blob).getSize());
+        assertEquals(ObjectInfo.TREE, store.getObjectInfo(treeHash).getType());
+        assertEquals(ObjectInfo.COMMIT, store.getObjectInfo(commitHash).getType());
+        assertEquals(commit.length, store.getObjectInfo(commitHash).getSize());
+        assertNull(store.getObjectInfo(HashUtils.sha1("absent".getBytes())));
+
+        configureSmallChunks();
+        byte[] data = new byte[20_000];
+        new Random(3).nextBytes(data);
+        Path source = tempDir.resolve("big.bin");
+        Files.write(source, data);
+        ObjectInfo chunked = store.getObjectInfo(store.writeBlob(source));
+        assertEquals(ObjectInfo.BLOB, chunked.getType());
+        assertEquals(data.length, chunked.getSize());
+    }
+
+    @Test
+    void testPackedObjectsAreStreamedFromThePack() throws Exception {
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        String blob = store.writeObject("packed\n".getBytes());
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", blob);
+        String treeHash = store.writeObject(tree.serialize());
+        store.updateHead(store.writeObject(new Commit(treeHash, null, "message", "tester").serialize()));
+
+        new GarbageCollector(store, 1, 0, true).run();
+
+        assertFalse(store.getObjectFile(blob).exists());
+        assertEquals(ObjectInfo.TREE, store.getObjectInfo(treeHash).getType());
+        assertEquals(7, store.getObjectInfo(blob).getSize());
+        try (InputStream in = store.openObject(blob)) {
+            assertEquals("packed\n", new String(in.readAllBytes()));
+        }
+    }
+
+    private void configureSmallChunks() throws IOException {
+        repoDir.mkdirs();
+        Config config = store.getConfig();
+        config.set("chunking.threshold", "1024");
+        config.set("chunking.minSize", "256");
+        config.set("chunking.avgSize", "1024");
+        config.set("chunking.maxSize", "4096");
+        config.save();
+    }
 }
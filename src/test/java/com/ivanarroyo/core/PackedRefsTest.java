@@ -0,0 +1,87 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+class PackedRefsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testLookupAndPrefixScan() throws Exception {
+        Map<String, String> refs = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            refs.put(String.format("ci/build-%05d", i), id(i));
+        }
+        refs.put("main", id(-1));
+        refs.put("feature/x", id(-2));
+        refs.put("feature/y", id(-3));
+        refs.put("café", id(-4));
+        PackedRefs.write(store.getPackedRefsFile(), refs);
+
+        PackedRefs packed = PackedRefs.open(store.getPackedRefsFile());
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            assertEquals(ref.getValue(), packed.get(ref.getKey()), ref.getKey());
+        }
+        assertNull(packed.get("ci/build"));
+        assertNull(packed.get("zzz"));
+        assertNull(packed.get(""));
+
+        SortedMap<String, String> features = packed.list("feature/");
+        assertEquals(Map.of("feature/x", id(-2), "feature/y", id(-3)), features);
+        assertEquals(1000, packed.list("ci/build-01").size());
+        assertEquals(refs.size(), packed.list("").size());
+        assertTrue(packed.list("nope").isEmpty());
+    }
+
+    @Test
+    void testMissingFileIsEmpty() throws Exception {
+        PackedRefs packed = PackedRefs.open(store.getPackedRefsFile());
+        assertNull(packed.get("main"));
+        assertTrue(packed.list("").isEmpty());
+    }
+
+    @Test
+    void testPackRefsKeepsLooseOverrides() throws Exception {
+        File headsDir = new File(store.getRefsDir(), "heads");
+        Files.writeString(new File(headsDir, "main").toPath(), id(1));
+        new File(headsDir, "team/a").getParentFile().mkdirs();
+        Files.writeString(new File(headsDir, "team/a").toPath(), id(2));
+
+        assertEquals(2, store.packRefs());
+        assertFalse(new File(headsDir, "team").exists());
+        assertEquals(id(1), store.getHeadCommit());
+        assertEquals(id(2), store.resolveRevision("team/a"));
+
+        // Moving a branch writes a loose ref, which wins over the packed one
+        store.updateHead(id(3));
+        assertEquals(id(3), store.getHeadCommit());
+        assertEquals(Map.of("main", id(3), "team/a", id(2)), store.getBranches());
+        assertEquals(Map.of("team/a", id(2)), store.getBranches("team/"));
+    }
+
+    private static String id(int i) {
+        return String.format("%040x", i & 0xffffffffL);
+    }
+}
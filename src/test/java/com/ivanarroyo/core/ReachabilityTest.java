@@ -0,0 +1,129 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+class ReachabilityTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testNoBitmaps() throws IOException {
+        String c1 = commit(null, 1);
+        String c2 = commit(c1, 2);
+
+        Reachability reachability = new Reachability(store);
+        assertFalse(reachability.hasBitmaps());
+        Reachability.ObjectSet all = reachability.reachableFrom(List.of(c2));
+        assertEquals(2, all.countCommits());
+        // 2 commits, 2 trees, 3 distinct blobs (shared.txt is the same in both)
+        assertEquals(7, all.countObjects());
+        assertEquals(List.of(c1), reachability.reachableFrom(List.of(c1)).getCommitIds());
+    }
+
+    @Test
+    void testBitmapsMatchWalk() throws IOException {
+        String main = null;
+        for (int i = 0; i < 250; i++) {
+            main = commit(main, i);
+        }
+        String feature = main;
+        for (int i = 250; i < 260; i++) {
+            feature = commit(feature, i);
+        }
+        setBranch("main", main);
+        setBranch("feature", feature);
+
+        Reachability walk = new Reachability(store);
+        int walkedObjects = walk.reachableFrom(List.of(feature)).countObjects();
+        Reachability.ObjectSet walkedOnlyFeature = walk.reachableFrom(List.of(feature))
+                .andNot(walk.reachableFrom(List.of(main)));
+
+        assertTrue(new ReachabilityBitmapWriter(store).write() >= 2);
+        ReachabilityBitmaps file = ReachabilityBitmaps.open(store);
+        assertNotNull(file.getBitmap(main));
+        assertNotNull(file.getBitmap(feature));
+        assertEquals(260, file.getCommits().cardinality());
+
+        Reachability bitmaps = new Reachability(store);
+        assertTrue(bitmaps.hasBitmaps());
+        assertEquals(walkedObjects, bitmaps.reachableFrom(List.of(feature)).countObjects());
+        Reachability.ObjectSet onlyFeature = bitmaps.reachableFrom(List.of(feature))
+                .andNot(bitmaps.reachableFrom(List.of(main)));
+        assertEquals(10, onlyFeature.countCommits());
+        assertEquals(walkedOnlyFeature.getObjectIds(), onlyFeature.getObjectIds());
+        assertEquals(walkedOnlyFeature.getCommitIds(), onlyFeature.getCommitIds());
+    }
+
+    @Test
+    void testCommitsNewerThanBitmaps() throws IOException {
+        String c1 = commit(null, 1);
+        setBranch("main", c1);
+        new ReachabilityBitmapWriter(store).write();
+
+        String c2 = commit(c1, 2);
+        Reachability reachability = new Reachability(store);
+        Reachability.ObjectSet all = reachability.reachableFrom(List.of(c2));
+        assertEquals(2, all.countCommits());
+        assertEquals(7, all.countObjects());
+        assertEquals(List.of(c2), all.andNot(reachability.reachableFrom(List.of(c1))).getCommitIds());
+    }
+
+    @Test
+    void testChunksAreReachable() throws IOException {
+        Config config = store.getConfig();
+        config.set("chunking.threshold", "1024");
+        config.set("chunking.minSize", "256");
+        config.set("chunking.avgSize", "1024");
+        config.set("chunking.maxSize", "4096");
+        Path file = tempDir.resolve("big.bin");
+        byte[] data = new byte[20000];
+        new Random(1).nextBytes(data);
+        Files.write(file, data);
+        String blob = store.writeBlob(file);
+        List<String> chunks = store.getChunkIds(blob);
+        assertTrue(chunks.size() > 1);
+
+        Tree tree = new Tree();
+        tree.addEntry("big.bin", blob);
+        String treeId = store.writeObject(tree.serialize());
+        String commit = store.writeObject(new Commit(treeId, null, "big", "tester").serialize());
+
+        List<String> ids = new Reachability(store).reachableFrom(List.of(commit)).getObjectIds();
+        assertTrue(ids.containsAll(chunks));
+        assertTrue(ids.contains(blob));
+    }
+
+    private String commit(String parent, int n) throws IOException {
+        Tree tree = new Tree();
+        tree.addEntry("counter.txt", store.writeObject(("count " + n).getBytes()));
+        tree.addEntry("shared.txt", store.writeObject("shared".getBytes()));
+        String treeId = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeId, parent, "commit " + n, "tester").serialize());
+    }
+
+    private void setBranch(String name, String hash) throws IOException {
+        Files.writeString(new File(store.getRefsDir(), "heads/" + name).toPath(), hash);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class RefTransactionTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private File headsDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        headsDir = new File(store.getRefsDir(), "heads");
+        headsDir.mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testUpdatesSeveralRefsTogether() throws Exception {
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/main", "aaa", null)
+                    .update("refs/heads/topic/x", "bbb", null)
+                    .update("MERGE_HEAD", "ccc")
+                    .commit();
+        }
+
+        assertEquals("aaa", store.getBranch("main"));
+        assertEquals("bbb", store.getBranch("topic/x"));
+        assertEquals("ccc", Files.readString(store.getMergeHeadFile().toPath()));
+        assertEquals(List.of("main", "topic"), sortedNames(headsDir));
+    }
+
+    @Test
+    void testStaleExpectedValueChangesNothing() throws Exception {
+        store.updateHead("aaa");
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/other", "ccc", null)
+                    .update("refs/heads/main", "bbb", "not-aaa");
+            IllegalStateException e = assertThrows(IllegalStateException.class, transaction::commit);
+            assertTrue(e.getMessage().contains("changed concurrently"), e.getMessage());
+        }
+
+        assertEquals("aaa", store.getHeadCommit());
+        assertNull(store.getBranch("other"));
+        assertEquals(List.of("main"), sortedNames(headsDir));
+    }
+
+    @Test
+    void testHeldLockBlocksOtherWriters() throws Exception {
+        store.updateHead("aaa");
+        try (RefTransaction first = new RefTransaction(store)) {
+            first.update("refs/heads/main", "bbb", "aaa").prepare();
+            RefTransaction second = new RefTransaction(store).update("refs/heads/main", "ccc");
+            assertThrows(IllegalStateException.class, second::commit);
+            first.commit();
+        }
+        assertEquals("bbb", store.getHeadCommit());
+        assertFalse(new File(headsDir, "main.lock").exists());
+    }
+
+    @Test
+    void testClosingWithoutCommitReleasesLocks() throws Exception {
+        store.updateHead("aaa");
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/main", "bbb").prepare();
+            assertTrue(new File(headsDir, "main.lock").exists());
+            assertEquals(List.of("main"), new ArrayList<>(store.getBranches().keySet()));
+        }
+        assertFalse(new File(headsDir, "main.lock").exists());
+        assertEquals("aaa", store.getHeadCommit());
+    }
+
+    @Test
+    void testCompareAndSwapOnPackedBranchAndDelete() throws Exception {
+        store.updateHead("aaa");
+        store.packRefs();
+        Files.writeString(store.getMergeHeadFile().toPath(), "ccc");
+
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/main", "bbb", "aaa").delete("MERGE_HEAD", "ccc").commit();
+        }
+
+        assertEquals("bbb", store.getHeadCommit());
+        assertFalse(store.getMergeHeadFile().exists());
+        assertThrows(IllegalArgumentException.class, () -> new RefTransaction(store).update("refs/heads/x.lock", "a"));
+    }
+
+    @Test
+    void testConcurrentCommitsNeverLoseAnUpdate() throws Exception {
+        store.updateHead("0");
+        int threads = 4;
+        int perThread = 25;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    int wins = 0;
+                    while (wins < perThread) {
+                        // Each successful update increments the counter stored in the branch
+                        String old = store.getHeadCommit();
+                        try {
+                            store.updateHead(Integer.toString(Integer.parseInt(old) + 1), old);
+                            wins++;
+                        } catch (IllegalStateException e) {
+                            Thread.yield();
+                        }
+                    }
+                    return wins;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(Integer.toString(threads * perThread), store.getHeadCommit());
+    }
+
+    private static List<String> sortedNames(File dir) {
+        List<String> names = new ArrayList<>(List.of(dir.list()));
+        names.sort(null);
+        return names;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+class ReflogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        store.getObjectsDir().mkdirs();
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+    }
+
+    @Test
+    void testBranchUpdatesAreLoggedForBranchAndHead() throws Exception {
+        String first = commit(null, "a\n");
+        String second = commit(first, "b\n");
+        store.updateHead(first, null, "commit (initial): a");
+        store.updateHead(second, first, "commit: b");
+
+        Reflog main = new Reflog(store, "refs/heads/main");
+        assertEquals(2, main.size());
+        assertEquals(Reflog.RECORD_SIZE * 2, main.getFile().length());
+        Reflog.Entry latest = main.getRecent(0);
+        assertEquals(first, latest.getOldId());
+        assertEquals(second, latest.getNewId());
+        assertEquals("commit: b", latest.getMessage());
+        assertNull(main.getRecent(1).getOldId());
+        assertNull(main.getRecent(2));
+        assertEquals(2, new Reflog(store, "HEAD").size());
+
+        assertEquals(second, store.resolveRevision("main@{0}"));
+        assertEquals(first, store.resolveRevision("main@{1}"));
+        assertEquals(first, store.resolveRevision("HEAD@{1}"));
+        assertEquals(first, store.resolveRevision("@{1}"));
+        assertNull(store.resolveRevision("main@{2}"));
+        assertNull(store.resolveRevision("main@{nonsense}"));
+    }
+
+    @Test
+    void testSwitchingBranchesIsLoggedAsCommitIds() throws Exception {
+        String first = commit(null, "a\n");
+        store.updateHead(first);
+        String other = commit(first, "b\n");
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/topic", other, null).commit();
+        }
+        store.setCurrentBranch("topic");
+
+        Reflog.Entry entry = new Reflog(store, "HEAD").getRecent(0);
+        assertEquals(first, entry.getOldId());
+        assertEquals(other, entry.getNewId());
+    }
+
+    @Test
+    void testLookupByTime() throws Exception {
+        Reflog reflog = new Reflog(store, "refs/heads/main");
+        for (int i = 0; i < 1000; i++) {
+            reflog.append(i == 0 ? null : id(i - 1), id(i), 1_000_000L + i * 1000L, "entry " + i);
+        }
+
+        assertEquals(id(500), reflog.getValueAt(1_000_000L + 500_000L));
+        assertEquals(id(500), reflog.getValueAt(1_000_000L + 500_999L));
+        assertEquals(id(999), reflog.getValueAt(Long.MAX_VALUE));
+        assertNull(reflog.getValueAt(0));
+        assertEquals("entry 998", reflog.getRecent(1).getMessage());
+    }
+
+    @Test
+    void testParseTime() {
+        long now = 10_000_000_000L;
+        assertEquals(now - 3 * 3_600_000L, Reflog.parseTime("3 hours ago", now));
+        assertEquals(now - 2 * 86_400_000L, Reflog.parseTime("2.days.ago", now));
+        assertEquals(LocalDate.of(2024, 5, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                Reflog.parseTime("2024-05-01", now));
+        assertEquals(-1, Reflog.parseTime("whenever", now));
+        assertEquals(-1, Reflog.parseTime("3 fortnights ago", now));
+    }
+
+    @Test
+    void testTornRecordIsDroppedOnNextAppend() throws Exception {
+        Reflog reflog = new Reflog(store, "refs/heads/main");
+        reflog.append(null, id(1), 1000, "one");
+        try (FileChannel channel = FileChannel.open(reflog.getFile().toPath(), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap("partial record".getBytes()));
+        }
+        assertEquals(1, reflog.size());
+
+        reflog.append(id(1), id(2), 2000, "two");
+
+        assertEquals(2, reflog.size());
+        assertEquals(Reflog.RECORD_SIZE * 2, reflog.getFile().length());
+        assertEquals("two", reflog.getRecent(0).getMessage());
+    }
+
+    @Test
+    void testLongMessagesAreCutToFit() throws Exception {
+        Reflog reflog = new Reflog(store, "HEAD");
+        reflog.append(null, id(1), 1000, "é".repeat(200) + "\nsecond line");
+
+        String message = reflog.getRecent(0).getMessage();
+        assertTrue(message.startsWith("ééé"));
+        assertEquals(Reflog.RECORD_SIZE, reflog.getFile().length());
+    }
+
+    @Test
+    void testReflogKeepsOldCommitsFromGc() throws Exception {
+        String first = commit(null, "a\n");
+        store.updateHead(first);
+        String second = commit(null, "b\n");
+        store.updateHead(second);
+
+        new GarbageCollector(store, 2, 0, false).run();
+
+        assertTrue(store.hasObject(first));
+        assertTrue(new Fsck(store, 2).run().getDangling().isEmpty());
+    }
+
+    private String commit(String parent, String content) throws IOException {
+        Tree tree = new Tree();
+        tree.addEntry("file.txt", store.writeObject(content.getBytes()));
+        String treeHash = store.writeObject(tree.serialize());
+        return store.writeObject(new Commit(treeHash, parent, "message " + content.trim(), "tester").serialize());
+    }
+
+    private static String id(int i) {
+        return String.format("%040x", i);
+    }
+}
@@ -0,0 +1,142 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ReftableTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        store.getConfig().set("refs.backend", "reftable");
+        store.getConfig().save();
+    }
+
+    @Test
+    void testLookupAndPrefixScanInLargeTable() throws Exception {
+        Map<String, String> refs = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            refs.put(String.format("ci/%03d/build-%05d", i % 100, i), id(i));
+        }
+        refs.put("main", id(-1));
+        refs.put("café", id(-2));
+        refs.put("gone", null);
+        Path file = tempDir.resolve("large.ref");
+        Reftable.write(file, refs, Reftable.DEFAULT_BLOCK_SIZE);
+
+        Reftable table = Reftable.open(file);
+        assertEquals(refs.size(), table.size());
+        for (int i = 0; i < 100_000; i += 997) {
+            String name = String.format("ci/%03d/build-%05d", i % 100, i);
+            assertEquals(id(i), table.get(name).getValue(), name);
+        }
+        assertEquals(id(-1), table.get("main").getValue());
+        assertEquals(id(-2), table.get("café").getValue());
+        assertNull(table.get("gone").getValue());
+        assertNull(table.get("ci/"));
+        assertNull(table.get("zzz"));
+
+        List<Reftable.Record> scan = table.scan("ci/042/");
+        assertEquals(1000, scan.size());
+        assertEquals("ci/042/build-00042", scan.get(0).getName());
+        assertEquals(refs.size(), table.scan("").size());
+        assertTrue(table.scan("nope").isEmpty());
+        // Prefix compression keeps the table well below the size of the names and ids
+        assertTrue(Files.size(file) < 100_000L * (19 + 40));
+    }
+
+    @Test
+    void testNewerTablesShadowOlderOnes() throws Exception {
+        update("main", id(1), null);
+        update("topic/a", id(2), null);
+        update("topic/b", id(3), null);
+        update("topic/a", id(4), id(2));
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.delete("refs/heads/topic/b", id(3)).commit();
+        }
+
+        assertEquals(id(1), store.getBranch("main"));
+        assertEquals(id(4), store.getBranch("topic/a"));
+        assertNull(store.getBranch("topic/b"));
+        assertEquals(Map.of("topic/a", id(4)), store.getBranches("topic/"));
+        assertEquals(Map.of("main", id(1), "topic/a", id(4)), store.getBranches());
+        // Branches never show up as loose files
+        assertEquals(0, new File(store.getRefsDir(), "heads").list().length);
+    }
+
+    @Test
+    void testStackStaysShortAndPackMergesIt() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            update("branch-" + i, id(i), null);
+        }
+        for (int i = 0; i < 300; i += 2) {
+            try (RefTransaction transaction = new RefTransaction(store)) {
+                transaction.delete("refs/heads/branch-" + i, id(i)).commit();
+            }
+        }
+
+        assertTrue(tables().size() <= 12, tables().toString());
+        assertEquals(150, store.getBranches().size());
+        assertNull(store.getBranch("branch-0"));
+        assertEquals(id(299), store.getBranch("branch-299"));
+
+        assertEquals(150, store.packRefs());
+        assertEquals(1, tables().size());
+        Reftable packed = Reftable.open(new File(store.getReftableDir(), tables().get(0)).toPath());
+        assertEquals(150, packed.size());
+        assertEquals(1, store.getReftableDir().list((dir, name) -> name.endsWith(".ref")).length);
+        assertEquals(id(1), store.getBranch("branch-1"));
+    }
+
+    @Test
+    void testCompareAndSwapAndLocking() throws Exception {
+        store.updateHead(id(1));
+        assertEquals(id(1), store.getHeadCommit());
+
+        IllegalStateException stale = assertThrows(IllegalStateException.class, () -> update("main", id(2), id(9)));
+        assertTrue(stale.getMessage().contains("changed concurrently"), stale.getMessage());
+        assertEquals(id(1), store.getBranch("main"));
+
+        try (RefTransaction holder = new RefTransaction(store)) {
+            holder.update("refs/heads/main", id(3), id(1)).prepare();
+            IllegalStateException locked = assertThrows(IllegalStateException.class, () -> update("other", id(4), null));
+            assertTrue(locked.getMessage().contains("Unable to lock"), locked.getMessage());
+            holder.commit();
+        }
+        assertEquals(id(3), store.getHeadCommit());
+        assertFalse(new File(store.getReftableDir(), ReftableBackend.LIST + ".lock").exists());
+        assertEquals(2, new Reflog(store, "refs/heads/main").size());
+    }
+
+    private void update(String branch, String value, String expected) throws IOException {
+        try (RefTransaction transaction = new RefTransaction(store)) {
+            transaction.update("refs/heads/" + branch, value, expected).commit();
+        }
+    }
+
+    private List<String> tables() throws IOException {
+        return Files.readAllLines(new File(store.getReftableDir(), ReftableBackend.LIST).toPath());
+    }
+
+    private static String id(int i) {
+        return String.format("%040x", i & 0xffffffffL);
+    }
+}
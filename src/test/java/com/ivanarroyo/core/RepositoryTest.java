@@ -0,0 +1,191 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Repository repository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ObjectStore store = new ObjectStore(tempDir.resolve(".opipop").toString());
+        new File(store.getRefsDir(), "heads").mkdirs();
+        new File(store.getRepoDir(), "objects").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        repository = Repository.open(tempDir.toFile());
+    }
+
+    @Test
+    void testOpenSharesOneInstancePerRepository() throws Exception {
+        assertSame(repository, Repository.open(tempDir.resolve(".").toFile()));
+        assertThrows(IllegalArgumentException.class, () -> Repository.open(tempDir.resolve("nothing").toFile()));
+    }
+
+    @Test
+    void testAddCommitAndStatus() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a\n");
+        Files.createDirectories(tempDir.resolve("dir"));
+        Files.writeString(tempDir.resolve("dir/b.txt"), "b\n");
+
+        Map<String, String> added = repository.add("a.txt", "dir/b.txt");
+        assertEquals(Set.of("a.txt", "dir/b.txt"), added.keySet());
+        assertTrue(repository.add("a.txt").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> repository.add("missing.txt"));
+        assertThrows(IllegalArgumentException.class, () -> repository.add("../outside.txt"));
+
+        Repository.Status status = repository.status();
+        assertEquals(Set.of("a.txt", "dir/b.txt"), status.getAdded());
+        assertNull(status.getHead());
+
+        Commit commit = repository.commit("first", "tester");
+        assertEquals(commit.getHash(), repository.resolve("main"));
+        assertEquals(commit.getHash(), repository.resolve("HEAD"));
+        assertTrue(repository.status().isClean());
+        assertEquals("a\n", new String(repository.readObject(added.get("a.txt")), StandardCharsets.UTF_8));
+
+        Files.writeString(tempDir.resolve("a.txt"), "changed\n");
+        Files.delete(tempDir.resolve("dir/b.txt"));
+        Files.writeString(tempDir.resolve("new.txt"), "new\n");
+        status = repository.status();
+        assertEquals("main", status.getBranch());
+        assertEquals(Set.of("a.txt"), status.getModified());
+        assertEquals(Set.of("dir/b.txt"), status.getMissing());
+        assertEquals(Set.of("new.txt"), status.getUntracked());
+        Files.writeString(tempDir.resolve(".opipop/refs/heads/other"), commit.getHash());
+        assertThrows(IllegalStateException.class, () -> repository.checkout("other"));
+    }
+
+    @Test
+    void testCommitRequiresStagedFiles() {
+        assertThrows(IllegalStateException.class, () -> repository.commit("empty", "tester"));
+    }
+
+    @Test
+    void testCheckoutSwitchesWorkTreeAndIndex() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a\n");
+        repository.add("a.txt");
+        String first = repository.commit("first", "tester").getHash();
+        Files.writeString(tempDir.resolve(".opipop/refs/heads/other"), first);
+
+        Files.writeString(tempDir.resolve("a.txt"), "a2\n");
+        Files.writeString(tempDir.resolve("b.txt"), "b\n");
+        repository.add("a.txt", "b.txt");
+        repository.commit("second", "tester");
+
+        assertEquals(first, repository.checkout("other"));
+        assertEquals("a\n", Files.readString(tempDir.resolve("a.txt")));
+        assertFalse(Files.exists(tempDir.resolve("b.txt")));
+        assertEquals(Set.of("a.txt"), repository.getIndex().keySet());
+        Repository.Status status = repository.status();
+        assertEquals("other", status.getBranch());
+        assertTrue(status.isClean());
+        assertThrows(IllegalArgumentException.class, () -> repository.checkout("nope"));
+    }
+
+    @Test
+    void testCheckoutMatchesTheCheckoutCommand() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a\n");
+        repository.add("a.txt");
+        String first = repository.commit("first", "tester").getHash();
+        Files.writeString(tempDir.resolve(".opipop/refs/heads/other"), first);
+        Files.createDirectories(tempDir.resolve("scratch"));
+        Files.writeString(tempDir.resolve("scratch/untracked.txt"), "u\n");
+        Files.writeString(tempDir.resolve(".hidden"), "h\n");
+
+        repository.checkout("other");
+        assertFalse(Files.exists(tempDir.resolve("scratch")));
+        assertTrue(Files.exists(tempDir.resolve(".hidden")));
+        assertEquals("a\n", Files.readString(tempDir.resolve("a.txt")));
+    }
+
+    @Test
+    void testReplaceIndexKeepsEntriesStagedSinceItWasRead() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a\n");
+        Map<String, String> read = repository.getIndex();
+        repository.add("a.txt");
+
+        assertThrows(IllegalStateException.class, () -> repository.replaceIndex(read, Map.of("b.txt", "1234"), Map.of()));
+        assertEquals(Set.of("a.txt"), repository.getIndex().keySet());
+
+        repository.replaceIndex(repository.getIndex(), Map.of("b.txt", "1234"), Map.of("c.txt", new String[]{null, "5678", null}));
+        assertEquals(Map.of("b.txt", "1234"), repository.getIndex());
+        assertEquals(Set.of("c.txt"), repository.status().getConflicts());
+    }
+
+    @Test
+    void testIndexSnapshotFollowsOtherWriters() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "a\n");
+        assertEquals(Set.of("a.txt"), repository.status().getUntracked());
+
+        // Staged by something other than this instance
+        Index index = new Index(repository.getStore().getIndexFile());
+        index.add("a.txt", repository.getStore().hashFile(tempDir.resolve("a.txt")));
+        index.save();
+
+        assertEquals(Set.of("a.txt"), repository.status().getAdded());
+        assertEquals(Set.of("a.txt"), repository.getIndex().keySet());
+    }
+
+    @Test
+    void testConcurrentReadersAndWriters() throws Exception {
+        List<String> blobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Path file = tempDir.resolve("file" + i + ".txt");
+            Files.writeString(file, "content " + i + "\n");
+            blobs.add(repository.add(file.getFileName().toString()).values().iterator().next());
+        }
+        repository.commit("base", "tester");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int n = i;
+                results.add(pool.submit(() -> {
+                    Path file = tempDir.resolve("extra" + n + ".txt");
+                    Files.writeString(file, "extra " + n + "\n");
+                    repository.add(file.getFileName().toString());
+                    return null;
+                }));
+                results.add(pool.submit(() -> {
+                    for (int round = 0; round < 20; round++) {
+                        for (int j = 0; j < blobs.size(); j++) {
+                            assertEquals("content " + j + "\n",
+                                    new String(repository.readObject(blobs.get(j)), StandardCharsets.UTF_8));
+                        }
+                        assertTrue(repository.status().getModified().isEmpty());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Repository.Status status = repository.status();
+        assertEquals(8, status.getAdded().size());
+        assertTrue(status.getUntracked().isEmpty());
+    }
+}
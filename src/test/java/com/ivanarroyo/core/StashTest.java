@@ -0,0 +1,105 @@
+package com.ivanarroyo.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+class StashTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectStore store;
+    private Stash stash;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File repoDir = tempDir.resolve(".opipop").toFile();
+        store = new ObjectStore(repoDir.getPath());
+        new File(store.getRefsDir(), "heads").mkdirs();
+        Files.writeString(store.getHeadFile().toPath(), "ref: refs/heads/main");
+        stash = new Stash(store);
+    }
+
+    @Test
+    void testPushAndPopAreLastInFirstOut() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            stash.push(id(i), "WIP on main: " + i);
+        }
+
+        assertEquals(3, stash.size());
+        assertEquals(id(2), Files.readString(store.getStashFile().toPath()));
+        assertEquals(id(1), stash.get(1));
+        assertNull(stash.get(3));
+        List<Reflog.Entry> entries = stash.list();
+        assertEquals("WIP on main: 2", entries.get(0).getMessage());
+        assertEquals("WIP on main: 0", entries.get(2).getMessage());
+
+        assertEquals(id(2), stash.pop());
+        assertEquals(2, stash.size());
+        assertEquals(id(1), Files.readString(store.getStashFile().toPath()));
+        assertEquals(2 * Reflog.RECORD_SIZE, new Reflog(store, Stash.REF).getFile().length());
+
+        assertEquals(id(1), stash.pop());
+        assertEquals(id(0), stash.pop());
+        assertNull(stash.pop());
+        assertFalse(store.getStashFile().exists());
+        assertEquals(0, stash.size());
+    }
+
+    @Test
+    void testClearRemovesRefAndLog() throws Exception {
+        stash.push(id(1), "WIP on main: 1");
+        stash.push(id(2), "WIP on main: 2");
+
+        stash.clear();
+
+        assertFalse(store.getStashFile().exists());
+        assertFalse(new Reflog(store, Stash.REF).getFile().exists());
+        assertTrue(stash.list().isEmpty());
+        stash.push(id(3), "WIP on main: 3");
+        assertEquals(1, stash.size());
+    }
+
+    @Test
+    void testLegacyStashFileIsConvertedToCommits() throws Exception {
+        store.getObjectsDir().mkdirs();
+        String a = store.writeObject("a\n".getBytes());
+        String b = store.writeObject("b\n".getBytes());
+        String c = store.writeObject("c\n".getBytes());
+        // Newest entry first, each ending in END
+        Files.writeString(store.getStashFile().toPath(),
+                c + " c.txt END\n" + a + " a.txt\n" + b + " dir/b.txt END\n");
+
+        assertEquals(2, stash.size());
+        assertEquals("WIP on (legacy stash): 1 file(s)", stash.list().get(0).getMessage());
+        assertEquals(stash.get(0), Files.readString(store.getStashFile().toPath()));
+
+        Commit newest = Commit.deserialize(store.readObject(stash.get(0)));
+        assertEquals(Map.of("c.txt", c), Tree.deserialize(store.readObject(newest.getTreeHash())).getEntries());
+        Commit oldest = Commit.deserialize(store.readObject(stash.get(1)));
+        assertEquals(Map.of("a.txt", a, "dir/b.txt", b),
+                Tree.deserialize(store.readObject(oldest.getTreeHash())).getEntries());
+        Commit base = Commit.deserialize(store.readObject(oldest.getParentHash()));
+        assertTrue(Tree.deserialize(store.readObject(base.getTreeHash())).getEntries().isEmpty());
+
+        String top = stash.get(0);
+        stash.push(id(9), "WIP on main: 9");
+        assertEquals(3, stash.size());
+        assertEquals(id(9), stash.pop());
+        assertEquals(top, stash.pop());
+        assertEquals(1, stash.size());
+    }
+
+    private static String id(int i) {
+        return String.format("%040x", i);
+    }
+}
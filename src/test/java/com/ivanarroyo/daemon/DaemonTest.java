@@ -0,0 +1,154 @@
+package com.ivanarroyo.daemon;
+
+import com.ivanarroyo.core.ObjectStore;
+import com.ivanarroyo.core.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DaemonTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Daemon daemon;
+    private Thread server;
+    private DaemonClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path socket = tempDir.resolve("d.sock");
+        daemon = new Daemon(socket);
+        daemon.start();
+        server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+        client = new DaemonClient(socket);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        daemon.close();
+        server.join(5000);
+    }
+
+    @Test
+    void testRunsCommandsInTheClientsDirectory() throws Exception {
+        Path repo = newRepository("repo");
+        Files.writeString(repo.resolve("file.txt"), "hello\n");
+
+        assertTrue(run(repo, "add", "file.txt").startsWith("Added file: file.txt"));
+        assertTrue(run(repo, "commit", "-m", "first").contains("first"));
+        assertEquals("On branch main\n\nnothing to commit, working tree clean\n", run(repo, "status"));
+        assertTrue(Files.exists(repo.resolve(".opipop/refs/heads/main")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int status = client.run(repo, new String[]{"no-such-command"}, print(out), print(new ByteArrayOutputStream()));
+        assertEquals(1, status);
+        assertEquals("Unknown command: no-such-command\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testConcurrentCommandsKeepTheirOutputApart() throws Exception {
+        Path first = newRepository("first");
+        Path second = newRepository("second");
+        Files.writeString(first.resolve("only-in-first.txt"), "1\n");
+        Files.writeString(second.resolve("only-in-second.txt"), "2\n");
+        String firstStatus = run(first, "status");
+        String secondStatus = run(second, "status");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                Path repo = i % 2 == 0 ? first : second;
+                String expected = i % 2 == 0 ? firstStatus : secondStatus;
+                results.add(pool.submit(() -> run(repo, "status").equals(expected)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(firstStatus.contains("only-in-first.txt"));
+        assertFalse(firstStatus.contains("only-in-second.txt"));
+    }
+
+    @Test
+    void testStoreIsReplacedWhenTheConfigChanges() throws Exception {
+        Path repo = newRepository("repo");
+        ObjectStore store = daemon.getStore(repo);
+        assertSame(store, daemon.getStore(repo));
+        // Commands opening the repository get the instance whose caches the daemon keeps warm
+        assertSame(store, Repository.open(store).getStore());
+
+        Files.writeString(repo.resolve(".opipop/config"), "diff.algorithm=histogram\n",
+                StandardOpenOption.APPEND);
+        ObjectStore reopened = daemon.getStore(repo);
+        assertNotSame(store, reopened);
+        assertEquals("histogram", reopened.getConfig().get("diff.algorithm", null));
+    }
+
+    @Test
+    void testSocketIsPrivateToItsUser() throws Exception {
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(daemon.getSocket()));
+        assertTrue(Daemon.isOwnedByCurrentUser(daemon.getSocket()));
+
+        Path socket = tempDir.resolve("runtime/opipop/daemon.sock");
+        try (Daemon other = new Daemon(socket)) {
+            other.start();
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(socket.getParent()));
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socket));
+        }
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void testStop() throws Exception {
+        assertEquals("Daemon stopped\n", run(tempDir, "daemon", "stop"));
+        server.join(5000);
+        assertFalse(server.isAlive());
+        assertFalse(Files.exists(daemon.getSocket()));
+    }
+
+    private Path newRepository(String name) throws Exception {
+        Path repo = Files.createDirectories(tempDir.resolve(name));
+        assertTrue(run(repo, "init").startsWith("Initialized empty repository"));
+        Files.writeString(repo.resolve(".opipop/config"), "maintenance.auto=false\n",
+                StandardOpenOption.APPEND);
+        return repo;
+    }
+
+    private String run(Path directory, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.run(directory, args, print(out), print(new ByteArrayOutputStream()));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static PrintStream print(ByteArrayOutputStream out) {
+        return new PrintStream(out, true, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.ivanarroyo.diff;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class HistogramDiffTest {
+
+    @Test
+    void testIdentical() {
+        assertTrue(HistogramDiff.diff(new int[]{1, 2, 3}, new int[]{1, 2, 3}).isEmpty());
+    }
+
+    @Test
+    void testInsertDeleteReplace() {
+        assertEquals(List.of(new Edit(1, 1, 1, 2)), HistogramDiff.diff(new int[]{1, 3}, new int[]{1, 2, 3}));
+        assertEquals(List.of(new Edit(1, 2, 1, 1)), HistogramDiff.diff(new int[]{1, 2, 3}, new int[]{1, 3}));
+        assertEquals(List.of(new Edit(1, 2, 1, 2)), HistogramDiff.diff(new int[]{1, 2, 3}, new int[]{1, 9, 3}));
+    }
+
+    @Test
+    void testAnchorsOnUniqueLines() {
+        // 0 stands for a repeated line such as "}"; the unique lines 5 and 6 swap places
+        int[] a = {5, 0, 1, 0, 6, 0};
+        int[] b = {6, 0, 1, 0, 5, 0};
+        List<Edit> edits = HistogramDiff.diff(a, b);
+        assertArrayEquals(b, apply(a, b, edits));
+    }
+
+    @Test
+    void testRandomEditsApply() {
+        Random random = new Random(7);
+        for (int round = 0; round < 300; round++) {
+            int[] a = randomSequence(random);
+            int[] b = randomSequence(random);
+            assertArrayEquals(b, apply(a, b, HistogramDiff.diff(a, b)));
+        }
+    }
+
+    @Test
+    void testLargeRepetitiveInput() {
+        int[] a = new int[200_000];
+        int[] b = new int[200_001];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i % 3;
+            b[i + 1] = i % 3;
+        }
+        b[0] = 9;
+        assertEquals(List.of(new Edit(0, 0, 0, 1)), HistogramDiff.diff(a, b));
+    }
+
+    private static int[] randomSequence(Random random) {
+        int[] sequence = new int[random.nextInt(40)];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = random.nextInt(8);
+        }
+        return sequence;
+    }
+
+    private static int[] apply(int[] a, int[] b, List<Edit> edits) {
+        List<Integer> out = new ArrayList<>();
+        int position = 0;
+        for (Edit edit : edits) {
+            for (int i = position; i < edit.getBeginA(); i++) {
+                out.add(a[i]);
+            }
+            for (int j = edit.getBeginB(); j < edit.getEndB(); j++) {
+                out.add(b[j]);
+            }
+            position = edit.getEndA();
+        }
+        for (int i = position; i < a.length; i++) {
+            out.add(a[i]);
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
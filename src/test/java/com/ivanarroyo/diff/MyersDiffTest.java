@@ -0,0 +1,84 @@
+package com.ivanarroyo.diff;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class MyersDiffTest {
+
+    @Test
+    void testIdentical() {
+        assertTrue(MyersDiff.diff(new int[]{1, 2, 3}, new int[]{1, 2, 3}).isEmpty());
+    }
+
+    @Test
+    void testInsertDeleteReplace() {
+        assertEquals(List.of(new Edit(1, 1, 1, 2)), MyersDiff.diff(new int[]{1, 3}, new int[]{1, 2, 3}));
+        assertEquals(List.of(new Edit(1, 2, 1, 1)), MyersDiff.diff(new int[]{1, 2, 3}, new int[]{1, 3}));
+        assertEquals(List.of(new Edit(1, 2, 1, 2)), MyersDiff.diff(new int[]{1, 2, 3}, new int[]{1, 9, 3}));
+    }
+
+    @Test
+    void testEmptySides() {
+        assertEquals(List.of(new Edit(0, 0, 0, 2)), MyersDiff.diff(new int[0], new int[]{1, 2}));
+        assertEquals(List.of(new Edit(0, 2, 0, 0)), MyersDiff.diff(new int[]{1, 2}, new int[0]));
+    }
+
+    @Test
+    void testRandomEditsAreMinimalAndApply() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            int[] a = randomSequence(random);
+            int[] b = randomSequence(random);
+            List<Edit> edits = MyersDiff.diff(a, b);
+
+            assertArrayEquals(b, apply(a, b, edits));
+            int changed = 0;
+            for (Edit edit : edits) {
+                changed += (edit.getEndA() - edit.getBeginA()) + (edit.getEndB() - edit.getBeginB());
+            }
+            assertEquals(a.length + b.length - 2 * lcs(a, b), changed);
+        }
+    }
+
+    private static int[] randomSequence(Random random) {
+        int[] sequence = new int[random.nextInt(30)];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = random.nextInt(5);
+        }
+        return sequence;
+    }
+
+    private static int[] apply(int[] a, int[] b, List<Edit> edits) {
+        List<Integer> out = new ArrayList<>();
+        int position = 0;
+        for (Edit edit : edits) {
+            for (int i = position; i < edit.getBeginA(); i++) {
+                out.add(a[i]);
+            }
+            for (int j = edit.getBeginB(); j < edit.getEndB(); j++) {
+                out.add(b[j]);
+            }
+            position = edit.getEndA();
+        }
+        for (int i = position; i < a.length; i++) {
+            out.add(a[i]);
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int lcs(int[] a, int[] b) {
+        int[][] table = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                table[i][j] = a[i - 1] == b[j - 1]
+                        ? table[i - 1][j - 1] + 1
+                        : Math.max(table[i - 1][j], table[i][j - 1]);
+            }
+        }
+        return table[a.length][b.length];
+    }
+}
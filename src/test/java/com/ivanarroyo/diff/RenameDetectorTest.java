@@ -0,0 +1,119 @@
+package com.ivanarroyo.diff;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+class RenameDetectorTest {
+
+    private final Map<String, String> contents = new HashMap<>();
+
+    @Test
+    void testExactRenameNeedsNoContent() throws IOException {
+        RenameDetector detector = new RenameDetector((path, id) -> {
+            throw new AssertionError("content loaded for " + path);
+        }, RenameDetector.DEFAULT_THRESHOLD, 2);
+
+        List<Rename> renames = detector.detect(Map.of("old.txt", "id1"), Map.of("new.txt", "id1"), Map.of());
+
+        assertEquals(List.of(new Rename("old.txt", "new.txt", 100, false)), renames);
+    }
+
+    @Test
+    void testSimilarContentIsRenamed() throws IOException {
+        String body = lines(40, "line");
+        blob("a", body);
+        blob("b", body.replace("line 7\n", "changed 7\n"));
+
+        List<Rename> renames = detector().detect(Map.of("src/A.java", "a"), Map.of("lib/A.java", "b"), Map.of());
+
+        assertEquals(1, renames.size());
+        Rename rename = renames.get(0);
+        assertEquals("src/A.java", rename.getOldPath());
+        assertEquals("lib/A.java", rename.getNewPath());
+        assertFalse(rename.isCopy());
+        assertTrue(rename.getScore() >= 90 && rename.getScore() < 100, "score " + rename.getScore());
+    }
+
+    @Test
+    void testDissimilarContentIsNotRenamed() throws IOException {
+        blob("a", lines(30, "alpha"));
+        blob("b", lines(30, "beta"));
+
+        assertTrue(detector().detect(Map.of("a.txt", "a"), Map.of("b.txt", "b"), Map.of()).isEmpty());
+    }
+
+    @Test
+    void testBestMatchWins() throws IOException {
+        String body = lines(50, "x");
+        blob("orig", body);
+        blob("close", body.replace("x 1\n", "y 1\n"));
+        blob("far", body.replace("x 1\n", "y 1\n").replace("x 2\n", "y 2\n").replace("x 3\n", "y 3\n"));
+
+        List<Rename> renames = detector().detect(Map.of("orig.txt", "orig"),
+                Map.of("close.txt", "close", "far.txt", "far"), Map.of());
+
+        assertEquals(1, renames.size());
+        assertEquals("close.txt", renames.get(0).getNewPath());
+    }
+
+    @Test
+    void testCopyFromUnchangedFile() throws IOException {
+        String body = lines(30, "shared");
+        blob("kept", body);
+        blob("copy", body + "extra\n");
+
+        List<Rename> renames = detector().detect(Map.of(), Map.of("copy.txt", "copy"), Map.of("kept.txt", "kept"));
+
+        assertEquals(1, renames.size());
+        assertTrue(renames.get(0).isCopy());
+        assertEquals("kept.txt", renames.get(0).getOldPath());
+    }
+
+    @Test
+    void testLargeDirectoryMove() throws IOException {
+        Map<String, String> deleted = new TreeMap<>();
+        Map<String, String> added = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            String body = "file " + i + "\n" + lines(8, "row " + i);
+            blob("old" + i, body);
+            // Every tenth file is edited on the way so it has to go through fuzzy matching
+            blob("new" + i, i % 10 == 0 ? body + "appended\n" : body);
+            deleted.put("old/f" + i + ".txt", "old" + i);
+            added.put("new/f" + i + ".txt", i % 10 == 0 ? "new" + i : "old" + i);
+        }
+
+        long start = System.nanoTime();
+        List<Rename> renames = detector().detect(deleted, added, Map.of());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(20_000, renames.size());
+        for (Rename rename : renames) {
+            assertEquals(rename.getOldPath().substring(4), rename.getNewPath().substring(4));
+        }
+        assertTrue(millis < 20_000, "took " + millis + " ms");
+    }
+
+    private RenameDetector detector() {
+        return new RenameDetector((path, id) -> contents.get(id).getBytes(StandardCharsets.UTF_8),
+                RenameDetector.DEFAULT_THRESHOLD, 4);
+    }
+
+    private void blob(String id, String content) {
+        contents.put(id, content);
+    }
+
+    private static String lines(int count, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(prefix).append(' ').append(i).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.ivanarroyo.diff;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+class ThreeWayMergeTest {
+
+    @Test
+    void testNonOverlappingChanges() {
+        MergeResult result = merge("1\n2\n3\n4\n5\n", "one\n2\n3\n4\n5\n", "1\n2\n3\n4\nfive\n");
+        assertFalse(result.hasConflict());
+        assertEquals("one\n2\n3\n4\nfive\n", text(result));
+    }
+
+    @Test
+    void testOneSideOnly() {
+        MergeResult result = merge("1\n2\n3\n", "1\n2\n3\n", "1\n2\n2.5\n3\n");
+        assertFalse(result.hasConflict());
+        assertEquals("1\n2\n2.5\n3\n", text(result));
+    }
+
+    @Test
+    void testSameChangeOnBothSides() {
+        MergeResult result = merge("1\n2\n3\n", "1\ntwo\n3\n", "1\ntwo\n3\n");
+        assertFalse(result.hasConflict());
+        assertEquals("1\ntwo\n3\n", text(result));
+    }
+
+    @Test
+    void testConflictMarkers() {
+        MergeResult result = merge("1\n2\n3\n", "1\nours\n3\n", "1\ntheirs\n3\n");
+        assertTrue(result.hasConflict());
+        assertEquals("1\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>> feature\n3\n", text(result));
+    }
+
+    @Test
+    void testDeleteAgainstModify() {
+        MergeResult result = merge("1\n2\n3\n", "1\n3\n", "1\nchanged\n3\n");
+        assertTrue(result.hasConflict());
+        assertEquals("1\n<<<<<<< HEAD\n=======\nchanged\n>>>>>>> feature\n3\n", text(result));
+    }
+
+    @Test
+    void testMissingFinalNewline() {
+        MergeResult result = merge("a\nb", "a\nours", "a\ntheirs");
+        assertTrue(result.hasConflict());
+        assertEquals("a\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>> feature\n", text(result));
+    }
+
+    @Test
+    void testEmptyBaseAddAdd() {
+        MergeResult result = merge("", "same\n", "same\n");
+        assertFalse(result.hasConflict());
+        assertEquals("same\n", text(result));
+    }
+
+    @Test
+    void testBinaryIsConflict() {
+        byte[] ours = {1, 0, 2};
+        MergeResult result = ThreeWayMerge.merge(new byte[]{1, 0}, ours, new byte[]{1, 0, 3}, "HEAD", "feature");
+        assertTrue(result.hasConflict());
+        assertArrayEquals(ours, result.getContent());
+    }
+
+    private static MergeResult merge(String base, String ours, String theirs) {
+        return ThreeWayMerge.merge(bytes(base), bytes(ours), bytes(theirs), "HEAD", "feature");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(MergeResult result) {
+        return new String(result.getContent(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package com.ivanarroyo.diff;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+
+class UnifiedDiffFormatterTest {
+
+    @Test
+    void testSingleHunk() throws IOException {
+        String diff = format("a\nb\nc\n", "a\nB\nc\n", "1111111aaaa", "2222222bbbb");
+        assertEquals("diff --git a/f.txt b/f.txt\n"
+                + "index 1111111..2222222\n"
+                + "--- a/f.txt\n"
+                + "+++ b/f.txt\n"
+                + "@@ -1,3 +1,3 @@\n"
+                + " a\n"
+                + "-b\n"
+                + "+B\n"
+                + " c\n", diff);
+    }
+
+    @Test
+    void testDistantEditsGetSeparateHunks() throws IOException {
+        StringBuilder oldText = new StringBuilder();
+        for (int i = 1; i <= 20; i++) {
+            oldText.append(i).append('\n');
+        }
+        String newText = oldText.toString().replace("2\n3\n", "2\nthree\n").replace("18\n", "eighteen\n");
+        String diff = format(oldText.toString(), newText, "1111111", "2222222");
+        assertTrue(diff.contains("@@ -1,6 +1,6 @@\n"));
+        assertTrue(diff.contains("@@ -15,6 +15,6 @@\n"));
+    }
+
+    @Test
+    void testAddedFile() throws IOException {
+        String diff = format("", "x\n", null, "2222222");
+        assertTrue(diff.contains("--- /dev/null\n+++ b/f.txt\n@@ -0,0 +1 @@\n+x\n"));
+    }
+
+    @Test
+    void testMissingNewline() throws IOException {
+        String diff = format("a\n", "a", "1111111", "2222222");
+        assertTrue(diff.endsWith("-a\n+a\n\\ No newline at end of file\n"));
+    }
+
+    @Test
+    void testBinarySkipsDiff() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UnifiedDiffFormatter(out, 3, DiffAlgorithm.MYERS)
+                .format("f.bin", "1111111", "2222222", new byte[]{1, 0, 2}, new byte[]{1, 0, 3});
+        assertTrue(out.toString(StandardCharsets.ISO_8859_1).endsWith("Binary files a/f.bin and b/f.bin differ\n"));
+    }
+
+    @Test
+    void testBinaryIsDetectedFromTheFirstBytesOnly() throws IOException {
+        byte[] large = new byte[1 << 20];
+        AtomicInteger read = new AtomicInteger();
+        UnifiedDiffFormatter.ContentSource source = () -> new ByteArrayInputStream(large) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                read.addAndGet(Math.max(n, 0));
+                return n;
+            }
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UnifiedDiffFormatter(out, 3, DiffAlgorithm.MYERS).format("f.bin", "1111111", "2222222", source, source);
+        assertTrue(out.toString(StandardCharsets.ISO_8859_1).endsWith("Binary files a/f.bin and b/f.bin differ\n"));
+        assertTrue(read.get() <= 8000, "read " + read.get() + " bytes");
+    }
+
+    @Test
+    void testAlgorithmsAgreeOnSimpleChange() throws IOException {
+        String oldText = "x\n}\ny\n}\n";
+        String newText = "x\n}\nz\n}\n";
+        assertEquals(format(oldText, newText, "1111111", "2222222", DiffAlgorithm.MYERS),
+                format(oldText, newText, "1111111", "2222222", DiffAlgorithm.HISTOGRAM));
+    }
+
+    private static String format(String oldText, String newText, String oldId, String newId) throws IOException {
+        return format(oldText, newText, oldId, newId, DiffAlgorithm.MYERS);
+    }
+
+    private static String format(String oldText, String newText, String oldId, String newId,
+                                 DiffAlgorithm algorithm) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UnifiedDiffFormatter(out, 3, algorithm).format("f.txt", oldId, newId,
+                oldText.getBytes(StandardCharsets.ISO_8859_1), newText.getBytes(StandardCharsets.ISO_8859_1));
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
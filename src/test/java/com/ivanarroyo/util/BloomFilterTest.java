@@ -0,0 +1,49 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+class BloomFilterTest {
+
+    @Test
+    void testMurmur3KnownValues() {
+        assertEquals(0, BloomFilter.murmur3(0, new byte[0]));
+        assertEquals(0x248bfa47, BloomFilter.murmur3(0, "hello".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0x2e4ff723, BloomFilter.murmur3(0, "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(100);
+        for (int i = 0; i < 100; i++) {
+            filter.add("dir/file" + i + ".txt");
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.mightContain("dir/file" + i + ".txt"));
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateIsLow() {
+        BloomFilter filter = new BloomFilter(100);
+        for (int i = 0; i < 100; i++) {
+            filter.add("src/file" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("other/file" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testEmptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(0);
+        assertEquals(1, filter.toByteArray().length);
+        assertFalse(filter.mightContain("anything"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+
+class EwahBitmapTest {
+
+    @Test
+    void testEmpty() {
+        EwahBitmap empty = EwahBitmap.empty();
+        assertEquals(0, empty.cardinality());
+        assertFalse(empty.get(0));
+        assertEquals(0, empty.or(EwahBitmap.empty()).cardinality());
+    }
+
+    @Test
+    void testGetAndForEach() {
+        EwahBitmap bitmap = EwahBitmap.of(0, 63, 64, 1000, 100000);
+        assertEquals(5, bitmap.cardinality());
+        assertTrue(bitmap.get(64));
+        assertTrue(bitmap.get(100000));
+        assertFalse(bitmap.get(65));
+        assertFalse(bitmap.get(200000));
+
+        BitSet seen = new BitSet();
+        bitmap.forEach(seen::set);
+        assertEquals(toBitSet(0, 63, 64, 1000, 100000), seen);
+    }
+
+    @Test
+    void testLongRunsCompress() {
+        BitSet bits = new BitSet();
+        bits.set(0, 64 * 10000);
+        bits.set(64 * 20000 + 5);
+        EwahBitmap bitmap = EwahBitmap.fromBitSet(bits);
+        assertEquals(64 * 10000 + 1, bitmap.cardinality());
+        assertTrue(bitmap.serializedSize() < 64);
+    }
+
+    @Test
+    void testSetOperationsMatchBitSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            BitSet a = randomBits(random);
+            BitSet b = randomBits(random);
+            EwahBitmap x = EwahBitmap.fromBitSet(a);
+            EwahBitmap y = EwahBitmap.fromBitSet(b);
+
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            BitSet andNot = (BitSet) a.clone();
+            andNot.andNot(b);
+
+            assertEquals(or, expand(x.or(y)));
+            assertEquals(and, expand(x.and(y)));
+            assertEquals(andNot, expand(x.andNot(y)));
+            assertEquals(a.cardinality(), x.cardinality());
+        }
+    }
+
+    @Test
+    void testSerializationRoundTrip() throws IOException {
+        BitSet bits = randomBits(new Random(7));
+        EwahBitmap bitmap = EwahBitmap.fromBitSet(bits);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(12345);
+            bitmap.writeTo(out);
+        }
+        assertEquals(4 + bitmap.serializedSize(), bytes.size());
+
+        EwahBitmap read = EwahBitmap.read(ByteBuffer.wrap(bytes.toByteArray()), 4);
+        assertEquals(bits, expand(read));
+        assertEquals(bitmap.sizeInBits(), read.sizeInBits());
+    }
+
+    // Mix of dense, sparse, full and empty stretches
+    private static BitSet randomBits(Random random) {
+        BitSet bits = new BitSet();
+        int position = 0;
+        for (int i = 0; i < 20; i++) {
+            int length = random.nextInt(3000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    bits.set(position, position + length);
+                    break;
+                case 1:
+                    for (int p = position; p < position + length; p++) {
+                        if (random.nextInt(10) == 0) {
+                            bits.set(p);
+                        }
+                    }
+                    break;
+                case 2:
+                    for (int p = position; p < position + length; p++) {
+                        if (random.nextBoolean()) {
+                            bits.set(p);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position += length;
+        }
+        return bits;
+    }
+
+    private static BitSet expand(EwahBitmap bitmap) {
+        BitSet bits = new BitSet();
+        bitmap.forEach(bits::set);
+        return bits;
+    }
+
+    private static BitSet toBitSet(int... positions) {
+        BitSet bits = new BitSet();
+        for (int position : positions) {
+            bits.set(position);
+        }
+        return bits;
+    }
+}
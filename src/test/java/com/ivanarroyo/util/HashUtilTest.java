@@ -3,6 +3,9 @@ package com.ivanarroyo.util;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 class HashUtilsTest {
 
     @Test
@@ -50,4 +53,19 @@ class HashUtilsTest {
         assertNotNull(hash);
         assertEquals(40, hash.length());
     }
+
+    @Test
+    void testSha1FileMatchesBytes() throws Exception {
+        Path file = Files.createTempFile("hash", ".bin");
+        try {
+            byte[] data = new byte[HashUtils.BUFFER_SIZE * 2 + 5];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            Files.write(file, data);
+            assertEquals(HashUtils.sha1(data), HashUtils.sha1(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IoThrottleTest {
+
+    @Test
+    void testLimitsAverageRate() throws Exception {
+        IoThrottle throttle = new IoThrottle(1024 * 1024);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            throttle.acquire(64 * 1024);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        // 256 KiB at 1 MiB/s takes a quarter of a second
+        assertTrue(elapsedMillis >= 240, "took " + elapsedMillis + "ms");
+    }
+
+    @Test
+    void testUnlimitedNeverWaits() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            IoThrottle.UNLIMITED.acquire(1L << 30);
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1000);
+    }
+}
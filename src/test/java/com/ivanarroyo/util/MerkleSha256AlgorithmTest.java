@@ -0,0 +1,94 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+class MerkleSha256AlgorithmTest {
+
+    private static final int LEAF = 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final MerkleSha256Algorithm algorithm = new MerkleSha256Algorithm(LEAF, new ForkJoinPool(4));
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, LEAF - 1, LEAF, LEAF + 1, LEAF * 7 + 13, LEAF * 64})
+    void testFileHashMatchesStreamingHash(int size) throws Exception {
+        byte[] data = randomBytes(size);
+        Path file = tempDir.resolve("data.bin");
+        Files.write(file, data);
+
+        String fromBytes = algorithm.hash(data);
+        String fromFile = algorithm.hash(file);
+
+        HashAlgorithm.Hasher hasher = algorithm.newHasher();
+        for (int offset = 0; offset < size; offset += 100) {
+            hasher.update(ByteBuffer.wrap(data, offset, Math.min(100, size - offset)));
+        }
+
+        assertEquals(fromBytes, fromFile);
+        assertEquals(fromBytes, hasher.finish());
+        assertEquals(64, fromBytes.length());
+    }
+
+    @Test
+    void testSingleLeafIsHashedWithoutThePool() throws Exception {
+        ForkJoinPool stopped = new ForkJoinPool(2);
+        stopped.shutdown();
+        // Larger than the initial buffer, so the streaming hasher has to grow it
+        MerkleSha256Algorithm direct = new MerkleSha256Algorithm(32 * 1024, stopped);
+        byte[] data = randomBytes(20000);
+        Path file = tempDir.resolve("small.bin");
+        Files.write(file, data);
+
+        MessageDigest leaf = MessageDigest.getInstance("SHA-256");
+        leaf.update((byte) 0);
+        leaf.update(data);
+        String expected = HashUtils.bytesToHex(leaf.digest());
+
+        HashAlgorithm.Hasher hasher = direct.newHasher();
+        for (int offset = 0; offset < data.length; offset += 100) {
+            hasher.update(data, offset, Math.min(100, data.length - offset));
+        }
+        assertEquals(expected, hasher.finish());
+        assertEquals(expected, direct.hash(file));
+    }
+
+    @Test
+    void testDifferentContentDifferentHash() {
+        byte[] data = randomBytes(LEAF * 3);
+        String original = algorithm.hash(data);
+        data[LEAF * 2 + 5] ^= 1;
+        assertNotEquals(original, algorithm.hash(data));
+    }
+
+    @Test
+    void testSingleLeafIsNotPlainSha256() {
+        assertNotEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                algorithm.hash(new byte[0]));
+    }
+
+    @Test
+    void testLookupByName() {
+        assertEquals(MerkleSha256Algorithm.NAME, HashUtils.algorithm("merkle-sha256").getName());
+        assertEquals(Sha1Algorithm.NAME, HashUtils.algorithm("sha1").getName());
+        assertThrows(IllegalArgumentException.class, () -> HashUtils.algorithm("md5"));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
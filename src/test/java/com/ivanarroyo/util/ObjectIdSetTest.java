@@ -0,0 +1,91 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class ObjectIdSetTest {
+
+    @Test
+    void testAddAndContains() {
+        ObjectIdSet set = new ObjectIdSet(20, 10);
+        String id = HashUtils.sha1("a".getBytes());
+
+        assertTrue(set.add(id));
+        assertFalse(set.add(id));
+        assertTrue(set.contains(id));
+        assertFalse(set.contains(HashUtils.sha1("b".getBytes())));
+        assertFalse(set.contains("not-an-id"));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void testRejectsMalformedIds() {
+        ObjectIdSet set = new ObjectIdSet(20, 10);
+        assertThrows(IllegalArgumentException.class, () -> set.add("abc"));
+        assertThrows(IllegalArgumentException.class, () -> set.add(HashUtils.sha1("a".getBytes()).substring(2) + "zz"));
+    }
+
+    @Test
+    void testThirtyTwoByteIds() {
+        ObjectIdSet set = new ObjectIdSet(32, 4);
+        String id = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+        String other = "00112233445566778899aabbccddeeff00112233445566778899aabbccddee00";
+
+        assertTrue(set.add(id));
+        assertTrue(set.contains(id));
+        assertFalse(set.contains(other));
+    }
+
+    @Test
+    void testFullSetThrows() {
+        ObjectIdSet set = new ObjectIdSet(20, 4);
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i < 100; i++) {
+                set.add(HashUtils.sha1(("id" + i).getBytes()));
+            }
+        });
+    }
+
+    @Test
+    void testConcurrentAddsCountEachIdOnce() throws Exception {
+        int count = 20000;
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(HashUtils.sha1(("object" + i).getBytes()));
+        }
+        ObjectIdSet set = new ObjectIdSet(20, count);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                // Every thread adds every id; exactly one add per id may win
+                results.add(pool.submit(() -> {
+                    int added = 0;
+                    for (String id : ids) {
+                        if (set.add(id)) {
+                            added++;
+                        }
+                    }
+                    return added;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            assertEquals(count, total);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(count, set.size());
+        for (String id : ids) {
+            assertTrue(set.contains(id));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ivanarroyo.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class PersistentHashMapTest {
+
+    @Test
+    void testMatchesHashMapUnderRandomWrites() {
+        PersistentHashMap<String, String> map = new PersistentHashMap<>();
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String key = "path/" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "hash" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        for (String key : expected.keySet()) {
+            assertTrue(map.containsKey(key));
+        }
+        assertFalse(map.containsKey("path/none"));
+        assertNull(map.get(null));
+    }
+
+    @Test
+    void testSnapshotsAreIndependent() {
+        PersistentHashMap<String, String> map = new PersistentHashMap<>();
+        map.put("a", "1");
+        map.put("b", "2");
+        PersistentHashMap<String, String> snapshot = map.snapshot();
+
+        map.put("a", "changed");
+        map.remove("b");
+        map.put("c", "3");
+        snapshot.put("d", "4");
+
+        assertEquals(Map.of("a", "1", "b", "2", "d", "4"), snapshot);
+        assertEquals(Map.of("a", "changed", "c", "3"), map);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    void testCollidingHashes() {
+        // "Aa" and "BB" share a hash code
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        map.put("Aa", 1);
+        map.put("BB", 2);
+        map.put("AaAa", 3);
+        map.put("BBBB", 4);
+        map.put("AaBB", 5);
+        assertEquals(5, map.size());
+        assertEquals(2, map.get("BB"));
+        assertEquals(5, map.get("AaBB"));
+
+        assertEquals(1, map.remove("Aa"));
+        assertNull(map.get("Aa"));
+        assertEquals(2, map.get("BB"));
+        assertEquals(Map.of("BB", 2, "AaAa", 3, "BBBB", 4, "AaBB", 5), map);
+    }
+
+    @Test
+    void testIteratorSeesTheMapAsItStarted() {
+        PersistentHashMap<String, String> map = new PersistentHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, "v" + i);
+        }
+        int seen = 0;
+        Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            map.put("extra" + seen, "x");
+            if (entry.getKey().equals("k7")) {
+                it.remove();
+            }
+            seen++;
+        }
+        assertEquals(100, seen);
+        assertFalse(map.containsKey("k7"));
+        assertEquals(199, map.size());
+    }
+
+    @Test
+    void testReadersDuringWrites() throws Exception {
+        PersistentHashMap<String, String> map = new PersistentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    map.put("k" + i, "v" + i);
+                }
+            }));
+            for (int t = 0; t < 3; t++) {
+                results.add(pool.submit(() -> {
+                    for (int round = 0; round < 200; round++) {
+                        PersistentHashMap<String, String> snapshot = map.snapshot();
+                        int size = snapshot.size();
+                        int counted = 0;
+                        for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+                            assertEquals("v" + entry.getKey().substring(1), entry.getValue());
+                            counted++;
+                        }
+                        assertEquals(size, counted);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(5000, map.size());
+    }
+}